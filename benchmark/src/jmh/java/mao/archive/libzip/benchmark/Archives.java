@@ -0,0 +1,159 @@
+package mao.archive.libzip.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import mao.archive.libzip.ZipFile;
+
+/**
+ * Test archives shared by the benchmarks. They are created once in the temp directory
+ * and reused by later runs and forks.
+ */
+final class Archives {
+
+    static final String PASSWORD = "benchmark";
+
+    /* archive layouts */
+    static final String TINY = "TINY";       // many small entries
+    static final String HUGE = "HUGE";       // few large entries
+
+    /* entry data */
+    static final String STORED = "STORED";
+    static final String DEFLATED = "DEFLATED";
+    static final String AES = "AES";
+
+    private static final String[] WORDS = {
+            "zip", "archive", "entry", "central", "directory", "deflate", "stored", "local",
+            "header", "crc", "offset", "name", "comment", "extra", "field", "data",
+    };
+
+    private Archives() {
+    }
+
+    static int entryCount(String shape) {
+        return TINY.equals(shape) ? 10000 : 4;
+    }
+
+    static int entrySize(String shape) {
+        return TINY.equals(shape) ? 1024 : 16 * 1024 * 1024;
+    }
+
+    static String entryName(int i) {
+        return "dir" + (i % 64) + "/entry" + i + ".txt";
+    }
+
+    /**
+     * Text like data which deflates to about a third.
+     */
+    static byte[] content(int size, long seed) {
+        Random random = new Random(seed);
+        byte[] data = new byte[size];
+        int pos = 0;
+        while (pos < size) {
+            String word = random.nextInt(8) == 0 ? Integer.toString(random.nextInt(100000))
+                    : WORDS[random.nextInt(WORDS.length)];
+            for (int i = 0; i < word.length() && pos < size; i++) {
+                data[pos++] = (byte) word.charAt(i);
+            }
+            if (pos < size) {
+                data[pos++] = (byte) (random.nextInt(12) == 0 ? '\n' : ' ');
+            }
+        }
+        return data;
+    }
+
+    static File dir() {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "libzip-jni-benchmark");
+        dir.mkdirs();
+        return dir;
+    }
+
+    static int libzipMethod(String method) {
+        return STORED.equals(method) ? ZipFile.ZIP_CM_STORE : ZipFile.ZIP_CM_DEFLATE;
+    }
+
+    static int libzipEncryption(String method) {
+        return AES.equals(method) ? ZipFile.ZIP_EM_AES_256 : ZipFile.ZIP_EM_NONE;
+    }
+
+    static String password(String method) {
+        return AES.equals(method) ? PASSWORD : null;
+    }
+
+    static File archive(String shape, String method) throws IOException {
+        File file = new File(dir(), shape + "-" + method + ".zip");
+        if (file.exists()) {
+            return file;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        tmp.delete();
+        if (AES.equals(method)) {
+            //java.util.zip不能写AES
+            ZipFile zipFile = new ZipFile(tmp);
+            zipFile.setDefaultPassword(PASSWORD);
+            for (int i = 0; i < entryCount(shape); i++) {
+                zipFile.addBytes(entryName(i), content(entrySize(shape), i),
+                        ZipFile.ZIP_EM_AES_256, ZipFile.ZIP_CM_DEFLATE, 6);
+            }
+            zipFile.close();
+            //没有加密实现时libzip不会报错
+            zipFile = new ZipFile(tmp, "UTF-8", ZipFile.ZIP_RDONLY);
+            int em = zipFile.getEntry(0).getEncryptedMethod();
+            zipFile.close();
+            if (em != ZipFile.ZIP_EM_AES_256) {
+                tmp.delete();
+                throw new IOException("AES encryption is not available in this build");
+            }
+        } else {
+            ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                for (int i = 0; i < entryCount(shape); i++) {
+                    byte[] data = content(entrySize(shape), i);
+                    ZipEntry entry = new ZipEntry(entryName(i));
+                    if (STORED.equals(method)) {
+                        CRC32 crc = new CRC32();
+                        crc.update(data);
+                        entry.setMethod(ZipEntry.STORED);
+                        entry.setSize(data.length);
+                        entry.setCompressedSize(data.length);
+                        entry.setCrc(crc.getValue());
+                    }
+                    out.putNextEntry(entry);
+                    out.write(data);
+                    out.closeEntry();
+                }
+            } finally {
+                out.close();
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("can't rename " + tmp);
+        }
+        return file;
+    }
+
+    /**
+     * Reads the stream to the end and closes it.
+     *
+     * @return number of bytes read
+     */
+    static long drain(InputStream in, byte[] buffer) throws IOException {
+        long total = 0;
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                total += n;
+            }
+        } finally {
+            in.close();
+        }
+        return total;
+    }
+}
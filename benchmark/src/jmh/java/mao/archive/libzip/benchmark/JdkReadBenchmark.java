@@ -0,0 +1,101 @@
+package mao.archive.libzip.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * java.util.zip baseline for {@link ReadBenchmark}. The JDK can't read AES entries.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JdkReadBenchmark {
+
+    @Param({Archives.TINY, Archives.HUGE})
+    public String shape;
+
+    @Param({Archives.STORED, Archives.DEFLATED})
+    public String method;
+
+    File file;
+    ZipFile zipFile;
+    ZipEntry[] entries;
+    String[] lookups;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Archives.archive(shape, method);
+        zipFile = new ZipFile(file);
+        entries = new ZipEntry[zipFile.size()];
+        Enumeration<? extends ZipEntry> e = zipFile.entries();
+        for (int i = 0; e.hasMoreElements(); i++) {
+            entries[i] = e.nextElement();
+        }
+        lookups = ReadBenchmark.lookups(shape);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        zipFile.close();
+    }
+
+    @Benchmark
+    public void openClose() throws IOException {
+        new ZipFile(file).close();
+    }
+
+    @Benchmark
+    public void entries(Blackhole bh) {
+        Enumeration<? extends ZipEntry> e = zipFile.entries();
+        while (e.hasMoreElements()) {
+            bh.consume(e.nextElement());
+        }
+    }
+
+    @Benchmark
+    public void getEntry(Blackhole bh) {
+        for (String name : lookups) {
+            bh.consume(zipFile.getEntry(name));
+        }
+    }
+
+    @Benchmark
+    public long sequentialRead(ReadBenchmark.ThreadState state) throws IOException {
+        long total = 0;
+        Enumeration<? extends ZipEntry> e = zipFile.entries();
+        while (e.hasMoreElements()) {
+            total += Archives.drain(zipFile.getInputStream(e.nextElement()), state.buffer);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @Threads(ReadBenchmark.READERS)
+    public long parallelRead(ReadBenchmark.ThreadState state) throws IOException {
+        ZipEntry entry = entries[state.random.nextInt(entries.length)];
+        return Archives.drain(zipFile.getInputStream(entry), state.buffer);
+    }
+}
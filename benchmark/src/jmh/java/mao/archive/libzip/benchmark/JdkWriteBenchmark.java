@@ -0,0 +1,128 @@
+package mao.archive.libzip.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * java.util.zip baseline for {@link WriteBenchmark}. The JDK can't write AES entries.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class JdkWriteBenchmark {
+
+    @Param({Archives.TINY, Archives.HUGE})
+    public String shape;
+
+    @Param({Archives.STORED, Archives.DEFLATED})
+    public String method;
+
+    byte[][] data;
+    File[] sources;
+    File out;
+    final byte[] buffer = new byte[64 * 1024];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = WriteBenchmark.data(shape);
+        sources = WriteBenchmark.sources(shape, data);
+        out = new File(Archives.dir(), "jdk-write-" + shape + "-" + method + ".zip");
+    }
+
+    @Setup(Level.Invocation)
+    public void deleteOutput() {
+        out.delete();
+    }
+
+    private ZipOutputStream create() throws IOException {
+        ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(out)));
+        zos.setLevel(WriteBenchmark.LEVEL);
+        zos.setMethod(Archives.STORED.equals(method) ? ZipOutputStream.STORED : ZipOutputStream.DEFLATED);
+        return zos;
+    }
+
+    private ZipEntry entry(int i, byte[] data) {
+        ZipEntry entry = new ZipEntry(Archives.entryName(i));
+        if (Archives.STORED.equals(method)) {
+            //STORED需要预先知道crc和大小
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+        }
+        return entry;
+    }
+
+    @Benchmark
+    public void addBytes() throws IOException {
+        ZipOutputStream zos = create();
+        for (int i = 0; i < data.length; i++) {
+            zos.putNextEntry(entry(i, data[i]));
+            zos.write(data[i]);
+            zos.closeEntry();
+        }
+        zos.close();
+    }
+
+    @Benchmark
+    public void addFile() throws IOException {
+        ZipOutputStream zos = create();
+        for (int i = 0; i < sources.length; i++) {
+            if (Archives.STORED.equals(method)) {
+                zos.putNextEntry(entry(i, readFile(sources[i])));
+            } else {
+                zos.putNextEntry(new ZipEntry(Archives.entryName(i)));
+            }
+            InputStream in = new FileInputStream(sources[i]);
+            try {
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    zos.write(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+            zos.closeEntry();
+        }
+        zos.close();
+    }
+
+    private byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int off = 0, n;
+            while (off < data.length && (n = in.read(data, off, data.length - off)) != -1) {
+                off += n;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
@@ -0,0 +1,137 @@
+package mao.archive.libzip.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import mao.archive.libzip.ZipEntry;
+import mao.archive.libzip.ZipFile;
+
+/**
+ * Reading with libzip-jni, {@link JdkReadBenchmark} runs the same operations with java.util.zip.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadBenchmark {
+
+    static final int LOOKUPS = 1000;
+    static final int READERS = 4;
+
+    @Param({Archives.TINY, Archives.HUGE})
+    public String shape;
+
+    @Param({Archives.STORED, Archives.DEFLATED, Archives.AES})
+    public String method;
+
+    File file;
+    ZipFile zipFile;
+    ZipFile pooled;     // concurrent readers enabled
+    ZipFile streamed;   // one shot inflating disabled
+    String password;
+    String[] lookups;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Archives.archive(shape, method);
+        password = Archives.password(method);
+        zipFile = new ZipFile(file, "UTF-8", ZipFile.ZIP_RDONLY);
+        pooled = new ZipFile(file, "UTF-8", ZipFile.ZIP_RDONLY);
+        pooled.setConcurrentReaders(READERS);
+        streamed = new ZipFile(file, "UTF-8", ZipFile.ZIP_RDONLY);
+        streamed.setOneShotLimit(0);
+        lookups = lookups(shape);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        zipFile.close();
+        pooled.close();
+        streamed.close();
+    }
+
+    static String[] lookups(String shape) {
+        Random random = new Random(42);
+        String[] names = new String[LOOKUPS];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = Archives.entryName(random.nextInt(Archives.entryCount(shape)));
+        }
+        return names;
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final Random random = new Random();
+        final byte[] buffer = new byte[64 * 1024];
+    }
+
+    @Benchmark
+    public void openClose() throws IOException {
+        new ZipFile(file, "UTF-8", ZipFile.ZIP_RDONLY).close();
+    }
+
+    @Benchmark
+    public void entries(Blackhole bh) {
+        for (ZipEntry entry : zipFile.entries()) {
+            bh.consume(entry);
+        }
+    }
+
+    @Benchmark
+    public void getEntry(Blackhole bh) {
+        for (String name : lookups) {
+            bh.consume(zipFile.getEntry(name));
+        }
+    }
+
+    @Benchmark
+    public long sequentialRead(ThreadState state) throws IOException {
+        long total = 0;
+        for (ZipEntry entry : zipFile.entries()) {
+            total += Archives.drain(zipFile.getInputStream(entry, password), state.buffer);
+        }
+        return total;
+    }
+
+    /**
+     * {@link #sequentialRead(ThreadState)} with every entry read through a libzip stream.
+     */
+    @Benchmark
+    public long sequentialReadStreamed(ThreadState state) throws IOException {
+        long total = 0;
+        for (ZipEntry entry : streamed.entries()) {
+            total += Archives.drain(streamed.getInputStream(entry, password), state.buffer);
+        }
+        return total;
+    }
+
+    /**
+     * One random entry per operation from {@link #READERS} threads sharing the archive.
+     */
+    @Benchmark
+    @Threads(READERS)
+    public long parallelRead(ThreadState state) throws IOException {
+        ZipEntry entry = pooled.getEntry(state.random.nextInt(Archives.entryCount(shape)));
+        return Archives.drain(pooled.getInputStream(entry, password), state.buffer);
+    }
+}
@@ -0,0 +1,139 @@
+package mao.archive.libzip.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import mao.archive.libzip.ZipFile;
+
+/**
+ * Writing a new archive with libzip-jni, data is compressed when the archive is closed.
+ * {@link JdkWriteBenchmark} writes the same archives with java.util.zip.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class WriteBenchmark {
+
+    static final int LEVEL = 6;
+
+    @Param({Archives.TINY, Archives.HUGE})
+    public String shape;
+
+    @Param({Archives.STORED, Archives.DEFLATED, Archives.AES})
+    public String method;
+
+    byte[][] data;
+    File[] sources;
+    File out;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = data(shape);
+        sources = sources(shape, data);
+        out = new File(Archives.dir(), "write-" + shape + "-" + method + ".zip");
+        if (Archives.AES.equals(method)) {
+            //没有AES实现时直接失败，而不是测量未加密的写入
+            Archives.archive(shape, method);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void deleteOutput() {
+        out.delete();
+    }
+
+    static byte[][] data(String shape) {
+        byte[][] data = new byte[Archives.entryCount(shape)][];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = Archives.content(Archives.entrySize(shape), i);
+        }
+        return data;
+    }
+
+    static File[] sources(String shape, byte[][] data) throws IOException {
+        File dir = new File(Archives.dir(), "src-" + shape);
+        dir.mkdirs();
+        File[] files = new File[data.length];
+        for (int i = 0; i < data.length; i++) {
+            files[i] = new File(dir, Integer.toString(i));
+            if (files[i].length() != data[i].length) {
+                FileOutputStream fos = new FileOutputStream(files[i]);
+                try {
+                    fos.write(data[i]);
+                } finally {
+                    fos.close();
+                }
+            }
+        }
+        return files;
+    }
+
+    ZipFile create() throws IOException {
+        ZipFile zipFile = new ZipFile(out);
+        if (Archives.AES.equals(method)) {
+            zipFile.setDefaultPassword(Archives.PASSWORD);
+        }
+        return zipFile;
+    }
+
+    @Benchmark
+    public void addBytes() throws IOException {
+        ZipFile zipFile = create();
+        for (int i = 0; i < data.length; i++) {
+            zipFile.addBytes(Archives.entryName(i), data[i],
+                    Archives.libzipEncryption(method), Archives.libzipMethod(method), LEVEL);
+        }
+        zipFile.close();
+    }
+
+    @Benchmark
+    public void addFile() throws IOException {
+        ZipFile zipFile = create();
+        for (int i = 0; i < sources.length; i++) {
+            zipFile.addFile(Archives.entryName(i), sources[i],
+                    Archives.libzipEncryption(method), Archives.libzipMethod(method), LEVEL);
+        }
+        zipFile.close();
+    }
+
+    /**
+     * Only the close of an archive with all entries added, where libzip does the actual work.
+     */
+    @Benchmark
+    public void close(Pending pending) throws IOException {
+        pending.zipFile.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Pending {
+        ZipFile zipFile;
+
+        @Setup(Level.Invocation)
+        public void setUp(WriteBenchmark benchmark) throws IOException {
+            benchmark.out.delete();
+            zipFile = benchmark.create();
+            for (int i = 0; i < benchmark.data.length; i++) {
+                zipFile.addBytes(Archives.entryName(i), benchmark.data[i],
+                        Archives.libzipEncryption(benchmark.method), Archives.libzipMethod(benchmark.method), LEVEL);
+            }
+        }
+    }
+}
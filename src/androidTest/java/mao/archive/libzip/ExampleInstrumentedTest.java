@@ -7,17 +7,29 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
 
 import androidx.test.InstrumentationRegistry;
 import androidx.test.runner.AndroidJUnit4;
@@ -26,6 +38,9 @@ import static mao.archive.libzip.ZipFile.ZIP_CM_DEFLATE;
 import static mao.archive.libzip.ZipFile.ZIP_EM_AES_128;
 import static mao.archive.libzip.ZipFile.ZIP_RDONLY;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Instrumentation test, which will execute on an Android device.
@@ -120,6 +135,146 @@ public class ExampleInstrumentedTest {
 
     }
 
+    @Test
+    public void testReadDirectBuffer() throws IOException {
+        File file = new File(appContext.getCacheDir(), "test_channel.zip");
+        file.delete();
+
+        byte[] data = new byte[256 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+        ZipFile zipFile = new ZipFile(file);
+        zipFile.addBytes("data", data);
+        zipFile.close();
+
+        zipFile = new ZipFile(file, "UTF-8", ZIP_RDONLY);
+        ReadableByteChannel channel = zipFile.getChannel(zipFile.getEntry("data"));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        while (channel.read(buffer) != -1) {
+        }
+        channel.close();
+        zipFile.close();
+
+        buffer.flip();
+        byte[] out = new byte[buffer.remaining()];
+        buffer.get(out);
+        assertEquals(Arrays.toString(data), Arrays.toString(out));
+    }
+
+    @Test
+    public void testCompactZipFile() throws IOException, NoSuchAlgorithmException {
+        File file = new File(appContext.getCacheDir(), "test_compact.zip");
+        file.delete();
+
+        ZipFile zipFile = new ZipFile(file);
+        for (int i = 0; i < 1000; i++) {
+            zipFile.addBytes("dir/" + i + ".txt", ("hello " + i).getBytes());
+        }
+        zipFile.close();
+
+        zipFile = new ZipFile(file, "UTF-8", ZIP_RDONLY);
+        CompactZipFile compact = new CompactZipFile(file);
+        assertEquals(1000, compact.size());
+        int i = 0;
+        for (ZipEntry entry : compact.entries()) {
+            ZipEntry entry1 = zipFile.getEntry(i++);
+            assertEquals(entry1.getName(), entry.getName());
+            assertEquals(entry1.getCrc(), entry.getCrc());
+        }
+        ZipEntry entry = compact.getEntry("dir/500.txt");
+        assertTrue(compStream(compact.getInputStream(entry), zipFile.getInputStream(zipFile.getEntry("dir/500.txt"))));
+        assertNull(compact.getEntry("dir/1000.txt"));
+        compact.close();
+        zipFile.close();
+    }
+
+    @Test
+    public void testZstd() throws IOException, NoSuchAlgorithmException {
+        assertTrue(ZipFile.isCompressionMethodSupported(ZipFile.ZIP_CM_ZSTD));
+        File file = new File(appContext.getCacheDir(), "test_zstd.zip");
+        file.delete();
+
+        byte[] data = new byte[256 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+        ZipFile zipFile = new ZipFile(file);
+        zipFile.addBytes("data", data, ZipFile.ZIP_EM_NONE, ZipFile.ZIP_CM_ZSTD, 19);
+        zipFile.close();
+
+        zipFile = new ZipFile(file, "UTF-8", ZIP_RDONLY);
+        ZipEntry entry = zipFile.getEntry("data");
+        assertEquals(ZipFile.ZIP_CM_ZSTD, entry.getMethod());
+        assertTrue(compStream(zipFile.getInputStream(entry), new ByteArrayInputStream(data)));
+        zipFile.close();
+
+        //zstd的工作线程
+        file.delete();
+        ZipFile.setZstdWorkers(2);
+        try {
+            zipFile = new ZipFile(file);
+            zipFile.addBytes("data", data, ZipFile.ZIP_EM_NONE, ZipFile.ZIP_CM_ZSTD, 3);
+            zipFile.close();
+        } finally {
+            ZipFile.setZstdWorkers(0);
+        }
+        zipFile = new ZipFile(file, "UTF-8", ZIP_RDONLY);
+        assertTrue(compStream(zipFile.getInputStream(zipFile.getEntry("data")), new ByteArrayInputStream(data)));
+        zipFile.close();
+    }
+
+    @Test
+    public void testCrcVerification() throws IOException {
+        File file = new File(appContext.getCacheDir(), "test_crc.zip");
+        file.delete();
+
+        byte[] data = new byte[256 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+        ZipFile zipFile = new ZipFile(file);
+        zipFile.addBytes("data", data, ZipFile.ZIP_EM_NONE, ZipFile.ZIP_CM_STORE, 0);
+        zipFile.close();
+
+        zipFile = new ZipFile(file, "UTF-8", ZIP_RDONLY);
+        long offset = zipFile.getDataOffset(zipFile.getEntry("data"));
+        zipFile.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(offset + 1000);
+        raf.write(0xff);
+        raf.close();
+
+        System.out.println("crc32 " + ZipFile.getCrc32Implementation());
+        zipFile = new ZipFile(file, "UTF-8", ZIP_RDONLY);
+        try {
+            digest(zipFile.getInputStream(zipFile.getEntry("data")));
+            assertTrue("crc error not detected", false);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            System.out.println(e.getMessage());
+        }
+        zipFile.setCrcVerification(ZipFile.CRC_VERIFY_ALWAYS);
+        InputStream in = zipFile.getInputStream(zipFile.getEntry("data"));
+        in.read(new byte[100]);
+        try {
+            in.close();
+            assertTrue("crc error not detected on close", false);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+        zipFile.setCrcVerification(ZipFile.CRC_VERIFY_NEVER);
+        in = zipFile.getInputStream(zipFile.getEntry("data"));
+        byte[] out = new byte[data.length];
+        int n = 0;
+        int r;
+        while ((r = in.read(out, n, out.length - n)) > 0) {
+            n += r;
+        }
+        in.close();
+        assertEquals(data.length, n);
+        zipFile.close();
+    }
+
     @Test
     public void testPassword() throws IOException {
         File file = new File(appContext.getCacheDir(), "/sdcard/test_create.zip");
@@ -170,6 +325,490 @@ public class ExampleInstrumentedTest {
 
     }
 
+    @Test
+    public void testAesLargeEntry() throws IOException, NoSuchAlgorithmException {
+        File file = new File(appContext.getCacheDir(), "test_aes.zip");
+        file.delete();
+
+        byte[] data = new byte[4 * 1024 * 1024 + 7];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + (i >> 12));
+        }
+        System.out.println("aes " + ZipFile.getAesImplementation());
+        ZipFile zipFile = new ZipFile(file);
+        zipFile.setDefaultPassword("123abc");
+        zipFile.addBytes("stored", data, ZipFile.ZIP_EM_AES_256, ZipFile.ZIP_CM_STORE, 0);
+        zipFile.addBytes("deflated", data, ZipFile.ZIP_EM_AES_128, ZIP_CM_DEFLATE, 6);
+        zipFile.close();
+
+        byte[] expected = digest(new ByteArrayInputStream(data));
+        for (int threads : new int[]{0, 2}) {
+            ZipFile.setAesThreads(threads);
+            zipFile = new ZipFile(file, "UTF-8", ZIP_RDONLY);
+            zipFile.setDefaultPassword("123abc");
+            assertTrue(Arrays.equals(expected, digest(zipFile.getInputStream(zipFile.getEntry("stored")))));
+            assertTrue(Arrays.equals(expected, digest(zipFile.getInputStream(zipFile.getEntry("deflated")))));
+            zipFile.close();
+        }
+    }
+
+    @Test
+    public void testAddTreeAndBatch() throws IOException {
+        File root = new File(appContext.getCacheDir(), "tree");
+        new File(root, "sub/dir").mkdirs();
+        OutputStream out = new FileOutputStream(new File(root, "sub/dir/a.txt"));
+        out.write(new byte[1000]);
+        out.close();
+        out = new FileOutputStream(new File(root, "b.log"));
+        out.write(new byte[10]);
+        out.close();
+
+        File file = new File(appContext.getCacheDir(), "test_tree.zip");
+        file.delete();
+        ZipFile zipFile = new ZipFile(file);
+        zipFile.addEntries(EntrySpec.bytes("x/1", new byte[100]), EntrySpec.directory("x/d/"),
+                EntrySpec.file("x/2", new File(root, "b.log")).compression(ZipFile.ZIP_CM_STORE, 0));
+        int added = zipFile.addTree(root, "tree", new PathFilter() {
+            @Override
+            public boolean accept(String path, boolean directory) {
+                return !path.endsWith(".log");
+            }
+        });
+        assertEquals(3, added);
+        zipFile.close();
+
+        zipFile = new ZipFile(file);
+        assertEquals(1000, zipFile.getEntry("tree/sub/dir/a.txt").getSize());
+        assertNull(zipFile.getEntry("tree/b.log"));
+        assertEquals(2, zipFile.removeAll(Arrays.asList("x/1", "x/2", "missing")));
+        assertEquals(1, zipFile.removeIf(new ZipEntryFilter() {
+            @Override
+            public boolean accept(ZipEntry entry) {
+                return entry.getName().startsWith("x/");
+            }
+        }));
+        zipFile.close();
+
+        zipFile = new ZipFile(file, "UTF-8", ZIP_RDONLY);
+        assertNull(zipFile.getEntry("x/d/"));
+        assertEquals(3, zipFile.getDirectory().size());
+        zipFile.close();
+    }
+
+    @Test
+    public void testAppendMode() throws IOException {
+        File file = new File(appContext.getCacheDir(), "test_append.zip");
+        file.delete();
+        ZipFile zipFile = new ZipFile(file);
+        zipFile.addBytes("a", new byte[100000]);
+        zipFile.addBytes("b", "hello".getBytes());
+        zipFile.close();
+        long length = file.length();
+
+        zipFile = new ZipFile(file);
+        zipFile.setAppendMode(true);
+        zipFile.addBytes("c", "world".getBytes());
+        zipFile.remove("b");
+        zipFile.close();
+        assertTrue(file.length() > length);
+
+        zipFile = new ZipFile(file);
+        assertNull(zipFile.getEntry("b"));
+        assertEquals("world", new BufferedReader(new InputStreamReader(zipFile.getInputStream(zipFile.getEntry("c")), "UTF-8")).readLine());
+        length = file.length();
+        zipFile.compact();
+        zipFile.close();
+        assertTrue(file.length() < length);
+
+        zipFile = new ZipFile(file, "UTF-8", ZIP_RDONLY);
+        assertEquals(100000, zipFile.getEntry("a").getSize());
+        assertEquals("world", new BufferedReader(new InputStreamReader(zipFile.getInputStream(zipFile.getEntry("c")), "UTF-8")).readLine());
+        zipFile.close();
+    }
+
+    @Test
+    public void testDeflateIndex() throws IOException {
+        File file = new File(appContext.getCacheDir(), "test_index.zip");
+        File sidecar = new File(appContext.getCacheDir(), "test_index.idx");
+        file.delete();
+        byte[] data = new byte[4 * 1024 * 1024];
+        byte[] other = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ((i / 7) % 251);
+            other[i] = (byte) ((i / 5) % 241);
+        }
+        ZipFile zipFile = new ZipFile(file);
+        zipFile.addBytes("data", data, ZipFile.ZIP_EM_NONE, ZIP_CM_DEFLATE, 6);
+        zipFile.close();
+
+        zipFile = new ZipFile(file);
+        zipFile.setDeflateIndexSpan(64 * 1024);
+        zipFile.buildDeflateIndex(zipFile.getEntry("data"));
+        assertSeeks(zipFile, data);
+        zipFile.saveDeflateIndex(zipFile.getEntry("data"), sidecar);
+        zipFile.addBytes("data", other, ZipFile.ZIP_EM_NONE, ZIP_CM_DEFLATE, 6);
+        zipFile.close();
+
+        //same index, other data: the old access points must not be used
+        zipFile = new ZipFile(file, "UTF-8", ZIP_RDONLY);
+        assertTrue(!zipFile.loadDeflateIndex(zipFile.getEntry("data"), sidecar));
+        zipFile.setDeflateIndexSpan(64 * 1024);
+        assertSeeks(zipFile, other);
+        zipFile.close();
+    }
+
+    private static void assertSeeks(ZipFile zipFile, byte[] data) throws IOException {
+        SeekableEntryChannel channel = zipFile.openChannel(zipFile.getEntry("data"));
+        int[] positions = {data.length - 1000, 100, 3 * 1024 * 1024, 0, data.length / 2};
+        for (int position : positions) {
+            ByteBuffer buffer = ByteBuffer.allocate(1000);
+            channel.position(position);
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            }
+            assertEquals(Arrays.toString(Arrays.copyOfRange(data, position, position + 1000)),
+                    Arrays.toString(Arrays.copyOf(buffer.array(), buffer.position())));
+        }
+        channel.close();
+    }
+
+    @Test
+    public void testStreamFailureCause() throws IOException {
+        File file = new File(appContext.getCacheDir(), "test_stream_failure.zip");
+        file.delete();
+        ZipFile zipFile = new ZipFile(file);
+        zipFile.addStream("s", new InputStream() {
+            @Override
+            public int read() {
+                throw new IllegalStateException("broken stream");
+            }
+        });
+        try {
+            zipFile.close();
+            fail("close succeeded");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals("broken stream", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testStreamingWriter() throws IOException {
+        File file = new File(appContext.getCacheDir(), "test_stream.zip");
+        FileOutputStream out = new FileOutputStream(file);
+        ZipFile zipFile = ZipFile.newStreamingWriter(out);
+        zipFile.addBytes("a", new byte[100000]);
+        zipFile.addBytes("b", "hello".getBytes(), ZIP_EM_AES_128, ZIP_CM_DEFLATE, 6);
+        zipFile.setDefaultPassword("123456");
+        zipFile.close();
+        out.close();
+
+        zipFile = new ZipFile(file, "UTF-8", ZIP_RDONLY);
+        assertEquals(100000, zipFile.getEntry("a").getSize());
+        assertEquals("hello", new BufferedReader(new InputStreamReader(zipFile.getInputStream(zipFile.getEntry("b"), "123456"), "UTF-8")).readLine());
+        zipFile.close();
+
+        //stored的entry大小和crc已知，不写data descriptor，ZipInputStream才能读取
+        out = new FileOutputStream(file);
+        zipFile = ZipFile.newStreamingWriter(out);
+        zipFile.addBytes("stored", "stored data".getBytes(), ZipFile.ZIP_EM_NONE, ZipFile.ZIP_CM_STORE, 0);
+        zipFile.addBytes("deflated", new byte[100000]);
+        zipFile.close();
+        out.close();
+
+        java.util.zip.ZipInputStream in = new java.util.zip.ZipInputStream(new FileInputStream(file));
+        assertEquals("stored", in.getNextEntry().getName());
+        assertEquals("stored data", new BufferedReader(new InputStreamReader(in, "UTF-8")).readLine());
+        in.close();
+    }
+
+    @Test
+    public void testExtractAll() throws IOException {
+        File file = new File(appContext.getCacheDir(), "test_extract.zip");
+        file.delete();
+        ZipFile zipFile = new ZipFile(file);
+        for (int i = 0; i < 20; i++) {
+            zipFile.addBytes("dir/e" + i, new byte[100000 + i]);
+        }
+        zipFile.close();
+
+        File out = new File(appContext.getCacheDir(), "extract");
+        zipFile = new ZipFile(file, "UTF-8", ZIP_RDONLY);
+        final long[] last = new long[3];
+        zipFile.extractAll(out, null, 4, ZipFile.EXTRACT_OVERWRITE, new ExtractProgressListener() {
+            @Override
+            public void onProgress(long bytesDone, long bytesTotal, long bytesPerSecond) {
+                assertTrue(bytesDone >= last[0]);
+                last[0] = bytesDone;
+                last[1] = bytesTotal;
+                last[2] = bytesPerSecond;
+            }
+        });
+        assertEquals(20 * 100000 + 190, last[1]);
+        assertEquals(last[1], last[0]);
+        assertTrue(last[2] > 0);
+        assertEquals(100019, new File(out, "dir/e19").length());
+
+        //executor拒绝时，已提交的worker结束后才返回
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        Executor rejecting = new Executor() {
+            private int count;
+
+            @Override
+            public void execute(Runnable command) {
+                if (count++ > 0) {
+                    throw new RejectedExecutionException("full");
+                }
+                executor.execute(command);
+            }
+        };
+        try {
+            zipFile.extractAll(out, null, rejecting, 4, ZipFile.EXTRACT_OVERWRITE, null);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        } finally {
+            executor.shutdown();
+        }
+        zipFile.close();
+    }
+
+    @Test
+    public void testParallelCompression() throws IOException {
+        File file = new File(appContext.getCacheDir(), "test_parallel.zip");
+        file.delete();
+        byte[][] data = new byte[64][];
+        ZipFile zipFile = new ZipFile(file);
+        zipFile.setParallelCompression(4);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = new byte[50000 + i * 1000];
+            for (int j = 0; j < data[i].length; j++) {
+                data[i][j] = (byte) ((j / (i + 1)) % 251);
+            }
+            if (i % 2 == 0) {
+                zipFile.addBytes("e" + i, data[i]);
+            } else {
+                File f = new File(appContext.getCacheDir(), "parallel_src" + i);
+                FileOutputStream out = new FileOutputStream(f);
+                out.write(data[i]);
+                out.close();
+                zipFile.addFile("e" + i, f);
+            }
+        }
+        zipFile.close();
+
+        //重新打开后每个entry的crc和数据都与原数据一致
+        zipFile = new ZipFile(file, "UTF-8", ZIP_RDONLY);
+        for (int i = 0; i < data.length; i++) {
+            ZipEntry entry = zipFile.getEntry("e" + i);
+            CRC32 crc = new CRC32();
+            crc.update(data[i]);
+            assertEquals(crc.getValue(), entry.getCrc());
+            assertEquals(data[i].length, entry.getSize());
+            assertTrue(entry.getCompressedSize() < entry.getSize());
+            InputStream is = zipFile.getInputStream(entry);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copyStream(is, out);
+            assertTrue(Arrays.equals(data[i], out.toByteArray()));
+        }
+        zipFile.close();
+    }
+
+    @Test
+    public void testConcurrentReaders() throws IOException, InterruptedException {
+        File file = new File(appContext.getCacheDir(), "test_readers.zip");
+        file.delete();
+        final byte[][] data = new byte[8][];
+        ZipFile zipFile = new ZipFile(file);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = new byte[200000 + i];
+            for (int j = 0; j < data[i].length; j++) {
+                data[i][j] = (byte) ((j * (i + 3)) % 253);
+            }
+            zipFile.addBytes("e" + i, data[i], ZipFile.ZIP_EM_NONE, ZIP_CM_DEFLATE, 6);
+        }
+        zipFile.close();
+
+        final ZipFile reader = new ZipFile(file, "UTF-8", ZIP_RDONLY);
+        reader.setConcurrentReaders(4);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            final int i = t % data.length;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        copyStream(reader.getInputStream(reader.getEntry("e" + i)), out);
+                        assertTrue("entry e" + i, Arrays.equals(data[i], out.toByteArray()));
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        reader.close();
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void testCopyEntryAndMerge() throws IOException, InterruptedException {
+        File fileA = new File(appContext.getCacheDir(), "test_copy_a.zip");
+        File fileB = new File(appContext.getCacheDir(), "test_copy_b.zip");
+        File merged = new File(appContext.getCacheDir(), "test_merged.zip");
+        fileA.delete();
+        fileB.delete();
+        merged.delete();
+        final byte[] dataA = new byte[100000];
+        final byte[] dataB = new byte[50000];
+        for (int i = 0; i < dataA.length; i++) {
+            dataA[i] = (byte) (i % 239);
+        }
+        for (int i = 0; i < dataB.length; i++) {
+            dataB[i] = (byte) (i % 17);
+        }
+        ZipFile zipFile = new ZipFile(fileA);
+        zipFile.addBytes("a", dataA, ZipFile.ZIP_EM_NONE, ZIP_CM_DEFLATE, 6);
+        zipFile.close();
+        zipFile = new ZipFile(fileB);
+        zipFile.addBytes("b", dataB, ZipFile.ZIP_EM_NONE, ZipFile.ZIP_CM_STORE, 0);
+        zipFile.close();
+
+        //两个压缩包同时互相复制不能死锁，先复制成功的方向胜出，另一方向被拒绝
+        final ZipFile a = new ZipFile(fileA);
+        final ZipFile b = new ZipFile(fileB);
+        final int[] refused = new int[2];
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread toA = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100; i++) {
+                    try {
+                        a.copyEntryFrom(b, b.getEntry("b"), "copy/b" + i);
+                    } catch (IllegalStateException e) {
+                        refused[0]++;
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            }
+        });
+        Thread toB = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100; i++) {
+                    try {
+                        b.copyEntryFrom(a, a.getEntry("a"), "copy/a" + i);
+                    } catch (IllegalStateException e) {
+                        refused[1]++;
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            }
+        });
+        toA.start();
+        toB.start();
+        toA.join(30000);
+        toB.join(30000);
+        assertTrue("deadlock", !toA.isAlive() && !toB.isAlive());
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(refused[0] == 0 && refused[1] == 100 || refused[0] == 100 && refused[1] == 0);
+        ZipFile target = refused[0] == 0 ? a : b;
+        ZipFile source = refused[0] == 0 ? b : a;
+
+        //目标关闭前源压缩包不能关闭
+        try {
+            source.close();
+            fail("closed a copy source");
+        } catch (IllegalStateException ignored) {
+        }
+        target.close();
+        source.close();
+
+        zipFile = new ZipFile(refused[0] == 0 ? fileA : fileB, "UTF-8", ZIP_RDONLY);
+        byte[] expected = refused[0] == 0 ? dataB : dataA;
+        CRC32 crc = new CRC32();
+        crc.update(expected);
+        for (int i = 0; i < 100; i++) {
+            ZipEntry entry = zipFile.getEntry((refused[0] == 0 ? "copy/b" : "copy/a") + i);
+            assertEquals(crc.getValue(), entry.getCrc());
+            assertEquals(expected.length, entry.getSize());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copyStream(zipFile.getInputStream(zipFile.getEntry(refused[0] == 0 ? "copy/b99" : "copy/a99")), out);
+        assertTrue(Arrays.equals(expected, out.toByteArray()));
+        zipFile.close();
+
+        //merge保留名称，后面的压缩包覆盖同名entry
+        ZipFile sourceA = new ZipFile(fileA, "UTF-8", ZIP_RDONLY);
+        ZipFile sourceB = new ZipFile(fileB, "UTF-8", ZIP_RDONLY);
+        zipFile = new ZipFile(merged);
+        zipFile.addBytes("a", new byte[10]);
+        zipFile.merge(sourceA, sourceB);
+        zipFile.close();
+        sourceA.close();
+        sourceB.close();
+
+        zipFile = new ZipFile(merged, "UTF-8", ZIP_RDONLY);
+        assertEquals(dataA.length, zipFile.getEntry("a").getSize());
+        out = new ByteArrayOutputStream();
+        copyStream(zipFile.getInputStream(zipFile.getEntry("b")), out);
+        assertTrue(Arrays.equals(dataB, out.toByteArray()));
+        assertTrue(zipFile.getEntry("copy/a0") != null || zipFile.getEntry("copy/b0") != null);
+        zipFile.close();
+    }
+
+    @Test
+    public void testCancelWrite() throws IOException, NoSuchAlgorithmException {
+        File file = new File(appContext.getCacheDir(), "test_cancel.zip");
+        file.delete();
+        ZipFile zipFile = new ZipFile(file);
+        zipFile.addBytes("keep", "original".getBytes());
+        zipFile.close();
+        byte[] digest = digest(new FileInputStream(file));
+        long modified = file.lastModified();
+
+        final ZipFile writer = new ZipFile(file);
+        for (int i = 0; i < 10; i++) {
+            byte[] data = new byte[200000];
+            Arrays.fill(data, (byte) i);
+            writer.addBytes("e" + i, data);
+        }
+        final long[] lastEntry = {-2};
+        writer.setWriteProgressListener(new WriteProgressListener() {
+            @Override
+            public void onProgress(long bytesWritten, long entryIndex, double fraction, long bytesPerSecond) {
+                lastEntry[0] = entryIndex;
+                if (entryIndex >= 3) {
+                    writer.cancelWrite();
+                }
+            }
+        }, 0);
+        try {
+            writer.close();
+            fail("write not cancelled");
+        } catch (WriteCancelledException ignored) {
+        }
+        assertTrue(lastEntry[0] >= 3 && lastEntry[0] < 10);
+
+        //取消后原文件不变，临时文件已删除
+        assertTrue(Arrays.equals(digest, digest(new FileInputStream(file))));
+        assertEquals(modified, file.lastModified());
+        for (String name : appContext.getCacheDir().list()) {
+            assertTrue(name, name.equals(file.getName()) || !name.startsWith(file.getName()));
+        }
+        zipFile = new ZipFile(file, "UTF-8", ZIP_RDONLY);
+        assertNull(zipFile.getEntry("e0"));
+        assertEquals("original", new BufferedReader(new InputStreamReader(zipFile.getInputStream(zipFile.getEntry("keep")), "UTF-8")).readLine());
+        zipFile.close();
+    }
+
     @Test
     public void multiThreadRead() throws IOException, NoSuchAlgorithmException, InterruptedException {
         File file = new File(appContext.getCacheDir(), "multi.zip");
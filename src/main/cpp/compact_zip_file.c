@@ -0,0 +1,661 @@
+//
+// Read-only archive backed by the mapped central directory, see CompactZipFile.java
+//
+
+#include "lib/zip.h"
+#include <jni.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <pthread.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <time.h>
+#include <unistd.h>
+#include "lib/zipint.h"
+#include "zip_file.h"
+
+#define EOCD_SIZE 22
+#define EOCD64_LOCATOR_SIZE 20
+#define EOCD64_SIZE 56
+#define CDIR_ENTRY_SIZE 46
+#define LOCAL_HEADER_SIZE 30
+#define MAX_COMMENT 0xffff
+
+struct compact_zip {
+    int fd;
+    char *path;
+    void *map;                      /* mapped central directory, page aligned */
+    size_t map_len;
+    const unsigned char *cd;
+    zip_uint64_t cd_size;
+    zip_uint32_t count;
+    zip_uint32_t *offsets;          /* offset of every central directory entry in cd */
+    pthread_mutex_t lock;
+    zip_uint32_t *table;            /* name hash table, entry index + 1, built on first lookup */
+    zip_uint32_t mask;
+    zip_t *za;                      /* empty archive, only used by libzip sources for errors */
+};
+
+/* data of a central directory entry, decoded on access */
+struct compact_dirent {
+    const unsigned char *name;
+    zip_uint16_t name_len;
+    const unsigned char *comment;
+    zip_uint16_t comment_len;
+    zip_uint16_t bitflags;
+    zip_uint16_t comp_method;
+    zip_uint16_t encryption_method;
+    int crc_valid;
+    zip_uint32_t crc;
+    zip_uint64_t size;
+    zip_uint64_t comp_size;
+    zip_uint64_t offset;
+    time_t mtime;
+};
+
+static jclass zipEntryClass;
+static jmethodID zipEntry_ctor;
+
+static const zip_uint8_t empty_archive[EOCD_SIZE] = {'P', 'K', 5, 6};
+
+static void ThrowByName(JNIEnv *env, const char *name, const char *msg) {
+    jclass cls = (*env)->FindClass(env, name);
+    if (cls != NULL) {
+        (*env)->ThrowNew(env, cls, msg);
+    }
+}
+
+static void ThrowIOException(JNIEnv *env, const char *msg) {
+    ThrowByName(env, "java/io/IOException", msg);
+}
+
+static zip_uint16_t get16(const unsigned char *p) {
+    return (zip_uint16_t) (p[0] | p[1] << 8);
+}
+
+static zip_uint32_t get32(const unsigned char *p) {
+    return (zip_uint32_t) p[0] | (zip_uint32_t) p[1] << 8 | (zip_uint32_t) p[2] << 16 |
+           (zip_uint32_t) p[3] << 24;
+}
+
+static zip_uint64_t get64(const unsigned char *p) {
+    return (zip_uint64_t) get32(p) | (zip_uint64_t) get32(p + 4) << 32;
+}
+
+static int read_fully(int fd, void *buf, size_t len, off_t offset) {
+    ssize_t n;
+    while (len > 0) {
+        n = pread(fd, buf, len, offset);
+        if (n < 0 && errno == EINTR) {
+            continue;
+        }
+        if (n <= 0) {
+            return -1;
+        }
+        buf = (char *) buf + n;
+        len -= (size_t) n;
+        offset += n;
+    }
+    return 0;
+}
+
+//与libzip的_zip_d2u_time相同
+static time_t dos_to_unix_time(zip_uint16_t dtime, zip_uint16_t ddate) {
+    struct tm tm;
+
+    memset(&tm, 0, sizeof(tm));
+    tm.tm_isdst = -1;
+    tm.tm_year = ((ddate >> 9) & 127) + 1980 - 1900;
+    tm.tm_mon = ((ddate >> 5) & 15) - 1;
+    tm.tm_mday = ddate & 31;
+    tm.tm_hour = (dtime >> 11) & 31;
+    tm.tm_min = (dtime >> 5) & 63;
+    tm.tm_sec = (dtime << 1) & 62;
+    return mktime(&tm);
+}
+
+static void compact_free(struct compact_zip *cz) {
+    if (cz->map != NULL) {
+        munmap(cz->map, cz->map_len);
+    }
+    if (cz->fd >= 0) {
+        close(cz->fd);
+    }
+    if (cz->za != NULL) {
+        zip_discard(cz->za);
+    }
+    pthread_mutex_destroy(&cz->lock);
+    free(cz->table);
+    free(cz->offsets);
+    free(cz->path);
+    free(cz);
+}
+
+/* finds the central directory, returns an error message or NULL */
+static const char *find_cdir(struct compact_zip *cz, zip_uint64_t *cd_offset, zip_uint64_t *count) {
+    struct stat st;
+    unsigned char *tail;
+    unsigned char eocd64[EOCD64_SIZE];
+    size_t tail_len;
+    zip_uint64_t tail_offset, locator;
+    const unsigned char *eocd = NULL;
+    size_t i;
+
+    if (fstat(cz->fd, &st) < 0) {
+        return strerror(errno);
+    }
+    if ((zip_uint64_t) st.st_size < EOCD_SIZE) {
+        return "Not a zip archive";
+    }
+    tail_len = (zip_uint64_t) st.st_size < EOCD_SIZE + MAX_COMMENT ? (size_t) st.st_size
+                                                                    : EOCD_SIZE + MAX_COMMENT;
+    tail_offset = (zip_uint64_t) st.st_size - tail_len;
+    if ((tail = malloc(tail_len)) == NULL) {
+        return "malloc failed";
+    }
+    if (read_fully(cz->fd, tail, tail_len, (off_t) tail_offset) < 0) {
+        free(tail);
+        return "read failed";
+    }
+    for (i = tail_len - EOCD_SIZE + 1; i-- > 0;) {
+        if (memcmp(tail + i, "PK\5\6", 4) == 0 && i + EOCD_SIZE + get16(tail + i + 20) <= tail_len) {
+            eocd = tail + i;
+            break;
+        }
+    }
+    if (eocd == NULL) {
+        free(tail);
+        return "Not a zip archive";
+    }
+    *count = get16(eocd + 10);
+    cz->cd_size = get32(eocd + 12);
+    *cd_offset = get32(eocd + 16);
+    locator = tail_offset + (eocd - tail);
+    free(tail);
+
+    //zip64
+    if (locator >= EOCD64_LOCATOR_SIZE) {
+        unsigned char loc[EOCD64_LOCATOR_SIZE];
+        if (read_fully(cz->fd, loc, sizeof(loc), (off_t) (locator - EOCD64_LOCATOR_SIZE)) == 0
+            && memcmp(loc, "PK\6\7", 4) == 0) {
+            if (read_fully(cz->fd, eocd64, sizeof(eocd64), (off_t) get64(loc + 8)) < 0
+                || memcmp(eocd64, "PK\6\6", 4) != 0) {
+                return "Zip archive inconsistent";
+            }
+            *count = get64(eocd64 + 32);
+            cz->cd_size = get64(eocd64 + 40);
+            *cd_offset = get64(eocd64 + 48);
+        }
+    }
+    if (*cd_offset + cz->cd_size > (zip_uint64_t) st.st_size || cz->cd_size > ZIP_UINT32_MAX) {
+        return "Zip archive inconsistent";
+    }
+    return NULL;
+}
+
+/* maps the central directory and records the offset of every entry */
+static const char *read_cdir(struct compact_zip *cz) {
+    zip_uint64_t cd_offset = 0, count = 0, pos, page, start;
+    zip_uint32_t capacity, *offsets;
+    const char *error;
+
+    if ((error = find_cdir(cz, &cd_offset, &count)) != NULL) {
+        return error;
+    }
+    if (cz->cd_size == 0) {
+        return NULL;
+    }
+    page = (zip_uint64_t) sysconf(_SC_PAGESIZE);
+    start = cd_offset & ~(page - 1);
+    cz->map_len = (size_t) (cd_offset + cz->cd_size - start);
+    cz->map = mmap(NULL, cz->map_len, PROT_READ, MAP_PRIVATE, cz->fd, (off_t) start);
+    if (cz->map == MAP_FAILED) {
+        cz->map = NULL;
+        return strerror(errno);
+    }
+    cz->cd = (const unsigned char *) cz->map + (cd_offset - start);
+
+    //条目数可能被截断为16位，以实际的中央目录为准
+    capacity = count > 0 && count < ZIP_UINT32_MAX ? (zip_uint32_t) count : 16;
+    if ((cz->offsets = malloc(capacity * sizeof(zip_uint32_t))) == NULL) {
+        return "malloc failed";
+    }
+    pos = 0;
+    while (pos + CDIR_ENTRY_SIZE <= cz->cd_size && memcmp(cz->cd + pos, "PK\1\2", 4) == 0) {
+        const unsigned char *p = cz->cd + pos;
+        zip_uint64_t len = CDIR_ENTRY_SIZE + (zip_uint64_t) get16(p + 28) + get16(p + 30) + get16(p + 32);
+        if (pos + len > cz->cd_size) {
+            return "Zip archive inconsistent";
+        }
+        if (cz->count == capacity) {
+            if (capacity >= ZIP_UINT32_MAX / 2 ||
+                (offsets = realloc(cz->offsets, capacity * 2 * sizeof(zip_uint32_t))) == NULL) {
+                return "malloc failed";
+            }
+            cz->offsets = offsets;
+            capacity *= 2;
+        }
+        cz->offsets[cz->count++] = (zip_uint32_t) pos;
+        pos += len;
+    }
+    return NULL;
+}
+
+static int decode_dirent(struct compact_zip *cz, zip_uint32_t index, struct compact_dirent *de) {
+    const unsigned char *p, *ef, *ef_end;
+    zip_uint16_t extra_len, id, len;
+    int need_size, need_comp_size, need_offset;
+
+    if (index >= cz->count) {
+        return -1;
+    }
+    p = cz->cd + cz->offsets[index];
+    de->bitflags = get16(p + 8);
+    de->comp_method = get16(p + 10);
+    de->mtime = dos_to_unix_time(get16(p + 12), get16(p + 14));
+    de->crc = get32(p + 16);
+    de->crc_valid = 1;
+    de->comp_size = get32(p + 20);
+    de->size = get32(p + 24);
+    de->name_len = get16(p + 28);
+    extra_len = get16(p + 30);
+    de->comment_len = get16(p + 32);
+    de->offset = get32(p + 42);
+    de->name = p + CDIR_ENTRY_SIZE;
+    de->comment = de->name + de->name_len + extra_len;
+    de->encryption_method = (de->bitflags & ZIP_GPBF_ENCRYPTED) ?
+                            ((de->bitflags & ZIP_GPBF_STRONG_ENCRYPTION) ? ZIP_EM_UNKNOWN : ZIP_EM_TRAD_PKWARE)
+                                                               : ZIP_EM_NONE;
+
+    need_size = de->size == ZIP_UINT32_MAX;
+    need_comp_size = de->comp_size == ZIP_UINT32_MAX;
+    need_offset = de->offset == ZIP_UINT32_MAX;
+
+    ef = de->name + de->name_len;
+    ef_end = ef + extra_len;
+    while (ef + 4 <= ef_end) {
+        id = get16(ef);
+        len = get16(ef + 2);
+        ef += 4;
+        if (ef + len > ef_end) {
+            break;
+        }
+        if (id == ZIP_EF_ZIP64) {
+            const unsigned char *v = ef;
+            if (need_size && v + 8 <= ef + len) {
+                de->size = get64(v);
+                v += 8;
+            }
+            if (need_comp_size && v + 8 <= ef + len) {
+                de->comp_size = get64(v);
+                v += 8;
+            }
+            if (need_offset && v + 8 <= ef + len) {
+                de->offset = get64(v);
+            }
+        } else if (id == ZIP_EF_WINZIP_AES && de->comp_method == ZIP_CM_WINZIP_AES && len == 7) {
+            if (get16(ef) == 2 && de->size < 20) {
+                de->crc_valid = 0;
+            }
+            switch (ef[4]) {
+                case 1:
+                    de->encryption_method = ZIP_EM_AES_128;
+                    break;
+                case 2:
+                    de->encryption_method = ZIP_EM_AES_192;
+                    break;
+                case 3:
+                    de->encryption_method = ZIP_EM_AES_256;
+                    break;
+                default:
+                    de->encryption_method = ZIP_EM_UNKNOWN;
+            }
+            de->comp_method = get16(ef + 5);
+        }
+        ef += len;
+    }
+    return 0;
+}
+
+static zip_uint32_t name_hash(const unsigned char *name, size_t len) {
+    zip_uint32_t h = 0x811c9dc5U;
+    size_t i;
+    for (i = 0; i < len; i++) {
+        h = (h ^ name[i]) * 0x01000193U;
+    }
+    return h;
+}
+
+static int build_name_table(struct compact_zip *cz) {
+    zip_uint32_t cap = 16, i, slot, j;
+    const unsigned char *p, *q;
+    zip_uint16_t len;
+    int dup;
+
+    while (cap < cz->count * 2 && cap < 0x80000000U) {
+        cap <<= 1;
+    }
+    if ((cz->table = calloc(cap, sizeof(zip_uint32_t))) == NULL) {
+        return -1;
+    }
+    cz->mask = cap - 1;
+    for (i = 0; i < cz->count; i++) {
+        p = cz->cd + cz->offsets[i];
+        len = get16(p + 28);
+        slot = name_hash(p + CDIR_ENTRY_SIZE, len) & cz->mask;
+        dup = 0;
+        //同名entry保留第一个
+        while ((j = cz->table[slot]) != 0) {
+            q = cz->cd + cz->offsets[j - 1];
+            if (get16(q + 28) == len && memcmp(q + CDIR_ENTRY_SIZE, p + CDIR_ENTRY_SIZE, len) == 0) {
+                dup = 1;
+                break;
+            }
+            slot = (slot + 1) & cz->mask;
+        }
+        if (!dup) {
+            cz->table[slot] = i + 1;
+        }
+    }
+    return 0;
+}
+
+static jlong Java_mao_archive_libzip_CompactZipFile_open0
+        (JNIEnv *env, jclass cls, jstring jpath) {
+    struct compact_zip *cz;
+    const char *error;
+    zip_error_t zerror;
+    zip_source_t *src;
+
+    if ((cz = calloc(1, sizeof(struct compact_zip))) == NULL) {
+        ThrowByName(env, "java/lang/OutOfMemoryError", "malloc failed");
+        return 0;
+    }
+    cz->fd = -1;
+    pthread_mutex_init(&cz->lock, NULL);
+
+    const char *path = (*env)->GetStringUTFChars(env, jpath, NULL);
+    if (path == NULL) {
+        compact_free(cz);
+        return 0;
+    }
+    cz->path = strdup(path);
+    cz->fd = open(path, O_RDONLY);
+    (*env)->ReleaseStringUTFChars(env, jpath, path);
+    if (cz->path == NULL || cz->fd < 0) {
+        ThrowIOException(env, cz->path == NULL ? "malloc failed" : strerror(errno));
+        compact_free(cz);
+        return 0;
+    }
+    if ((error = read_cdir(cz)) != NULL) {
+        ThrowIOException(env, error);
+        compact_free(cz);
+        return 0;
+    }
+
+    zip_error_init(&zerror);
+    if ((src = zip_source_buffer_create(empty_archive, EOCD_SIZE, 0, &zerror)) == NULL
+        || (cz->za = zip_open_from_source(src, ZIP_RDONLY, &zerror)) == NULL) {
+        if (src != NULL) {
+            zip_source_free(src);
+        }
+        ThrowIOException(env, zip_error_strerror(&zerror));
+        zip_error_fini(&zerror);
+        compact_free(cz);
+        return 0;
+    }
+    return (jlong) cz;
+}
+
+static void Java_mao_archive_libzip_CompactZipFile_close0
+        (JNIEnv *env, jclass cls, jlong jcz) {
+    compact_free((struct compact_zip *) jcz);
+}
+
+static jint Java_mao_archive_libzip_CompactZipFile_size0
+        (JNIEnv *env, jclass cls, jlong jcz) {
+    struct compact_zip *cz = (struct compact_zip *) jcz;
+    return cz->count > INT32_MAX ? INT32_MAX : (jint) cz->count;
+}
+
+static jobject Java_mao_archive_libzip_CompactZipFile_getEntry0
+        (JNIEnv *env, jclass cls, jlong jcz, jobject zc, jint index) {
+    struct compact_zip *cz = (struct compact_zip *) jcz;
+    struct compact_dirent de;
+    jbyteArray name, comment;
+
+    if (index < 0 || decode_dirent(cz, (zip_uint32_t) index, &de) < 0) {
+        return NULL;
+    }
+    if ((name = (*env)->NewByteArray(env, de.name_len)) == NULL) {
+        return NULL;
+    }
+    (*env)->SetByteArrayRegion(env, name, 0, de.name_len, (const jbyte *) de.name);
+    if ((comment = (*env)->NewByteArray(env, de.comment_len)) == NULL) {
+        return NULL;
+    }
+    (*env)->SetByteArrayRegion(env, comment, 0, de.comment_len, (const jbyte *) de.comment);
+
+    return (*env)->NewObject(env, zipEntryClass, zipEntry_ctor, (jlong) index, zc, name,
+                             (jlong) de.mtime, (jlong) de.crc, (jlong) de.size, (jlong) de.comp_size,
+                             (jint) de.comp_method, (jint) de.encryption_method, NULL, comment);
+}
+
+static jint Java_mao_archive_libzip_CompactZipFile_locate0
+        (JNIEnv *env, jclass cls, jlong jcz, jbyteArray jrawName, jint len) {
+    struct compact_zip *cz = (struct compact_zip *) jcz;
+    const unsigned char *p;
+    zip_uint32_t slot, j;
+    jint index = -1;
+    int ok;
+
+    pthread_mutex_lock(&cz->lock);
+    ok = cz->table != NULL || build_name_table(cz) == 0;
+    pthread_mutex_unlock(&cz->lock);
+    if (!ok) {
+        ThrowByName(env, "java/lang/OutOfMemoryError", "malloc failed");
+        return -1;
+    }
+
+    jbyte *rawName = (*env)->GetByteArrayElements(env, jrawName, NULL);
+    if (rawName == NULL) {
+        return -1;
+    }
+    slot = name_hash((const unsigned char *) rawName, (size_t) len) & cz->mask;
+    while ((j = cz->table[slot]) != 0) {
+        p = cz->cd + cz->offsets[j - 1];
+        if (get16(p + 28) == len && memcmp(p + CDIR_ENTRY_SIZE, rawName, (size_t) len) == 0) {
+            index = (jint) (j - 1);
+            break;
+        }
+        slot = (slot + 1) & cz->mask;
+    }
+    (*env)->ReleaseByteArrayElements(env, jrawName, rawName, JNI_ABORT);
+    return index;
+}
+
+static void throw_zip_error(JNIEnv *env, zip_error_t *error) {
+    switch (zip_error_code_zip(error)) {
+        case ZIP_ER_WRONGPASSWD:
+        case ZIP_ER_NOPASSWD:
+            ThrowByName(env, "mao/archive/libzip/PasswordException", zip_error_strerror(error));
+            break;
+        case ZIP_ER_COMPNOTSUPP:
+        case ZIP_ER_ENCRNOTSUPP:
+            ThrowByName(env, "java/util/zip/ZipException", zip_error_strerror(error));
+            break;
+        default:
+            ThrowIOException(env, zip_error_strerror(error));
+    }
+}
+
+/* same layers as _zip_source_zip_new: window, decrypt, decompress, crc */
+static jlong Java_mao_archive_libzip_CompactZipFile_openEntry0
+        (JNIEnv *env, jclass cls, jlong jcz, jint index, jstring jpassword) {
+    struct compact_zip *cz = (struct compact_zip *) jcz;
+    struct compact_dirent de;
+    unsigned char lh[LOCAL_HEADER_SIZE];
+    zip_source_t *file, *src, *s2;
+    zip_encryption_implementation impl;
+    zip_error_t error;
+    zip_stat_t st;
+    const char *password = NULL;
+
+    if (index < 0 || decode_dirent(cz, (zip_uint32_t) index, &de) < 0) {
+        ThrowIOException(env, "Invalid argument");
+        return 0;
+    }
+    if (read_fully(cz->fd, lh, sizeof(lh), (off_t) de.offset) < 0 || memcmp(lh, "PK\3\4", 4) != 0) {
+        ThrowIOException(env, "Zip archive inconsistent");
+        return 0;
+    }
+
+    zip_stat_init(&st);
+    st.index = (zip_uint64_t) index;
+    st.size = de.size;
+    st.comp_size = de.comp_size;
+    st.comp_method = de.comp_method;
+    st.encryption_method = de.encryption_method;
+    st.crc = de.crc;
+    st.mtime = de.mtime;
+    st.valid = ZIP_STAT_INDEX | ZIP_STAT_SIZE | ZIP_STAT_COMP_SIZE | ZIP_STAT_COMP_METHOD |
+               ZIP_STAT_ENCRYPTION_METHOD | ZIP_STAT_MTIME | (de.crc_valid ? ZIP_STAT_CRC : 0);
+
+    zip_error_init(&error);
+    if (de.comp_size == 0) {
+        if ((src = zip_source_buffer_create(NULL, 0, 0, &error)) == NULL) {
+            goto err;
+        }
+        goto open;
+    }
+    if ((file = zip_source_file_create(cz->path, 0, -1, &error)) == NULL) {
+        goto err;
+    }
+    src = _zip_source_window_new(file, de.offset + LOCAL_HEADER_SIZE + get16(lh + 26) + get16(lh + 28),
+                                 de.comp_size, &st, (zip_int8_t) ((de.bitflags >> 1) & 3), NULL, 0,
+                                 &error);
+    zip_source_free(file);
+    if (src == NULL) {
+        goto err;
+    }
+
+    if (de.encryption_method != ZIP_EM_NONE) {
+        if ((impl = _zip_get_encryption_implementation(de.encryption_method, ZIP_CODEC_DECODE)) == NULL) {
+            zip_error_set(&error, ZIP_ER_ENCRNOTSUPP, 0);
+            goto err_src;
+        }
+        if (jpassword != NULL) {
+            password = (*env)->GetStringUTFChars(env, jpassword, NULL);
+        }
+        if (password == NULL) {
+            zip_error_set(&error, ZIP_ER_NOPASSWD, 0);
+            goto err_src;
+        }
+        s2 = impl(cz->za, src, de.encryption_method, 0, password);
+        (*env)->ReleaseStringUTFChars(env, jpassword, password);
+        zip_source_free(src);
+        if ((src = s2) == NULL) {
+            goto err_za;
+        }
+    }
+    if (de.comp_method != ZIP_CM_STORE) {
+        s2 = zip_source_decompress(cz->za, src, de.comp_method);
+        zip_source_free(src);
+        if ((src = s2) == NULL) {
+            goto err_za;
+        }
+    }
+    s2 = zip_source_crc(cz->za, src, 1);
+    zip_source_free(src);
+    if ((src = s2) == NULL) {
+        goto err_za;
+    }
+
+    open:
+    if (zip_source_open(src) < 0) {
+        zip_error_set(&error, zip_error_code_zip(zip_source_error(src)),
+                      zip_error_code_system(zip_source_error(src)));
+        goto err_src;
+    }
+    return (jlong) src;
+
+    err_za:
+    //创建source的错误记录在za上，复制后清除
+    pthread_mutex_lock(&cz->lock);
+    zip_error_set(&error, zip_error_code_zip(&cz->za->error), zip_error_code_system(&cz->za->error));
+    zip_error_clear(cz->za);
+    pthread_mutex_unlock(&cz->lock);
+    goto err;
+    err_src:
+    zip_source_free(src);
+    err:
+    throw_zip_error(env, &error);
+    zip_error_fini(&error);
+    return 0;
+}
+
+static jint Java_mao_archive_libzip_CompactZipFile_readEntry0
+        (JNIEnv *env, jclass cls, jlong jsrc, jbyteArray bytes, jint off, jint len) {
+    zip_source_t *src = (zip_source_t *) jsrc;
+    jbyte buf[8192];
+    zip_int64_t l;
+
+    if (len > (jint) sizeof(buf)) {
+        len = sizeof(buf);
+    }
+    l = zip_source_read(src, buf, (zip_uint64_t) len);
+    if (l < 0) {
+        ThrowIOException(env, zip_error_strerror(zip_source_error(src)));
+        return -1;
+    }
+    if (l == 0) {
+        return -1;
+    }
+    (*env)->SetByteArrayRegion(env, bytes, off, (jsize) l, buf);
+    return (jint) l;
+}
+
+static void Java_mao_archive_libzip_CompactZipFile_closeEntry0
+        (JNIEnv *env, jclass cls, jlong jsrc) {
+    zip_source_t *src = (zip_source_t *) jsrc;
+
+    zip_source_close(src);
+    zip_source_free(src);
+}
+
+#define NELEM(x) ((int) (sizeof(x) / sizeof((x)[0])))
+
+static JNINativeMethod methods[] = {
+        {"open0",       "(Ljava/lang/String;)J",                                          (void *) Java_mao_archive_libzip_CompactZipFile_open0},
+
+        {"close0",      "(J)V",                                                           (void *) Java_mao_archive_libzip_CompactZipFile_close0},
+
+        {"size0",       "(J)I",                                                           (void *) Java_mao_archive_libzip_CompactZipFile_size0},
+
+        {"getEntry0",   "(JLmao/archive/libzip/ZipCoder;I)Lmao/archive/libzip/ZipEntry;", (void *) Java_mao_archive_libzip_CompactZipFile_getEntry0},
+
+        {"locate0",     "(J[BI)I",                                                        (void *) Java_mao_archive_libzip_CompactZipFile_locate0},
+
+        {"openEntry0",  "(JILjava/lang/String;)J",                                        (void *) Java_mao_archive_libzip_CompactZipFile_openEntry0},
+
+        {"readEntry0",  "(J[BII)I",                                                       (void *) Java_mao_archive_libzip_CompactZipFile_readEntry0},
+
+        {"closeEntry0", "(J)V",                                                           (void *) Java_mao_archive_libzip_CompactZipFile_closeEntry0},
+};
+
+jboolean registerCompactNativeMethods(JNIEnv *env) {
+    jclass clazz = (*env)->FindClass(env, "mao/archive/libzip/CompactZipFile");
+    if (clazz == NULL) {
+        return JNI_FALSE;
+    }
+    if ((*env)->RegisterNatives(env, clazz, methods, NELEM(methods)) < 0) {
+        return JNI_FALSE;
+    }
+
+    zipEntryClass = (*env)->NewGlobalRef(env, (*env)->FindClass(env, "mao/archive/libzip/ZipEntry"));
+    zipEntry_ctor = (*env)->GetMethodID(env, zipEntryClass, "<init>",
+                                        "(JLmao/archive/libzip/ZipCoder;[B" "JJJJII[B[B)V");
+    return JNI_TRUE;
+}
@@ -44,6 +44,17 @@ extern "C" {
 
 #include <zipconf.h>
 
+/* nullability qualifiers are clang only */
+#if defined(__has_feature)
+#if !__has_feature(nullability)
+#define _Nullable
+#define _Nonnull
+#endif
+#else
+#define _Nullable
+#define _Nonnull
+#endif
+
 #ifndef ZIP_EXTERN
 #ifndef ZIP_STATIC
 #ifdef _WIN32
@@ -92,6 +103,9 @@ extern "C" {
 /* archive global flags flags */
 
 #define ZIP_AFL_RDONLY 2u /* read only -- cannot be cleared */
+/* not in upstream libzip */
+#define ZIP_AFL_APPEND 256u  /* zip_close writes after the data of the existing entries instead of rewriting the archive */
+#define ZIP_AFL_COMPACT 512u /* zip_close rewrites the whole archive, even if nothing else changed */
 
 
 /* create a new extra field */
@@ -134,6 +148,7 @@ extern "C" {
 #define ZIP_ER_INUSE 29           /* N Resource still in use */
 #define ZIP_ER_TELL 30            /* S Tell error */
 #define ZIP_ER_COMPRESSED_DATA 31 /* N Compressed data invalid */
+#define ZIP_ER_CANCELLED 32       /* N Operation cancelled */
 
 /* type of system error value */
 
@@ -162,6 +177,7 @@ extern "C" {
 /* 15-17 - Reserved by PKWARE */
 #define ZIP_CM_TERSE 18   /* compressed using IBM TERSE (new) */
 #define ZIP_CM_LZ77 19    /* IBM LZ77 z Architecture (PFS) */
+#define ZIP_CM_ZSTD 93    /* Zstandard compressed data */
 #define ZIP_CM_XZ 95      /* XZ compressed data */
 #define ZIP_CM_JPEG 96    /* Compressed Jpeg data */
 #define ZIP_CM_WAVPACK 97 /* WavPack compressed data */
@@ -229,7 +245,8 @@ enum zip_source_cmd {
     ZIP_SOURCE_SUPPORTS,              /* check whether source supports command */
     ZIP_SOURCE_REMOVE,                /* remove file */
     ZIP_SOURCE_GET_COMPRESSION_FLAGS, /* get compression flags, internal only */
-    ZIP_SOURCE_BEGIN_WRITE_CLONING    /* like ZIP_SOURCE_BEGIN_WRITE, but keep part of original file */
+    ZIP_SOURCE_BEGIN_WRITE_CLONING,   /* like ZIP_SOURCE_BEGIN_WRITE, but keep part of original file */
+    ZIP_SOURCE_BEGIN_WRITE_IN_PLACE   /* like ZIP_SOURCE_BEGIN_WRITE_CLONING, but write into the original file */
 };
 typedef enum zip_source_cmd zip_source_cmd_t;
 
@@ -321,6 +338,7 @@ typedef zip_uint32_t zip_flags_t;
 
 typedef zip_int64_t (*zip_source_callback)(void * _Nullable, void * _Nullable, zip_uint64_t, zip_source_cmd_t);
 typedef void (*zip_progress_callback)(zip_t * _Nonnull, double, void * _Nullable);
+typedef int (*zip_cancel_callback)(zip_t * _Nonnull, void * _Nullable);
 
 #ifndef ZIP_DISABLE_DEPRECATED
 typedef void (*zip_progress_callback_t)(double);
@@ -393,12 +411,14 @@ ZIP_EXTERN zip_int64_t zip_name_locate(zip_t * _Nonnull, const char * _Nonnull,
 ZIP_EXTERN zip_t * _Nullable zip_open(const char * _Nonnull, int, int * _Nullable);
 ZIP_EXTERN zip_t * _Nullable zip_open_from_source(zip_source_t * _Nonnull, int, zip_error_t * _Nullable);
 ZIP_EXTERN int zip_register_progress_callback_with_state(zip_t * _Nonnull, double, zip_progress_callback _Nullable, void (* _Nullable)(void * _Nullable), void * _Nullable);
+ZIP_EXTERN int zip_register_cancel_callback_with_state(zip_t * _Nonnull, zip_cancel_callback _Nullable, void (* _Nullable)(void * _Nullable), void * _Nullable);
 ZIP_EXTERN int zip_set_archive_comment(zip_t * _Nonnull, const char * _Nullable, zip_uint16_t);
 ZIP_EXTERN int zip_set_archive_flag(zip_t * _Nonnull, zip_flags_t, int);
 ZIP_EXTERN int zip_set_default_password(zip_t * _Nonnull, const char * _Nullable);
 ZIP_EXTERN int zip_set_file_compression(zip_t * _Nonnull, zip_uint64_t, zip_int32_t, zip_uint32_t);
 ZIP_EXTERN int zip_source_begin_write(zip_source_t * _Nonnull);
 ZIP_EXTERN int zip_source_begin_write_cloning(zip_source_t * _Nonnull, zip_uint64_t);
+ZIP_EXTERN int zip_source_begin_write_in_place(zip_source_t * _Nonnull, zip_uint64_t);
 ZIP_EXTERN zip_source_t * _Nullable zip_source_buffer(zip_t * _Nonnull, const void * _Nullable, zip_uint64_t, int);
 ZIP_EXTERN zip_source_t * _Nullable zip_source_buffer_create(const void * _Nullable, zip_uint64_t, int, zip_error_t * _Nullable);
 ZIP_EXTERN zip_source_t * _Nullable zip_source_buffer_fragment(zip_t * _Nonnull, const zip_buffer_fragment_t * _Nonnull, zip_uint64_t, int);
@@ -55,6 +55,10 @@ static int add_data(zip_t *, zip_source_t *, zip_dirent_t *);
 static int copy_data(zip_t *, zip_uint64_t);
 static int copy_source(zip_t *, zip_source_t *, zip_int64_t);
 static int write_cdir(zip_t *, const zip_filelist_t *, zip_uint64_t);
+static int data_end(zip_t *, zip_uint64_t *);
+static bool needs_rewrite_in_place(const zip_entry_t *);
+static int write_data_descriptor(zip_t *, const zip_dirent_t *);
+static int source_crc(zip_t *, zip_source_t *, zip_uint32_t *);
 
 ZIP_EXTERN int
 zip_close(zip_t *za) {
@@ -63,6 +67,7 @@ zip_close(zip_t *za) {
     int error;
     zip_filelist_t *filelist;
     int changed;
+    bool in_place;
 
     if (za == NULL)
 	return -1;
@@ -119,28 +124,32 @@ zip_close(zip_t *za) {
 	return -1;
     }
 
-    if ((zip_source_supports(za->src) & ZIP_SOURCE_MAKE_COMMAND_BITMASK(ZIP_SOURCE_BEGIN_WRITE_CLONING)) == 0) {
+    in_place = false;
+    if ((za->ch_flags & ZIP_AFL_APPEND) && (za->ch_flags & ZIP_AFL_COMPACT) == 0 && (zip_source_supports(za->src) & ZIP_SOURCE_MAKE_COMMAND_BITMASK(ZIP_SOURCE_BEGIN_WRITE_IN_PLACE))) {
+	/* keep the data of all original entries where it is, also of deleted and replaced ones,
+	   write the new data and central directory after it */
+	if (data_end(za, &unchanged_offset) < 0) {
+	    free(filelist);
+	    return -1;
+	}
+	if (unchanged_offset > 0 && zip_source_begin_write_in_place(za->src, unchanged_offset) == 0) {
+	    in_place = true;
+	}
+	else {
+	    /* no original data or writing in place not possible, rewrite everything */
+	    unchanged_offset = 0;
+	}
+    }
+    else if ((za->ch_flags & ZIP_AFL_COMPACT) || (zip_source_supports(za->src) & ZIP_SOURCE_MAKE_COMMAND_BITMASK(ZIP_SOURCE_BEGIN_WRITE_CLONING)) == 0) {
+	/* compacting drops the space of deleted entries, cloning would keep it */
 	unchanged_offset = 0;
     }
     else {
 	if (unchanged_offset == ZIP_UINT64_MAX) {
 	    /* we're keeping all file data, find the end of the last one */
-	    zip_uint64_t last_index = ZIP_UINT64_MAX;
-	    unchanged_offset = 0;
-
-	    for (i = 0; i < za->nentry; i++) {
-		if (za->entry[i].orig != NULL) {
-		    if (za->entry[i].orig->offset >= unchanged_offset) {
-			unchanged_offset = za->entry[i].orig->offset;
-			last_index = i;
-		    }
-		}
-	    }
-	    if (last_index != ZIP_UINT64_MAX) {
-		if ((unchanged_offset = _zip_file_get_end(za, last_index, &za->error)) == 0) {
-		    free(filelist);
-		    return -1;
-		}
+	    if (data_end(za, &unchanged_offset) < 0) {
+		free(filelist);
+		return -1;
 	    }
 	}
 	if (unchanged_offset > 0) {
@@ -158,20 +167,29 @@ zip_close(zip_t *za) {
 	}
     }
 
-    _zip_progress_start(za->progress);
+    if (_zip_progress_start(za->progress) != 0) {
+	zip_error_set(&za->error, ZIP_ER_CANCELLED, 0);
+	zip_source_rollback_write(za->src);
+	free(filelist);
+	return -1;
+    }
     error = 0;
     for (j = 0; j < survivors; j++) {
 	int new_data;
 	zip_entry_t *entry;
 	zip_dirent_t *de;
 
-	_zip_progress_subrange(za->progress, (double)j / (double)survivors, (double)(j + 1) / (double)survivors);
+	if (_zip_progress_subrange(za->progress, (double)j / (double)survivors, (double)(j + 1) / (double)survivors) != 0) {
+	    zip_error_set(&za->error, ZIP_ER_CANCELLED, 0);
+	    error = 1;
+	    break;
+	}
 
 	i = filelist[j].idx;
 	entry = za->entry + i;
 
-	if (entry->orig != NULL && entry->orig->offset < unchanged_offset) {
-	    /* already implicitly copied by cloning */
+	if (entry->orig != NULL && entry->orig->offset < unchanged_offset && !(in_place && needs_rewrite_in_place(entry))) {
+	    /* already implicitly copied by cloning, or kept in place */
 	    continue;
 	}
 
@@ -271,15 +289,49 @@ zip_close(zip_t *za) {
 }
 
 
+/* end of the data of the original entry stored last, 0 if there is none */
+static int
+data_end(zip_t *za, zip_uint64_t *end) {
+    zip_uint64_t i, offset, last_index;
+
+    last_index = ZIP_UINT64_MAX;
+    offset = 0;
+    for (i = 0; i < za->nentry; i++) {
+	if (za->entry[i].orig != NULL) {
+	    if (za->entry[i].orig->offset >= offset) {
+		offset = za->entry[i].orig->offset;
+		last_index = i;
+	    }
+	}
+    }
+    *end = 0;
+    if (last_index != ZIP_UINT64_MAX) {
+	if ((*end = _zip_file_get_end(za, last_index, &za->error)) == 0) {
+	    return -1;
+	}
+    }
+    return 0;
+}
+
+
+/* Entries kept in place can only change fields that are not in the local header,
+   others are written again after the kept data. */
+static bool
+needs_rewrite_in_place(const zip_entry_t *entry) {
+    return ZIP_ENTRY_DATA_CHANGED(entry) || ZIP_ENTRY_CHANGED(entry, ~(ZIP_DIRENT_COMMENT | ZIP_DIRENT_ATTRIBUTES));
+}
+
+
 static int
 add_data(zip_t *za, zip_source_t *src, zip_dirent_t *de) {
     zip_int64_t offstart, offdata, offend, data_length;
-    struct zip_stat st;
+    struct zip_stat st, st_raw;
     zip_source_t *src_final, *src_tmp;
     int ret;
     int is_zip64;
     zip_flags_t flags;
     zip_int8_t compression_flags;
+    bool streaming, data_descriptor;
     bool needs_recompress, needs_decompress, needs_crc, needs_compress, needs_reencrypt, needs_decrypt, needs_encrypt;
 
     if (zip_source_stat(src, &st) < 0) {
@@ -338,6 +390,11 @@ add_data(zip_t *za, zip_source_t *src, zip_dirent_t *de) {
 		max_size = 0xffffffffu;
 		break;
 
+	    case ZIP_CM_ZSTD:
+		/* max zstd size increase: size + size/256 + block headers, rounded down */
+		max_size = 4278124286u;
+		break;
+
 	    default:
 		max_size = 0;
 	    }
@@ -355,8 +412,67 @@ add_data(zip_t *za, zip_source_t *src, zip_dirent_t *de) {
 	return -1;
     }
 
-    /* as long as we don't support non-seekable output, clear data descriptor bit */
-    de->bitflags &= (zip_uint16_t)~ZIP_GPBF_DATA_DESCRIPTOR;
+    /* output that can't seek back to the local header gets crc and sizes in a data descriptor */
+    streaming = (zip_source_supports(za->src) & ZIP_SOURCE_MAKE_COMMAND_BITMASK(ZIP_SOURCE_SEEK_WRITE)) == 0;
+    data_descriptor = false;
+
+    if (streaming) {
+	/* the local header is written only once, everything in it must be final */
+	if (ZIP_CM_IS_DEFAULT(de->comp_method)) {
+	    /* default would switch to store after compressing the first chunk */
+	    de->comp_method = ZIP_CM_DEFLATE;
+	}
+	if ((de->changed & ZIP_DIRENT_LAST_MOD) == 0) {
+	    if (st.valid & ZIP_STAT_MTIME)
+		de->last_mod = st.mtime;
+	    else
+		time(&de->last_mod);
+	}
+	/* data copied as is can get crc and sizes in the local header, readers like
+	   java.util.zip.ZipInputStream reject stored entries with a data descriptor */
+	if (st.comp_method == ZIP_CM_ACTUAL(de->comp_method) && st.encryption_method == de->encryption_method && (de->changed & ZIP_DIRENT_PASSWORD) == 0) {
+	    if ((st.valid & ZIP_STAT_COMP_SIZE) == 0 && st.comp_method != ZIP_CM_STORE) {
+		/* the compressed size was dropped above for an explicitly set method, but the data is not recompressed */
+		if (zip_source_stat(src, &st_raw) < 0) {
+		    _zip_error_set_from_source(&za->error, src);
+		    return -1;
+		}
+		if (st_raw.valid & ZIP_STAT_COMP_SIZE) {
+		    st.valid |= ZIP_STAT_COMP_SIZE;
+		    st.comp_size = st_raw.comp_size;
+		}
+	    }
+	    /* stored data from a source that can be read twice: the crc is computed before */
+	    if ((st.valid & ZIP_STAT_CRC) == 0 && st.comp_method == ZIP_CM_STORE && st.encryption_method == ZIP_EM_NONE && (zip_source_supports(src) & ZIP_SOURCE_MAKE_COMMAND_BITMASK(ZIP_SOURCE_SEEK)) != 0) {
+		if (source_crc(za, src, &st.crc) < 0) {
+		    return -1;
+		}
+		st.valid |= ZIP_STAT_CRC;
+	    }
+	}
+	else {
+	    st.valid &= ~ZIP_STAT_CRC;
+	}
+	if ((st.valid & (ZIP_STAT_CRC | ZIP_STAT_SIZE | ZIP_STAT_COMP_SIZE)) == (ZIP_STAT_CRC | ZIP_STAT_SIZE | ZIP_STAT_COMP_SIZE)) {
+	    de->crc = st.crc;
+	    de->comp_size = st.comp_size;
+	    de->uncomp_size = st.size;
+	    de->bitflags &= (zip_uint16_t)~ZIP_GPBF_DATA_DESCRIPTOR;
+	}
+	else {
+	    data_descriptor = true;
+	    de->crc = 0;
+	    de->comp_size = 0;
+	    de->uncomp_size = 0;
+	    de->bitflags |= ZIP_GPBF_DATA_DESCRIPTOR;
+	}
+	/* like most streaming writers, sizes go to Zip64 fields only if they need it */
+	flags &= ~ZIP_FL_FORCE_ZIP64;
+	_zip_dirent_set_version_needed(de, false);
+    }
+    else {
+	de->bitflags &= (zip_uint16_t)~ZIP_GPBF_DATA_DESCRIPTOR;
+    }
     if ((is_zip64 = _zip_dirent_write(za, de, flags)) < 0) {
 	return -1;
     }
@@ -477,13 +593,35 @@ add_data(zip_t *za, zip_source_t *src, zip_dirent_t *de) {
 	return -1;
     }
 
-    if (zip_source_seek_write(za->src, offstart, SEEK_SET) < 0) {
-	_zip_error_set_from_source(&za->error, za->src);
+    if ((st.valid & (ZIP_STAT_COMP_METHOD | ZIP_STAT_CRC | ZIP_STAT_SIZE)) != (ZIP_STAT_COMP_METHOD | ZIP_STAT_CRC | ZIP_STAT_SIZE)) {
+	zip_error_set(&za->error, ZIP_ER_INTERNAL, 0);
 	return -1;
     }
 
-    if ((st.valid & (ZIP_STAT_COMP_METHOD | ZIP_STAT_CRC | ZIP_STAT_SIZE)) != (ZIP_STAT_COMP_METHOD | ZIP_STAT_CRC | ZIP_STAT_SIZE)) {
-	zip_error_set(&za->error, ZIP_ER_INTERNAL, 0);
+    if (streaming) {
+	if (st.comp_method != de->comp_method) {
+	    /* method in the local header was wrong */
+	    zip_error_set(&za->error, ZIP_ER_INTERNAL, 0);
+	    return -1;
+	}
+	if (!data_descriptor) {
+	    if (de->crc != st.crc || de->uncomp_size != st.size || de->comp_size != (zip_uint64_t)(offend - offdata)) {
+		/* source data changed after its crc and sizes were written */
+		zip_error_set(&za->error, ZIP_ER_CHANGED, 0);
+		return -1;
+	    }
+	    return 0;
+	}
+	/* the central directory keeps the compression flags of the local header */
+	de->crc = st.crc;
+	de->uncomp_size = st.size;
+	de->comp_size = (zip_uint64_t)(offend - offdata);
+	_zip_dirent_set_version_needed(de, false);
+	return write_data_descriptor(za, de);
+    }
+
+    if (zip_source_seek_write(za->src, offstart, SEEK_SET) < 0) {
+	_zip_error_set_from_source(&za->error, za->src);
 	return -1;
     }
 
@@ -518,6 +656,83 @@ add_data(zip_t *za, zip_source_t *src, zip_dirent_t *de) {
 }
 
 
+/* Data descriptor after the data of a streamed entry, the sizes take 8 bytes
+   if either of them does not fit in 4, as java.util.zip and libzip itself read it. */
+static int
+write_data_descriptor(zip_t *za, const zip_dirent_t *de) {
+    zip_uint8_t buf[24];
+    zip_buffer_t *buffer;
+    bool is_winzip_aes;
+    int ret;
+
+    is_winzip_aes = de->encryption_method == ZIP_EM_AES_128 || de->encryption_method == ZIP_EM_AES_192 || de->encryption_method == ZIP_EM_AES_256;
+
+    if ((buffer = _zip_buffer_new(buf, sizeof(buf))) == NULL) {
+	zip_error_set(&za->error, ZIP_ER_MEMORY, 0);
+	return -1;
+    }
+
+    _zip_buffer_put(buffer, DATADES_MAGIC, 4);
+    /* same crc as in the central directory */
+    _zip_buffer_put_32(buffer, is_winzip_aes && de->uncomp_size < 20 ? 0 : de->crc);
+    if (de->comp_size >= ZIP_UINT32_MAX || de->uncomp_size >= ZIP_UINT32_MAX) {
+	_zip_buffer_put_64(buffer, de->comp_size);
+	_zip_buffer_put_64(buffer, de->uncomp_size);
+    }
+    else {
+	_zip_buffer_put_32(buffer, (zip_uint32_t)de->comp_size);
+	_zip_buffer_put_32(buffer, (zip_uint32_t)de->uncomp_size);
+    }
+
+    if (!_zip_buffer_ok(buffer)) {
+	zip_error_set(&za->error, ZIP_ER_INTERNAL, 0);
+	_zip_buffer_free(buffer);
+	return -1;
+    }
+
+    ret = _zip_write(za, buf, _zip_buffer_offset(buffer));
+    _zip_buffer_free(buffer);
+
+    return ret < 0 ? -1 : 0;
+}
+
+
+/* Reads src once to get the crc of its data, src is read again when it is copied. */
+static int
+source_crc(zip_t *za, zip_source_t *src, zip_uint32_t *crcp) {
+    DEFINE_BYTE_ARRAY(buf, BUFSIZE);
+    zip_int64_t n;
+    uLong crc;
+
+    if (zip_source_open(src) < 0) {
+	_zip_error_set_from_source(&za->error, src);
+	return -1;
+    }
+
+    if (!byte_array_init(buf, BUFSIZE)) {
+	zip_error_set(&za->error, ZIP_ER_MEMORY, 0);
+	zip_source_close(src);
+	return -1;
+    }
+
+    crc = crc32(0, NULL, 0);
+    while ((n = zip_source_read(src, buf, BUFSIZE)) > 0) {
+	crc = crc32(crc, buf, (uInt)n);
+    }
+
+    if (n < 0) {
+	_zip_error_set_from_source(&za->error, src);
+    }
+
+    byte_array_fini(buf);
+
+    zip_source_close(src);
+
+    *crcp = (zip_uint32_t)crc;
+    return n < 0 ? -1 : 0;
+}
+
+
 static int
 copy_data(zip_t *za, zip_uint64_t len) {
     DEFINE_BYTE_ARRAY(buf, BUFSIZE);
@@ -543,7 +758,11 @@ copy_data(zip_t *za, zip_uint64_t len) {
 
 	len -= n;
 
-	_zip_progress_update(za->progress, (total - (double)len) / total);
+	if (_zip_progress_update(za->progress, (total - (double)len) / total) != 0) {
+	    zip_error_set(&za->error, ZIP_ER_CANCELLED, 0);
+	    byte_array_fini(buf);
+	    return -1;
+	}
     }
 
     byte_array_fini(buf);
@@ -574,9 +793,14 @@ copy_source(zip_t *za, zip_source_t *src, zip_int64_t data_length) {
 	    ret = -1;
 	    break;
 	}
-	if (n == BUFSIZE && za->progress && data_length > 0) {
+	/* also reached for data of unknown length, so cancellation is noticed */
+	if (n == BUFSIZE && za->progress) {
 	    current += n;
-	    _zip_progress_update(za->progress, (double)current / (double)data_length);
+	    if (_zip_progress_update(za->progress, data_length > 0 ? (double)current / (double)data_length : 0.0) != 0) {
+		zip_error_set(&za->error, ZIP_ER_CANCELLED, 0);
+		ret = -1;
+		break;
+	    }
 	}
     }
 
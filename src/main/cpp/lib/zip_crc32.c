@@ -0,0 +1,239 @@
+/*
+  zip_crc32.c -- CRC-32 using the crc instructions of the cpu when present
+
+  x86 and x86_64 fold 64 bytes per round with carry-less multiplication
+  (PCLMULQDQ), see "Fast CRC Computation for Generic Polynomials Using
+  PCLMULQDQ Instruction", Intel 2009. ARMv8 uses the CRC32 instructions.
+  Other cpus, and short buffers, use the table driven crc32() of zlib.
+  The choice is made once at runtime, so one binary runs on every cpu of its abi.
+*/
+
+#include "zipint.h"
+
+#include <pthread.h>
+#include <zlib.h>
+
+#if defined(__x86_64__) || defined(__i386__)
+#include <cpuid.h>
+#include <immintrin.h>
+#define HAVE_CRC32_PCLMUL
+#elif defined(__aarch64__) && defined(__ARM_FEATURE_CRC32)
+/* the file is built with -march=armv8-a+crc, see CMakeLists.txt */
+#include <arm_acle.h>
+#include <sys/auxv.h>
+#ifndef HWCAP_CRC32
+#define HWCAP_CRC32 (1 << 7)
+#endif
+#define HAVE_CRC32_ARMV8
+#endif
+
+/* shorter buffers are not worth the setup of the folding registers */
+#define PCLMUL_MINIMUM_LENGTH 64
+
+typedef zip_uint32_t (*crc32_function)(zip_uint32_t crc, const zip_uint8_t *data, size_t length);
+
+static pthread_once_t crc32_once = PTHREAD_ONCE_INIT;
+static crc32_function crc32_impl;
+static const char *crc32_name;
+
+
+static zip_uint32_t
+crc32_zlib(zip_uint32_t crc, const zip_uint8_t *data, size_t length) {
+    size_t n;
+
+    while (length > 0) {
+	n = length > UINT_MAX ? UINT_MAX : length;
+	crc = (zip_uint32_t)crc32(crc, data, (uInt)n);
+	data += n;
+	length -= n;
+    }
+    return crc;
+}
+
+
+#ifdef HAVE_CRC32_PCLMUL
+/* folds length bytes, length is at least 64 and a multiple of 16, crc is not inverted */
+__attribute__((target("sse4.1,pclmul"))) static zip_uint32_t
+crc32_fold_pclmul(zip_uint32_t crc, const zip_uint8_t *data, size_t length) {
+    /* constants of the bit-reflected crc-32 polynomial, from the paper */
+    static const zip_uint64_t k1k2[] __attribute__((aligned(16))) = {0x0154442bd4, 0x01c6e41596};
+    static const zip_uint64_t k3k4[] __attribute__((aligned(16))) = {0x01751997d0, 0x00ccaa009e};
+    static const zip_uint64_t k5k0[] __attribute__((aligned(16))) = {0x0163cd6124, 0x0000000000};
+    static const zip_uint64_t poly[] __attribute__((aligned(16))) = {0x01db710641, 0x01f7011641};
+    __m128i x0, x1, x2, x3, x4, x5, x6, x7, x8, y5, y6, y7, y8;
+
+    x1 = _mm_loadu_si128((const __m128i *)(data + 0x00));
+    x2 = _mm_loadu_si128((const __m128i *)(data + 0x10));
+    x3 = _mm_loadu_si128((const __m128i *)(data + 0x20));
+    x4 = _mm_loadu_si128((const __m128i *)(data + 0x30));
+    x1 = _mm_xor_si128(x1, _mm_cvtsi32_si128((int)crc));
+    x0 = _mm_load_si128((const __m128i *)k1k2);
+    data += 64;
+    length -= 64;
+
+    /* four blocks of 16 bytes in parallel */
+    while (length >= 64) {
+	x5 = _mm_clmulepi64_si128(x1, x0, 0x00);
+	x6 = _mm_clmulepi64_si128(x2, x0, 0x00);
+	x7 = _mm_clmulepi64_si128(x3, x0, 0x00);
+	x8 = _mm_clmulepi64_si128(x4, x0, 0x00);
+
+	x1 = _mm_clmulepi64_si128(x1, x0, 0x11);
+	x2 = _mm_clmulepi64_si128(x2, x0, 0x11);
+	x3 = _mm_clmulepi64_si128(x3, x0, 0x11);
+	x4 = _mm_clmulepi64_si128(x4, x0, 0x11);
+
+	y5 = _mm_loadu_si128((const __m128i *)(data + 0x00));
+	y6 = _mm_loadu_si128((const __m128i *)(data + 0x10));
+	y7 = _mm_loadu_si128((const __m128i *)(data + 0x20));
+	y8 = _mm_loadu_si128((const __m128i *)(data + 0x30));
+
+	x1 = _mm_xor_si128(_mm_xor_si128(x1, x5), y5);
+	x2 = _mm_xor_si128(_mm_xor_si128(x2, x6), y6);
+	x3 = _mm_xor_si128(_mm_xor_si128(x3, x7), y7);
+	x4 = _mm_xor_si128(_mm_xor_si128(x4, x8), y8);
+
+	data += 64;
+	length -= 64;
+    }
+
+    /* fold the four blocks into one */
+    x0 = _mm_load_si128((const __m128i *)k3k4);
+
+    x5 = _mm_clmulepi64_si128(x1, x0, 0x00);
+    x1 = _mm_clmulepi64_si128(x1, x0, 0x11);
+    x1 = _mm_xor_si128(_mm_xor_si128(x1, x2), x5);
+
+    x5 = _mm_clmulepi64_si128(x1, x0, 0x00);
+    x1 = _mm_clmulepi64_si128(x1, x0, 0x11);
+    x1 = _mm_xor_si128(_mm_xor_si128(x1, x3), x5);
+
+    x5 = _mm_clmulepi64_si128(x1, x0, 0x00);
+    x1 = _mm_clmulepi64_si128(x1, x0, 0x11);
+    x1 = _mm_xor_si128(_mm_xor_si128(x1, x4), x5);
+
+    /* remaining blocks of 16 bytes */
+    while (length >= 16) {
+	x2 = _mm_loadu_si128((const __m128i *)data);
+
+	x5 = _mm_clmulepi64_si128(x1, x0, 0x00);
+	x1 = _mm_clmulepi64_si128(x1, x0, 0x11);
+	x1 = _mm_xor_si128(_mm_xor_si128(x1, x2), x5);
+
+	data += 16;
+	length -= 16;
+    }
+
+    /* 128 to 64 bits */
+    x2 = _mm_clmulepi64_si128(x1, x0, 0x10);
+    x3 = _mm_setr_epi32(~0, 0, ~0, 0);
+    x1 = _mm_srli_si128(x1, 8);
+    x1 = _mm_xor_si128(x1, x2);
+
+    x0 = _mm_loadl_epi64((const __m128i *)k5k0);
+
+    x2 = _mm_srli_si128(x1, 4);
+    x1 = _mm_and_si128(x1, x3);
+    x1 = _mm_clmulepi64_si128(x1, x0, 0x00);
+    x1 = _mm_xor_si128(x1, x2);
+
+    /* Barrett reduction to 32 bits */
+    x0 = _mm_load_si128((const __m128i *)poly);
+
+    x2 = _mm_and_si128(x1, x3);
+    x2 = _mm_clmulepi64_si128(x2, x0, 0x10);
+    x2 = _mm_and_si128(x2, x3);
+    x2 = _mm_clmulepi64_si128(x2, x0, 0x00);
+    x1 = _mm_xor_si128(x1, x2);
+
+    return (zip_uint32_t)_mm_extract_epi32(x1, 1);
+}
+
+
+static zip_uint32_t
+crc32_pclmul(zip_uint32_t crc, const zip_uint8_t *data, size_t length) {
+    size_t n;
+
+    if (length >= PCLMUL_MINIMUM_LENGTH) {
+	n = length & ~(size_t)15;
+	crc = ~crc32_fold_pclmul(~crc, data, n);
+	data += n;
+	length -= n;
+    }
+    return length > 0 ? crc32_zlib(crc, data, length) : crc;
+}
+
+
+static int
+cpu_has_pclmul(void) {
+    unsigned int eax, ebx, ecx, edx;
+
+    if (!__get_cpuid(1, &eax, &ebx, &ecx, &edx)) {
+	return 0;
+    }
+    return (ecx & bit_PCLMUL) && (ecx & bit_SSE4_1);
+}
+#endif
+
+
+#ifdef HAVE_CRC32_ARMV8
+static zip_uint32_t
+crc32_armv8(zip_uint32_t crc, const zip_uint8_t *data, size_t length) {
+    crc = ~crc;
+    while (length > 0 && ((uintptr_t)data & 7) != 0) {
+	crc = __crc32b(crc, *data++);
+	length--;
+    }
+    while (length >= 32) {
+	crc = __crc32d(crc, *(const zip_uint64_t *)(data + 0));
+	crc = __crc32d(crc, *(const zip_uint64_t *)(data + 8));
+	crc = __crc32d(crc, *(const zip_uint64_t *)(data + 16));
+	crc = __crc32d(crc, *(const zip_uint64_t *)(data + 24));
+	data += 32;
+	length -= 32;
+    }
+    while (length >= 8) {
+	crc = __crc32d(crc, *(const zip_uint64_t *)data);
+	data += 8;
+	length -= 8;
+    }
+    while (length > 0) {
+	crc = __crc32b(crc, *data++);
+	length--;
+    }
+    return ~crc;
+}
+#endif
+
+
+static void
+crc32_init(void) {
+    crc32_impl = crc32_zlib;
+    crc32_name = "zlib";
+#ifdef HAVE_CRC32_PCLMUL
+    if (cpu_has_pclmul()) {
+	crc32_impl = crc32_pclmul;
+	crc32_name = "pclmul";
+    }
+#endif
+#ifdef HAVE_CRC32_ARMV8
+    if (getauxval(AT_HWCAP) & HWCAP_CRC32) {
+	crc32_impl = crc32_armv8;
+	crc32_name = "armv8-crc32";
+    }
+#endif
+}
+
+
+zip_uint32_t
+_zip_crc32(zip_uint32_t crc, const zip_uint8_t *data, zip_uint64_t length) {
+    pthread_once(&crc32_once, crc32_init);
+    return crc32_impl(crc, data, (size_t)length);
+}
+
+
+const char *
+_zip_crc32_implementation(void) {
+    pthread_once(&crc32_once, crc32_init);
+    return crc32_name;
+}
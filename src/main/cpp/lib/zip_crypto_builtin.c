@@ -0,0 +1,963 @@
+/*
+  zip_crypto_builtin.c -- built-in AES, SHA-1, HMAC and PBKDF2
+
+  Portable C versions are always compiled in. x86 and x86_64 use AES-NI
+  and the SHA extensions, arm64 uses the ARMv8 crypto extensions, when the
+  cpu has them. The choice is made once at runtime, after a self-test of
+  the accelerated code against the portable one.
+
+  WinZip AES uses AES in counter mode, so long runs of key stream do not
+  depend on each other and are split over a few worker threads, while the
+  calling thread computes the HMAC-SHA1 of the data.
+*/
+
+#include <pthread.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+
+#include "zipint.h"
+
+#include "zip_crypto.h"
+
+#if defined(__x86_64__) || defined(__i386__)
+#include <cpuid.h>
+#include <immintrin.h>
+#define HAVE_CRYPTO_X86
+#elif defined(__aarch64__) && defined(__ARM_FEATURE_CRYPTO)
+/* the file is built with -march=armv8-a+crypto, see CMakeLists.txt */
+#include <arm_neon.h>
+#include <sys/auxv.h>
+#ifndef HWCAP_AES
+#define HWCAP_AES (1 << 3)
+#endif
+#ifndef HWCAP_SHA1
+#define HWCAP_SHA1 (1 << 5)
+#endif
+#define HAVE_CRYPTO_ARMV8
+#endif
+
+/* runs shorter than this are not worth waking up the workers (64k) */
+#define PARALLEL_MINIMUM_BLOCKS 4096
+/* smallest piece of a run given to one thread (16k) */
+#define PART_MINIMUM_BLOCKS 1024
+#define MAX_THREADS 8
+#define DEFAULT_MAX_THREADS 3
+
+typedef void (*ctr_function)(const _zip_crypto_aes_t *aes, const zip_uint8_t *first, zip_uint8_t *out, zip_uint64_t nblocks);
+typedef void (*sha1_function)(zip_uint32_t *state, const zip_uint8_t *data, zip_uint64_t nblocks);
+
+static pthread_once_t crypto_once = PTHREAD_ONCE_INIT;
+static ctr_function ctr_impl;
+static sha1_function sha1_impl;
+static char crypto_name[32];
+
+static zip_uint8_t sbox[256];
+static zip_uint32_t te[4][256];
+
+struct ctr_job {
+    const _zip_crypto_aes_t *aes;
+    zip_uint8_t first[ZIP_CRYPTO_AES_BLOCK_LENGTH];
+    zip_uint8_t *out;
+    zip_uint64_t nblocks;
+    int parts;
+    int next; /* next part to take */
+    int done;
+};
+
+static struct {
+    pthread_mutex_t lock;
+    pthread_cond_t work;
+    pthread_cond_t finished;
+    pthread_mutex_t busy; /* one run uses the workers at a time */
+    struct ctr_job *job;
+    int threads; /* wanted, -1 until initialized */
+    int started;
+} pool = {PTHREAD_MUTEX_INITIALIZER, PTHREAD_COND_INITIALIZER, PTHREAD_COND_INITIALIZER, PTHREAD_MUTEX_INITIALIZER, NULL, -1, 0};
+
+
+static zip_uint32_t
+load_be32(const zip_uint8_t *p) {
+    return (zip_uint32_t)p[0] << 24 | (zip_uint32_t)p[1] << 16 | (zip_uint32_t)p[2] << 8 | p[3];
+}
+
+
+static void
+store_be32(zip_uint8_t *p, zip_uint32_t v) {
+    p[0] = (zip_uint8_t)(v >> 24);
+    p[1] = (zip_uint8_t)(v >> 16);
+    p[2] = (zip_uint8_t)(v >> 8);
+    p[3] = (zip_uint8_t)v;
+}
+
+
+static zip_uint64_t
+load_le64(const zip_uint8_t *p) {
+    zip_uint64_t v = 0;
+    int i;
+
+    for (i = 7; i >= 0; i--) {
+	v = v << 8 | p[i];
+    }
+    return v;
+}
+
+
+static void
+store_le64(zip_uint8_t *p, zip_uint64_t v) {
+    int i;
+
+    for (i = 0; i < 8; i++) {
+	p[i] = (zip_uint8_t)(v >> (8 * i));
+    }
+}
+
+
+#define ROL32(x, n) (((x) << (n)) | ((x) >> (32 - (n))))
+#define XTIME(x) ((zip_uint8_t)(((x) << 1) ^ (((x) & 0x80) ? 0x1b : 0)))
+
+
+/* s-box and encryption tables, computed instead of spelled out */
+static void
+aes_tables(void) {
+    zip_uint8_t p = 1, q = 1, s;
+    zip_uint32_t t;
+    int i;
+
+    do {
+	p = (zip_uint8_t)(p ^ XTIME(p));
+	q ^= (zip_uint8_t)(q << 1);
+	q ^= (zip_uint8_t)(q << 2);
+	q ^= (zip_uint8_t)(q << 4);
+	if (q & 0x80) {
+	    q ^= 0x09;
+	}
+	s = (zip_uint8_t)(q ^ (q << 1 | q >> 7) ^ (q << 2 | q >> 6) ^ (q << 3 | q >> 5) ^ (q << 4 | q >> 4));
+	sbox[p] = (zip_uint8_t)(s ^ 0x63);
+    } while (p != 1);
+    sbox[0] = 0x63;
+
+    for (i = 0; i < 256; i++) {
+	s = sbox[i];
+	t = (zip_uint32_t)XTIME(s) << 24 | (zip_uint32_t)s << 16 | (zip_uint32_t)s << 8 | (zip_uint8_t)(XTIME(s) ^ s);
+	te[0][i] = t;
+	te[1][i] = t >> 8 | t << 24;
+	te[2][i] = t >> 16 | t << 16;
+	te[3][i] = t >> 24 | t << 8;
+    }
+}
+
+
+static void
+aes_expand_key(_zip_crypto_aes_t *aes, const zip_uint8_t *key, int nk) {
+    zip_uint8_t *w = aes->round_keys;
+    zip_uint8_t t[4], u, rcon = 1;
+    int i, j, total;
+
+    aes->rounds = nk + 6;
+    total = 4 * (aes->rounds + 1);
+    memcpy(w, key, (size_t)(4 * nk));
+    for (i = nk; i < total; i++) {
+	memcpy(t, w + 4 * (i - 1), 4);
+	if (i % nk == 0) {
+	    u = t[0];
+	    t[0] = (zip_uint8_t)(sbox[t[1]] ^ rcon);
+	    t[1] = sbox[t[2]];
+	    t[2] = sbox[t[3]];
+	    t[3] = sbox[u];
+	    rcon = XTIME(rcon);
+	}
+	else if (nk > 6 && i % nk == 4) {
+	    for (j = 0; j < 4; j++) {
+		t[j] = sbox[t[j]];
+	    }
+	}
+	for (j = 0; j < 4; j++) {
+	    w[4 * i + j] = w[4 * (i - nk) + j] ^ t[j];
+	}
+    }
+    for (i = 0; i < total; i++) {
+	aes->words[i] = load_be32(w + 4 * i);
+    }
+}
+
+
+static void
+aes_encrypt_c(const _zip_crypto_aes_t *aes, const zip_uint8_t *in, zip_uint8_t *out) {
+    const zip_uint32_t *rk = aes->words;
+    zip_uint32_t s0, s1, s2, s3, t0, t1, t2, t3;
+    int r;
+
+    s0 = load_be32(in) ^ rk[0];
+    s1 = load_be32(in + 4) ^ rk[1];
+    s2 = load_be32(in + 8) ^ rk[2];
+    s3 = load_be32(in + 12) ^ rk[3];
+
+    for (r = 1; r < aes->rounds; r++) {
+	rk += 4;
+	t0 = te[0][s0 >> 24] ^ te[1][(s1 >> 16) & 0xff] ^ te[2][(s2 >> 8) & 0xff] ^ te[3][s3 & 0xff] ^ rk[0];
+	t1 = te[0][s1 >> 24] ^ te[1][(s2 >> 16) & 0xff] ^ te[2][(s3 >> 8) & 0xff] ^ te[3][s0 & 0xff] ^ rk[1];
+	t2 = te[0][s2 >> 24] ^ te[1][(s3 >> 16) & 0xff] ^ te[2][(s0 >> 8) & 0xff] ^ te[3][s1 & 0xff] ^ rk[2];
+	t3 = te[0][s3 >> 24] ^ te[1][(s0 >> 16) & 0xff] ^ te[2][(s1 >> 8) & 0xff] ^ te[3][s2 & 0xff] ^ rk[3];
+	s0 = t0;
+	s1 = t1;
+	s2 = t2;
+	s3 = t3;
+    }
+
+    rk += 4;
+    store_be32(out, ((zip_uint32_t)sbox[s0 >> 24] << 24 | (zip_uint32_t)sbox[(s1 >> 16) & 0xff] << 16 | (zip_uint32_t)sbox[(s2 >> 8) & 0xff] << 8 | sbox[s3 & 0xff]) ^ rk[0]);
+    store_be32(out + 4, ((zip_uint32_t)sbox[s1 >> 24] << 24 | (zip_uint32_t)sbox[(s2 >> 16) & 0xff] << 16 | (zip_uint32_t)sbox[(s3 >> 8) & 0xff] << 8 | sbox[s0 & 0xff]) ^ rk[1]);
+    store_be32(out + 8, ((zip_uint32_t)sbox[s2 >> 24] << 24 | (zip_uint32_t)sbox[(s3 >> 16) & 0xff] << 16 | (zip_uint32_t)sbox[(s0 >> 8) & 0xff] << 8 | sbox[s1 & 0xff]) ^ rk[2]);
+    store_be32(out + 12, ((zip_uint32_t)sbox[s3 >> 24] << 24 | (zip_uint32_t)sbox[(s0 >> 16) & 0xff] << 16 | (zip_uint32_t)sbox[(s1 >> 8) & 0xff] << 8 | sbox[s2 & 0xff]) ^ rk[3]);
+}
+
+
+/* encrypts the counter blocks first, first + 1, ..., counting in the low 8 bytes */
+static void
+ctr_c(const _zip_crypto_aes_t *aes, const zip_uint8_t *first, zip_uint8_t *out, zip_uint64_t nblocks) {
+    zip_uint8_t block[ZIP_CRYPTO_AES_BLOCK_LENGTH];
+    zip_uint64_t counter, i;
+
+    memcpy(block, first, sizeof(block));
+    counter = load_le64(first);
+    for (i = 0; i < nblocks; i++) {
+	store_le64(block, counter + i);
+	aes_encrypt_c(aes, block, out + i * ZIP_CRYPTO_AES_BLOCK_LENGTH);
+    }
+}
+
+
+static void
+sha1_blocks_c(zip_uint32_t *state, const zip_uint8_t *data, zip_uint64_t nblocks) {
+    zip_uint32_t w[80], a, b, c, d, e, f, k, t;
+    int i;
+
+    while (nblocks-- > 0) {
+	for (i = 0; i < 16; i++) {
+	    w[i] = load_be32(data + 4 * i);
+	}
+	for (; i < 80; i++) {
+	    t = w[i - 3] ^ w[i - 8] ^ w[i - 14] ^ w[i - 16];
+	    w[i] = ROL32(t, 1);
+	}
+
+	a = state[0];
+	b = state[1];
+	c = state[2];
+	d = state[3];
+	e = state[4];
+	for (i = 0; i < 80; i++) {
+	    if (i < 20) {
+		f = (b & c) | (~b & d);
+		k = 0x5a827999;
+	    }
+	    else if (i < 40) {
+		f = b ^ c ^ d;
+		k = 0x6ed9eba1;
+	    }
+	    else if (i < 60) {
+		f = (b & c) | (b & d) | (c & d);
+		k = 0x8f1bbcdc;
+	    }
+	    else {
+		f = b ^ c ^ d;
+		k = 0xca62c1d6;
+	    }
+	    t = ROL32(a, 5) + f + e + k + w[i];
+	    e = d;
+	    d = c;
+	    c = ROL32(b, 30);
+	    b = a;
+	    a = t;
+	}
+	state[0] += a;
+	state[1] += b;
+	state[2] += c;
+	state[3] += d;
+	state[4] += e;
+	data += 64;
+    }
+}
+
+
+#ifdef HAVE_CRYPTO_X86
+__attribute__((target("aes,sse2"))) static void
+ctr_aesni(const _zip_crypto_aes_t *aes, const zip_uint8_t *first, zip_uint8_t *out, zip_uint64_t nblocks) {
+    __m128i k[15], b[8];
+    zip_uint64_t counter = load_le64(first);
+    long long high = (long long)load_le64(first + 8);
+    int r, i, rounds = aes->rounds;
+
+    for (r = 0; r <= rounds; r++) {
+	k[r] = _mm_loadu_si128((const __m128i *)(aes->round_keys + 16 * r));
+    }
+
+    /* eight blocks in flight hide the latency of aesenc */
+    while (nblocks >= 8) {
+	for (i = 0; i < 8; i++) {
+	    b[i] = _mm_xor_si128(_mm_set_epi64x(high, (long long)(counter + (zip_uint64_t)i)), k[0]);
+	}
+	for (r = 1; r < rounds; r++) {
+	    for (i = 0; i < 8; i++) {
+		b[i] = _mm_aesenc_si128(b[i], k[r]);
+	    }
+	}
+	for (i = 0; i < 8; i++) {
+	    _mm_storeu_si128((__m128i *)(out + 16 * i), _mm_aesenclast_si128(b[i], k[rounds]));
+	}
+	counter += 8;
+	out += 128;
+	nblocks -= 8;
+    }
+
+    while (nblocks > 0) {
+	b[0] = _mm_xor_si128(_mm_set_epi64x(high, (long long)counter), k[0]);
+	for (r = 1; r < rounds; r++) {
+	    b[0] = _mm_aesenc_si128(b[0], k[r]);
+	}
+	_mm_storeu_si128((__m128i *)out, _mm_aesenclast_si128(b[0], k[rounds]));
+	counter++;
+	out += 16;
+	nblocks--;
+    }
+}
+
+
+/* four rounds of function f, then the message words four groups ahead */
+#define SHA1_GROUP(f)                                                                                                                                    \
+    do {                                                                                                                                                 \
+	e = _mm_sha1nexte_epu32(prev, m[g & 3]);                                                                                                         \
+	prev = abcd;                                                                                                                                     \
+	abcd = _mm_sha1rnds4_epu32(abcd, e, f);                                                                                                          \
+	if (g < 16) {                                                                                                                                    \
+	    m[g & 3] = _mm_sha1msg2_epu32(_mm_xor_si128(_mm_sha1msg1_epu32(m[g & 3], m[(g + 1) & 3]), m[(g + 2) & 3]), m[(g + 3) & 3]);                  \
+	}                                                                                                                                                \
+    } while (0)
+
+__attribute__((target("sha,sse4.1"))) static void
+sha1_blocks_shani(zip_uint32_t *state, const zip_uint8_t *data, zip_uint64_t nblocks) {
+    const __m128i mask = _mm_set_epi64x(0x0001020304050607LL, 0x08090a0b0c0d0e0fLL);
+    __m128i abcd, abcd_save, e, e0, e_save, prev, m[4];
+    int g, i;
+
+    abcd = _mm_shuffle_epi32(_mm_loadu_si128((const __m128i *)state), 0x1b);
+    e0 = _mm_set_epi32((int)state[4], 0, 0, 0);
+
+    while (nblocks-- > 0) {
+	abcd_save = abcd;
+	e_save = e0;
+	for (i = 0; i < 4; i++) {
+	    m[i] = _mm_shuffle_epi8(_mm_loadu_si128((const __m128i *)(data + 16 * i)), mask);
+	}
+
+	e = _mm_add_epi32(e0, m[0]);
+	prev = abcd;
+	abcd = _mm_sha1rnds4_epu32(abcd, e, 0);
+	m[0] = _mm_sha1msg2_epu32(_mm_xor_si128(_mm_sha1msg1_epu32(m[0], m[1]), m[2]), m[3]);
+	for (g = 1; g < 5; g++) {
+	    SHA1_GROUP(0);
+	}
+	for (; g < 10; g++) {
+	    SHA1_GROUP(1);
+	}
+	for (; g < 15; g++) {
+	    SHA1_GROUP(2);
+	}
+	for (; g < 20; g++) {
+	    SHA1_GROUP(3);
+	}
+
+	e0 = _mm_sha1nexte_epu32(prev, e_save);
+	abcd = _mm_add_epi32(abcd, abcd_save);
+	data += 64;
+    }
+
+    _mm_storeu_si128((__m128i *)state, _mm_shuffle_epi32(abcd, 0x1b));
+    state[4] = (zip_uint32_t)_mm_extract_epi32(e0, 3);
+}
+
+
+static int
+cpu_has_aesni(void) {
+    unsigned int eax, ebx, ecx, edx;
+
+    if (!__get_cpuid(1, &eax, &ebx, &ecx, &edx)) {
+	return 0;
+    }
+    return (ecx & bit_AES) && (edx & bit_SSE2);
+}
+
+
+static int
+cpu_has_sha(void) {
+    unsigned int eax, ebx, ecx, edx;
+
+    if (!__get_cpuid(1, &eax, &ebx, &ecx, &edx) || !(ecx & bit_SSE4_1)) {
+	return 0;
+    }
+    if (__get_cpuid_max(0, NULL) < 7) {
+	return 0;
+    }
+    __cpuid_count(7, 0, eax, ebx, ecx, edx);
+    return (ebx & (1u << 29)) != 0;
+}
+#endif
+
+
+#ifdef HAVE_CRYPTO_ARMV8
+static void
+ctr_armv8(const _zip_crypto_aes_t *aes, const zip_uint8_t *first, zip_uint8_t *out, zip_uint64_t nblocks) {
+    uint8x16_t k[15], b[4];
+    zip_uint64_t counter = load_le64(first);
+    uint64x1_t high = vcreate_u64(load_le64(first + 8));
+    int r, i, n, rounds = aes->rounds;
+
+    for (r = 0; r <= rounds; r++) {
+	k[r] = vld1q_u8(aes->round_keys + 16 * r);
+    }
+
+    while (nblocks > 0) {
+	n = nblocks >= 4 ? 4 : (int)nblocks;
+	for (i = 0; i < n; i++) {
+	    b[i] = vreinterpretq_u8_u64(vcombine_u64(vcreate_u64(counter + (zip_uint64_t)i), high));
+	}
+	for (r = 0; r < rounds - 1; r++) {
+	    for (i = 0; i < n; i++) {
+		b[i] = vaesmcq_u8(vaeseq_u8(b[i], k[r]));
+	    }
+	}
+	for (i = 0; i < n; i++) {
+	    vst1q_u8(out + 16 * i, veorq_u8(vaeseq_u8(b[i], k[rounds - 1]), k[rounds]));
+	}
+	counter += (zip_uint64_t)n;
+	out += 16 * n;
+	nblocks -= (zip_uint64_t)n;
+    }
+}
+
+
+static void
+sha1_blocks_armv8(zip_uint32_t *state, const zip_uint8_t *data, zip_uint64_t nblocks) {
+    static const zip_uint32_t k[4] = {0x5a827999, 0x6ed9eba1, 0x8f1bbcdc, 0xca62c1d6};
+    uint32x4_t abcd, abcd_save, wk, m[4];
+    zip_uint32_t e, e_save, e_next;
+    int g, i;
+
+    abcd = vld1q_u32(state);
+    e = state[4];
+
+    while (nblocks-- > 0) {
+	abcd_save = abcd;
+	e_save = e;
+	for (i = 0; i < 4; i++) {
+	    m[i] = vreinterpretq_u32_u8(vrev32q_u8(vld1q_u8(data + 16 * i)));
+	}
+
+	for (g = 0; g < 20; g++) {
+	    wk = vaddq_u32(m[g & 3], vdupq_n_u32(k[g / 5]));
+	    e_next = vsha1h_u32(vgetq_lane_u32(abcd, 0));
+	    if (g < 5) {
+		abcd = vsha1cq_u32(abcd, e, wk);
+	    }
+	    else if (g >= 10 && g < 15) {
+		abcd = vsha1mq_u32(abcd, e, wk);
+	    }
+	    else {
+		abcd = vsha1pq_u32(abcd, e, wk);
+	    }
+	    e = e_next;
+	    if (g < 16) {
+		m[g & 3] = vsha1su1q_u32(vsha1su0q_u32(m[g & 3], m[(g + 1) & 3], m[(g + 2) & 3]), m[(g + 3) & 3]);
+	    }
+	}
+
+	abcd = vaddq_u32(abcd, abcd_save);
+	e += e_save;
+	data += 64;
+    }
+
+    vst1q_u32(state, abcd);
+    state[4] = e;
+}
+#endif
+
+
+/* compares an accelerated implementation with the portable one */
+static bool
+ctr_self_test(ctr_function ctr) {
+    /* FIPS-197 appendix C */
+    static const zip_uint8_t plain[16] = {0x00, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77, 0x88, 0x99, 0xaa, 0xbb, 0xcc, 0xdd, 0xee, 0xff};
+    static const zip_uint8_t cipher[3][16] = {
+	{0x69, 0xc4, 0xe0, 0xd8, 0x6a, 0x7b, 0x04, 0x30, 0xd8, 0xcd, 0xb7, 0x80, 0x70, 0xb4, 0xc5, 0x5a},
+	{0xdd, 0xa9, 0x7c, 0xa4, 0x86, 0x4c, 0xdf, 0xe0, 0x6e, 0xaf, 0x70, 0xa0, 0xec, 0x0d, 0x71, 0x91},
+	{0x8e, 0xa2, 0xb7, 0xca, 0x51, 0x67, 0x45, 0xbf, 0xea, 0xfc, 0x49, 0x90, 0x4b, 0x49, 0x60, 0x89}};
+    _zip_crypto_aes_t aes;
+    zip_uint8_t key[32], expected[11 * 16], actual[11 * 16];
+    int i, size;
+
+    for (i = 0; i < 32; i++) {
+	key[i] = (zip_uint8_t)i;
+    }
+    for (size = 0; size < 3; size++) {
+	aes_expand_key(&aes, key, 4 + 2 * size);
+	aes_encrypt_c(&aes, plain, expected);
+	ctr(&aes, plain, actual, 1);
+	if (memcmp(expected, cipher[size], 16) != 0 || memcmp(actual, cipher[size], 16) != 0) {
+	    return false;
+	}
+	ctr_c(&aes, plain, expected, 11);
+	ctr(&aes, plain, actual, 11);
+	if (memcmp(expected, actual, sizeof(actual)) != 0) {
+	    return false;
+	}
+    }
+    return true;
+}
+
+
+static bool
+sha1_self_test(sha1_function sha1) {
+    zip_uint32_t expected[5] = {0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476, 0xc3d2e1f0};
+    zip_uint32_t actual[5];
+    zip_uint8_t data[3 * 64];
+    int i;
+
+    for (i = 0; i < (int)sizeof(data); i++) {
+	data[i] = (zip_uint8_t)(i * 7 + 3);
+    }
+    memcpy(actual, expected, sizeof(actual));
+    sha1_blocks_c(expected, data, 3);
+    sha1(actual, data, 3);
+    return memcmp(expected, actual, sizeof(actual)) == 0;
+}
+
+
+static void
+crypto_init(void) {
+    const char *aes_name = "c", *sha1_name = "c";
+    long cpus;
+
+    aes_tables();
+    ctr_impl = ctr_c;
+    sha1_impl = sha1_blocks_c;
+
+#ifdef HAVE_CRYPTO_X86
+    if (cpu_has_aesni() && ctr_self_test(ctr_aesni)) {
+	ctr_impl = ctr_aesni;
+	aes_name = "aes-ni";
+    }
+    if (cpu_has_sha() && sha1_self_test(sha1_blocks_shani)) {
+	sha1_impl = sha1_blocks_shani;
+	sha1_name = "sha-ni";
+    }
+#endif
+#ifdef HAVE_CRYPTO_ARMV8
+    if ((getauxval(AT_HWCAP) & HWCAP_AES) && ctr_self_test(ctr_armv8)) {
+	ctr_impl = ctr_armv8;
+	aes_name = "armv8-aes";
+    }
+    if ((getauxval(AT_HWCAP) & HWCAP_SHA1) && sha1_self_test(sha1_blocks_armv8)) {
+	sha1_impl = sha1_blocks_armv8;
+	sha1_name = "armv8-sha1";
+    }
+#endif
+    snprintf(crypto_name, sizeof(crypto_name), "%s, %s", aes_name, sha1_name);
+
+    pthread_mutex_lock(&pool.lock);
+    if (pool.threads < 0) {
+	cpus = sysconf(_SC_NPROCESSORS_ONLN);
+	pool.threads = cpus <= 1 ? 0 : cpus - 1 > DEFAULT_MAX_THREADS ? DEFAULT_MAX_THREADS : (int)cpus - 1;
+    }
+    pthread_mutex_unlock(&pool.lock);
+}
+
+
+static void
+sha1_init(_zip_crypto_sha1_t *ctx) {
+    ctx->state[0] = 0x67452301;
+    ctx->state[1] = 0xefcdab89;
+    ctx->state[2] = 0x98badcfe;
+    ctx->state[3] = 0x10325476;
+    ctx->state[4] = 0xc3d2e1f0;
+    ctx->length = 0;
+    ctx->buffer_length = 0;
+}
+
+
+static void
+sha1_update(_zip_crypto_sha1_t *ctx, const zip_uint8_t *data, zip_uint64_t length) {
+    zip_uint64_t n;
+
+    ctx->length += length;
+    if (ctx->buffer_length > 0) {
+	n = 64 - ctx->buffer_length;
+	if (n > length) {
+	    n = length;
+	}
+	memcpy(ctx->buffer + ctx->buffer_length, data, (size_t)n);
+	ctx->buffer_length += (zip_uint32_t)n;
+	data += n;
+	length -= n;
+	if (ctx->buffer_length < 64) {
+	    return;
+	}
+	sha1_impl(ctx->state, ctx->buffer, 1);
+	ctx->buffer_length = 0;
+    }
+    if (length >= 64) {
+	n = length / 64;
+	sha1_impl(ctx->state, data, n);
+	data += n * 64;
+	length -= n * 64;
+    }
+    if (length > 0) {
+	memcpy(ctx->buffer, data, (size_t)length);
+	ctx->buffer_length = (zip_uint32_t)length;
+    }
+}
+
+
+static void
+sha1_final(_zip_crypto_sha1_t *ctx, zip_uint8_t *digest) {
+    zip_uint64_t bits = ctx->length * 8;
+    int i;
+
+    ctx->buffer[ctx->buffer_length++] = 0x80;
+    if (ctx->buffer_length > 56) {
+	memset(ctx->buffer + ctx->buffer_length, 0, 64 - ctx->buffer_length);
+	sha1_impl(ctx->state, ctx->buffer, 1);
+	ctx->buffer_length = 0;
+    }
+    memset(ctx->buffer + ctx->buffer_length, 0, 56 - ctx->buffer_length);
+    store_be32(ctx->buffer + 56, (zip_uint32_t)(bits >> 32));
+    store_be32(ctx->buffer + 60, (zip_uint32_t)bits);
+    sha1_impl(ctx->state, ctx->buffer, 1);
+    for (i = 0; i < 5; i++) {
+	store_be32(digest + 4 * i, ctx->state[i]);
+    }
+}
+
+
+/* hashes the padded key into inner and outer once, every message continues from there */
+static void
+hmac_init(_zip_crypto_hmac_t *hmac, const zip_uint8_t *secret, zip_uint64_t secret_length) {
+    zip_uint8_t block[64];
+    int i;
+
+    memset(block, 0, sizeof(block));
+    if (secret_length > sizeof(block)) {
+	sha1_init(&hmac->inner);
+	sha1_update(&hmac->inner, secret, secret_length);
+	sha1_final(&hmac->inner, block);
+    }
+    else {
+	memcpy(block, secret, (size_t)secret_length);
+    }
+
+    for (i = 0; i < 64; i++) {
+	block[i] ^= 0x36;
+    }
+    sha1_init(&hmac->inner);
+    sha1_update(&hmac->inner, block, sizeof(block));
+    for (i = 0; i < 64; i++) {
+	block[i] ^= 0x36 ^ 0x5c;
+    }
+    sha1_init(&hmac->outer);
+    sha1_update(&hmac->outer, block, sizeof(block));
+    _zip_crypto_clear(block, sizeof(block));
+}
+
+
+static void
+hmac_final(const _zip_crypto_hmac_t *hmac, _zip_crypto_sha1_t *inner, zip_uint8_t *digest) {
+    _zip_crypto_sha1_t outer;
+
+    sha1_final(inner, digest);
+    outer = hmac->outer;
+    sha1_update(&outer, digest, ZIP_CRYPTO_SHA1_LENGTH);
+    sha1_final(&outer, digest);
+}
+
+
+_zip_crypto_aes_t *
+_zip_crypto_aes_new(const zip_uint8_t *key, zip_uint16_t key_size, zip_error_t *error) {
+    _zip_crypto_aes_t *aes;
+
+    if (key_size != 128 && key_size != 192 && key_size != 256) {
+	zip_error_set(error, ZIP_ER_INVAL, 0);
+	return NULL;
+    }
+
+    if ((aes = (_zip_crypto_aes_t *)malloc(sizeof(*aes))) == NULL) {
+	zip_error_set(error, ZIP_ER_MEMORY, 0);
+	return NULL;
+    }
+
+    pthread_once(&crypto_once, crypto_init);
+    aes_expand_key(aes, key, key_size / 32);
+
+    return aes;
+}
+
+
+void
+_zip_crypto_aes_free(_zip_crypto_aes_t *aes) {
+    if (aes == NULL) {
+	return;
+    }
+
+    _zip_crypto_clear(aes, sizeof(*aes));
+    free(aes);
+}
+
+
+bool
+_zip_crypto_aes_encrypt_block(_zip_crypto_aes_t *aes, const zip_uint8_t *in, zip_uint8_t *out) {
+    ctr_impl(aes, in, out, 1);
+    return true;
+}
+
+
+_zip_crypto_hmac_t *
+_zip_crypto_hmac_new(const zip_uint8_t *secret, zip_uint64_t secret_length, zip_error_t *error) {
+    _zip_crypto_hmac_t *hmac;
+
+    if ((hmac = (_zip_crypto_hmac_t *)malloc(sizeof(*hmac))) == NULL) {
+	zip_error_set(error, ZIP_ER_MEMORY, 0);
+	return NULL;
+    }
+
+    pthread_once(&crypto_once, crypto_init);
+    hmac_init(hmac, secret, secret_length);
+
+    return hmac;
+}
+
+
+void
+_zip_crypto_hmac_free(_zip_crypto_hmac_t *hmac) {
+    if (hmac == NULL) {
+	return;
+    }
+
+    _zip_crypto_clear(hmac, sizeof(*hmac));
+    free(hmac);
+}
+
+
+bool
+_zip_crypto_hmac(_zip_crypto_hmac_t *hmac, const zip_uint8_t *data, zip_uint64_t length) {
+    sha1_update(&hmac->inner, data, length);
+    return true;
+}
+
+
+bool
+_zip_crypto_hmac_output(_zip_crypto_hmac_t *hmac, zip_uint8_t *data) {
+    hmac_final(hmac, &hmac->inner, data);
+    return true;
+}
+
+
+bool
+_zip_crypto_pbkdf2(const zip_uint8_t *key, zip_uint64_t key_length, const zip_uint8_t *salt, zip_uint16_t salt_length, int iterations, zip_uint8_t *output, zip_uint64_t output_length) {
+    _zip_crypto_hmac_t prf;
+    _zip_crypto_sha1_t inner;
+    zip_uint8_t u[ZIP_CRYPTO_SHA1_LENGTH], t[ZIP_CRYPTO_SHA1_LENGTH], index[4];
+    zip_uint32_t block;
+    zip_uint64_t n;
+    int i, j;
+
+    pthread_once(&crypto_once, crypto_init);
+    hmac_init(&prf, key, key_length);
+
+    for (block = 1; output_length > 0; block++) {
+	store_be32(index, block);
+	inner = prf.inner;
+	sha1_update(&inner, salt, salt_length);
+	sha1_update(&inner, index, sizeof(index));
+	hmac_final(&prf, &inner, u);
+	memcpy(t, u, sizeof(t));
+
+	for (i = 1; i < iterations; i++) {
+	    inner = prf.inner;
+	    sha1_update(&inner, u, sizeof(u));
+	    hmac_final(&prf, &inner, u);
+	    for (j = 0; j < ZIP_CRYPTO_SHA1_LENGTH; j++) {
+		t[j] ^= u[j];
+	    }
+	}
+
+	n = output_length < sizeof(t) ? output_length : sizeof(t);
+	memcpy(output, t, (size_t)n);
+	output += n;
+	output_length -= n;
+    }
+
+    _zip_crypto_clear(&prf, sizeof(prf));
+    _zip_crypto_clear(&inner, sizeof(inner));
+    _zip_crypto_clear(u, sizeof(u));
+    _zip_crypto_clear(t, sizeof(t));
+    return true;
+}
+
+
+static void
+ctr_run_part(struct ctr_job *job, int part) {
+    zip_uint8_t first[ZIP_CRYPTO_AES_BLOCK_LENGTH];
+    zip_uint64_t start, end;
+
+    start = job->nblocks * (zip_uint64_t)part / (zip_uint64_t)job->parts;
+    end = job->nblocks * (zip_uint64_t)(part + 1) / (zip_uint64_t)job->parts;
+    memcpy(first, job->first, sizeof(first));
+    store_le64(first, load_le64(job->first) + start);
+    ctr_impl(job->aes, first, job->out + start * ZIP_CRYPTO_AES_BLOCK_LENGTH, end - start);
+}
+
+
+static void *
+pool_worker(void *arg) {
+    struct ctr_job *job;
+    int part;
+
+    pthread_mutex_lock(&pool.lock);
+    for (;;) {
+	while ((job = pool.job) == NULL || job->next == job->parts) {
+	    pthread_cond_wait(&pool.work, &pool.lock);
+	}
+	part = job->next++;
+	pthread_mutex_unlock(&pool.lock);
+
+	ctr_run_part(job, part);
+
+	pthread_mutex_lock(&pool.lock);
+	if (++job->done == job->parts) {
+	    pthread_cond_signal(&pool.finished);
+	}
+    }
+    return NULL;
+}
+
+
+/* called with pool.lock held */
+static int
+pool_start_workers(void) {
+    pthread_attr_t attr;
+    pthread_t thread;
+
+    pthread_attr_init(&attr);
+    pthread_attr_setdetachstate(&attr, PTHREAD_CREATE_DETACHED);
+    while (pool.started < pool.threads && pthread_create(&thread, &attr, pool_worker, NULL) == 0) {
+	pool.started++;
+    }
+    pthread_attr_destroy(&attr);
+
+    return pool.started < pool.threads ? pool.started : pool.threads;
+}
+
+
+/* returns false without doing anything if the workers are not available */
+static bool
+pool_run(const _zip_crypto_aes_t *aes, const zip_uint8_t *first, zip_uint8_t *out, zip_uint64_t nblocks, _zip_crypto_hmac_t *hmac, const zip_uint8_t *hmac_data, zip_uint64_t hmac_length) {
+    struct ctr_job job;
+    int threads, part;
+
+    /* another entry is using the workers, it is decrypted in parallel with this one anyway */
+    if (pthread_mutex_trylock(&pool.busy) != 0) {
+	return false;
+    }
+
+    pthread_mutex_lock(&pool.lock);
+    if ((threads = pool_start_workers()) == 0) {
+	pthread_mutex_unlock(&pool.lock);
+	pthread_mutex_unlock(&pool.busy);
+	return false;
+    }
+
+    job.aes = aes;
+    memcpy(job.first, first, sizeof(job.first));
+    job.out = out;
+    job.nblocks = nblocks;
+    /* two parts per thread, the caller takes its share after the hmac */
+    job.parts = 2 * (threads + 1);
+    if (nblocks / (zip_uint64_t)job.parts < PART_MINIMUM_BLOCKS) {
+	job.parts = (int)(nblocks / PART_MINIMUM_BLOCKS);
+    }
+    job.next = 0;
+    job.done = 0;
+    pool.job = &job;
+    pthread_cond_broadcast(&pool.work);
+    pthread_mutex_unlock(&pool.lock);
+
+    if (hmac != NULL) {
+	_zip_crypto_hmac(hmac, hmac_data, hmac_length);
+    }
+
+    pthread_mutex_lock(&pool.lock);
+    while (job.next < job.parts) {
+	part = job.next++;
+	pthread_mutex_unlock(&pool.lock);
+	ctr_run_part(&job, part);
+	pthread_mutex_lock(&pool.lock);
+	job.done++;
+    }
+    while (job.done < job.parts) {
+	pthread_cond_wait(&pool.finished, &pool.lock);
+    }
+    pool.job = NULL;
+    pthread_mutex_unlock(&pool.lock);
+    pthread_mutex_unlock(&pool.busy);
+
+    return true;
+}
+
+
+bool
+_zip_crypto_aes_ctr(_zip_crypto_aes_t *aes, zip_uint8_t *counter, zip_uint8_t *out, zip_uint64_t nblocks, _zip_crypto_hmac_t *hmac, const zip_uint8_t *hmac_data, zip_uint64_t hmac_length) {
+    zip_uint8_t first[ZIP_CRYPTO_AES_BLOCK_LENGTH];
+    zip_uint64_t value;
+
+    value = load_le64(counter);
+    memcpy(first, counter, sizeof(first));
+    store_le64(first, value + 1);
+    store_le64(counter, value + nblocks);
+
+    if (nblocks < PARALLEL_MINIMUM_BLOCKS || !pool_run(aes, first, out, nblocks, hmac, hmac_data, hmac_length)) {
+	ctr_impl(aes, first, out, nblocks);
+	if (hmac != NULL) {
+	    _zip_crypto_hmac(hmac, hmac_data, hmac_length);
+	}
+    }
+
+    return true;
+}
+
+
+void
+_zip_crypto_set_threads(int threads) {
+    pthread_once(&crypto_once, crypto_init);
+    pthread_mutex_lock(&pool.lock);
+    pool.threads = threads < 0 ? 0 : threads > MAX_THREADS ? MAX_THREADS : threads;
+    pthread_mutex_unlock(&pool.lock);
+}
+
+
+int
+_zip_crypto_get_threads(void) {
+    int threads;
+
+    pthread_once(&crypto_once, crypto_init);
+    pthread_mutex_lock(&pool.lock);
+    threads = pool.threads;
+    pthread_mutex_unlock(&pool.lock);
+    return threads;
+}
+
+
+const char *
+_zip_crypto_implementation(void) {
+    pthread_once(&crypto_once, crypto_init);
+    return crypto_name;
+}
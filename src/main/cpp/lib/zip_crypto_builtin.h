@@ -0,0 +1,82 @@
+/*
+  zip_crypto_builtin.h -- definitions for the built-in crypto backend
+  Copyright (C) 2017 Dieter Baron and Thomas Klausner
+
+  This file is part of libzip, a library to manipulate ZIP archives.
+  The authors can be contacted at <libzip@nih.at>
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions
+  are met:
+  1. Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+  2. Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in
+     the documentation and/or other materials provided with the
+     distribution.
+  3. The names of the authors may not be used to endorse or promote
+     products derived from this software without specific prior
+     written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE AUTHORS ``AS IS'' AND ANY EXPRESS
+  OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+  ARE DISCLAIMED.  IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+  DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+  GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+  IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+  OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+  IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+#ifndef HAD_ZIP_CRYPTO_BUILTIN_H
+#define HAD_ZIP_CRYPTO_BUILTIN_H
+
+/* AES, SHA-1, HMAC and PBKDF2 without an external library, using the aes and sha
+   instructions of the cpu when present */
+
+typedef struct {
+    zip_uint8_t round_keys[15 * 16] __attribute__((aligned(16)));
+    zip_uint32_t words[15 * 4];
+    int rounds;
+} _zip_crypto_aes_t;
+
+typedef struct {
+    zip_uint32_t state[5];
+    zip_uint64_t length;
+    zip_uint8_t buffer[64];
+    zip_uint32_t buffer_length;
+} _zip_crypto_sha1_t;
+
+typedef struct {
+    _zip_crypto_sha1_t inner;
+    _zip_crypto_sha1_t outer;
+} _zip_crypto_hmac_t;
+
+void _zip_crypto_aes_free(_zip_crypto_aes_t *aes);
+bool _zip_crypto_aes_encrypt_block(_zip_crypto_aes_t *aes, const zip_uint8_t *in, zip_uint8_t *out);
+_zip_crypto_aes_t *_zip_crypto_aes_new(const zip_uint8_t *key, zip_uint16_t key_size, zip_error_t *error);
+
+bool _zip_crypto_hmac(_zip_crypto_hmac_t *hmac, const zip_uint8_t *data, zip_uint64_t length);
+void _zip_crypto_hmac_free(_zip_crypto_hmac_t *hmac);
+_zip_crypto_hmac_t *_zip_crypto_hmac_new(const zip_uint8_t *secret, zip_uint64_t secret_length, zip_error_t *error);
+bool _zip_crypto_hmac_output(_zip_crypto_hmac_t *hmac, zip_uint8_t *data);
+
+bool _zip_crypto_pbkdf2(const zip_uint8_t *key, zip_uint64_t key_length, const zip_uint8_t *salt, zip_uint16_t salt_length, int iterations, zip_uint8_t *output, zip_uint64_t output_length);
+
+/* the backend generates whole runs of WinZip AES counter blocks */
+#define ZIP_CRYPTO_AES_CTR
+
+/* Writes the key stream of nblocks counter blocks to out, the counter is the
+   little endian number in the first 8 bytes and is incremented before each block.
+   Large runs are split over the worker threads; meanwhile, if hmac is not NULL,
+   the calling thread adds hmac_data to it. */
+bool _zip_crypto_aes_ctr(_zip_crypto_aes_t *aes, zip_uint8_t *counter, zip_uint8_t *out, zip_uint64_t nblocks, _zip_crypto_hmac_t *hmac, const zip_uint8_t *hmac_data, zip_uint64_t hmac_length);
+
+void _zip_crypto_set_threads(int threads);
+int _zip_crypto_get_threads(void);
+const char *_zip_crypto_implementation(void);
+
+#endif /*  HAD_ZIP_CRYPTO_BUILTIN_H */
@@ -1090,7 +1090,7 @@ void
 _zip_dirent_set_version_needed(zip_dirent_t *de, bool force_zip64) {
     zip_uint16_t length;
 
-    if (de->comp_method == ZIP_CM_LZMA) {
+    if (de->comp_method == ZIP_CM_LZMA || de->comp_method == ZIP_CM_ZSTD) {
 	de->version_needed = 63;
 	return;
     }
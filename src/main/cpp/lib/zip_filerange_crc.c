@@ -73,7 +73,7 @@ _zip_filerange_crc(zip_source_t *src, zip_uint64_t start, zip_uint64_t len, uLon
 	    return -1;
 	}
 
-	*crcp = crc32(*crcp, buf, (uInt)n);
+	*crcp = _zip_crc32((zip_uint32_t)*crcp, buf, (zip_uint64_t)n);
 
 	len -= (zip_uint64_t)n;
     }
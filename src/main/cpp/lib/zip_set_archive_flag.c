@@ -61,5 +61,10 @@ zip_set_archive_flag(zip_t *za, zip_flags_t flag, int value) {
 
     za->ch_flags = new_flags;
 
+    /* how zip_close writes, not a change of the archive */
+    if (flag & ZIP_AFL_APPEND) {
+	za->flags = value ? (za->flags | ZIP_AFL_APPEND) : (za->flags & ~ZIP_AFL_APPEND);
+    }
+
     return 0;
 }
@@ -40,7 +40,8 @@ zip_set_file_compression(zip_t *za, zip_uint64_t idx, zip_int32_t method, zip_ui
     zip_entry_t *e;
     zip_int32_t old_method;
 
-    if (idx >= za->nentry || flags > 9) {
+    /* zstd levels go up to 22 */
+    if (idx >= za->nentry || flags > (ZIP_CM_ACTUAL(method) == ZIP_CM_ZSTD ? 22 : 9)) {
 	zip_error_set(&za->error, ZIP_ER_INVAL, 0);
 	return -1;
     }
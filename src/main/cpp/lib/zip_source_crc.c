@@ -119,13 +119,12 @@ crc_read(zip_source_t *src, void *_ctx, void *data, zip_uint64_t len, zip_source
 	    }
 	}
 	else if (!ctx->crc_complete && ctx->position <= ctx->crc_position) {
-	    zip_uint64_t i, nn;
+	    zip_uint64_t i;
 
-	    for (i = ctx->crc_position - ctx->position; i < (zip_uint64_t)n; i += nn) {
-		nn = ZIP_MIN(UINT_MAX, (zip_uint64_t)n - i);
-
-		ctx->crc = (zip_uint32_t)crc32(ctx->crc, (const Bytef *)data + i, (uInt)nn);
-		ctx->crc_position += nn;
+	    i = ctx->crc_position - ctx->position;
+	    if (i < (zip_uint64_t)n) {
+		ctx->crc = _zip_crc32(ctx->crc, (const zip_uint8_t *)data + i, (zip_uint64_t)n - i);
+		ctx->crc_position += (zip_uint64_t)n - i;
 	    }
 	}
 	ctx->position += (zip_uint64_t)n;
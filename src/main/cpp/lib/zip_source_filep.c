@@ -92,10 +92,18 @@ struct read_file {
     /* writing */
     char *tmpname;
     FILE *fout;
+
+    /* writing into the original file: its bytes from saved_offset on, restored on rollback */
+    bool in_place;
+    zip_uint8_t *saved;
+    zip_uint64_t saved_offset;
+    zip_uint64_t saved_length;
 };
 
 static zip_int64_t read_file(void *state, void *data, zip_uint64_t len, zip_source_cmd_t cmd);
 static int create_temp_output(struct read_file *ctx);
+static int open_output_in_place(struct read_file *ctx, zip_uint64_t offset);
+static int restore_in_place(struct read_file *ctx);
 #ifdef CAN_CLONE
 static zip_int64_t create_temp_output_cloning(struct read_file *ctx, zip_uint64_t offset);
 #endif
@@ -178,6 +186,8 @@ _zip_source_file_or_p(const char *fname, FILE *file, zip_uint64_t start, zip_int
 
     ctx->tmpname = NULL;
     ctx->fout = NULL;
+    ctx->in_place = false;
+    ctx->saved = NULL;
 
     zip_error_init(&ctx->error);
 
@@ -230,6 +240,9 @@ _zip_source_file_or_p(const char *fname, FILE *file, zip_uint64_t start, zip_int
 	ctx->supports |= ZIP_SOURCE_MAKE_COMMAND_BITMASK(ZIP_SOURCE_BEGIN_WRITE_CLONING);
     }
 #endif
+    if (ctx->supports & ZIP_SOURCE_MAKE_COMMAND_BITMASK(ZIP_SOURCE_BEGIN_WRITE)) {
+	ctx->supports |= ZIP_SOURCE_MAKE_COMMAND_BITMASK(ZIP_SOURCE_BEGIN_WRITE_IN_PLACE);
+    }
 
     if ((zs = zip_source_function_create(read_file, ctx, error)) == NULL) {
 	free(ctx->fname);
@@ -385,6 +398,81 @@ zip_int64_t static create_temp_output_cloning(struct read_file *ctx, zip_uint64_
 #endif
 
 
+/* Opens the original file for writing at offset. The bytes after offset, normally
+   the central directory, are kept in memory so a rollback can put them back. */
+static int
+open_output_in_place(struct read_file *ctx, zip_uint64_t offset) {
+    FILE *fp;
+    struct stat st;
+    zip_uint64_t length;
+
+    if ((fp = fopen(ctx->fname, "r+b")) == NULL) {
+	zip_error_set(&ctx->error, ZIP_ER_OPEN, errno);
+	return -1;
+    }
+    if (fstat(fileno(fp), &st) < 0) {
+	zip_error_set(&ctx->error, ZIP_ER_READ, errno);
+	fclose(fp);
+	return -1;
+    }
+    if (offset > (zip_uint64_t)st.st_size || (zip_uint64_t)st.st_size - offset > SIZE_MAX) {
+	zip_error_set(&ctx->error, ZIP_ER_INVAL, 0);
+	fclose(fp);
+	return -1;
+    }
+    length = (zip_uint64_t)st.st_size - offset;
+    if ((ctx->saved = (zip_uint8_t *)malloc(length > 0 ? (size_t)length : 1)) == NULL) {
+	zip_error_set(&ctx->error, ZIP_ER_MEMORY, 0);
+	fclose(fp);
+	return -1;
+    }
+    if (_zip_fseek_u(fp, offset, SEEK_SET, &ctx->error) < 0) {
+	free(ctx->saved);
+	ctx->saved = NULL;
+	fclose(fp);
+	return -1;
+    }
+    if (fread(ctx->saved, 1, (size_t)length, fp) != (size_t)length) {
+	zip_error_set(&ctx->error, ZIP_ER_READ, errno);
+	free(ctx->saved);
+	ctx->saved = NULL;
+	fclose(fp);
+	return -1;
+    }
+    if (_zip_fseek_u(fp, offset, SEEK_SET, &ctx->error) < 0) {
+	free(ctx->saved);
+	ctx->saved = NULL;
+	fclose(fp);
+	return -1;
+    }
+
+    ctx->fout = fp;
+    ctx->in_place = true;
+    ctx->saved_offset = offset;
+    ctx->saved_length = length;
+    return 0;
+}
+
+
+/* puts back the bytes overwritten since open_output_in_place */
+static int
+restore_in_place(struct read_file *ctx) {
+    int ret = 0;
+
+    if (ctx->fout) {
+	if (_zip_fseek_u(ctx->fout, ctx->saved_offset, SEEK_SET, &ctx->error) < 0 || fwrite(ctx->saved, 1, (size_t)ctx->saved_length, ctx->fout) != (size_t)ctx->saved_length || fflush(ctx->fout) != 0 || ftruncate(fileno(ctx->fout), (off_t)(ctx->saved_offset + ctx->saved_length)) < 0) {
+	    ret = -1;
+	}
+	fclose(ctx->fout);
+	ctx->fout = NULL;
+    }
+    free(ctx->saved);
+    ctx->saved = NULL;
+    ctx->in_place = false;
+    return ret;
+}
+
+
 static zip_int64_t
 read_file(void *state, void *data, zip_uint64_t len, zip_source_cmd_t cmd) {
     struct read_file *ctx;
@@ -412,10 +500,37 @@ read_file(void *state, void *data, zip_uint64_t len, zip_source_cmd_t cmd) {
 	return create_temp_output_cloning(ctx, len);
 #endif
 
+    case ZIP_SOURCE_BEGIN_WRITE_IN_PLACE:
+	if (ctx->fname == NULL) {
+	    zip_error_set(&ctx->error, ZIP_ER_OPNOTSUPP, 0);
+	    return -1;
+	}
+	return open_output_in_place(ctx, len);
+
     case ZIP_SOURCE_COMMIT_WRITE: {
 	mode_t mode;
 	struct stat st;
 
+	if (ctx->in_place) {
+	    off_t end;
+
+	    /* the new central directory can be shorter than the old one */
+	    if (fflush(ctx->fout) != 0 || (end = ftello(ctx->fout)) < 0 || ftruncate(fileno(ctx->fout), end) < 0) {
+		zip_error_set(&ctx->error, ZIP_ER_WRITE, errno);
+		return -1;
+	    }
+	    if (fclose(ctx->fout) < 0) {
+		ctx->fout = NULL;
+		zip_error_set(&ctx->error, ZIP_ER_WRITE, errno);
+		return -1;
+	    }
+	    ctx->fout = NULL;
+	    free(ctx->saved);
+	    ctx->saved = NULL;
+	    ctx->in_place = false;
+	    return 0;
+	}
+
 	if (fclose(ctx->fout) < 0) {
 	    ctx->fout = NULL;
 	    zip_error_set(&ctx->error, ZIP_ER_WRITE, errno);
@@ -450,6 +565,9 @@ read_file(void *state, void *data, zip_uint64_t len, zip_source_cmd_t cmd) {
 	return zip_error_to_data(&ctx->error, data, len);
 
     case ZIP_SOURCE_FREE:
+	if (ctx->in_place) {
+	    (void)restore_in_place(ctx);
+	}
 	free(ctx->fname);
 	free(ctx->tmpname);
 	if (ctx->f)
@@ -506,6 +624,13 @@ read_file(void *state, void *data, zip_uint64_t len, zip_source_cmd_t cmd) {
 	return 0;
 
     case ZIP_SOURCE_ROLLBACK_WRITE:
+	if (ctx->in_place) {
+	    if (restore_in_place(ctx) < 0) {
+		zip_error_set(&ctx->error, ZIP_ER_WRITE, errno);
+		return -1;
+	    }
+	    return 0;
+	}
 	if (ctx->fout) {
 	    fclose(ctx->fout);
 	    ctx->fout = NULL;
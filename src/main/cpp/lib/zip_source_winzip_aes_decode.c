@@ -37,6 +37,16 @@
 
 #include "zipint.h"
 
+#include "zip_crypto.h"
+
+#ifdef ZIP_CRYPTO_AES_CTR
+/* small reads of large entries are served from this much decrypted data, so
+   the backend can generate the key stream on several threads (256k) */
+#define READ_AHEAD_LENGTH (256 * 1024)
+/* reads at least this long are decrypted in parallel by themselves */
+#define READ_AHEAD_MAX_READ (64 * 1024)
+#endif
+
 struct winzip_aes {
     char *password;
     zip_uint16_t encryption_method;
@@ -46,6 +56,10 @@ struct winzip_aes {
 
     zip_winzip_aes_t *aes_ctx;
     zip_error_t error;
+
+    zip_uint8_t *buffer; /* decrypted read ahead */
+    zip_uint64_t buffer_offset;
+    zip_uint64_t buffer_length;
 };
 
 
@@ -153,6 +167,43 @@ verify_hmac(zip_source_t *src, struct winzip_aes *ctx) {
 }
 
 
+#ifdef ZIP_CRYPTO_AES_CTR
+static zip_int64_t
+read_ahead(zip_source_t *src, struct winzip_aes *ctx, void *data, zip_uint64_t len) {
+    zip_uint64_t length;
+    zip_int64_t n;
+
+    if (ctx->buffer == NULL && (ctx->buffer = (zip_uint8_t *)malloc(READ_AHEAD_LENGTH)) == NULL) {
+	zip_error_set(&ctx->error, ZIP_ER_MEMORY, 0);
+	return -1;
+    }
+
+    length = ctx->data_length - ctx->current_position;
+    if (length > READ_AHEAD_LENGTH) {
+	length = READ_AHEAD_LENGTH;
+    }
+    if ((n = zip_source_read(src, ctx->buffer, length)) < 0) {
+	_zip_error_set_from_source(&ctx->error, src);
+	return -1;
+    }
+    ctx->current_position += (zip_uint64_t)n;
+
+    if (!_zip_winzip_aes_decrypt(ctx->aes_ctx, ctx->buffer, (zip_uint64_t)n)) {
+	zip_error_set(&ctx->error, ZIP_ER_INTERNAL, 0);
+	return -1;
+    }
+    ctx->buffer_length = (zip_uint64_t)n;
+
+    if (len > ctx->buffer_length) {
+	len = ctx->buffer_length;
+    }
+    memcpy(data, ctx->buffer, (size_t)len);
+    ctx->buffer_offset = len;
+    return (zip_int64_t)len;
+}
+#endif
+
+
 static zip_int64_t
 winzip_aes_decrypt(zip_source_t *src, void *ud, void *data, zip_uint64_t len, zip_source_cmd_t cmd) {
     struct winzip_aes *ctx;
@@ -166,9 +217,19 @@ winzip_aes_decrypt(zip_source_t *src, void *ud, void *data, zip_uint64_t len, zi
 	    return -1;
 	}
 	ctx->current_position = 0;
+	ctx->buffer_offset = ctx->buffer_length = 0;
 	return 0;
 
     case ZIP_SOURCE_READ:
+	if (ctx->buffer_offset < ctx->buffer_length) {
+	    if (len > ctx->buffer_length - ctx->buffer_offset) {
+		len = ctx->buffer_length - ctx->buffer_offset;
+	    }
+	    memcpy(data, ctx->buffer + ctx->buffer_offset, (size_t)len);
+	    ctx->buffer_offset += len;
+	    return (zip_int64_t)len;
+	}
+
 	if (len > ctx->data_length - ctx->current_position) {
 	    len = ctx->data_length - ctx->current_position;
 	}
@@ -180,6 +241,12 @@ winzip_aes_decrypt(zip_source_t *src, void *ud, void *data, zip_uint64_t len, zi
 	    return 0;
 	}
 
+#ifdef ZIP_CRYPTO_AES_CTR
+	if (len < READ_AHEAD_MAX_READ && ctx->data_length - ctx->current_position > len && _zip_crypto_get_threads() > 0) {
+	    return read_ahead(src, ctx, data, len);
+	}
+#endif
+
 	if ((n = zip_source_read(src, data, len)) < 0) {
 	    _zip_error_set_from_source(&ctx->error, src);
 	    return -1;
@@ -237,6 +304,10 @@ winzip_aes_free(struct winzip_aes *ctx) {
     free(ctx->password);
     zip_error_fini(&ctx->error);
     _zip_winzip_aes_free(ctx->aes_ctx);
+    if (ctx->buffer != NULL) {
+	_zip_crypto_clear(ctx->buffer, ctx->buffer_length);
+	free(ctx->buffer);
+    }
     free(ctx);
 }
 
@@ -258,6 +329,8 @@ winzip_aes_new(zip_uint16_t encryption_method, const char *password, zip_error_t
 
     ctx->encryption_method = encryption_method;
     ctx->aes_ctx = NULL;
+    ctx->buffer = NULL;
+    ctx->buffer_offset = ctx->buffer_length = 0;
 
     zip_error_init(&ctx->error);
 
@@ -49,8 +49,102 @@ struct _zip_winzip_aes {
     zip_uint8_t counter[ZIP_CRYPTO_AES_BLOCK_LENGTH];
     zip_uint8_t pad[ZIP_CRYPTO_AES_BLOCK_LENGTH];
     int pad_offset;
+#ifdef ZIP_CRYPTO_AES_CTR
+    zip_uint8_t *keystream;
+    zip_uint64_t keystream_blocks;
+#endif
 };
 
+#ifdef ZIP_CRYPTO_AES_CTR
+/* longest run of key stream generated at once (256k) */
+#define KEYSTREAM_MAX_BLOCKS 16384
+
+static void
+xor_bytes(zip_uint8_t *data, const zip_uint8_t *key, zip_uint64_t length) {
+    zip_uint64_t a, b;
+
+    for (; length >= sizeof(a); length -= sizeof(a)) {
+	memcpy(&a, data, sizeof(a));
+	memcpy(&b, key, sizeof(b));
+	a ^= b;
+	memcpy(data, &a, sizeof(a));
+	data += sizeof(a);
+	key += sizeof(b);
+    }
+    while (length-- > 0) {
+	*data++ ^= *key++;
+    }
+}
+
+
+/* whole blocks of key stream at once; when decrypting, the backend adds the
+   cipher text to the hmac while it generates the key stream */
+static bool
+aes_crypt_ctr(zip_winzip_aes_t *ctx, zip_uint8_t *data, zip_uint64_t length, bool decrypt) {
+    zip_uint64_t n, nblocks;
+
+    /* rest of the current block */
+    n = (zip_uint64_t)(ZIP_CRYPTO_AES_BLOCK_LENGTH - ctx->pad_offset);
+    if (n > length) {
+	n = length;
+    }
+    if (n > 0) {
+	if (decrypt && !_zip_crypto_hmac(ctx->hmac, data, n)) {
+	    return false;
+	}
+	xor_bytes(data, ctx->pad + ctx->pad_offset, n);
+	ctx->pad_offset += (int)n;
+	if (!decrypt && !_zip_crypto_hmac(ctx->hmac, data, n)) {
+	    return false;
+	}
+	data += n;
+	length -= n;
+    }
+
+    while (length >= ZIP_CRYPTO_AES_BLOCK_LENGTH) {
+	nblocks = length / ZIP_CRYPTO_AES_BLOCK_LENGTH;
+	if (nblocks > KEYSTREAM_MAX_BLOCKS) {
+	    nblocks = KEYSTREAM_MAX_BLOCKS;
+	}
+	if (nblocks > ctx->keystream_blocks) {
+	    free(ctx->keystream);
+	    if ((ctx->keystream = (zip_uint8_t *)malloc(nblocks * ZIP_CRYPTO_AES_BLOCK_LENGTH)) == NULL) {
+		ctx->keystream_blocks = 0;
+		return false;
+	    }
+	    ctx->keystream_blocks = nblocks;
+	}
+	n = nblocks * ZIP_CRYPTO_AES_BLOCK_LENGTH;
+
+	if (!_zip_crypto_aes_ctr(ctx->aes, ctx->counter, ctx->keystream, nblocks, decrypt ? ctx->hmac : NULL, data, n)) {
+	    return false;
+	}
+	xor_bytes(data, ctx->keystream, n);
+	if (!decrypt && !_zip_crypto_hmac(ctx->hmac, data, n)) {
+	    return false;
+	}
+	data += n;
+	length -= n;
+    }
+
+    /* start of the next block */
+    if (length > 0) {
+	if (decrypt && !_zip_crypto_hmac(ctx->hmac, data, length)) {
+	    return false;
+	}
+	if (!_zip_crypto_aes_ctr(ctx->aes, ctx->counter, ctx->pad, 1, NULL, NULL, 0)) {
+	    return false;
+	}
+	xor_bytes(data, ctx->pad, length);
+	ctx->pad_offset = (int)length;
+	if (!decrypt && !_zip_crypto_hmac(ctx->hmac, data, length)) {
+	    return false;
+	}
+    }
+
+    return true;
+}
+#else
 static bool
 aes_crypt(zip_winzip_aes_t *ctx, zip_uint8_t *data, zip_uint64_t length) {
     zip_uint64_t i, j;
@@ -73,6 +167,7 @@ aes_crypt(zip_winzip_aes_t *ctx, zip_uint8_t *data, zip_uint64_t length) {
 
     return true;
 }
+#endif
 
 
 zip_winzip_aes_t *
@@ -108,6 +203,10 @@ _zip_winzip_aes_new(const zip_uint8_t *password, zip_uint64_t password_length, c
 
     memset(ctx->counter, 0, sizeof(ctx->counter));
     ctx->pad_offset = ZIP_CRYPTO_AES_BLOCK_LENGTH;
+#ifdef ZIP_CRYPTO_AES_CTR
+    ctx->keystream = NULL;
+    ctx->keystream_blocks = 0;
+#endif
 
     if (!_zip_crypto_pbkdf2(password, password_length, salt, key_length / 2, PBKDF2_ITERATIONS, buffer, 2 * key_length + WINZIP_AES_PASSWORD_VERIFY_LENGTH)) {
 	free(ctx);
@@ -135,13 +234,21 @@ _zip_winzip_aes_new(const zip_uint8_t *password, zip_uint64_t password_length, c
 
 bool
 _zip_winzip_aes_encrypt(zip_winzip_aes_t *ctx, zip_uint8_t *data, zip_uint64_t length) {
+#ifdef ZIP_CRYPTO_AES_CTR
+    return aes_crypt_ctr(ctx, data, length, false);
+#else
     return aes_crypt(ctx, data, length) && _zip_crypto_hmac(ctx->hmac, data, length);
+#endif
 }
 
 
 bool
 _zip_winzip_aes_decrypt(zip_winzip_aes_t *ctx, zip_uint8_t *data, zip_uint64_t length) {
+#ifdef ZIP_CRYPTO_AES_CTR
+    return aes_crypt_ctr(ctx, data, length, true);
+#else
     return _zip_crypto_hmac(ctx->hmac, data, length) && aes_crypt(ctx, data, length);
+#endif
 }
 
 
@@ -159,5 +266,11 @@ _zip_winzip_aes_free(zip_winzip_aes_t *ctx) {
 
     _zip_crypto_aes_free(ctx->aes);
     _zip_crypto_hmac_free(ctx->hmac);
+#ifdef ZIP_CRYPTO_AES_CTR
+    if (ctx->keystream != NULL) {
+	_zip_crypto_clear(ctx->keystream, ctx->keystream_blocks * ZIP_CRYPTO_AES_BLOCK_LENGTH);
+	free(ctx->keystream);
+    }
+#endif
     free(ctx);
 }
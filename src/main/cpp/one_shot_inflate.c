@@ -0,0 +1,52 @@
+//
+// Whole-buffer raw inflate, see one_shot_inflate.h
+//
+
+#include <limits.h>
+#include <pthread.h>
+#include <stdlib.h>
+#include <zlib.h>
+#include "one_shot_inflate.h"
+
+//每个线程缓存一个解压器，小entry不需要每次初始化
+static pthread_key_t inflater_key;
+static pthread_once_t inflater_once = PTHREAD_ONCE_INIT;
+
+static void inflater_free(void *inflater) {
+    inflateEnd(inflater);
+    free(inflater);
+}
+
+static void inflater_key_init(void) {
+    pthread_key_create(&inflater_key, inflater_free);
+}
+
+int one_shot_inflate(const void *src, size_t src_len, void *dst, size_t dst_len) {
+    z_stream *inflater;
+    unsigned char empty;
+    int ret;
+
+    if (src_len > UINT_MAX || dst_len > UINT_MAX) {
+        return -1;
+    }
+    pthread_once(&inflater_once, inflater_key_init);
+    if ((inflater = pthread_getspecific(inflater_key)) == NULL) {
+        if ((inflater = calloc(1, sizeof(z_stream))) == NULL) {
+            return -1;
+        }
+        if (inflateInit2(inflater, -MAX_WBITS) != Z_OK) {
+            free(inflater);
+            return -1;
+        }
+        pthread_setspecific(inflater_key, inflater);
+    } else if (inflateReset(inflater) != Z_OK) {
+        return -1;
+    }
+    inflater->next_in = (Bytef *) src;
+    inflater->avail_in = (uInt) src_len;
+    //输出缓冲区装得下全部数据时，Z_FINISH不需要分配滑动窗口
+    inflater->next_out = dst_len > 0 ? (Bytef *) dst : &empty;
+    inflater->avail_out = (uInt) dst_len;
+    ret = inflate(inflater, Z_FINISH);
+    return ret == Z_STREAM_END && inflater->total_out == dst_len ? 0 : -1;
+}
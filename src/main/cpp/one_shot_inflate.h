@@ -0,0 +1,13 @@
+//
+// Whole-buffer raw inflate, used for entries small enough to inflate with one call
+//
+
+#ifndef ONE_SHOT_INFLATE_H
+#define ONE_SHOT_INFLATE_H
+
+#include <stddef.h>
+
+/* inflates exactly dst_len bytes from the raw deflate stream in src, 0 on success, -1 on bad data */
+int one_shot_inflate(const void *src, size_t src_len, void *dst, size_t dst_len);
+
+#endif
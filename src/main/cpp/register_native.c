@@ -18,6 +18,9 @@ JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved) {
         return -1;
     }
     initIDs(env);
+    if (!registerCompactNativeMethods(env)) {
+        return -1;
+    }
 
     return JNI_VERSION_1_6;
 }
\ No newline at end of file
@@ -4,7 +4,20 @@
 #include "lib/zip.h"
 #include <malloc.h>
 #include <jni.h>
+#include <dirent.h>
+#include <errno.h>
+#include <limits.h>
+#include <pthread.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <sys/stat.h>
+#include <time.h>
+#include <zlib.h>
 #include "lib/zipint.h"
+#ifdef HAVE_CRYPTO
+#include "lib/zip_crypto.h"
+#endif
+#include "one_shot_inflate.h"
 #include "zip_file.h"
 
 
@@ -29,10 +42,27 @@ static void ThrowOutOfMemoryError(JNIEnv *env, const char *msg) {
 }
 
 static jmethodID progress_method;
+static jmethodID writeProgress_method;
+static jfieldID writeCancelled_field;
 
 static jclass zipEntryClass;
 static jmethodID zipEntry_ctor;
 
+static jclass zipDirectoryClass;
+static jmethodID zipDirectory_ctor;
+
+static jmethodID streamSource_open;
+static jmethodID streamSource_read;
+static jmethodID streamSource_close;
+
+static jmethodID streamTarget_write;
+static jmethodID streamTarget_flush;
+
+static jclass zipCoderClass;
+static jmethodID zipCoder_entryName;
+static jmethodID zipCoder_accept;
+static jmethodID list_add;
+
 void initIDs(JNIEnv *env) {
     jclass listener_cls = (*env)->FindClass(env, "mao/archive/libzip/ProgressListener");
     if (listener_cls == NULL) {
@@ -46,7 +76,39 @@ void initIDs(JNIEnv *env) {
     zipEntry_ctor = (*env)->GetMethodID(env, zipEntryClass, "<init>",
                                         "(JLmao/archive/libzip/ZipCoder;[B" "JJJJII[B[B)V");
 
+    zipDirectoryClass = (*env)->NewGlobalRef(env,
+                                             (*env)->FindClass(env, "mao/archive/libzip/ZipDirectory"));
+
+    zipDirectory_ctor = (*env)->GetMethodID(env, zipDirectoryClass, "<init>",
+                                            "(Lmao/archive/libzip/ZipCoder;[B[I[B[I" "[J[J[J[J[I[I)V");
+
+    jclass streamSourceClass = (*env)->FindClass(env, "mao/archive/libzip/ZipStreamSource");
+    streamSource_open = (*env)->GetMethodID(env, streamSourceClass, "open", "()Z");
+    streamSource_read = (*env)->GetMethodID(env, streamSourceClass, "read", "(Ljava/nio/ByteBuffer;)I");
+    streamSource_close = (*env)->GetMethodID(env, streamSourceClass, "close", "()V");
+    (*env)->DeleteLocalRef(env, streamSourceClass);
+
+    jclass streamTargetClass = (*env)->FindClass(env, "mao/archive/libzip/ZipStreamTarget");
+    streamTarget_write = (*env)->GetMethodID(env, streamTargetClass, "write", "(Ljava/nio/ByteBuffer;I)Z");
+    streamTarget_flush = (*env)->GetMethodID(env, streamTargetClass, "flush", "()Z");
+    (*env)->DeleteLocalRef(env, streamTargetClass);
+
+    zipCoderClass = (*env)->NewGlobalRef(env,
+                                         (*env)->FindClass(env, "mao/archive/libzip/ZipCoder"));
+    zipCoder_entryName = (*env)->GetMethodID(env, zipCoderClass, "entryName", "([B)[B");
+    zipCoder_accept = (*env)->GetStaticMethodID(env, zipCoderClass, "accept",
+                                                "(Lmao/archive/libzip/PathFilter;[BZ)Z");
+
+    jclass listClass = (*env)->FindClass(env, "java/util/List");
+    list_add = (*env)->GetMethodID(env, listClass, "add", "(Ljava/lang/Object;)Z");
+    (*env)->DeleteLocalRef(env, listClass);
+
+    jclass writeListenerClass = (*env)->FindClass(env, "mao/archive/libzip/WriteProgressListener");
+    writeProgress_method = (*env)->GetMethodID(env, writeListenerClass, "onProgress", "(JJDJ)V");
+    (*env)->DeleteLocalRef(env, writeListenerClass);
+
     jclass zipFileClass = (*env)->FindClass(env, "mao/archive/libzip/ZipFile");
+    writeCancelled_field = (*env)->GetFieldID(env, zipFileClass, "writeCancelled", "Z");
     initConstant(env, zipFileClass, "ZIP_CREATE", ZIP_CREATE);
     initConstant(env, zipFileClass, "ZIP_EXCL", ZIP_EXCL);
     initConstant(env, zipFileClass, "ZIP_CHECKCONS", ZIP_CHECKCONS);
@@ -63,6 +125,7 @@ void initIDs(JNIEnv *env) {
     initConstant(env, zipFileClass, "ZIP_CM_STORE", ZIP_CM_STORE);
     initConstant(env, zipFileClass, "ZIP_CM_DEFLATE", ZIP_CM_DEFLATE);
     initConstant(env, zipFileClass, "ZIP_CM_BZIP2", ZIP_CM_BZIP2);
+    initConstant(env, zipFileClass, "ZIP_CM_ZSTD", ZIP_CM_ZSTD);
 
 
     (*env)->DeleteLocalRef(env, zipFileClass);
@@ -101,6 +164,225 @@ static jlong Java_mao_archive_libzip_ZipFile_open(JNIEnv *env, jclass cls, jstri
     return (jlong) za;
 }
 
+static jlong Java_mao_archive_libzip_ZipFile_openMemory0(JNIEnv *env, jclass cls, jobject buffer,
+                                                        jint len, jint mode) {
+    zip_error_t error;
+    zip_source_t *src;
+    zip_t *za;
+
+    char *addr = (*env)->GetDirectBufferAddress(env, buffer);
+    if (addr == NULL) {
+        ThrowByName(env, "java/lang/IllegalArgumentException", "not a direct buffer");
+        return 0;
+    }
+
+    //buffer内存由java层持有，zip_source不释放
+    zip_error_init(&error);
+    if ((src = zip_source_buffer_create(addr, (zip_uint64_t) len, 0, &error)) == NULL) {
+        ThrowIOException(env, zip_error_strerror(&error));
+        zip_error_fini(&error);
+        return 0;
+    }
+    if ((za = zip_open_from_source(src, mode, &error)) == NULL) {
+        zip_source_free(src);
+        ThrowIOException(env, zip_error_strerror(&error));
+    }
+    zip_error_fini(&error);
+    return (jlong) za;
+}
+
+
+#define STREAM_TARGET_BUFFER_SIZE (64 * 1024)
+
+//压缩包按顺序写入java层的WritableByteChannel，不支持回写，zip_close会改用data descriptor
+struct stream_target {
+    JavaVM *vm;
+    jobject target;
+    jobject buffer;             //包装data的DirectByteBuffer
+    zip_uint8_t *data;
+    zip_uint64_t length;        //data中还未交给java层的字节数
+    zip_uint64_t offset;        //已写入的总字节数，包括data中的
+    zip_error_t error;
+};
+
+static JNIEnv *stream_target_env(struct stream_target *st) {
+    JNIEnv *env = NULL;
+    if ((*st->vm)->GetEnv(st->vm, (void **) &env, JNI_VERSION_1_6) != JNI_OK) {
+        return NULL;
+    }
+    return env;
+}
+
+static int stream_target_drain(struct stream_target *st) {
+    JNIEnv *env;
+
+    if (st->length == 0) {
+        return 0;
+    }
+    if ((env = stream_target_env(st)) == NULL) {
+        zip_error_set(&st->error, ZIP_ER_INTERNAL, 0);
+        return -1;
+    }
+    if (!(*env)->CallBooleanMethod(env, st->target, streamTarget_write, st->buffer, (jint) st->length) ||
+        (*env)->ExceptionCheck(env)) {
+        (*env)->ExceptionClear(env);
+        zip_error_set(&st->error, ZIP_ER_WRITE, EIO);
+        return -1;
+    }
+    st->length = 0;
+    return 0;
+}
+
+static zip_int64_t stream_target_write(struct stream_target *st, const zip_uint8_t *data,
+                                       zip_uint64_t len) {
+    zip_uint64_t n, left = len;
+
+    while (left > 0) {
+        if (st->length == STREAM_TARGET_BUFFER_SIZE && stream_target_drain(st) < 0) {
+            return -1;
+        }
+        n = STREAM_TARGET_BUFFER_SIZE - st->length;
+        if (n > left) {
+            n = left;
+        }
+        memcpy(st->data + st->length, data, (size_t) n);
+        st->length += n;
+        data += n;
+        left -= n;
+    }
+    st->offset += len;
+    return (zip_int64_t) len;
+}
+
+static int stream_target_flush(struct stream_target *st) {
+    JNIEnv *env;
+
+    if (stream_target_drain(st) < 0) {
+        return -1;
+    }
+    if ((env = stream_target_env(st)) == NULL) {
+        zip_error_set(&st->error, ZIP_ER_INTERNAL, 0);
+        return -1;
+    }
+    if (!(*env)->CallBooleanMethod(env, st->target, streamTarget_flush) ||
+        (*env)->ExceptionCheck(env)) {
+        (*env)->ExceptionClear(env);
+        zip_error_set(&st->error, ZIP_ER_WRITE, EIO);
+        return -1;
+    }
+    return 0;
+}
+
+static zip_int64_t stream_target_callback(void *ud, void *data, zip_uint64_t len,
+                                          zip_source_cmd_t cmd) {
+    struct stream_target *st = ud;
+    JNIEnv *env;
+
+    switch (cmd) {
+        case ZIP_SOURCE_STAT:
+            //没有可读的旧压缩包，zip_open_from_source按新建处理
+            zip_error_set(&st->error, ZIP_ER_READ, ENOENT);
+            return -1;
+
+        case ZIP_SOURCE_OPEN:
+        case ZIP_SOURCE_CLOSE:
+        case ZIP_SOURCE_BEGIN_WRITE:
+            return 0;
+
+        case ZIP_SOURCE_WRITE:
+            return stream_target_write(st, data, len);
+
+        case ZIP_SOURCE_TELL_WRITE:
+            return (zip_int64_t) st->offset;
+
+        case ZIP_SOURCE_COMMIT_WRITE:
+            return stream_target_flush(st);
+
+        case ZIP_SOURCE_ROLLBACK_WRITE:
+            //已写出的数据无法撤回
+            st->length = 0;
+            return 0;
+
+        case ZIP_SOURCE_REMOVE: {
+            //没有entry时写入只有目录结束记录的空压缩包
+            static const zip_uint8_t empty[22] = {'P', 'K', 5, 6};
+            if (stream_target_write(st, empty, sizeof(empty)) < 0) {
+                return -1;
+            }
+            return stream_target_flush(st);
+        }
+
+        case ZIP_SOURCE_ERROR:
+            return zip_error_to_data(&st->error, data, len);
+
+        case ZIP_SOURCE_FREE:
+            if ((env = stream_target_env(st)) != NULL) {
+                (*env)->DeleteGlobalRef(env, st->buffer);
+                (*env)->DeleteGlobalRef(env, st->target);
+            }
+            zip_error_fini(&st->error);
+            free(st->data);
+            free(st);
+            return 0;
+
+        case ZIP_SOURCE_SUPPORTS:
+            return zip_source_make_command_bitmap(ZIP_SOURCE_OPEN, ZIP_SOURCE_READ, ZIP_SOURCE_CLOSE,
+                                                  ZIP_SOURCE_SEEK, ZIP_SOURCE_TELL, ZIP_SOURCE_STAT,
+                                                  ZIP_SOURCE_ERROR, ZIP_SOURCE_FREE,
+                                                  ZIP_SOURCE_BEGIN_WRITE, ZIP_SOURCE_WRITE,
+                                                  ZIP_SOURCE_COMMIT_WRITE, ZIP_SOURCE_ROLLBACK_WRITE,
+                                                  ZIP_SOURCE_TELL_WRITE, ZIP_SOURCE_REMOVE, -1);
+
+        default:
+            //READ、SEEK和TELL只在读取旧压缩包时使用
+            zip_error_set(&st->error, ZIP_ER_OPNOTSUPP, 0);
+            return -1;
+    }
+}
+
+static jlong Java_mao_archive_libzip_ZipFile_openStream0(JNIEnv *env, jclass cls, jobject target) {
+    zip_error_t error;
+    zip_source_t *src;
+    zip_t *za;
+    jobject buffer;
+
+    struct stream_target *st = calloc(1, sizeof(struct stream_target));
+    if (st == NULL || (st->data = malloc(STREAM_TARGET_BUFFER_SIZE)) == NULL) {
+        free(st);
+        ThrowOutOfMemoryError(env, 0);
+        return 0;
+    }
+    if ((*env)->GetJavaVM(env, &st->vm) != JNI_OK ||
+        (buffer = (*env)->NewDirectByteBuffer(env, st->data, STREAM_TARGET_BUFFER_SIZE)) == NULL) {
+        free(st->data);
+        free(st);
+        return 0;
+    }
+    st->buffer = (*env)->NewGlobalRef(env, buffer);
+    (*env)->DeleteLocalRef(env, buffer);
+    st->target = (*env)->NewGlobalRef(env, target);
+    zip_error_init(&st->error);
+
+    //source释放时同时释放st
+    zip_error_init(&error);
+    if ((src = zip_source_function_create(stream_target_callback, st, &error)) == NULL) {
+        (*env)->DeleteGlobalRef(env, st->buffer);
+        (*env)->DeleteGlobalRef(env, st->target);
+        free(st->data);
+        free(st);
+        ThrowIOException(env, zip_error_strerror(&error));
+        zip_error_fini(&error);
+        return 0;
+    }
+    //没有entry时也要写出空压缩包
+    if ((za = zip_open_from_source(src, ZIP_CREATE | ZIP_TRUNCATE, &error)) == NULL) {
+        zip_source_free(src);
+        ThrowIOException(env, zip_error_strerror(&error));
+    }
+    zip_error_fini(&error);
+    return (jlong) za;
+}
+
 static void Java_mao_archive_libzip_ZipFile_setDefaultPassword0
         (JNIEnv *env, jclass jcls, jlong jzip, jstring password) {
     zip_t *za = (zip_t *) jzip;
@@ -261,10 +543,42 @@ static jlong Java_mao_archive_libzip_ZipFile_addBufferEntry0
 }
 
 
-static jlong Java_mao_archive_libzip_ZipFile_addDirectoryEntry0
-        (JNIEnv *env, jclass cls, jlong jzip, jbyteArray jrawName) {
+//不依赖zip_t的native buffer，可以在多个线程中同时读取
+struct native_buffer {
+    char *data;
+    zip_uint64_t len;
+};
+
+static jlong Java_mao_archive_libzip_ZipFile_newBuffer0
+        (JNIEnv *env, jclass cls, jbyteArray jdatabuf) {
+    jsize datalen = (*env)->GetArrayLength(env, jdatabuf);
+    struct native_buffer *buffer = malloc(sizeof(struct native_buffer));
+    char *data = malloc(datalen > 0 ? (size_t) datalen : 1);
+    if (buffer == NULL || data == NULL) {
+        free(buffer);
+        free(data);
+        ThrowOutOfMemoryError(env, 0);
+        return 0;
+    }
+    (*env)->GetByteArrayRegion(env, jdatabuf, 0, datalen, (jbyte *) data);
+    buffer->data = data;
+    buffer->len = (zip_uint64_t) datalen;
+    return (jlong) buffer;
+}
+
+static void Java_mao_archive_libzip_ZipFile_freeBuffer0
+        (JNIEnv *env, jclass cls, jlong jbuffer) {
+    struct native_buffer *buffer = (struct native_buffer *) jbuffer;
+    if (buffer) {
+        free(buffer->data);
+        free(buffer);
+    }
+}
+
+static jlong Java_mao_archive_libzip_ZipFile_addNativeBufferEntry0
+        (JNIEnv *env, jclass cls, jlong jzip, jbyteArray jrawName, jlong jbuffer) {
     zip_t *za = (zip_t *) jzip;
-    zip_int64_t index;
+    struct native_buffer *buffer = (struct native_buffer *) jbuffer;
     char *rawName;
 
     rawName = (char *) (*env)->GetByteArrayElements(env, jrawName, NULL);
@@ -272,162 +586,1539 @@ static jlong Java_mao_archive_libzip_ZipFile_addDirectoryEntry0
         return -1;
     }
 
-    if ((index = zip_dir_add(za, rawName, 0)) < 0) {
-
+    //buffer由java层在zip关闭后释放
+    zip_int64_t index = -1;
+    zip_source_t *zip_source = zip_source_buffer(za, buffer->data, buffer->len, 0);
+    if (zip_source != NULL) {
+        if ((index = zip_file_add(za, rawName, zip_source, ZIP_FL_OVERWRITE)) < 0) {
+            zip_source_free(zip_source);
+        }
+    }
+    if (index < 0) {
         ThrowIOException(env, zip_strerror(za));
         zip_error_clear(za);
-
     }
 
     (*env)->ReleaseByteArrayElements(env, jrawName, (jbyte *) rawName, JNI_ABORT);
-
     return index;
 }
 
-static jlong Java_mao_archive_libzip_ZipFile_nameLocate0
-        (JNIEnv *env, jclass cls, jlong jzip, jbyteArray jrawName) {
-    zip_t *za = (zip_t *) jzip;
-    char *rawName;
 
-    rawName = (char *) (*env)->GetByteArrayElements(env, jrawName, NULL);
-    if (rawName == NULL) {
+//直接引用direct buffer的内存，不复制数据，java层保证buffer在zip关闭前不被回收
+static jlong Java_mao_archive_libzip_ZipFile_addDirectBufferEntry0
+        (JNIEnv *env, jclass cls, jlong jzip, jbyteArray jrawName, jobjectArray jbuffers,
+         jintArray jpositions, jintArray jlengths) {
+    zip_t *za = (zip_t *) jzip;
+    zip_int64_t index = -1;
+    char *rawName = NULL;
+    jint *positions = NULL;
+    jint *lengths = NULL;
+
+    jsize n = (*env)->GetArrayLength(env, jbuffers);
+    zip_buffer_fragment_t *fragments = malloc(sizeof(zip_buffer_fragment_t) * (n > 0 ? n : 1));
+    if (fragments == NULL) {
+        ThrowOutOfMemoryError(env, 0);
         return -1;
     }
+    if ((positions = (*env)->GetIntArrayElements(env, jpositions, NULL)) == NULL ||
+        (lengths = (*env)->GetIntArrayElements(env, jlengths, NULL)) == NULL) {
+        goto end;
+    }
+    for (jsize i = 0; i < n; i++) {
+        jobject buffer = (*env)->GetObjectArrayElement(env, jbuffers, i);
+        char *addr = (*env)->GetDirectBufferAddress(env, buffer);
+        (*env)->DeleteLocalRef(env, buffer);
+        if (addr == NULL) {
+            ThrowByName(env, "java/lang/IllegalArgumentException", "not a direct buffer");
+            goto end;
+        }
+        fragments[i].data = (zip_uint8_t *) addr + positions[i];
+        fragments[i].length = (zip_uint64_t) lengths[i];
+    }
 
-    zip_int64_t index;
-    if ((index = zip_name_locate(za, rawName, ZIP_FL_ENC_RAW)) < 0) {
-        LOGE("name locate %s", zip_strerror(za));
-        zip_error_clear(za);
+    if ((rawName = (char *) (*env)->GetByteArrayElements(env, jrawName, NULL)) == NULL) {
+        goto end;
     }
 
-    (*env)->ReleaseByteArrayElements(env, jrawName, (jbyte *) rawName, JNI_ABORT);
+    zip_source_t *zip_source = zip_source_buffer_fragment(za, fragments, (zip_uint64_t) n, 0);
+    if (zip_source != NULL) {
+        if ((index = zip_file_add(za, rawName, zip_source, ZIP_FL_OVERWRITE)) < 0) {
+            zip_source_free(zip_source);
+        }
+    }
+    if (index < 0) {
+        ThrowIOException(env, zip_strerror(za));
+        zip_error_clear(za);
+    }
 
+    end:
+    free(fragments);
+    if (rawName != NULL) {
+        (*env)->ReleaseByteArrayElements(env, jrawName, (jbyte *) rawName, JNI_ABORT);
+    }
+    if (positions != NULL) {
+        (*env)->ReleaseIntArrayElements(env, jpositions, positions, JNI_ABORT);
+    }
+    if (lengths != NULL) {
+        (*env)->ReleaseIntArrayElements(env, jlengths, lengths, JNI_ABORT);
+    }
     return index;
 }
 
-static jobject Java_mao_archive_libzip_ZipFile_getEntry0
-        (JNIEnv *env, jclass cls, jlong jzip, jobject zc, jlong index) {
-    zip_t *za = (zip_t *) jzip;
-    const char *comment;
 
-    zip_stat_t stat;
+//预先压缩好的数据，写入时不需要再压缩
+struct compressed_data {
+    char *data;
+    zip_uint64_t comp_size;
+    zip_uint64_t cap;
+    zip_uint64_t size;
+    zip_uint32_t crc;
+    zip_uint16_t method;
+    int comp_flags;             /* general purpose bits 1 and 2 */
+    time_t mtime;
+    zip_uint64_t offset;
+    zip_error_t error;
+};
 
-    if (zip_stat_index(za, (zip_uint64_t) index, ZIP_FL_ENC_RAW | ZIP_FL_UNCHANGED, &stat) < 0) {
-        zip_error_clear(za);
+//libzip中的压缩实现，与zip_close使用的一致
+struct compressor {
+    zip_compression_algorithm_t *algorithm;
+    void *ud;
+    zip_error_t error;
+};
+
+static void compressed_free(struct compressed_data *cd) {
+    if (cd) {
+        free(cd->data);
+        zip_error_fini(&cd->error);
+        free(cd);
+    }
+}
+
+static struct compressed_data *compress_begin(struct compressor *c, jint method, int level,
+                                              zip_uint64_t size_hint) {
+    c->ud = NULL;
+    zip_error_init(&c->error);
+    if ((c->algorithm = _zip_get_compression_algorithm(method, true)) == NULL) {
+        zip_error_set(&c->error, ZIP_ER_COMPNOTSUPP, 0);
         return NULL;
     }
-    //entry name
-    size_t nameLen = strlen(stat.name);
-    jbyteArray rawName = (*env)->NewByteArray(env, (jsize) nameLen);
-    if (rawName == NULL) {
+    struct compressed_data *cd = calloc(1, sizeof(struct compressed_data));
+    if (cd == NULL) {
+        zip_error_set(&c->error, ZIP_ER_MEMORY, 0);
         return NULL;
     }
-    (*env)->SetByteArrayRegion(env, rawName, 0, (jsize) nameLen, (const jbyte *) stat.name);
-
-
-    //comment
-    zip_uint32_t commentLen = 0;
-    if ((comment = zip_file_get_comment(za, (zip_uint64_t) index, &commentLen, ZIP_FL_ENC_RAW)) ==
-        NULL) {
-        zip_error_clear(za);
+    cd->method = ZIP_CM_ACTUAL(method);
+    cd->crc = (zip_uint32_t) crc32(0, NULL, 0);
+    zip_error_init(&cd->error);
+
+    //deflate和zstd的最大膨胀都小于1/256
+    cd->cap = size_hint + (size_hint >> 8) + 64;
+    if ((cd->data = malloc(cd->cap)) == NULL) {
+        zip_error_set(&c->error, ZIP_ER_MEMORY, 0);
+        compressed_free(cd);
         return NULL;
     }
-
-    jbyteArray rawComment = (*env)->NewByteArray(env, commentLen);
-    if (rawComment == NULL) {
+    if ((c->ud = c->algorithm->allocate(cd->method, level, &c->error)) == NULL) {
+        if (zip_error_code_zip(&c->error) == ZIP_ER_OK) {
+            zip_error_set(&c->error, ZIP_ER_MEMORY, 0);
+        }
+        compressed_free(cd);
         return NULL;
     }
-    (*env)->SetByteArrayRegion(env, rawComment, 0, (jsize) commentLen, (const jbyte *) comment);
-
-
-    return (*env)->NewObject(env,
-                             zipEntryClass, zipEntry_ctor, index, zc, rawName,
-                             stat.mtime, stat.crc, stat.size, stat.comp_size,
-                             stat.comp_method, stat.encryption_method,
-                             NULL, rawComment);
-
-}
-
-
-static jboolean Java_mao_archive_libzip_ZipFile_setModifyTime0
-        (JNIEnv *env, jclass cls, jlong jzip, jlong index, jlong time) {
-    zip_t *za = (zip_t *) jzip;
-    if (zip_file_set_mtime(za, (zip_uint64_t) index, (time_t) time, 0) < 0) {
-        return JNI_FALSE;
+    if (!c->algorithm->start(c->ud)) {
+        c->algorithm->deallocate(c->ud);
+        c->ud = NULL;
+        compressed_free(cd);
+        return NULL;
     }
-    return JNI_TRUE;
+    cd->comp_flags = c->algorithm->compression_flags(c->ud);
+    return cd;
 }
 
-static jboolean Java_mao_archive_libzip_ZipFile_setEncryptionMethod0
-        (JNIEnv *env, jclass cls, jlong jzip, jlong index, jint em, jstring password) {
-    zip_t *za = (zip_t *) jzip;
-
-    const char *passwd = NULL;
-    if (password != NULL) {
-        passwd = (*env)->GetStringUTFChars(env, password, 0);
+static void compress_end(struct compressor *c) {
+    if (c->ud != NULL) {
+        c->algorithm->end(c->ud);
+        c->algorithm->deallocate(c->ud);
+        c->ud = NULL;
     }
-    if (zip_file_set_encryption(za, (zip_uint64_t) index, (zip_uint16_t) em, passwd) < 0) {
+}
 
-        if (passwd) {
-            (*env)->ReleaseStringUTFChars(env, password, passwd);
+//finish为真时buf之后没有更多数据
+static int compress_update(struct compressor *c, struct compressed_data *cd, const char *buf,
+                           uInt len, int finish) {
+    if (len > 0) {
+        cd->crc = _zip_crc32(cd->crc, (const zip_uint8_t *) buf, len);
+        cd->size += len;
+        if (!c->algorithm->input(c->ud, (zip_uint8_t *) buf, len)) {
+            return -1;
         }
-        return JNI_FALSE;
     }
+    if (finish) {
+        c->algorithm->end_of_input(c->ud);
+    }
+    for (;;) {
+        if (cd->comp_size == cd->cap) {
+            zip_uint64_t cap = cd->cap * 2;
+            char *data = realloc(cd->data, cap);
+            if (data == NULL) {
+                zip_error_set(&c->error, ZIP_ER_MEMORY, 0);
+                return -1;
+            }
+            cd->data = data;
+            cd->cap = cap;
+        }
+        zip_uint64_t avail = cd->cap - cd->comp_size;
+        switch (c->algorithm->process(c->ud, (zip_uint8_t *) cd->data + cd->comp_size, &avail)) {
+            case ZIP_COMPRESSION_OK:
+                cd->comp_size += avail;
+                break;
 
-    if (passwd) {
-        (*env)->ReleaseStringUTFChars(env, password, passwd);
+            case ZIP_COMPRESSION_END:
+                cd->comp_size += avail;
+                return 0;
+
+            case ZIP_COMPRESSION_NEED_DATA:
+                cd->comp_size += avail;
+                if (!finish) {
+                    return 0;
+                }
+                //输入结束后仍需要数据
+                zip_error_set(&c->error, ZIP_ER_INTERNAL, 0);
+                return -1;
+
+            default:
+                if (zip_error_code_zip(&c->error) == ZIP_ER_OK) {
+                    zip_error_set(&c->error, ZIP_ER_INTERNAL, 0);
+                }
+                return -1;
+        }
     }
-    return JNI_TRUE;
 }
 
-static jboolean Java_mao_archive_libzip_ZipFile_setCompressionMethod0
-        (JNIEnv *env, jclass cls, jlong jzip, jlong index, jint cm, jint level) {
-    zip_t *za = (zip_t *) jzip;
-    if (zip_set_file_compression(za, (zip_uint64_t) index, cm, (zip_uint32_t) level) < 0) {
-        return JNI_FALSE;
+static void throw_compress_error(JNIEnv *env, struct compressor *c) {
+    if (zip_error_code_zip(&c->error) == ZIP_ER_MEMORY) {
+        ThrowOutOfMemoryError(env, 0);
+    } else {
+        ThrowIOException(env, zip_error_strerror(&c->error));
     }
-    return JNI_TRUE;
+    zip_error_fini(&c->error);
 }
 
-static jboolean Java_mao_archive_libzip_ZipFile_setComment0
-        (JNIEnv *env, jclass cls, jlong jzip, jlong index, jbyteArray jcomment) {
-    zip_t *za = (zip_t *) jzip;
-    char *comm;
+static jlong Java_mao_archive_libzip_ZipFile_compressBuffer0
+        (JNIEnv *env, jclass cls, jlong jbuffer, jint method, jint level) {
+    struct native_buffer *buffer = (struct native_buffer *) jbuffer;
+    struct compressor c;
 
-    comm = (char *) (*env)->GetByteArrayElements(env, jcomment, NULL);
-    if (comm == NULL) {
-        return JNI_FALSE;
+    struct compressed_data *cd = compress_begin(&c, method, level, buffer->len);
+    if (cd == NULL) {
+        throw_compress_error(env, &c);
+        return 0;
     }
-
-    jboolean ret = JNI_TRUE;
-    if (zip_set_file_comment(za, (zip_uint64_t) index, comm, (int) strlen(comm)) < 0) {
-        zip_error_clear(za);
-        ret = JNI_FALSE;
+    const char *p = buffer->data;
+    zip_uint64_t rem = buffer->len;
+    int ret;
+    do {
+        uInt n = rem > UINT_MAX ? UINT_MAX : (uInt) rem;
+        rem -= n;
+        ret = compress_update(&c, cd, p, n, rem == 0);
+        p += n;
+    } while (ret == 0 && rem > 0);
+    compress_end(&c);
+
+    if (ret < 0) {
+        compressed_free(cd);
+        throw_compress_error(env, &c);
+        return 0;
     }
-    (*env)->ReleaseByteArrayElements(env, jcomment, (jbyte *) comm, JNI_ABORT);
-
-    return ret;
+    zip_error_fini(&c.error);
+    time(&cd->mtime);
+    return (jlong) cd;
 }
 
-static jbyteArray Java_mao_archive_libzip_ZipFile_getZipComment0
-        (JNIEnv *env, jclass cls, jlong jzip) {
-    zip_t *za = (zip_t *) jzip;
-    const char *comment = NULL;
-    int len = 0;
+static jlong Java_mao_archive_libzip_ZipFile_compressFile0
+        (JNIEnv *env, jclass cls, jstring jpath, jlong off, jlong len, jint method, jint level) {
+    struct compressor c;
+    struct stat st;
+    struct compressed_data *cd = NULL;
+    char buf[BUFSIZ * 8];
 
-    if ((comment = zip_get_archive_comment(za, &len, ZIP_FL_ENC_RAW)) == NULL ||
-        len == 0) {
-        zip_error_clear(za);
-        return NULL;
+    const char *path = (*env)->GetStringUTFChars(env, jpath, 0);
+    if (path == NULL) {
+        return 0;
     }
-    jbyteArray jba = NULL;
-    if ((jba = (*env)->NewByteArray(env, len)) == NULL) {
-        return NULL;
+    FILE *fp = fopen(path, "rb");
+    (*env)->ReleaseStringUTFChars(env, jpath, path);
+    if (fp == NULL || fstat(fileno(fp), &st) < 0 || fseeko(fp, (off_t) off, SEEK_SET) < 0) {
+        ThrowIOException(env, strerror(errno));
+        goto end;
+    }
+    if (len <= 0) {
+        len = st.st_size - off;
     }
 
-    (*env)->SetByteArrayRegion(env, jba, 0, len, (const jbyte *) comment);
+    if ((cd = compress_begin(&c, method, level, (zip_uint64_t) len)) == NULL) {
+        throw_compress_error(env, &c);
+        goto end;
+    }
+    cd->mtime = st.st_mtime;
+    zip_uint64_t rem = (zip_uint64_t) len;
+    int ret = 0;
+    while (ret == 0 && rem > 0) {
+        size_t n = rem > sizeof(buf) ? sizeof(buf) : (size_t) rem;
+        if ((n = fread(buf, 1, n, fp)) == 0) {
+            break;
+        }
+        rem -= n;
+        ret = compress_update(&c, cd, buf, (uInt) n, rem == 0);
+    }
+    if (ret == 0 && len == 0) {
+        ret = compress_update(&c, cd, NULL, 0, 1);
+    }
+    compress_end(&c);
+
+    if (rem != 0 || ret < 0) {
+        if (rem != 0) {
+            ThrowIOException(env, "unexpected end of file");
+            zip_error_fini(&c.error);
+        } else {
+            throw_compress_error(env, &c);
+        }
+        compressed_free(cd);
+        cd = NULL;
+    } else {
+        zip_error_fini(&c.error);
+    }
 
-    return jba;
+    end:
+    if (fp != NULL) {
+        fclose(fp);
+    }
+    return (jlong) cd;
+}
+
+static jboolean Java_mao_archive_libzip_ZipFile_isCompressionSupported0
+        (JNIEnv *env, jclass cls, jint method, jboolean compress) {
+    return (jboolean) zip_compression_method_supported(method, compress != JNI_FALSE);
+}
+
+static void Java_mao_archive_libzip_ZipFile_freeCompressed0
+        (JNIEnv *env, jclass cls, jlong jcompressed) {
+    compressed_free((struct compressed_data *) jcompressed);
+}
+
+static zip_int64_t compressed_source_callback(void *ud, void *data, zip_uint64_t len,
+                                              zip_source_cmd_t cmd) {
+    struct compressed_data *cd = ud;
+
+    switch (cmd) {
+        case ZIP_SOURCE_OPEN:
+            cd->offset = 0;
+            return 0;
+
+        case ZIP_SOURCE_READ: {
+            zip_uint64_t n = cd->comp_size - cd->offset;
+            if (n > len) {
+                n = len;
+            }
+            memcpy(data, cd->data + cd->offset, (size_t) n);
+            cd->offset += n;
+            return (zip_int64_t) n;
+        }
+
+        case ZIP_SOURCE_CLOSE:
+            return 0;
+
+        case ZIP_SOURCE_STAT: {
+            zip_stat_t *st = ZIP_SOURCE_GET_ARGS(zip_stat_t, data, len, &cd->error);
+            if (st == NULL) {
+                return -1;
+            }
+            zip_stat_init(st);
+            st->size = cd->size;
+            st->comp_size = cd->comp_size;
+            st->crc = cd->crc;
+            st->comp_method = cd->method;
+            st->encryption_method = ZIP_EM_NONE;
+            st->mtime = cd->mtime;
+            st->valid = ZIP_STAT_SIZE | ZIP_STAT_COMP_SIZE | ZIP_STAT_CRC | ZIP_STAT_COMP_METHOD |
+                        ZIP_STAT_ENCRYPTION_METHOD | ZIP_STAT_MTIME;
+            return sizeof(zip_stat_t);
+        }
+
+        case ZIP_SOURCE_GET_COMPRESSION_FLAGS:
+            return cd->comp_flags;
+
+        case ZIP_SOURCE_ERROR:
+            return zip_error_to_data(&cd->error, data, len);
+
+        case ZIP_SOURCE_FREE:
+            compressed_free(cd);
+            return 0;
+
+        case ZIP_SOURCE_SUPPORTS:
+            return ZIP_SOURCE_SUPPORTS_READABLE |
+                   ZIP_SOURCE_MAKE_COMMAND_BITMASK(ZIP_SOURCE_GET_COMPRESSION_FLAGS);
+
+        default:
+            zip_error_set(&cd->error, ZIP_ER_INVAL, 0);
+            return -1;
+    }
+}
+
+//用预先压缩好的数据替换entry的数据，保持entry的顺序和设置
+static jboolean Java_mao_archive_libzip_ZipFile_replaceCompressed0
+        (JNIEnv *env, jclass cls, jlong jzip, jlong index, jlong jcompressed) {
+    zip_t *za = (zip_t *) jzip;
+    struct compressed_data *cd = (struct compressed_data *) jcompressed;
+    zip_stat_t st;
+
+    if (zip_stat_index(za, (zip_uint64_t) index, 0, &st) == 0 && (st.valid & ZIP_STAT_MTIME)) {
+        cd->mtime = st.mtime;
+    }
+    zip_source_t *source = zip_source_function(za, compressed_source_callback, cd);
+    if (source == NULL) {
+        compressed_free(cd);
+        zip_error_clear(za);
+        return JNI_FALSE;
+    }
+    if (zip_file_replace(za, (zip_uint64_t) index, source, 0) < 0) {
+        zip_source_free(source);
+        zip_error_clear(za);
+        return JNI_FALSE;
+    }
+    return JNI_TRUE;
+}
+
+
+//写入时才从java层分块读取数据，不需要缓存整个entry
+struct stream_source {
+    JavaVM *vm;
+    jobject source;
+    jobject buffer;             //缓存上次包装的native内存，地址不变时复用
+    void *buffer_data;
+    zip_uint64_t buffer_len;
+    zip_int64_t size;
+    time_t mtime;
+    zip_error_t error;
+};
+
+static JNIEnv *stream_source_env(struct stream_source *ss) {
+    JNIEnv *env = NULL;
+    if ((*ss->vm)->GetEnv(ss->vm, (void **) &env, JNI_VERSION_1_6) != JNI_OK) {
+        return NULL;
+    }
+    return env;
+}
+
+static zip_int64_t stream_source_callback(void *ud, void *data, zip_uint64_t len,
+                                          zip_source_cmd_t cmd) {
+    struct stream_source *ss = ud;
+    JNIEnv *env;
+
+    switch (cmd) {
+        case ZIP_SOURCE_OPEN:
+            if ((env = stream_source_env(ss)) == NULL) {
+                zip_error_set(&ss->error, ZIP_ER_INTERNAL, 0);
+                return -1;
+            }
+            if (!(*env)->CallBooleanMethod(env, ss->source, streamSource_open) ||
+                (*env)->ExceptionCheck(env)) {
+                (*env)->ExceptionClear(env);
+                zip_error_set(&ss->error, ZIP_ER_OPEN, EIO);
+                return -1;
+            }
+            return 0;
+
+        case ZIP_SOURCE_READ: {
+            if ((env = stream_source_env(ss)) == NULL) {
+                zip_error_set(&ss->error, ZIP_ER_INTERNAL, 0);
+                return -1;
+            }
+            if (len > INT32_MAX) {
+                len = INT32_MAX;
+            }
+            if (ss->buffer == NULL || ss->buffer_data != data || ss->buffer_len != len) {
+                if (ss->buffer != NULL) {
+                    (*env)->DeleteGlobalRef(env, ss->buffer);
+                    ss->buffer = NULL;
+                }
+                jobject buffer = (*env)->NewDirectByteBuffer(env, data, (jlong) len);
+                if (buffer == NULL) {
+                    (*env)->ExceptionClear(env);
+                    zip_error_set(&ss->error, ZIP_ER_MEMORY, 0);
+                    return -1;
+                }
+                ss->buffer = (*env)->NewGlobalRef(env, buffer);
+                (*env)->DeleteLocalRef(env, buffer);
+                ss->buffer_data = data;
+                ss->buffer_len = len;
+            }
+            jint n = (*env)->CallIntMethod(env, ss->source, streamSource_read, ss->buffer);
+            if (n < 0 || (*env)->ExceptionCheck(env)) {
+                (*env)->ExceptionClear(env);
+                zip_error_set(&ss->error, ZIP_ER_READ, EIO);
+                return -1;
+            }
+            return n;
+        }
+
+        case ZIP_SOURCE_CLOSE:
+            if ((env = stream_source_env(ss)) != NULL) {
+                (*env)->CallVoidMethod(env, ss->source, streamSource_close);
+                (*env)->ExceptionClear(env);
+            }
+            return 0;
+
+        case ZIP_SOURCE_STAT: {
+            zip_stat_t *st = ZIP_SOURCE_GET_ARGS(zip_stat_t, data, len, &ss->error);
+            if (st == NULL) {
+                return -1;
+            }
+            zip_stat_init(st);
+            st->mtime = ss->mtime;
+            st->valid |= ZIP_STAT_MTIME;
+            if (ss->size >= 0) {
+                st->size = (zip_uint64_t) ss->size;
+                st->valid |= ZIP_STAT_SIZE;
+            }
+            return sizeof(zip_stat_t);
+        }
+
+        case ZIP_SOURCE_ERROR:
+            return zip_error_to_data(&ss->error, data, len);
+
+        case ZIP_SOURCE_FREE:
+            if ((env = stream_source_env(ss)) != NULL) {
+                if (ss->buffer != NULL) {
+                    (*env)->DeleteGlobalRef(env, ss->buffer);
+                }
+                (*env)->DeleteGlobalRef(env, ss->source);
+            }
+            zip_error_fini(&ss->error);
+            free(ss);
+            return 0;
+
+        case ZIP_SOURCE_SUPPORTS:
+            return ZIP_SOURCE_SUPPORTS_READABLE;
+
+        default:
+            zip_error_set(&ss->error, ZIP_ER_INVAL, 0);
+            return -1;
+    }
+}
+
+static jlong Java_mao_archive_libzip_ZipFile_addStreamEntry0
+        (JNIEnv *env, jclass cls, jlong jzip, jbyteArray jrawName, jobject source, jlong size) {
+    zip_t *za = (zip_t *) jzip;
+    char *rawName;
+
+    struct stream_source *ss = calloc(1, sizeof(struct stream_source));
+    if (ss == NULL) {
+        ThrowOutOfMemoryError(env, 0);
+        return -1;
+    }
+    if ((*env)->GetJavaVM(env, &ss->vm) != JNI_OK) {
+        free(ss);
+        return -1;
+    }
+    ss->source = (*env)->NewGlobalRef(env, source);
+    ss->size = size;
+    time(&ss->mtime);
+    zip_error_init(&ss->error);
+
+    rawName = (char *) (*env)->GetByteArrayElements(env, jrawName, NULL);
+    if (rawName == NULL) {
+        (*env)->DeleteGlobalRef(env, ss->source);
+        free(ss);
+        return -1;
+    }
+
+    //source释放时同时释放ss
+    zip_int64_t index = -1;
+    zip_source_t *zip_source = zip_source_function(za, stream_source_callback, ss);
+    if (zip_source == NULL) {
+        (*env)->DeleteGlobalRef(env, ss->source);
+        free(ss);
+    } else if ((index = zip_file_add(za, rawName, zip_source, ZIP_FL_OVERWRITE)) < 0) {
+        zip_source_free(zip_source);
+    }
+    if (index < 0) {
+        ThrowIOException(env, zip_strerror(za));
+        zip_error_clear(za);
+    }
+
+    (*env)->ReleaseByteArrayElements(env, jrawName, (jbyte *) rawName, JNI_ABORT);
+    return index;
+}
+
+
+//原始数据原样写入，目标entry的压缩和加密方法必须和源数据一致，否则zip_close会重新压缩
+static int set_raw_methods(zip_t *za, zip_uint64_t index, zip_uint16_t comp_method,
+                           zip_uint16_t encryption_method) {
+    zip_entry_t *e = za->entry + index;
+
+    //清除之前设置的密码
+    if (zip_file_set_encryption(za, index, ZIP_EM_NONE, NULL) < 0) {
+        return -1;
+    }
+    if (e->changes == NULL && (e->changes = _zip_dirent_clone(e->orig)) == NULL) {
+        zip_error_set(&za->error, ZIP_ER_MEMORY, 0);
+        return -1;
+    }
+    e->changes->comp_method = comp_method;
+    e->changes->compression_level = 0;
+    e->changes->encryption_method = encryption_method;
+    e->changes->changed |= ZIP_DIRENT_COMP_METHOD | ZIP_DIRENT_ENCRYPTION_METHOD;
+    return 0;
+}
+
+static jlong Java_mao_archive_libzip_ZipFile_copyEntry0
+        (JNIEnv *env, jclass cls, jlong jzip, jlong jsrc, jlong srcIndex, jbyteArray jrawName) {
+    zip_t *za = (zip_t *) jzip;
+    zip_t *srcza = (zip_t *) jsrc;
+    zip_stat_t stat;
+    zip_uint8_t opsys;
+    zip_uint32_t attributes;
+    const char *comment;
+    zip_uint32_t commentLen;
+    zip_uint16_t emethod;
+    zip_source_t *source;
+    zip_int64_t index;
+    char *rawName;
+
+    if (zip_stat_index(srcza, (zip_uint64_t) srcIndex, ZIP_FL_ENC_RAW, &stat) < 0
+        || zip_file_get_external_attributes(srcza, (zip_uint64_t) srcIndex, 0, &opsys,
+                                            &attributes) < 0
+        || (comment = zip_file_get_comment(srcza, (zip_uint64_t) srcIndex, &commentLen,
+                                           ZIP_FL_ENC_RAW)) == NULL) {
+        ThrowIOException(env, zip_strerror(srcza));
+        zip_error_clear(srcza);
+        return -1;
+    }
+    emethod = (stat.valid & ZIP_STAT_ENCRYPTION_METHOD) ? stat.encryption_method : ZIP_EM_NONE;
+    //stored的数据在zip_close里会重新计算crc，加密后的数据不能这样复制
+    if (emethod != ZIP_EM_NONE && stat.comp_method == ZIP_CM_STORE) {
+        ThrowIOException(env, "Stored encrypted entry can not be copied without decryption");
+        return -1;
+    }
+
+    rawName = (char *) (*env)->GetByteArrayElements(env, jrawName, NULL);
+    if (rawName == NULL) {
+        return -1;
+    }
+
+    //start和len为0时读取压缩后的数据
+    source = zip_source_zip(za, srcza, (zip_uint64_t) srcIndex,
+                            emethod != ZIP_EM_NONE ? ZIP_FL_ENCRYPTED : 0, 0, 0);
+    if (source == NULL) {
+        goto err;
+    }
+    if ((index = zip_file_add(za, rawName, source, ZIP_FL_OVERWRITE)) < 0) {
+        zip_source_free(source);
+        goto err;
+    }
+    if (set_raw_methods(za, (zip_uint64_t) index, stat.comp_method, emethod) < 0
+        || zip_file_set_external_attributes(za, (zip_uint64_t) index, 0, opsys, attributes) < 0
+        || (commentLen > 0 &&
+            zip_file_set_comment(za, (zip_uint64_t) index, comment, (zip_uint16_t) commentLen, 0) < 0)) {
+        if (za->entry[index].orig == NULL) {
+            zip_delete(za, (zip_uint64_t) index);
+        } else {
+            zip_unchange(za, (zip_uint64_t) index);
+        }
+        goto err;
+    }
+
+    (*env)->ReleaseByteArrayElements(env, jrawName, (jbyte *) rawName, JNI_ABORT);
+    return index;
+
+    err:
+    (*env)->ReleaseByteArrayElements(env, jrawName, (jbyte *) rawName, JNI_ABORT);
+    ThrowIOException(env, zip_strerror(za));
+    zip_error_clear(za);
+    return -1;
+}
+
+static jlong Java_mao_archive_libzip_ZipFile_addDirectoryEntry0
+        (JNIEnv *env, jclass cls, jlong jzip, jbyteArray jrawName) {
+    zip_t *za = (zip_t *) jzip;
+    zip_int64_t index;
+    char *rawName;
+
+    rawName = (char *) (*env)->GetByteArrayElements(env, jrawName, NULL);
+    if (rawName == NULL) {
+        return -1;
+    }
+
+    if ((index = zip_dir_add(za, rawName, 0)) < 0) {
+
+        ThrowIOException(env, zip_strerror(za));
+        zip_error_clear(za);
+
+    }
+
+    (*env)->ReleaseByteArrayElements(env, jrawName, (jbyte *) rawName, JNI_ABORT);
+
+    return index;
+}
+
+#define SPEC_FILE 0
+#define SPEC_BYTES 1
+#define SPEC_DIRECTORY 2
+#define SPEC_NATIVE_BUFFER 3
+
+//给出错的文件加上路径
+static void ThrowEntryIOException(JNIEnv *env, const char *name, const char *msg) {
+    char buf[PATH_MAX + 256];
+    snprintf(buf, sizeof(buf), "%s: %s", name, msg);
+    ThrowIOException(env, buf);
+}
+
+//设置新entry的加密、压缩方法和修改时间，time<0时保留数据源的时间
+static int set_entry_options(zip_t *za, zip_int64_t index, jint em, jint cm, jint level, jlong time) {
+    if (em != ZIP_EM_NONE && zip_file_set_encryption(za, (zip_uint64_t) index, (zip_uint16_t) em, NULL) < 0) {
+        return -1;
+    }
+    if (zip_set_file_compression(za, (zip_uint64_t) index, cm, (zip_uint32_t) level) < 0) {
+        return -1;
+    }
+    if (time >= 0 && zip_file_set_mtime(za, (zip_uint64_t) index, (time_t) time, 0) < 0) {
+        return -1;
+    }
+    return 0;
+}
+
+static zip_int64_t add_spec(JNIEnv *env, zip_t *za, const char *name, jint kind, jstring jfileName,
+                            jbyteArray jdata, jlong off, jlong len) {
+    zip_source_t *src = NULL;
+    zip_int64_t index;
+
+    switch (kind) {
+        case SPEC_DIRECTORY:
+            return zip_dir_add(za, name, 0);
+
+        case SPEC_FILE: {
+            struct stat st;
+            const char *path = (*env)->GetStringUTFChars(env, jfileName, NULL);
+            if (path == NULL) {
+                return -1;
+            }
+            //文件不存在时在这里报错，而不是在zip_close时
+            if (stat(path, &st) < 0) {
+                zip_error_set(&za->error, ZIP_ER_OPEN, errno);
+            } else {
+                src = zip_source_file(za, path, (zip_uint64_t) off, len);
+            }
+            (*env)->ReleaseStringUTFChars(env, jfileName, path);
+            break;
+        }
+
+        case SPEC_BYTES: {
+            jsize datalen = (*env)->GetArrayLength(env, jdata);
+            char *databuf = malloc(datalen > 0 ? (size_t) datalen : 1);
+            if (databuf == NULL) {
+                zip_error_set(&za->error, ZIP_ER_MEMORY, 0);
+                return -1;
+            }
+            (*env)->GetByteArrayRegion(env, jdata, 0, datalen, (jbyte *) databuf);
+            if ((src = zip_source_buffer(za, databuf, (zip_uint64_t) datalen, 1)) == NULL) {
+                free(databuf);
+            }
+            break;
+        }
+
+        case SPEC_NATIVE_BUFFER: {
+            //buffer由java层在zip关闭后释放
+            struct native_buffer *buffer = (struct native_buffer *) off;
+            src = zip_source_buffer(za, buffer->data, buffer->len, 0);
+            break;
+        }
+
+        default:
+            zip_error_set(&za->error, ZIP_ER_INVAL, 0);
+            return -1;
+    }
+
+    if (src == NULL) {
+        return -1;
+    }
+    if ((index = zip_file_add(za, name, src, ZIP_FL_OVERWRITE)) < 0) {
+        zip_source_free(src);
+    }
+    return index;
+}
+
+/*
+ * 一次调用添加多个entry。每个entry在longs中占3个值(off或native buffer, len, 修改时间秒数)，
+ * 在ints中占4个值(类型, 加密方法, 压缩方法, 压缩级别)。新entry的index写入indices，
+ * 出错时前面的entry保留，失败的entry及之后的index为-1
+ */
+static void Java_mao_archive_libzip_ZipFile_addEntries0
+        (JNIEnv *env, jclass cls, jlong jzip, jobjectArray jnames, jobjectArray jfileNames,
+         jobjectArray jdatas, jlongArray jlongs, jintArray jints, jlongArray jindices) {
+    zip_t *za = (zip_t *) jzip;
+    jsize n = (*env)->GetArrayLength(env, jnames);
+    jlong *indices = NULL;
+    jlong *longs = NULL;
+    jint *ints = NULL;
+    jsize i;
+
+    if ((longs = (*env)->GetLongArrayElements(env, jlongs, NULL)) == NULL ||
+        (ints = (*env)->GetIntArrayElements(env, jints, NULL)) == NULL ||
+        (indices = (*env)->GetLongArrayElements(env, jindices, NULL)) == NULL) {
+        goto end;
+    }
+
+    for (i = 0; i < n; i++) {
+        jbyteArray jrawName = (*env)->GetObjectArrayElement(env, jnames, i);
+        jstring jfileName = (*env)->GetObjectArrayElement(env, jfileNames, i);
+        jbyteArray jdata = (*env)->GetObjectArrayElement(env, jdatas, i);
+        char *rawName = (char *) (*env)->GetByteArrayElements(env, jrawName, NULL);
+        zip_int64_t index = -1;
+
+        if (rawName != NULL) {
+            index = add_spec(env, za, rawName, ints[4 * i], jfileName, jdata, longs[3 * i], longs[3 * i + 1]);
+            if (index >= 0 && set_entry_options(za, index, ints[4 * i + 1], ints[4 * i + 2], ints[4 * i + 3],
+                                                longs[3 * i + 2]) < 0) {
+                zip_delete(za, (zip_uint64_t) index);
+                index = -1;
+            }
+            if (index < 0 && !(*env)->ExceptionCheck(env)) {
+                ThrowIOException(env, zip_strerror(za));
+            }
+            zip_error_clear(za);
+            (*env)->ReleaseByteArrayElements(env, jrawName, (jbyte *) rawName, JNI_ABORT);
+        }
+        (*env)->DeleteLocalRef(env, jrawName);
+        (*env)->DeleteLocalRef(env, jfileName);
+        (*env)->DeleteLocalRef(env, jdata);
+        if (index < 0) {
+            break;
+        }
+        indices[i] = index;
+    }
+
+    end:
+    if (indices != NULL) {
+        (*env)->ReleaseLongArrayElements(env, jindices, indices, 0);
+    }
+    if (longs != NULL) {
+        (*env)->ReleaseLongArrayElements(env, jlongs, longs, JNI_ABORT);
+    }
+    if (ints != NULL) {
+        (*env)->ReleaseIntArrayElements(env, jints, ints, JNI_ABORT);
+    }
+}
+
+
+struct tree_walk {
+    JNIEnv *env;
+    zip_t *za;
+    jobject zc;         //名字需要转码时的ZipCoder，UTF-8时为NULL
+    jobject filter;
+    jobject files;      //不为NULL时收集文件的相对路径，供并行压缩使用
+    jint em;
+    jint cm;
+    jint level;
+    char path[PATH_MAX];
+    size_t root_length;
+    char *name;         //prefix + 相对路径
+    size_t prefix_length;
+    size_t name_capacity;
+    jlong *added;       //每个entry两个值: index, 文件大小(目录为-1)
+    size_t count;
+    size_t capacity;
+};
+
+static int compare_names(const void *a, const void *b) {
+    return strcmp(*(char *const *) a, *(char *const *) b);
+}
+
+static jbyteArray new_byte_array(JNIEnv *env, const char *bytes, size_t len) {
+    jbyteArray array = (*env)->NewByteArray(env, (jsize) len);
+    if (array != NULL) {
+        (*env)->SetByteArrayRegion(env, array, 0, (jsize) len, (const jbyte *) bytes);
+    }
+    return array;
+}
+
+static int tree_accept(struct tree_walk *w, const char *relative, int is_dir) {
+    JNIEnv *env = w->env;
+    jbyteArray path = new_byte_array(env, relative, strlen(relative));
+    jboolean accept;
+
+    if (path == NULL) {
+        return -1;
+    }
+    accept = (*env)->CallStaticBooleanMethod(env, zipCoderClass, zipCoder_accept, w->filter, path,
+                                             is_dir ? JNI_TRUE : JNI_FALSE);
+    (*env)->DeleteLocalRef(env, path);
+    if ((*env)->ExceptionCheck(env)) {
+        return -1;
+    }
+    return accept ? 1 : 0;
+}
+
+//entry名字为prefix + 相对路径，目录以/结尾
+static int tree_entry_name(struct tree_walk *w, const char *relative, int is_dir) {
+    JNIEnv *env = w->env;
+    jbyteArray encoded = NULL;
+    jbyte *bytes = NULL;
+    const char *rel = relative;
+    size_t len;
+
+    if (w->zc != NULL) {
+        jbyteArray path = new_byte_array(env, relative, strlen(relative));
+        if (path == NULL) {
+            return -1;
+        }
+        encoded = (*env)->CallObjectMethod(env, w->zc, zipCoder_entryName, path);
+        (*env)->DeleteLocalRef(env, path);
+        if ((*env)->ExceptionCheck(env) ||
+            (bytes = (*env)->GetByteArrayElements(env, encoded, NULL)) == NULL) {
+            (*env)->DeleteLocalRef(env, encoded);
+            return -1;
+        }
+        //getBytes以\0结尾
+        rel = (const char *) bytes;
+    }
+
+    len = strlen(rel);
+    if (w->prefix_length + len + 2 > w->name_capacity) {
+        size_t capacity = (w->prefix_length + len + 2) * 2;
+        char *name = realloc(w->name, capacity);
+        if (name == NULL) {
+            if (bytes != NULL) {
+                (*env)->ReleaseByteArrayElements(env, encoded, bytes, JNI_ABORT);
+                (*env)->DeleteLocalRef(env, encoded);
+            }
+            ThrowOutOfMemoryError(env, 0);
+            return -1;
+        }
+        w->name = name;
+        w->name_capacity = capacity;
+    }
+    memcpy(w->name + w->prefix_length, rel, len);
+    if (is_dir) {
+        w->name[w->prefix_length + len++] = '/';
+    }
+    w->name[w->prefix_length + len] = 0;
+
+    if (bytes != NULL) {
+        (*env)->ReleaseByteArrayElements(env, encoded, bytes, JNI_ABORT);
+        (*env)->DeleteLocalRef(env, encoded);
+    }
+    return 0;
+}
+
+static int tree_add(struct tree_walk *w, const char *relative, int is_dir, zip_uint64_t size) {
+    zip_t *za = w->za;
+    zip_source_t *src;
+    zip_int64_t index;
+
+    if (tree_entry_name(w, relative, is_dir) < 0) {
+        return -1;
+    }
+
+    if (is_dir) {
+        //已有的目录保留
+        if ((index = zip_name_locate(za, w->name, ZIP_FL_ENC_RAW)) < 0) {
+            zip_error_clear(za);
+            index = zip_dir_add(za, w->name, 0);
+        }
+    } else {
+        index = -1;
+        if ((src = zip_source_file(za, w->path, 0, (zip_int64_t) size)) != NULL) {
+            if ((index = zip_file_add(za, w->name, src, ZIP_FL_OVERWRITE)) < 0) {
+                zip_source_free(src);
+            } else if (set_entry_options(za, index, w->em, w->cm, w->level, -1) < 0) {
+                zip_delete(za, (zip_uint64_t) index);
+                index = -1;
+            }
+        }
+    }
+    if (index < 0) {
+        ThrowEntryIOException(w->env, w->path, zip_strerror(za));
+        zip_error_clear(za);
+        return -1;
+    }
+
+    if (w->count + 2 > w->capacity) {
+        size_t capacity = w->capacity ? w->capacity * 2 : 256;
+        jlong *added = realloc(w->added, capacity * sizeof(jlong));
+        if (added == NULL) {
+            ThrowOutOfMemoryError(w->env, 0);
+            return -1;
+        }
+        w->added = added;
+        w->capacity = capacity;
+    }
+    w->added[w->count++] = index;
+    w->added[w->count++] = is_dir ? -1 : (jlong) size;
+
+    if (!is_dir && w->files != NULL) {
+        JNIEnv *env = w->env;
+        jbyteArray path = new_byte_array(env, relative, strlen(relative));
+        if (path == NULL) {
+            return -1;
+        }
+        (*env)->CallBooleanMethod(env, w->files, list_add, path);
+        (*env)->DeleteLocalRef(env, path);
+        if ((*env)->ExceptionCheck(env)) {
+            return -1;
+        }
+    }
+    return 0;
+}
+
+//按名字顺序遍历w->path下的文件，指向目录的链接不进入，避免循环
+static int tree_walk_dir(struct tree_walk *w, size_t path_length) {
+    JNIEnv *env = w->env;
+    DIR *dir;
+    struct dirent *de;
+    struct stat st;
+    char **names = NULL;
+    size_t n = 0, capacity = 0, i, len;
+    int ret = -1;
+
+    if ((dir = opendir(path_length > 0 ? w->path : "/")) == NULL) {
+        ThrowEntryIOException(env, w->path, strerror(errno));
+        return -1;
+    }
+    while ((de = readdir(dir)) != NULL) {
+        if (strcmp(de->d_name, ".") == 0 || strcmp(de->d_name, "..") == 0) {
+            continue;
+        }
+        if (n == capacity) {
+            char **grown = realloc(names, (capacity = capacity ? capacity * 2 : 32) * sizeof(char *));
+            if (grown == NULL) {
+                ThrowOutOfMemoryError(env, 0);
+                goto end;
+            }
+            names = grown;
+        }
+        if ((names[n] = strdup(de->d_name)) == NULL) {
+            ThrowOutOfMemoryError(env, 0);
+            goto end;
+        }
+        n++;
+    }
+    closedir(dir);
+    dir = NULL;
+    if (n > 1) {
+        qsort(names, n, sizeof(char *), compare_names);
+    }
+
+    for (i = 0; i < n; i++) {
+        int is_dir, accept;
+
+        len = strlen(names[i]);
+        if (path_length + len + 2 > sizeof(w->path)) {
+            ThrowEntryIOException(env, names[i], "path too long");
+            goto end;
+        }
+        w->path[path_length] = '/';
+        memcpy(w->path + path_length + 1, names[i], len + 1);
+
+        if (lstat(w->path, &st) < 0) {
+            ThrowEntryIOException(env, w->path, strerror(errno));
+            goto end;
+        }
+        if (S_ISLNK(st.st_mode) && (stat(w->path, &st) < 0 || S_ISDIR(st.st_mode))) {
+            continue;
+        }
+        is_dir = S_ISDIR(st.st_mode);
+        if (!is_dir && !S_ISREG(st.st_mode)) {
+            continue;
+        }
+
+        if (w->filter != NULL) {
+            if ((accept = tree_accept(w, w->path + w->root_length + 1, is_dir)) < 0) {
+                goto end;
+            }
+            if (!accept) {
+                continue;
+            }
+        }
+        if (tree_add(w, w->path + w->root_length + 1, is_dir, (zip_uint64_t) st.st_size) < 0) {
+            goto end;
+        }
+        if (is_dir && tree_walk_dir(w, path_length + 1 + len) < 0) {
+            goto end;
+        }
+    }
+    ret = 0;
+
+    end:
+    if (dir != NULL) {
+        closedir(dir);
+    }
+    for (i = 0; i < n; i++) {
+        free(names[i]);
+    }
+    free(names);
+    w->path[path_length] = 0;
+    return ret;
+}
+
+/*
+ * 在native中遍历root并添加所有普通文件和目录，返回每个entry的index和文件大小(目录为-1)。
+ * zc不为NULL时entry名字由ZipCoder从UTF-8转码，files不为NULL时按顺序加入每个文件的相对路径
+ */
+static jlongArray Java_mao_archive_libzip_ZipFile_addTree0
+        (JNIEnv *env, jclass cls, jlong jzip, jobject zc, jstring jroot, jbyteArray jprefix,
+         jobject filter, jobject files, jint em, jint cm, jint level) {
+    struct tree_walk *w;
+    jlongArray result = NULL;
+    const char *root;
+    size_t root_length;
+
+    if ((w = calloc(1, sizeof(struct tree_walk))) == NULL) {
+        ThrowOutOfMemoryError(env, 0);
+        return NULL;
+    }
+    w->env = env;
+    w->za = (zip_t *) jzip;
+    w->zc = zc;
+    w->filter = filter;
+    w->files = files;
+    w->em = em;
+    w->cm = cm;
+    w->level = level;
+
+    if ((root = (*env)->GetStringUTFChars(env, jroot, NULL)) == NULL) {
+        free(w);
+        return NULL;
+    }
+    root_length = strlen(root);
+    while (root_length > 1 && root[root_length - 1] == '/') {
+        root_length--;
+    }
+    if (root_length + 1 > sizeof(w->path)) {
+        ThrowEntryIOException(env, root, "path too long");
+        (*env)->ReleaseStringUTFChars(env, jroot, root);
+        free(w);
+        return NULL;
+    }
+    memcpy(w->path, root, root_length);
+    w->path[root_length] = 0;
+    //根目录是/时相对路径从w->path + 1开始
+    w->root_length = root_length == 1 && root[0] == '/' ? 0 : root_length;
+    (*env)->ReleaseStringUTFChars(env, jroot, root);
+
+    w->prefix_length = (size_t) (*env)->GetArrayLength(env, jprefix) - 1;
+    w->name_capacity = w->prefix_length + 256;
+    if ((w->name = malloc(w->name_capacity)) == NULL) {
+        ThrowOutOfMemoryError(env, 0);
+        free(w);
+        return NULL;
+    }
+    (*env)->GetByteArrayRegion(env, jprefix, 0, (jsize) w->prefix_length, (jbyte *) w->name);
+
+    if (tree_walk_dir(w, w->root_length) == 0 &&
+        (result = (*env)->NewLongArray(env, (jsize) w->count)) != NULL) {
+        (*env)->SetLongArrayRegion(env, result, 0, (jsize) w->count, w->added);
+    }
+
+    free(w->added);
+    free(w->name);
+    free(w);
+    return result;
+}
+
+/*
+ * 按名字删除多个entry，不存在的名字忽略，返回被删除entry的index
+ */
+static jlongArray Java_mao_archive_libzip_ZipFile_removeNamedEntries0
+        (JNIEnv *env, jclass cls, jlong jzip, jobjectArray jnames) {
+    zip_t *za = (zip_t *) jzip;
+    jsize n = (*env)->GetArrayLength(env, jnames);
+    jlongArray result = NULL;
+    jlong *removed;
+    jsize i, count = 0;
+
+    if ((removed = malloc(sizeof(jlong) * (n > 0 ? n : 1))) == NULL) {
+        ThrowOutOfMemoryError(env, 0);
+        return NULL;
+    }
+    for (i = 0; i < n; i++) {
+        jbyteArray jrawName = (*env)->GetObjectArrayElement(env, jnames, i);
+        char *rawName = (char *) (*env)->GetByteArrayElements(env, jrawName, NULL);
+        zip_int64_t index;
+
+        if (rawName == NULL) {
+            (*env)->DeleteLocalRef(env, jrawName);
+            goto end;
+        }
+        if ((index = zip_name_locate(za, rawName, ZIP_FL_ENC_RAW)) >= 0 && zip_delete(za, (zip_uint64_t) index) == 0) {
+            removed[count++] = index;
+        }
+        zip_error_clear(za);
+        (*env)->ReleaseByteArrayElements(env, jrawName, (jbyte *) rawName, JNI_ABORT);
+        (*env)->DeleteLocalRef(env, jrawName);
+    }
+
+    if ((result = (*env)->NewLongArray(env, count)) != NULL) {
+        (*env)->SetLongArrayRegion(env, result, 0, count, removed);
+    }
+
+    end:
+    free(removed);
+    return result;
+}
+
+static jint Java_mao_archive_libzip_ZipFile_removeEntries0
+        (JNIEnv *env, jclass cls, jlong jzip, jlongArray jindices) {
+    zip_t *za = (zip_t *) jzip;
+    jsize n = (*env)->GetArrayLength(env, jindices);
+    jlong *indices;
+    jint count = 0;
+    jsize i;
+
+    if ((indices = (*env)->GetLongArrayElements(env, jindices, NULL)) == NULL) {
+        return 0;
+    }
+    for (i = 0; i < n; i++) {
+        if (zip_delete(za, (zip_uint64_t) indices[i]) == 0) {
+            count++;
+        } else {
+            zip_error_clear(za);
+        }
+    }
+    (*env)->ReleaseLongArrayElements(env, jindices, indices, JNI_ABORT);
+    return count;
+}
+
+static jlong Java_mao_archive_libzip_ZipFile_nameLocate0
+        (JNIEnv *env, jclass cls, jlong jzip, jbyteArray jrawName) {
+    zip_t *za = (zip_t *) jzip;
+    char *rawName;
+
+    rawName = (char *) (*env)->GetByteArrayElements(env, jrawName, NULL);
+    if (rawName == NULL) {
+        return -1;
+    }
+
+    zip_int64_t index;
+    if ((index = zip_name_locate(za, rawName, ZIP_FL_ENC_RAW)) < 0) {
+        LOGE("name locate %s", zip_strerror(za));
+        zip_error_clear(za);
+    }
+
+    (*env)->ReleaseByteArrayElements(env, jrawName, (jbyte *) rawName, JNI_ABORT);
+
+    return index;
+}
+
+static jobject Java_mao_archive_libzip_ZipFile_getEntry0
+        (JNIEnv *env, jclass cls, jlong jzip, jobject zc, jlong index) {
+    zip_t *za = (zip_t *) jzip;
+    const char *comment;
+
+    zip_stat_t stat;
+
+    if (zip_stat_index(za, (zip_uint64_t) index, ZIP_FL_ENC_RAW | ZIP_FL_UNCHANGED, &stat) < 0) {
+        zip_error_clear(za);
+        return NULL;
+    }
+    //entry name
+    size_t nameLen = strlen(stat.name);
+    jbyteArray rawName = (*env)->NewByteArray(env, (jsize) nameLen);
+    if (rawName == NULL) {
+        return NULL;
+    }
+    (*env)->SetByteArrayRegion(env, rawName, 0, (jsize) nameLen, (const jbyte *) stat.name);
+
+
+    //comment
+    zip_uint32_t commentLen = 0;
+    if ((comment = zip_file_get_comment(za, (zip_uint64_t) index, &commentLen, ZIP_FL_ENC_RAW)) ==
+        NULL) {
+        zip_error_clear(za);
+        return NULL;
+    }
+
+    jbyteArray rawComment = (*env)->NewByteArray(env, commentLen);
+    if (rawComment == NULL) {
+        return NULL;
+    }
+    (*env)->SetByteArrayRegion(env, rawComment, 0, (jsize) commentLen, (const jbyte *) comment);
+
+
+    return (*env)->NewObject(env,
+                             zipEntryClass, zipEntry_ctor, index, zc, rawName,
+                             stat.mtime, stat.crc, stat.size, stat.comp_size,
+                             stat.comp_method, stat.encryption_method,
+                             NULL, rawComment);
+
+}
+
+
+//返回entry原始数据在压缩包中的偏移，数据已修改或不存在时返回-1
+static jlong Java_mao_archive_libzip_ZipFile_getDataOffset0
+        (JNIEnv *env, jclass cls, jlong jzip, jlong index) {
+    zip_t *za = (zip_t *) jzip;
+    zip_entry_t *e;
+    zip_uint64_t offset;
+
+    if (index < 0 || (zip_uint64_t) index >= za->nentry) {
+        return -1;
+    }
+    e = za->entry + index;
+    if (e->orig == NULL || e->deleted || ZIP_ENTRY_DATA_CHANGED(e)) {
+        return -1;
+    }
+    if ((offset = _zip_file_get_offset(za, (zip_uint64_t) index, &za->error)) == 0) {
+        zip_error_clear(za);
+        return -1;
+    }
+    return (jlong) offset;
+}
+
+
+struct blob {
+    char *data;
+    size_t len;
+    size_t cap;
+};
+
+static int blob_append(struct blob *b, const char *s, size_t n) {
+    if (b->len + n > b->cap) {
+        size_t cap = b->cap ? b->cap : 4096;
+        while (cap < b->len + n) {
+            cap *= 2;
+        }
+        char *data = realloc(b->data, cap);
+        if (data == NULL) {
+            return -1;
+        }
+        b->data = data;
+        b->cap = cap;
+    }
+    memcpy(b->data + b->len, s, n);
+    b->len += n;
+    return 0;
+}
+
+static jbyteArray newByteArray(JNIEnv *env, const char *data, size_t len) {
+    jbyteArray jba = (*env)->NewByteArray(env, (jsize) len);
+    if (jba != NULL && len > 0) {
+        (*env)->SetByteArrayRegion(env, jba, 0, (jsize) len, (const jbyte *) data);
+    }
+    return jba;
+}
+
+static jintArray newIntArray(JNIEnv *env, const jint *data, jsize len) {
+    jintArray jia = (*env)->NewIntArray(env, len);
+    if (jia != NULL) {
+        (*env)->SetIntArrayRegion(env, jia, 0, len, data);
+    }
+    return jia;
+}
+
+static jlongArray newLongArray(JNIEnv *env, const jlong *data, jsize len) {
+    jlongArray jla = (*env)->NewLongArray(env, len);
+    if (jla != NULL) {
+        (*env)->SetLongArrayRegion(env, jla, 0, len, data);
+    }
+    return jla;
+}
+
+//一次读取整个目录，名字和注释分别连续存放，其余信息按列存放
+static jobject Java_mao_archive_libzip_ZipFile_getDirectory0
+        (JNIEnv *env, jclass cls, jlong jzip, jobject zc) {
+    zip_t *za = (zip_t *) jzip;
+    jobject directory = NULL;
+
+    zip_int64_t num = zip_get_num_entries(za, 0);
+    if (num < 0) {
+        zip_error_clear(za);
+        num = 0;
+    }
+    if (num >= INT32_MAX) {
+        ThrowOutOfMemoryError(env, "too many entries");
+        return NULL;
+    }
+    jsize n = (jsize) num;
+
+    struct blob names = {NULL, 0, 0};
+    struct blob comments = {NULL, 0, 0};
+    jint *nameOffsets = malloc(sizeof(jint) * (n + 1));
+    jint *commentOffsets = malloc(sizeof(jint) * (n + 1));
+    jlong *longs = malloc(sizeof(jlong) * 4 * (n + 1));
+    jint *ints = malloc(sizeof(jint) * 2 * (n + 1));
+    if (nameOffsets == NULL || commentOffsets == NULL || longs == NULL || ints == NULL) {
+        ThrowOutOfMemoryError(env, 0);
+        goto end;
+    }
+    jlong *mtimes = longs, *crcs = longs + n, *sizes = longs + 2 * n, *csizes = longs + 3 * n;
+    jint *methods = ints, *emethods = ints + n;
+
+    zip_stat_t stat;
+    for (jsize i = 0; i < n; i++) {
+        nameOffsets[i] = (jint) names.len;
+        commentOffsets[i] = (jint) comments.len;
+        if (zip_stat_index(za, (zip_uint64_t) i, ZIP_FL_ENC_RAW | ZIP_FL_UNCHANGED, &stat) < 0) {
+            //无法读取的entry，crc标记为-1
+            zip_error_clear(za);
+            mtimes[i] = sizes[i] = csizes[i] = 0;
+            crcs[i] = -1;
+            methods[i] = emethods[i] = 0;
+            continue;
+        }
+        zip_uint32_t commentLen = 0;
+        const char *comment = zip_file_get_comment(za, (zip_uint64_t) i, &commentLen,
+                                                   ZIP_FL_ENC_RAW);
+        if (comment == NULL) {
+            zip_error_clear(za);
+            commentLen = 0;
+        }
+        if (blob_append(&names, stat.name, strlen(stat.name)) < 0 ||
+            blob_append(&comments, comment, commentLen) < 0 ||
+            names.len > INT32_MAX || comments.len > INT32_MAX) {
+            ThrowOutOfMemoryError(env, 0);
+            goto end;
+        }
+        mtimes[i] = stat.mtime;
+        crcs[i] = stat.crc;
+        sizes[i] = (jlong) stat.size;
+        csizes[i] = (jlong) stat.comp_size;
+        methods[i] = stat.comp_method;
+        emethods[i] = stat.encryption_method;
+    }
+    nameOffsets[n] = (jint) names.len;
+    commentOffsets[n] = (jint) comments.len;
+
+    jbyteArray jnames = newByteArray(env, names.data, names.len);
+    jintArray jnameOffsets = newIntArray(env, nameOffsets, n + 1);
+    jbyteArray jcomments = newByteArray(env, comments.data, comments.len);
+    jintArray jcommentOffsets = newIntArray(env, commentOffsets, n + 1);
+    jlongArray jmtimes = newLongArray(env, mtimes, n);
+    jlongArray jcrcs = newLongArray(env, crcs, n);
+    jlongArray jsizes = newLongArray(env, sizes, n);
+    jlongArray jcsizes = newLongArray(env, csizes, n);
+    jintArray jmethods = newIntArray(env, methods, n);
+    jintArray jemethods = newIntArray(env, emethods, n);
+    if ((*env)->ExceptionCheck(env)) {
+        goto end;
+    }
+
+    directory = (*env)->NewObject(env, zipDirectoryClass, zipDirectory_ctor, zc,
+                                  jnames, jnameOffsets, jcomments, jcommentOffsets,
+                                  jmtimes, jcrcs, jsizes, jcsizes, jmethods, jemethods);
+
+    end:
+    free(names.data);
+    free(comments.data);
+    free(nameOffsets);
+    free(commentOffsets);
+    free(longs);
+    free(ints);
+    return directory;
+}
+
+
+static jboolean Java_mao_archive_libzip_ZipFile_setModifyTime0
+        (JNIEnv *env, jclass cls, jlong jzip, jlong index, jlong time) {
+    zip_t *za = (zip_t *) jzip;
+    if (zip_file_set_mtime(za, (zip_uint64_t) index, (time_t) time, 0) < 0) {
+        return JNI_FALSE;
+    }
+    return JNI_TRUE;
+}
+
+static jboolean Java_mao_archive_libzip_ZipFile_setEncryptionMethod0
+        (JNIEnv *env, jclass cls, jlong jzip, jlong index, jint em, jstring password) {
+    zip_t *za = (zip_t *) jzip;
+
+    const char *passwd = NULL;
+    if (password != NULL) {
+        passwd = (*env)->GetStringUTFChars(env, password, 0);
+    }
+    if (zip_file_set_encryption(za, (zip_uint64_t) index, (zip_uint16_t) em, passwd) < 0) {
+
+        if (passwd) {
+            (*env)->ReleaseStringUTFChars(env, password, passwd);
+        }
+        return JNI_FALSE;
+    }
+
+    if (passwd) {
+        (*env)->ReleaseStringUTFChars(env, password, passwd);
+    }
+    return JNI_TRUE;
+}
+
+static jboolean Java_mao_archive_libzip_ZipFile_setCompressionMethod0
+        (JNIEnv *env, jclass cls, jlong jzip, jlong index, jint cm, jint level) {
+    zip_t *za = (zip_t *) jzip;
+    if (zip_set_file_compression(za, (zip_uint64_t) index, cm, (zip_uint32_t) level) < 0) {
+        return JNI_FALSE;
+    }
+    return JNI_TRUE;
+}
+
+static jboolean Java_mao_archive_libzip_ZipFile_setComment0
+        (JNIEnv *env, jclass cls, jlong jzip, jlong index, jbyteArray jcomment) {
+    zip_t *za = (zip_t *) jzip;
+    char *comm;
+
+    comm = (char *) (*env)->GetByteArrayElements(env, jcomment, NULL);
+    if (comm == NULL) {
+        return JNI_FALSE;
+    }
+
+    jboolean ret = JNI_TRUE;
+    if (zip_set_file_comment(za, (zip_uint64_t) index, comm, (int) strlen(comm)) < 0) {
+        zip_error_clear(za);
+        ret = JNI_FALSE;
+    }
+    (*env)->ReleaseByteArrayElements(env, jcomment, (jbyte *) comm, JNI_ABORT);
+
+    return ret;
+}
+
+static jbyteArray Java_mao_archive_libzip_ZipFile_getZipComment0
+        (JNIEnv *env, jclass cls, jlong jzip) {
+    zip_t *za = (zip_t *) jzip;
+    const char *comment = NULL;
+    int len = 0;
+
+    if ((comment = zip_get_archive_comment(za, &len, ZIP_FL_ENC_RAW)) == NULL ||
+        len == 0) {
+        zip_error_clear(za);
+        return NULL;
+    }
+    jbyteArray jba = NULL;
+    if ((jba = (*env)->NewByteArray(env, len)) == NULL) {
+        return NULL;
+    }
+
+    (*env)->SetByteArrayRegion(env, jba, 0, len, (const jbyte *) comment);
+
+    return jba;
+}
+
+//只读的压缩包返回false
+static jboolean Java_mao_archive_libzip_ZipFile_setAppendMode0
+        (JNIEnv *env, jclass cls, jlong jzip, jboolean append) {
+    zip_t *za = (zip_t *) jzip;
+    if (zip_set_archive_flag(za, ZIP_AFL_APPEND, append) < 0) {
+        zip_error_clear(za);
+        return JNI_FALSE;
+    }
+    return JNI_TRUE;
+}
+
+static jboolean Java_mao_archive_libzip_ZipFile_compact0
+        (JNIEnv *env, jclass cls, jlong jzip) {
+    zip_t *za = (zip_t *) jzip;
+    if (zip_set_archive_flag(za, ZIP_AFL_COMPACT, 1) < 0) {
+        zip_error_clear(za);
+        return JNI_FALSE;
+    }
+    return JNI_TRUE;
 }
 
 static jboolean Java_mao_archive_libzip_ZipFile_setZipComment0
@@ -435,101 +2126,809 @@ static jboolean Java_mao_archive_libzip_ZipFile_setZipComment0
     zip_t *za = (zip_t *) jzip;
     char *comm;
 
-    comm = (char *) (*env)->GetByteArrayElements(env, jcomment, NULL);
-    if (comm == NULL) {
-        return JNI_FALSE;
+    comm = (char *) (*env)->GetByteArrayElements(env, jcomment, NULL);
+    if (comm == NULL) {
+        return JNI_FALSE;
+    }
+
+
+    jboolean ret = JNI_TRUE;
+    if (zip_set_archive_comment(za, comm, (zip_uint16_t) strlen(comm)) < 0) {
+
+        zip_error_clear(za);
+        ret = JNI_FALSE;
+    }
+    (*env)->ReleaseByteArrayElements(env, jcomment, (jbyte *) comm, JNI_ABORT);
+
+    return ret;
+}
+
+
+//static inline char *getBuffer(JNIEnv *env, jbyteArray jarr, char *stack_buf) {
+//    char *buf;
+//    jsize ulen = (*env)->GetArrayLength(env, jarr);
+//    if (ulen > MAXNAME) {
+//        buf = malloc((size_t) (ulen + 2));
+//        if (buf == NULL) {
+//            return NULL;
+//        }
+//    } else {
+//        buf = stack_buf;
+//    }
+//    (*env)->GetByteArrayRegion(env, jarr, 0, ulen, (jbyte *) buf);
+//    buf[ulen] = 0;
+//    return buf;
+//
+//}
+
+
+static jlong Java_mao_archive_libzip_ZipFile_openEntry0
+        (JNIEnv *env, jclass cls, jlong jzip, jlong index, jstring password, jboolean verify) {
+    zip_t *za = (zip_t *) jzip;
+
+    char *passwd = NULL;
+
+    if (password != NULL) {
+        passwd = (char *) (*env)->GetStringUTFChars(env, password, 0);
+    }
+
+
+    zip_flags_t flags = verify ? ZIP_FL_UNCHANGED : ZIP_FL_UNCHANGED | ZIP_FL_NOVERIFY;
+    zip_file_t *zf = zip_fopen_index_encrypted(za, (zip_uint64_t) index, flags, passwd);
+    if (zf == NULL) {
+        switch (za->error.zip_err) {
+            case ZIP_ER_WRONGPASSWD:
+            case ZIP_ER_NOPASSWD: {
+                ThrowByName(env, "mao/archive/libzip/PasswordException",
+                                             zip_strerror(za));
+                break;
+            }
+            case ZIP_ER_COMPNOTSUPP:
+            case ZIP_ER_ENCRNOTSUPP: {
+                ThrowByName(env, "java/util/zip/ZipException", zip_strerror(za));
+                break;
+            }
+            default:
+                ThrowIOException(env, zip_strerror(za));
+        }
+        zip_error_clear(za);
+    }
+    if (passwd != NULL) {
+        (*env)->ReleaseStringUTFChars(env, password, passwd);
+    }
+    return (jlong) zf;
+}
+
+//小entry一次读入压缩数据并整体解压，不适用或读取失败时返回NULL，由流式读取处理
+static jbyteArray Java_mao_archive_libzip_ZipFile_readOneShot0
+        (JNIEnv *env, jclass cls, jlong jzip, jlong index, jint limit, jboolean verify) {
+    zip_t *za = (zip_t *) jzip;
+    zip_dirent_t *de;
+    zip_error_t error;
+    zip_uint64_t offset, done;
+    zip_int64_t n;
+    unsigned char stack_buf[16 * 1024];
+    unsigned char *raw = stack_buf;
+    jbyteArray bytes = NULL;
+    jbyte *out;
+    int err = ZIP_ER_OK;
+
+    if (index < 0 || (zip_uint64_t) index >= za->nentry || (de = za->entry[index].orig) == NULL) {
+        return NULL;
+    }
+    //与openEntry一致，读取未修改的数据
+    if (de->encryption_method != ZIP_EM_NONE || de->uncomp_size > (zip_uint64_t) limit ||
+        (de->comp_method != ZIP_CM_DEFLATE && de->comp_method != ZIP_CM_STORE) ||
+        (de->comp_method == ZIP_CM_STORE && de->comp_size != de->uncomp_size) ||
+        de->comp_size > de->uncomp_size + (de->uncomp_size >> 3) + 64) {
+        return NULL;
+    }
+    zip_error_init(&error);
+    offset = _zip_file_get_offset(za, (zip_uint64_t) index, &error);
+    zip_error_fini(&error);
+    if (offset == 0) {
+        return NULL;
+    }
+    if (de->comp_size > sizeof(stack_buf) && (raw = malloc(de->comp_size)) == NULL) {
+        return NULL;
+    }
+    done = 0;
+    if (zip_source_seek(za->src, (zip_int64_t) offset, SEEK_SET) == 0) {
+        while (done < de->comp_size &&
+               (n = zip_source_read(za->src, raw + done, de->comp_size - done)) > 0) {
+            done += (zip_uint64_t) n;
+        }
+    }
+    if (done != de->comp_size || (bytes = (*env)->NewByteArray(env, (jsize) de->uncomp_size)) == NULL) {
+        goto end;
+    }
+    if (de->comp_method == ZIP_CM_STORE) {
+        if (verify && _zip_crc32(0, raw, done) != de->crc) {
+            err = ZIP_ER_CRC;
+        } else {
+            (*env)->SetByteArrayRegion(env, bytes, 0, (jsize) done, (const jbyte *) raw);
+        }
+    } else if ((out = (*env)->GetPrimitiveArrayCritical(env, bytes, NULL)) != NULL) {
+        if (one_shot_inflate(raw, de->comp_size, out, de->uncomp_size) != 0) {
+            err = ZIP_ER_COMPRESSED_DATA;
+        } else if (verify && _zip_crc32(0, (const zip_uint8_t *) out, de->uncomp_size) != de->crc) {
+            err = ZIP_ER_CRC;
+        }
+        (*env)->ReleasePrimitiveArrayCritical(env, bytes, out, 0);
+    }
+
+    end:
+    if (raw != stack_buf) {
+        free(raw);
+    }
+    zip_error_clear(za);
+    if (err != ZIP_ER_OK) {
+        zip_error_init_with_code(&error, err);
+        ThrowIOException(env, zip_error_strerror(&error));
+        zip_error_fini(&error);
+    }
+    if ((err != ZIP_ER_OK || (*env)->ExceptionCheck(env)) && bytes != NULL) {
+        (*env)->DeleteLocalRef(env, bytes);
+        bytes = NULL;
+    }
+    return bytes;
+}
+
+static jstring Java_mao_archive_libzip_ZipFile_crc32Implementation0(JNIEnv *env, jclass cls) {
+    return (*env)->NewStringUTF(env, _zip_crc32_implementation());
+}
+
+static jstring Java_mao_archive_libzip_ZipFile_aesImplementation0(JNIEnv *env, jclass cls) {
+#if defined(HAVE_BUILTIN_CRYPTO)
+    return (*env)->NewStringUTF(env, _zip_crypto_implementation());
+#elif defined(HAVE_OPENSSL)
+    return (*env)->NewStringUTF(env, "openssl");
+#else
+    return NULL;
+#endif
+}
+
+static void Java_mao_archive_libzip_ZipFile_setAesThreads0(JNIEnv *env, jclass cls, jint threads) {
+#ifdef HAVE_BUILTIN_CRYPTO
+    _zip_crypto_set_threads(threads);
+#endif
+}
+
+static void Java_mao_archive_libzip_ZipFile_setZstdWorkers0(JNIEnv *env, jclass cls, jint workers) {
+#ifdef HAVE_LIBZSTD
+    _zip_zstd_set_workers(workers);
+#endif
+}
+
+static jlong Java_mao_archive_libzip_ZipFile_readEntryBytes
+        (JNIEnv *env, jclass cls, jlong jzf, jbyteArray bytes, jint off, jint len) {
+    zip_file_t *zf = (zip_file_t *) jzf;
+
+#define BUFSIZE 8192
+
+    jbyte buf[BUFSIZE];
+
+    if (len > BUFSIZE) {
+        len = BUFSIZE;
+    }
+
+
+    zip_int64_t l = zip_fread(zf, buf, (zip_uint64_t) len);
+
+    if (l != -1) {
+        (*env)->SetByteArrayRegion(env, bytes, off, (jsize) l, buf);
+    }
+
+    return l;
+
+}
+
+
+static jlong Java_mao_archive_libzip_ZipFile_readEntryBuffer0
+        (JNIEnv *env, jclass cls, jlong jzf, jobject buffer, jint off, jint len) {
+    zip_file_t *zf = (zip_file_t *) jzf;
+
+    char *addr = (*env)->GetDirectBufferAddress(env, buffer);
+    if (addr == NULL) {
+        ThrowIOException(env, "not a direct buffer");
+        return -1;
+    }
+
+    //直接解压到buffer内存，不经过中间缓冲
+    zip_int64_t l = zip_fread(zf, addr + off, (zip_uint64_t) len);
+    if (l < 0) {
+        ThrowIOException(env, zip_file_strerror(zf));
+    }
+
+    return l;
+}
+
+
+//stored且未加密的entry可以直接seek，压缩或加密的数据只能解压后丢弃
+static int entry_seekable(zip_file_t *zf) {
+    zip_int64_t supports = zip_source_supports(zf->src);
+    return supports >= 0 && (supports & ZIP_SOURCE_MAKE_COMMAND_BITMASK(ZIP_SOURCE_SEEK)) != 0;
+}
+
+#define SKIP_BUFSIZE (64 * 1024)
+
+static jlong Java_mao_archive_libzip_ZipFile_skipEntry0
+        (JNIEnv *env, jclass cls, jlong jzf, jlong n) {
+    zip_file_t *zf = (zip_file_t *) jzf;
+    zip_int64_t skipped = 0;
+    zip_int64_t l;
+    char *buf;
+
+    if (n <= 0) {
+        return 0;
+    }
+    if (entry_seekable(zf)) {
+        if (zip_fseek(zf, n, SEEK_CUR) < 0) {
+            ThrowIOException(env, zip_file_strerror(zf));
+            return -1;
+        }
+        return n;
     }
 
+    if ((buf = malloc(SKIP_BUFSIZE)) == NULL) {
+        ThrowOutOfMemoryError(env, "malloc failed");
+        return -1;
+    }
+    while (skipped < n) {
+        l = zip_fread(zf, buf, (zip_uint64_t) (n - skipped < SKIP_BUFSIZE ? n - skipped : SKIP_BUFSIZE));
+        if (l < 0) {
+            free(buf);
+            ThrowIOException(env, zip_file_strerror(zf));
+            return -1;
+        }
+        if (l == 0) {
+            break;
+        }
+        skipped += l;
+    }
+    free(buf);
+    return skipped;
+}
 
-    jboolean ret = JNI_TRUE;
-    if (zip_set_archive_comment(za, comm, (zip_uint16_t) strlen(comm)) < 0) {
+static jboolean Java_mao_archive_libzip_ZipFile_seekEntry0
+        (JNIEnv *env, jclass cls, jlong jzf, jlong pos) {
+    zip_file_t *zf = (zip_file_t *) jzf;
 
-        zip_error_clear(za);
-        ret = JNI_FALSE;
+    if (!entry_seekable(zf)) {
+        return JNI_FALSE;
     }
-    (*env)->ReleaseByteArrayElements(env, jcomment, (jbyte *) comm, JNI_ABORT);
+    if (zip_fseek(zf, pos, SEEK_SET) < 0) {
+        ThrowIOException(env, zip_file_strerror(zf));
+        return JNI_FALSE;
+    }
+    return JNI_TRUE;
+}
 
-    return ret;
+//读到entry结尾，由crc层检查crc，rewind时可seek的entry从头读，补上seek跳过的数据
+static void Java_mao_archive_libzip_ZipFile_verifyEntry0
+        (JNIEnv *env, jclass cls, jlong jzf, jboolean rewind) {
+    zip_file_t *zf = (zip_file_t *) jzf;
+    char buf[16 * 1024];
+    zip_int64_t l;
+
+    if (rewind && entry_seekable(zf) && zip_fseek(zf, 0, SEEK_SET) < 0) {
+        ThrowIOException(env, zip_file_strerror(zf));
+        return;
+    }
+    while ((l = zip_fread(zf, buf, sizeof(buf))) > 0) {
+    }
+    if (l < 0) {
+        ThrowIOException(env, zip_file_strerror(zf));
+        //错误已抛出，关闭时不再报告
+        zip_file_error_clear(zf);
+    }
 }
 
+/* deflate access points, see zlib examples/zran.c */
+#define INDEX_WINSIZE 32768U
+#define INDEX_CHUNK 16384
+#define INDEX_MAGIC 0x49445a4cU   /* "LZDI" */
+#define INDEX_VERSION 1
+
+struct deflate_point {
+    zip_uint64_t out;       /* uncompressed offset */
+    zip_uint64_t in;        /* offset of the first full byte in the compressed data */
+    int bits;               /* number of bits (1-7) of the byte before in, 0 if none */
+    unsigned char window[INDEX_WINSIZE];   /* uncompressed data before out */
+};
 
-//static inline char *getBuffer(JNIEnv *env, jbyteArray jarr, char *stack_buf) {
-//    char *buf;
-//    jsize ulen = (*env)->GetArrayLength(env, jarr);
-//    if (ulen > MAXNAME) {
-//        buf = malloc((size_t) (ulen + 2));
-//        if (buf == NULL) {
-//            return NULL;
-//        }
-//    } else {
-//        buf = stack_buf;
-//    }
-//    (*env)->GetByteArrayRegion(env, jarr, 0, ulen, (jbyte *) buf);
-//    buf[ulen] = 0;
-//    return buf;
-//
-//}
+struct deflate_index {
+    pthread_mutex_t lock;
+    zip_uint64_t span;
+    zip_uint32_t crc;
+    zip_uint64_t size;
+    zip_uint64_t comp_size;
+    int complete;           /* reached the end of the entry */
+    int count;
+    int capacity;
+    struct deflate_point **points;
+};
 
+struct index_reader {
+    zip_file_t *raw;        /* compressed entry data */
+    struct deflate_index *index;
+    z_stream strm;
+    zip_uint64_t in;
+    zip_uint64_t out;
+    uLong crc;
+    int verify;             /* check crc at the end of the entry */
+    int crc_valid;          /* crc covers [0, out) */
+    int eof;
+    unsigned char window[INDEX_WINSIZE];
+    unsigned char input[INDEX_CHUNK];
+    char copy[INDEX_CHUNK];  /* output for java arrays */
+};
 
-static jlong Java_mao_archive_libzip_ZipFile_openEntry
-        (JNIEnv *env, jclass cls, jlong jzip, jlong index, jstring password) {
-    zip_t *za = (zip_t *) jzip;
+static struct deflate_index *index_new(zip_uint64_t span, zip_uint32_t crc, zip_uint64_t size,
+                                       zip_uint64_t comp_size) {
+    struct deflate_index *index = calloc(1, sizeof(struct deflate_index));
+    if (index == NULL) {
+        return NULL;
+    }
+    pthread_mutex_init(&index->lock, NULL);
+    index->span = span < INDEX_WINSIZE ? INDEX_WINSIZE : span;
+    index->crc = crc;
+    index->size = size;
+    index->comp_size = comp_size;
+    return index;
+}
 
-    char *passwd = NULL;
+static void index_free(struct deflate_index *index) {
+    int i;
+    for (i = 0; i < index->count; i++) {
+        free(index->points[i]);
+    }
+    free(index->points);
+    pthread_mutex_destroy(&index->lock);
+    free(index);
+}
 
-    if (password != NULL) {
-        passwd = (char *) (*env)->GetStringUTFChars(env, password, 0);
+/* caller holds index->lock */
+static struct deflate_point *index_append(struct deflate_index *index) {
+    struct deflate_point *point;
+
+    if (index->count == index->capacity) {
+        int capacity = index->capacity == 0 ? 16 : index->capacity * 2;
+        struct deflate_point **points = realloc(index->points, capacity * sizeof(*points));
+        if (points == NULL) {
+            return NULL;
+        }
+        index->points = points;
+        index->capacity = capacity;
+    }
+    if ((point = malloc(sizeof(struct deflate_point))) == NULL) {
+        return NULL;
     }
+    index->points[index->count++] = point;
+    return point;
+}
 
+//在块边界记录访问点，只有超出已有访问点一个span时才追加
+static void index_checkpoint(struct index_reader *r, unsigned left) {
+    struct deflate_index *index = r->index;
+    struct deflate_point *point;
+
+    pthread_mutex_lock(&index->lock);
+    if (index->count == 0 || r->out >= index->points[index->count - 1]->out + index->span) {
+        if ((point = index_append(index)) != NULL) {
+            point->out = r->out;
+            point->in = r->in;
+            point->bits = r->strm.data_type & 7;
+            if (left) {
+                memcpy(point->window, r->window + INDEX_WINSIZE - left, left);
+            }
+            if (left < INDEX_WINSIZE) {
+                memcpy(point->window + left, r->window, INDEX_WINSIZE - left);
+            }
+        }
+    }
+    pthread_mutex_unlock(&index->lock);
+}
 
-    zip_file_t *zf = zip_fopen_index_encrypted(za, (zip_uint64_t) index, ZIP_FL_UNCHANGED, passwd);
-    if (zf == NULL) {
-        switch (za->error.zip_err) {
-            case ZIP_ER_WRONGPASSWD:
-            case ZIP_ER_NOPASSWD: {
-                ThrowByName(env, "mao/archive/libzip/PasswordException",
-                                             zip_strerror(za));
-                break;
+/* inflates up to len bytes into dst, dst NULL discards them, returns -1 on error */
+static zip_int64_t index_reader_read(struct index_reader *r, char *dst, zip_uint64_t len,
+                                     const char **error) {
+    zip_uint64_t done = 0;
+    unsigned char *start;
+    unsigned avail, n;
+    zip_int64_t l;
+    int ret = Z_OK;
+
+    //输出整个entry后继续到deflate流的结尾，以便检查crc，结尾可能不需要更多输入
+    while ((done < len || (r->crc_valid && r->out == r->index->size)) && !r->eof) {
+        if (r->strm.avail_out == 0) {
+            r->strm.next_out = r->window;
+            r->strm.avail_out = INDEX_WINSIZE;
+        }
+        if (r->strm.avail_in == 0 && (done < len || ret == Z_BUF_ERROR)) {
+            if ((l = zip_fread(r->raw, r->input, INDEX_CHUNK)) < 0) {
+                *error = zip_file_strerror(r->raw);
+                return -1;
             }
-            case ZIP_ER_COMPNOTSUPP:
-            case ZIP_ER_ENCRNOTSUPP: {
-                ThrowByName(env, "java/util/zip/ZipException", zip_strerror(za));
-                break;
+            if (l == 0) {
+                *error = "unexpected end of entry data";
+                return -1;
             }
-            default:
-                ThrowIOException(env, zip_strerror(za));
+            r->strm.next_in = r->input;
+            r->strm.avail_in = (uInt) l;
+        }
+        //输出不超过请求的长度，窗口剩余部分留给下次
+        avail = r->strm.avail_out;
+        if (avail > len - done) {
+            r->strm.avail_out = done < len ? (uInt) (len - done) : 1;
+        }
+        start = r->strm.next_out;
+        r->in += r->strm.avail_in;
+        ret = inflate(&r->strm, Z_BLOCK);
+        r->in -= r->strm.avail_in;
+        n = (unsigned) (r->strm.next_out - start);
+        r->strm.avail_out = avail - n;
+        if (ret == Z_NEED_DICT || ret == Z_DATA_ERROR || ret == Z_MEM_ERROR) {
+            *error = r->strm.msg != NULL ? r->strm.msg : "invalid deflate data";
+            return -1;
+        }
+        if (n > len - done) {
+            *error = "entry data does not match its size or crc";
+            return -1;
+        }
+        if (dst != NULL) {
+            memcpy(dst + done, start, n);
+        }
+        if (r->crc_valid) {
+            r->crc = _zip_crc32((zip_uint32_t) r->crc, start, n);
+        }
+        r->out += n;
+        done += n;
+        if (ret == Z_STREAM_END) {
+            r->eof = 1;
+            if (r->out != r->index->size || (r->crc_valid && r->crc != r->index->crc)) {
+                *error = "entry data does not match its size or crc";
+                return -1;
+            }
+            pthread_mutex_lock(&r->index->lock);
+            r->index->complete = 1;
+            pthread_mutex_unlock(&r->index->lock);
+        } else if ((r->strm.data_type & 128) && !(r->strm.data_type & 64)) {
+            index_checkpoint(r, r->strm.avail_out);
         }
+    }
+    return (zip_int64_t) done;
+}
+
+/* restarts inflation at point, NULL restarts at the beginning of the entry */
+static int index_reader_reset(struct index_reader *r, struct deflate_point *point,
+                              const char **error) {
+    zip_uint64_t in = point != NULL ? point->in - (point->bits ? 1 : 0) : 0;
+    unsigned char byte;
+
+    inflateReset(&r->strm);
+    if (zip_fseek(r->raw, (zip_int64_t) in, SEEK_SET) < 0) {
+        *error = zip_file_strerror(r->raw);
+        return -1;
+    }
+    r->strm.avail_in = 0;
+    r->strm.next_out = r->window;
+    r->strm.avail_out = INDEX_WINSIZE;
+    r->eof = 0;
+    if (point == NULL) {
+        r->in = r->out = 0;
+        r->crc = 0;
+        r->crc_valid = r->verify;
+        return 0;
+    }
+    if (point->bits) {
+        if (zip_fread(r->raw, &byte, 1) != 1) {
+            *error = "unexpected end of entry data";
+            return -1;
+        }
+        inflatePrime(&r->strm, point->bits, byte >> (8 - point->bits));
+    }
+    memcpy(r->window, point->window, INDEX_WINSIZE);
+    inflateSetDictionary(&r->strm, r->window, INDEX_WINSIZE);
+    r->in = point->in;
+    r->out = point->out;
+    r->crc_valid = r->verify && point->out == 0;
+    r->crc = 0;
+    return 0;
+}
+
+static int index_reader_seek(struct index_reader *r, zip_uint64_t pos, const char **error) {
+    struct deflate_index *index = r->index;
+    struct deflate_point *point = NULL;
+    int lo, hi, mid;
+
+    //二分查找pos之前最近的访问点
+    pthread_mutex_lock(&index->lock);
+    lo = 0;
+    hi = index->count - 1;
+    while (lo <= hi) {
+        mid = (lo + hi) >> 1;
+        if (index->points[mid]->out <= pos) {
+            point = index->points[mid];
+            lo = mid + 1;
+        } else {
+            hi = mid - 1;
+        }
+    }
+    pthread_mutex_unlock(&index->lock);
+
+    //访问点只追加不修改，解锁后仍可读取
+    if (pos < r->out || (point != NULL && point->out > r->out)) {
+        if (index_reader_reset(r, point, error) < 0) {
+            return -1;
+        }
+    }
+    if (pos > r->out && index_reader_read(r, NULL, pos - r->out, error) < 0) {
+        return -1;
+    }
+    return pos == r->out ? 0 : -1;
+}
+
+static jlong Java_mao_archive_libzip_ZipFile_newDeflateIndex0
+        (JNIEnv *env, jclass cls, jlong span, jlong crc, jlong size, jlong csize) {
+    struct deflate_index *index = index_new((zip_uint64_t) span, (zip_uint32_t) crc,
+                                            (zip_uint64_t) size, (zip_uint64_t) csize);
+    if (index == NULL) {
+        ThrowOutOfMemoryError(env, "malloc failed");
+    }
+    return (jlong) index;
+}
+
+static void Java_mao_archive_libzip_ZipFile_freeDeflateIndex0
+        (JNIEnv *env, jclass cls, jlong jindex) {
+    index_free((struct deflate_index *) jindex);
+}
+
+static jboolean Java_mao_archive_libzip_ZipFile_isDeflateIndexComplete0
+        (JNIEnv *env, jclass cls, jlong jindex) {
+    struct deflate_index *index = (struct deflate_index *) jindex;
+    int complete;
+
+    pthread_mutex_lock(&index->lock);
+    complete = index->complete;
+    pthread_mutex_unlock(&index->lock);
+    return (jboolean) complete;
+}
+
+static jlong Java_mao_archive_libzip_ZipFile_openIndexReader0
+        (JNIEnv *env, jclass cls, jlong jzip, jlong index, jlong jindex, jboolean verify) {
+    zip_t *za = (zip_t *) jzip;
+    struct index_reader *r;
+
+    if ((r = calloc(1, sizeof(struct index_reader))) == NULL) {
+        ThrowOutOfMemoryError(env, "malloc failed");
+        return 0;
+    }
+    if (inflateInit2(&r->strm, -MAX_WBITS) != Z_OK) {
+        free(r);
+        ThrowOutOfMemoryError(env, "inflateInit2 failed");
+        return 0;
+    }
+    if ((r->raw = zip_fopen_index(za, (zip_uint64_t) index,
+                                  ZIP_FL_COMPRESSED | ZIP_FL_UNCHANGED)) == NULL) {
+        inflateEnd(&r->strm);
+        free(r);
+        ThrowIOException(env, zip_strerror(za));
         zip_error_clear(za);
+        return 0;
     }
-    if (passwd != NULL) {
-        (*env)->ReleaseStringUTFChars(env, password, passwd);
+    r->index = (struct deflate_index *) jindex;
+    r->strm.next_out = r->window;
+    r->strm.avail_out = INDEX_WINSIZE;
+    r->crc = 0;
+    r->verify = verify;
+    r->crc_valid = verify;
+    return (jlong) r;
+}
+
+static jlong Java_mao_archive_libzip_ZipFile_readIndexReader0
+        (JNIEnv *env, jclass cls, jlong jreader, jobject buffer, jbyteArray bytes, jint off,
+         jint len) {
+    struct index_reader *r = (struct index_reader *) jreader;
+    const char *error = NULL;
+    zip_int64_t l;
+    char *addr;
+
+    if (buffer != NULL) {
+        if ((addr = (*env)->GetDirectBufferAddress(env, buffer)) == NULL) {
+            ThrowIOException(env, "not a direct buffer");
+            return -1;
+        }
+        l = index_reader_read(r, addr + off, (zip_uint64_t) len, &error);
+    } else {
+        if (len > INDEX_CHUNK) {
+            len = INDEX_CHUNK;
+        }
+        l = index_reader_read(r, r->copy, (zip_uint64_t) len, &error);
+        if (l > 0) {
+            (*env)->SetByteArrayRegion(env, bytes, off, (jsize) l, (const jbyte *) r->copy);
+        }
     }
-    return (jlong) zf;
+    if (l < 0) {
+        ThrowIOException(env, error);
+    }
+    return l;
 }
 
-static jlong Java_mao_archive_libzip_ZipFile_readEntryBytes
-        (JNIEnv *env, jclass cls, jlong jzf, jbyteArray bytes, jint off, jint len) {
-    zip_file_t *zf = (zip_file_t *) jzf;
+static void Java_mao_archive_libzip_ZipFile_seekIndexReader0
+        (JNIEnv *env, jclass cls, jlong jreader, jlong pos) {
+    struct index_reader *r = (struct index_reader *) jreader;
+    const char *error = "unexpected end of entry";
 
-#define BUFSIZE 8192
+    if (index_reader_seek(r, (zip_uint64_t) pos, &error) < 0) {
+        ThrowIOException(env, error);
+    }
+}
 
-    jbyte buf[BUFSIZE];
+static void Java_mao_archive_libzip_ZipFile_closeIndexReader0
+        (JNIEnv *env, jclass cls, jlong jreader, jboolean closeFile) {
+    struct index_reader *r = (struct index_reader *) jreader;
 
-    if (len > BUFSIZE) {
-        len = BUFSIZE;
+    if (closeFile) {
+        zip_fclose(r->raw);
     }
+    inflateEnd(&r->strm);
+    free(r);
+}
 
+static int put_le(FILE *f, zip_uint64_t v, int n) {
+    unsigned char b[8];
+    int i;
+    for (i = 0; i < n; i++) {
+        b[i] = (unsigned char) (v >> (8 * i));
+    }
+    return fwrite(b, 1, (size_t) n, f) == (size_t) n ? 0 : -1;
+}
 
-    zip_int64_t l = zip_fread(zf, buf, (zip_uint64_t) len);
+static int get_le(FILE *f, zip_uint64_t *v, int n) {
+    unsigned char b[8];
+    int i;
+    if (fread(b, 1, (size_t) n, f) != (size_t) n) {
+        return -1;
+    }
+    *v = 0;
+    for (i = n - 1; i >= 0; i--) {
+        *v = (*v << 8) | b[i];
+    }
+    return 0;
+}
 
-    if (l != -1) {
-        (*env)->SetByteArrayRegion(env, bytes, off, (jsize) l, buf);
+//窗口数据压缩后保存
+static jboolean Java_mao_archive_libzip_ZipFile_saveDeflateIndex0
+        (JNIEnv *env, jclass cls, jlong jindex, jstring jpath) {
+    struct deflate_index *index = (struct deflate_index *) jindex;
+    struct deflate_point *point;
+    unsigned char *packed = NULL;
+    uLongf packedLen;
+    int i, count, ok = 0;
+    FILE *f;
+
+    const char *path = (*env)->GetStringUTFChars(env, jpath, NULL);
+    if (path == NULL) {
+        return JNI_FALSE;
+    }
+    f = fopen(path, "wb");
+    (*env)->ReleaseStringUTFChars(env, jpath, path);
+    if (f == NULL) {
+        ThrowIOException(env, strerror(errno));
+        return JNI_FALSE;
+    }
+    if ((packed = malloc(compressBound(INDEX_WINSIZE))) == NULL) {
+        fclose(f);
+        ThrowOutOfMemoryError(env, "malloc failed");
+        return JNI_FALSE;
     }
 
-    return l;
+    pthread_mutex_lock(&index->lock);
+    count = index->count;
+    if (put_le(f, INDEX_MAGIC, 4) < 0 || put_le(f, INDEX_VERSION, 4) < 0
+        || put_le(f, index->crc, 4) < 0 || put_le(f, index->size, 8) < 0
+        || put_le(f, index->comp_size, 8) < 0 || put_le(f, index->span, 8) < 0
+        || put_le(f, (zip_uint64_t) index->complete, 4) < 0 || put_le(f, (zip_uint64_t) count, 4) < 0) {
+        goto done;
+    }
+    for (i = 0; i < count; i++) {
+        point = index->points[i];
+        packedLen = compressBound(INDEX_WINSIZE);
+        if (compress2(packed, &packedLen, point->window, INDEX_WINSIZE, Z_BEST_SPEED) != Z_OK) {
+            goto done;
+        }
+        if (put_le(f, point->out, 8) < 0 || put_le(f, point->in, 8) < 0
+            || put_le(f, (zip_uint64_t) point->bits, 1) < 0 || put_le(f, packedLen, 4) < 0
+            || fwrite(packed, 1, packedLen, f) != packedLen) {
+            goto done;
+        }
+    }
+    ok = 1;
 
+    done:
+    pthread_mutex_unlock(&index->lock);
+    free(packed);
+    if (fclose(f) != 0) {
+        ok = 0;
+    }
+    if (!ok) {
+        ThrowIOException(env, "failed to write deflate index");
+    }
+    return (jboolean) ok;
 }
 
+/* returns 0 if the sidecar belongs to another version of the entry */
+static jlong Java_mao_archive_libzip_ZipFile_loadDeflateIndex0
+        (JNIEnv *env, jclass cls, jstring jpath, jlong crc, jlong size, jlong csize) {
+    struct deflate_index *index = NULL;
+    struct deflate_point *point;
+    unsigned char *packed = NULL;
+    zip_uint64_t magic, version, icrc, isize, icsize, span, complete, count, bits, len;
+    uLongf windowLen;
+    zip_uint64_t i;
+    FILE *f;
+
+    const char *path = (*env)->GetStringUTFChars(env, jpath, NULL);
+    if (path == NULL) {
+        return 0;
+    }
+    f = fopen(path, "rb");
+    (*env)->ReleaseStringUTFChars(env, jpath, path);
+    if (f == NULL) {
+        ThrowIOException(env, strerror(errno));
+        return 0;
+    }
+    if (get_le(f, &magic, 4) < 0 || get_le(f, &version, 4) < 0 || get_le(f, &icrc, 4) < 0
+        || get_le(f, &isize, 8) < 0 || get_le(f, &icsize, 8) < 0 || get_le(f, &span, 8) < 0
+        || get_le(f, &complete, 4) < 0 || get_le(f, &count, 4) < 0
+        || magic != INDEX_MAGIC || version != INDEX_VERSION) {
+        goto corrupt;
+    }
+    if (icrc != (zip_uint32_t) crc || isize != (zip_uint64_t) size
+        || icsize != (zip_uint64_t) csize) {
+        fclose(f);
+        return 0;
+    }
+    if ((index = index_new(span, (zip_uint32_t) icrc, isize, icsize)) == NULL
+        || (packed = malloc(compressBound(INDEX_WINSIZE))) == NULL) {
+        goto oom;
+    }
+    index->complete = complete != 0;
+    for (i = 0; i < count; i++) {
+        if ((point = index_append(index)) == NULL) {
+            goto oom;
+        }
+        if (get_le(f, &point->out, 8) < 0 || get_le(f, &point->in, 8) < 0
+            || get_le(f, &bits, 1) < 0 || get_le(f, &len, 4) < 0
+            || bits > 7 || len > compressBound(INDEX_WINSIZE)
+            || fread(packed, 1, (size_t) len, f) != len) {
+            goto corrupt;
+        }
+        point->bits = (int) bits;
+        windowLen = INDEX_WINSIZE;
+        if (uncompress(point->window, &windowLen, packed, (uLong) len) != Z_OK
+            || windowLen != INDEX_WINSIZE) {
+            goto corrupt;
+        }
+    }
+    free(packed);
+    fclose(f);
+    return (jlong) index;
+
+    corrupt:
+    ThrowIOException(env, "invalid deflate index file");
+    goto err;
+    oom:
+    ThrowOutOfMemoryError(env, "malloc failed");
+    err:
+    free(packed);
+    if (index != NULL) {
+        index_free(index);
+    }
+    fclose(f);
+    return 0;
+}
 
 static void Java_mao_archive_libzip_ZipFile_closeEntry
         (JNIEnv *env, jclass cls, jlong jzf) {
@@ -547,46 +2946,145 @@ static void Java_mao_archive_libzip_ZipFile_discard0
 }
 
 
-struct user_data {
+struct close_data {
     JNIEnv *env;
-    jobject listener;
+    jobject listener;           /* ProgressListener, percent in 2% steps */
+    jobject write_listener;     /* WriteProgressListener */
+    jobject owner;              /* ZipFile, holds the cancel flag */
+    zip_t *za;
+    zip_uint64_t *survivors;    /* indices of the entries written, in write order */
+    zip_uint64_t count;
+    jlong interval;             /* nanoseconds between write progress reports */
+    jlong start;
+    jlong last_report;
+    jlong written;
+    jlong base;                 /* write position at the start, kept data in append mode */
+    int started;
+    double last_percent;
+    int failed;                 /* a listener threw */
 };
 
+static jlong monotonic_nanos() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (jlong) ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
 
 static void progress_callback(zip_t *za, double percent, void *vud) {
-    struct user_data *data = vud;
-//    LOGI("percent %f ", percent);
-    if (data->env && data->listener && progress_method) {
-        (*data->env)->CallVoidMethod(data->env, data->listener, progress_method,
-                                     (jint) (percent * 100));
-    }
+    struct close_data *data = vud;
+    JNIEnv *env = data->env;
+    jlong now, written, rate, entry;
+    zip_uint64_t j;
 
+    if (data->failed) {
+        return;
+    }
+    if (data->listener && progress_method &&
+        (percent - data->last_percent >= 0.02 || percent >= 1.0 || percent == 0.0)) {
+        data->last_percent = percent;
+        (*env)->CallVoidMethod(env, data->listener, progress_method, (jint) (percent * 100));
+        if ((*env)->ExceptionCheck(env)) {
+            data->failed = 1;
+            return;
+        }
+    }
+    if (data->write_listener == NULL) {
+        return;
+    }
+    now = monotonic_nanos();
+    if (now - data->last_report < data->interval && percent > 0.0 && percent < 1.0) {
+        return;
+    }
+    data->last_report = now;
+
+    //写完后临时文件已关闭，使用上次的位置
+    written = zip_source_tell_write(za->src);
+    if (!data->started && written >= 0) {
+        //追加模式下保留的数据不算写入
+        data->started = 1;
+        data->base = written;
+    }
+    written -= data->base;
+    if (written < data->written) {
+        written = data->written;
+    }
+    data->written = written;
+    rate = now > data->start ? (jlong) (written * 1e9 / (double) (now - data->start)) : 0;
+    //每个entry占相同的进度区间，由进度反推正在写的entry
+    entry = -1;
+    if (percent < 1.0 && data->count > 0) {
+        j = (zip_uint64_t) (percent * (double) data->count + 1e-9);
+        entry = (jlong) data->survivors[j < data->count ? j : data->count - 1];
+    }
+    (*env)->CallVoidMethod(env, data->write_listener, writeProgress_method, written, entry,
+                           (jdouble) percent, rate);
+    if ((*env)->ExceptionCheck(env)) {
+        data->failed = 1;
+    }
 }
 
-static void ud_free(void *vud) {
-    struct user_data *data = vud;
-    if (data->env && data->listener) {
-        (*data->env)->DeleteGlobalRef(data->env, data->listener);
-    }
+static int cancel_callback(zip_t *za, void *vud) {
+    struct close_data *data = vud;
+    return data->failed || (*data->env)->GetBooleanField(data->env, data->owner, writeCancelled_field);
 }
 
 
 static void Java_mao_archive_libzip_ZipFile_close0
-        (JNIEnv *env, jclass cls, jlong jzip, jobject listener) {
-    struct user_data data;
+        (JNIEnv *env, jclass cls, jlong jzip, jobject owner, jobject listener, jobject writeListener,
+         jlong intervalMillis) {
+    struct close_data data;
     zip_t *za = (zip_t *) jzip;
+    zip_uint64_t i;
+    int ret;
+
     if (za == NULL) {
         return;
     }
-    if (listener) {
-        data.env = env;
-        data.listener = (*env)->NewGlobalRef(env, listener);
-        zip_register_progress_callback_with_state(za, 0.02, progress_callback, ud_free, &data);
+    memset(&data, 0, sizeof(data));
+    data.env = env;
+    data.listener = listener;
+    data.write_listener = writeListener;
+    data.owner = owner;
+    data.za = za;
+    data.interval = intervalMillis * 1000000LL;
+    data.start = monotonic_nanos();
+    data.last_percent = -1.0;
+    if (writeListener) {
+        //内存不足时不报告entry
+        data.survivors = malloc(sizeof(zip_uint64_t) * (za->nentry > 0 ? za->nentry : 1));
+        for (i = 0; data.survivors != NULL && i < za->nentry; i++) {
+            if (!za->entry[i].deleted) {
+                data.survivors[data.count++] = i;
+            }
+        }
     }
+    if (listener || writeListener) {
+        //每次更新都回调，由progress_callback控制上报频率
+        zip_register_progress_callback_with_state(za, 0.0, progress_callback, NULL, &data);
+    }
+    zip_register_cancel_callback_with_state(za, cancel_callback, NULL, &data);
 
-    if (zip_close(za) < 0) {
-        ThrowIOException(env, zip_strerror(za));
+    ret = zip_close(za);
+    free(data.survivors);
+    if (ret == 0) {
+        return;
+    }
+
+    //data在栈上，失败时za仍然有效，需要注销回调
+    zip_register_progress_callback_with_state(za, 0.0, NULL, NULL, NULL);
+    zip_register_cancel_callback_with_state(za, NULL, NULL, NULL);
+    if (data.failed) {
+        //保留listener抛出的异常
+        zip_discard(za);
+        return;
     }
+    if (zip_error_code_zip(zip_get_error(za)) == ZIP_ER_CANCELLED) {
+        //临时文件已被删除，原压缩包不变
+        zip_discard(za);
+        ThrowByName(env, "mao/archive/libzip/WriteCancelledException", "write cancelled");
+        return;
+    }
+    ThrowIOException(env, zip_strerror(za));
 }
 
 #define NELEM(x) ((int) (sizeof(x) / sizeof((x)[0])))
@@ -594,6 +3092,10 @@ static void Java_mao_archive_libzip_ZipFile_close0
 static JNINativeMethod methods[] = {
         {"open",                  "(Ljava/lang/String;I)J",                                         (void *) Java_mao_archive_libzip_ZipFile_open},
 
+        {"openMemory0",           "(Ljava/nio/ByteBuffer;II)J",                                     (void *) Java_mao_archive_libzip_ZipFile_openMemory0},
+
+        {"openStream0",           "(Lmao/archive/libzip/ZipStreamTarget;)J",                        (void *) Java_mao_archive_libzip_ZipFile_openStream0},
+
         {"getEntriesCount",       "(J)J",                                                           (void *) Java_mao_archive_libzip_ZipFile_getEntriesCount},
 
         {"setDefaultPassword0",   "(JLjava/lang/String;)V",                                         (void *) Java_mao_archive_libzip_ZipFile_setDefaultPassword0},
@@ -608,13 +3110,49 @@ static JNINativeMethod methods[] = {
 
         {"addBufferEntry0",       "(J[B[B)J",                                                       (void *) Java_mao_archive_libzip_ZipFile_addBufferEntry0},
 
+        {"newBuffer0",            "([B)J",                                                          (void *) Java_mao_archive_libzip_ZipFile_newBuffer0},
+
+        {"freeBuffer0",           "(J)V",                                                           (void *) Java_mao_archive_libzip_ZipFile_freeBuffer0},
+
+        {"addNativeBufferEntry0", "(J[BJ)J",                                                        (void *) Java_mao_archive_libzip_ZipFile_addNativeBufferEntry0},
+
+        {"addDirectBufferEntry0", "(J[B[Ljava/nio/ByteBuffer;[I[I)J",                               (void *) Java_mao_archive_libzip_ZipFile_addDirectBufferEntry0},
+
+        {"compressBuffer0",       "(JII)J",                                                         (void *) Java_mao_archive_libzip_ZipFile_compressBuffer0},
+
+        {"compressFile0",         "(Ljava/lang/String;JJII)J",                                      (void *) Java_mao_archive_libzip_ZipFile_compressFile0},
+
+        {"isCompressionSupported0", "(IZ)Z",                                                        (void *) Java_mao_archive_libzip_ZipFile_isCompressionSupported0},
+
+        {"freeCompressed0",       "(J)V",                                                           (void *) Java_mao_archive_libzip_ZipFile_freeCompressed0},
+
+        {"replaceCompressed0",    "(JJJ)Z",                                                         (void *) Java_mao_archive_libzip_ZipFile_replaceCompressed0},
+
+        {"addStreamEntry0",       "(J[BLmao/archive/libzip/ZipStreamSource;J)J",                    (void *) Java_mao_archive_libzip_ZipFile_addStreamEntry0},
+
+        {"copyEntry0",            "(JJJ[B)J",                                                       (void *) Java_mao_archive_libzip_ZipFile_copyEntry0},
+
         {"addDirectoryEntry0",    "(J[B)J",                                                         (void *) Java_mao_archive_libzip_ZipFile_addDirectoryEntry0},
 
+        {"addEntries0",           "(J[[B[Ljava/lang/String;[[B[J[I[J)V",                            (void *) Java_mao_archive_libzip_ZipFile_addEntries0},
+
+        {"addTree0",              "(JLmao/archive/libzip/ZipCoder;Ljava/lang/String;[BLmao/archive/libzip/PathFilter;Ljava/util/List;III)[J", (void *) Java_mao_archive_libzip_ZipFile_addTree0},
+
+        {"removeNamedEntries0",   "(J[[B)[J",                                                       (void *) Java_mao_archive_libzip_ZipFile_removeNamedEntries0},
+
+        {"removeEntries0",        "(J[J)I",                                                         (void *) Java_mao_archive_libzip_ZipFile_removeEntries0},
+
         {"nameLocate0",           "(J[B)J",                                                         (void *) Java_mao_archive_libzip_ZipFile_nameLocate0},
 
         {"getEntry0",             "(JLmao/archive/libzip/ZipCoder;J)Lmao/archive/libzip/ZipEntry;", (void *) Java_mao_archive_libzip_ZipFile_getEntry0},
 
+        {"getDataOffset0",        "(JJ)J",                                                          (void *) Java_mao_archive_libzip_ZipFile_getDataOffset0},
+
+        {"getDirectory0",         "(JLmao/archive/libzip/ZipCoder;)Lmao/archive/libzip/ZipDirectory;", (void *) Java_mao_archive_libzip_ZipFile_getDirectory0},
+
         {"setModifyTime0",        "(JJJ)Z",                                                         (void *) Java_mao_archive_libzip_ZipFile_setModifyTime0},
+        {"setAppendMode0",        "(JZ)Z",                                                          (void *) Java_mao_archive_libzip_ZipFile_setAppendMode0},
+        {"compact0",              "(J)Z",                                                           (void *) Java_mao_archive_libzip_ZipFile_compact0},
 
         {"setEncryptionMethod0",  "(JJILjava/lang/String;)Z",                                       (void *) Java_mao_archive_libzip_ZipFile_setEncryptionMethod0},
 
@@ -626,15 +3164,51 @@ static JNINativeMethod methods[] = {
 
         {"setZipComment0",        "(J[B)Z",                                                         (void *) Java_mao_archive_libzip_ZipFile_setZipComment0},
 
-        {"openEntry",             "(JJLjava/lang/String;)J",                                        (void *) Java_mao_archive_libzip_ZipFile_openEntry},
+        {"openEntry0",            "(JJLjava/lang/String;Z)J",                                       (void *) Java_mao_archive_libzip_ZipFile_openEntry0},
+
+        {"readOneShot0",          "(JJIZ)[B",                                                       (void *) Java_mao_archive_libzip_ZipFile_readOneShot0},
+
+
+        {"crc32Implementation0",  "()Ljava/lang/String;",                                           (void *) Java_mao_archive_libzip_ZipFile_crc32Implementation0},
+
+        {"aesImplementation0",    "()Ljava/lang/String;",                                           (void *) Java_mao_archive_libzip_ZipFile_aesImplementation0},
+
+        {"setAesThreads0",        "(I)V",                                                           (void *) Java_mao_archive_libzip_ZipFile_setAesThreads0},
+        {"setZstdWorkers0",       "(I)V",                                                           (void *) Java_mao_archive_libzip_ZipFile_setZstdWorkers0},
 
         {"readEntryBytes",        "(J[BII)J",                                                       (void *) Java_mao_archive_libzip_ZipFile_readEntryBytes},
 
+        {"readEntryBuffer0",      "(JLjava/nio/ByteBuffer;II)J",                                    (void *) Java_mao_archive_libzip_ZipFile_readEntryBuffer0},
+
+        {"skipEntry0",            "(JJ)J",                                                          (void *) Java_mao_archive_libzip_ZipFile_skipEntry0},
+
+        {"seekEntry0",            "(JJ)Z",                                                          (void *) Java_mao_archive_libzip_ZipFile_seekEntry0},
+
+        {"verifyEntry0",          "(JZ)V",                                                          (void *) Java_mao_archive_libzip_ZipFile_verifyEntry0},
+
+        {"newDeflateIndex0",      "(JJJJ)J",                                                        (void *) Java_mao_archive_libzip_ZipFile_newDeflateIndex0},
+
+        {"freeDeflateIndex0",     "(J)V",                                                           (void *) Java_mao_archive_libzip_ZipFile_freeDeflateIndex0},
+
+        {"isDeflateIndexComplete0", "(J)Z",                                                         (void *) Java_mao_archive_libzip_ZipFile_isDeflateIndexComplete0},
+
+        {"saveDeflateIndex0",     "(JLjava/lang/String;)Z",                                         (void *) Java_mao_archive_libzip_ZipFile_saveDeflateIndex0},
+
+        {"loadDeflateIndex0",     "(Ljava/lang/String;JJJ)J",                                       (void *) Java_mao_archive_libzip_ZipFile_loadDeflateIndex0},
+
+        {"openIndexReader0",      "(JJJZ)J",                                                        (void *) Java_mao_archive_libzip_ZipFile_openIndexReader0},
+
+        {"readIndexReader0",      "(JLjava/nio/ByteBuffer;[BII)J",                                  (void *) Java_mao_archive_libzip_ZipFile_readIndexReader0},
+
+        {"seekIndexReader0",      "(JJ)V",                                                          (void *) Java_mao_archive_libzip_ZipFile_seekIndexReader0},
+
+        {"closeIndexReader0",     "(JZ)V",                                                          (void *) Java_mao_archive_libzip_ZipFile_closeIndexReader0},
+
         {"closeEntry",            "(J)V",                                                           (void *) Java_mao_archive_libzip_ZipFile_closeEntry},
 
         {"discard0",              "(J)V",                                                           (void *) Java_mao_archive_libzip_ZipFile_discard0},
 
-        {"close0",                "(JLmao/archive/libzip/ProgressListener;)V",                      (void *) Java_mao_archive_libzip_ZipFile_close0},
+        {"close0",                "(JLmao/archive/libzip/ZipFile;Lmao/archive/libzip/ProgressListener;Lmao/archive/libzip/WriteProgressListener;J)V", (void *) Java_mao_archive_libzip_ZipFile_close0},
 
 };
 
@@ -2,14 +2,24 @@
 #ifndef ZIP_FILE_H
 #define ZIP_FILE_H
 
+#ifdef __ANDROID__
 #include <android/log.h>
 
 #define  LOG_TAG    "libzip-jni"
 #define  LOGI(...)  __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
 #define  LOGE(...)  __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
+#else
+//主机构建(benchmark)没有android log
+#include <stdio.h>
+
+#define  LOGI(...)  ((void) 0)
+#define  LOGE(...)  (fprintf(stderr, "libzip-jni: " __VA_ARGS__), fputc('\n', stderr))
+#endif
 
 void initIDs(JNIEnv *env);
 
 jboolean registerNativeMethods(JNIEnv *env);
 
+jboolean registerCompactNativeMethods(JNIEnv *env);
+
 #endif
@@ -0,0 +1,54 @@
+package mao.archive.libzip;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Stream over entry data that is already in memory, taken from the {@link EntryCache} or
+ * read in one piece, see {@link ZipFile#setOneShotLimit(int)}. Reads do not call native code.
+ */
+final class BufferInputStream extends InputStream {
+    private final ZipFile zipFile;
+    private final ByteBuffer buffer;
+
+    BufferInputStream(ZipFile zipFile, ByteBuffer buffer) {
+        this.zipFile = zipFile;
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        long start = ZipStats.start(zipFile.stats);
+        int b = buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        ZipStats.read(zipFile.stats, start, b != -1 ? 1 : 0, false);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        long start = ZipStats.start(zipFile.stats);
+        if (!buffer.hasRemaining()) {
+            ZipStats.read(zipFile.stats, start, 0, false);
+            return len == 0 ? 0 : -1;
+        }
+        len = Math.min(len, buffer.remaining());
+        buffer.get(b, off, len);
+        ZipStats.read(zipFile.stats, start, len, false);
+        return len;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,291 @@
+package mao.archive.libzip;
+
+import androidx.annotation.Keep;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Read-only archive for very large directories. Opening only maps the central directory
+ * and records where each record starts, entries are decoded when they are asked for and
+ * the name table is built on the first lookup by name. Nothing per entry lives on the
+ * Java heap, so archives with millions of entries open quickly and stay small.
+ * <p>
+ * Unlike {@link ZipFile} the archive can not be modified, use {@link ZipFile} with
+ * {@link ZipFile#ZIP_RDONLY} when the full libzip consistency checks are wanted.
+ */
+public class CompactZipFile implements Closeable {
+
+    static {
+        System.loadLibrary("zip-jni");
+    }
+
+    private volatile boolean closeRequested;
+    private long jcz;
+    private final String path;
+    private final String charset;
+    private final ZipCoder zc;
+    private final int size;
+
+    //未关闭的流，不阻止流被回收
+    private final Set<CompactInputStream> streams =
+            Collections.newSetFromMap(new WeakHashMap<CompactInputStream, Boolean>());
+
+    public CompactZipFile(File archive) throws IOException {
+        this(archive, "UTF-8");
+    }
+
+    public CompactZipFile(File archive, String charset) throws IOException {
+        if (charset == null)
+            throw new NullPointerException("charset is null");
+        zc = ZipCoder.get(Charset.forName(charset));
+        this.charset = charset;
+        this.path = archive.getCanonicalPath();
+        jcz = open0(path);
+        size = size0(jcz);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return number of entries in the central directory
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Decodes the central directory record at index.
+     *
+     * @param index 0 until {@link #size()}
+     * @return the entry, its index is the position in the central directory
+     */
+    public ZipEntry getEntry(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        synchronized (this) {
+            ensureOpen();
+            return getEntry0(jcz, zc, index);
+        }
+    }
+
+    public ZipEntry getEntry(String name) {
+        int index = locate(name);
+        return index != -1 ? getEntry(index) : null;
+    }
+
+    public boolean hasEntry(String name) {
+        return locate(name) != -1;
+    }
+
+    private int locate(String name) {
+        if (name == null) {
+            throw new NullPointerException("path is null");
+        }
+        byte[] rawName = zc.getBytes(name);
+        synchronized (this) {
+            ensureOpen();
+            //去掉结尾的\0
+            return locate0(jcz, rawName, rawName.length - 1);
+        }
+    }
+
+    /**
+     * @return entries in central directory order, each decoded when reached
+     */
+    public Iterable<ZipEntry> entries() {
+        return new Iterable<ZipEntry>() {
+            @Override
+            public Iterator<ZipEntry> iterator() {
+                return new Iterator<ZipEntry>() {
+                    private int index = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < size;
+                    }
+
+                    @Override
+                    public ZipEntry next() {
+                        if (index >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        return getEntry(index++);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    public InputStream getInputStream(ZipEntry entry) throws IOException {
+        return getInputStream(entry, null);
+    }
+
+    public InputStream getInputStream(ZipEntry entry, String password) throws IOException {
+        if (entry == null) {
+            throw new NullPointerException("entry");
+        }
+        if (entry.index < 0 || entry.index >= size) {
+            throw new IllegalArgumentException("entry not in this archive");
+        }
+        synchronized (this) {
+            ensureOpen();
+            long src = openEntry0(jcz, (int) entry.index, password);
+            CompactInputStream in = new CompactInputStream(src, entry.getSize());
+            streams.add(in);
+            return in;
+        }
+    }
+
+    private void ensureOpen() {
+        if (closeRequested) {
+            throw new IllegalStateException("zip file closed");
+        }
+
+        if (jcz == 0) {
+            throw new IllegalStateException("the object is not initialized.");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<CompactInputStream> open;
+        synchronized (this) {
+            if (closeRequested) {
+                return;
+            }
+            closeRequested = true;
+            open = new ArrayList<>(streams);
+        }
+        for (CompactInputStream in : open) {
+            in.close();
+        }
+        synchronized (this) {
+            if (jcz != 0) {
+                close0(jcz);
+                jcz = 0;
+            }
+        }
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        close();
+    }
+
+    private class CompactInputStream extends InputStream {
+        private long src;
+        private long rem;
+
+        CompactInputStream(long src, long size) {
+            this.src = src;
+            this.rem = size;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (src == 0) {
+                throw new IOException("stream closed");
+            }
+            if (rem == 0) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (len > rem) {
+                len = (int) rem;
+            }
+            len = readEntry0(src, b, off, len);
+            if (len > 0) {
+                rem -= len;
+            }
+            return len;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            if (read(b, 0, 1) == 1) {
+                return b[0] & 0xff;
+            } else {
+                return -1;
+            }
+        }
+
+        @Override
+        public synchronized int available() {
+            return rem > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) rem;
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                if (src == 0) {
+                    return;
+                }
+                closeEntry0(src);
+                src = 0;
+                rem = 0;
+            }
+            synchronized (CompactZipFile.this) {
+                streams.remove(this);
+            }
+        }
+
+        @Override
+        protected void finalize() throws Throwable {
+            close();
+        }
+    }
+
+
+    @Keep
+    private static native long open0(String path) throws IOException;
+
+    @Keep
+    private static native void close0(long jcz);
+
+    @Keep
+    private static native int size0(long jcz);
+
+    @Keep
+    private static native ZipEntry getEntry0(long jcz, ZipCoder zc, int index);
+
+    @Keep
+    private static native int locate0(long jcz, byte[] rawName, int len);
+
+    @Keep
+    private static native long openEntry0(long jcz, int index, String password) throws IOException;
+
+    @Keep
+    private static native int readEntry0(long src, byte[] bytes, int off, int len) throws IOException;
+
+    @Keep
+    private static native void closeEntry0(long src);
+}
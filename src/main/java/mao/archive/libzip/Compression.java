@@ -0,0 +1,90 @@
+package mao.archive.libzip;
+
+import java.io.IOException;
+
+/**
+ * Compresses the data of an added entry in the background, see
+ * {@link ZipFile#setParallelCompression(java.util.concurrent.Executor)}.
+ * The result is taken with {@link #await()} and handed to the archive when it is closed.
+ */
+final class Compression implements Runnable {
+    final long index;
+    private final int method;
+    private final int level;
+    private final long buffer;       // native buffer, 0 for files
+    private final String fileName;
+    private final long off;
+    private final long len;
+
+    private long compressed;
+    private boolean started;
+    private boolean finished;
+    private boolean cancelled;
+
+    Compression(long index, int method, int level, long buffer, String fileName, long off, long len) {
+        this.index = index;
+        this.method = method;
+        this.level = level;
+        this.buffer = buffer;
+        this.fileName = fileName;
+        this.off = off;
+        this.len = len;
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            started = true;
+        }
+        long result = 0;
+        try {
+            result = buffer != 0 ? ZipFile.compressBuffer0(buffer, method, level)
+                    : ZipFile.compressFile0(fileName, off, len, method, level);
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            //压缩失败时保留原数据，由zip_close压缩
+        } finally {
+            synchronized (this) {
+                if (cancelled) {
+                    if (result != 0) {
+                        ZipFile.freeCompressed0(result);
+                    }
+                } else {
+                    compressed = result;
+                }
+                finished = true;
+                notifyAll();
+            }
+        }
+    }
+
+    synchronized void cancel() {
+        cancelled = true;
+        if (!started) {
+            finished = true;
+        }
+        if (compressed != 0) {
+            ZipFile.freeCompressed0(compressed);
+            compressed = 0;
+        }
+    }
+
+    synchronized long await() {
+        boolean interrupted = false;
+        while (!finished) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        long result = compressed;
+        compressed = 0;
+        return result;
+    }
+}
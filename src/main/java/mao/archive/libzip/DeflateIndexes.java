@@ -0,0 +1,118 @@
+package mao.archive.libzip;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deflate access point indexes of the entries of one archive, see
+ * {@link ZipFile#setDeflateIndexSpan(long)}. Lookups do not lock, indexes are created,
+ * saved and freed under the monitor of this object.
+ */
+final class DeflateIndexes {
+    private final ConcurrentHashMap<IndexKey, Long> indexes = new ConcurrentHashMap<>();
+    private boolean freed;
+
+    boolean isEmpty() {
+        return indexes.isEmpty();
+    }
+
+    /**
+     * @param span distance between access points of a new index, 0 to only return an existing one
+     * @return the index of entry, 0 if there is none
+     */
+    long get(ZipEntry entry, long span) {
+        IndexKey key = new IndexKey(entry);
+        Long deflateIndex = indexes.get(key);
+        if (deflateIndex != null || span == 0) {
+            return deflateIndex != null ? deflateIndex : 0;
+        }
+        synchronized (this) {
+            checkNotFreed();
+            deflateIndex = indexes.get(key);
+            if (deflateIndex == null) {
+                deflateIndex = ZipFile.newDeflateIndex0(span, entry.getCrc(), entry.getSize(), entry.getCompressedSize());
+                indexes.put(key, deflateIndex);
+            }
+            return deflateIndex;
+        }
+    }
+
+    void save(ZipEntry entry, File sidecar) throws IOException {
+        synchronized (this) {
+            checkNotFreed();
+            Long deflateIndex = indexes.get(new IndexKey(entry));
+            if (deflateIndex == null) {
+                throw new IllegalStateException("no deflate index for " + entry);
+            }
+            ZipFile.saveDeflateIndex0(deflateIndex, sidecar.getPath());
+        }
+    }
+
+    /**
+     * @return false if the sidecar was written for an entry with another crc or size
+     */
+    boolean load(ZipEntry entry, File sidecar) throws IOException {
+        long deflateIndex = ZipFile.loadDeflateIndex0(sidecar.getPath(), entry.getCrc(), entry.getSize(),
+                entry.getCompressedSize());
+        if (deflateIndex == 0) {
+            return false;
+        }
+        IndexKey key = new IndexKey(entry);
+        synchronized (this) {
+            if (freed || indexes.containsKey(key)) {
+                ZipFile.freeDeflateIndex0(deflateIndex);
+                checkNotFreed();
+            } else {
+                indexes.put(key, deflateIndex);
+            }
+        }
+        return true;
+    }
+
+    //关闭压缩包时调用，之后不再创建索引
+    void free() {
+        synchronized (this) {
+            freed = true;
+            for (long deflateIndex : indexes.values()) {
+                ZipFile.freeDeflateIndex0(deflateIndex);
+            }
+            indexes.clear();
+        }
+    }
+
+    private void checkNotFreed() {
+        if (freed) {
+            throw new IllegalStateException("zip file closed");
+        }
+    }
+
+    //访问点索引只对同一份压缩数据有效
+    private static final class IndexKey {
+        private final long index;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+
+        IndexKey(ZipEntry entry) {
+            index = entry.index;
+            crc = entry.getCrc();
+            size = entry.getSize();
+            compressedSize = entry.getCompressedSize();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof IndexKey)) {
+                return false;
+            }
+            IndexKey k = (IndexKey) o;
+            return index == k.index && crc == k.crc && size == k.size && compressedSize == k.compressedSize;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (index * 31 + crc) ^ (int) (size >>> 32) ^ (int) size;
+        }
+    }
+}
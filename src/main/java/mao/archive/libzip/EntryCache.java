@@ -0,0 +1,137 @@
+package mao.archive.libzip;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded cache of uncompressed entry data held in direct buffers, evicted in LRU order.
+ * One cache may be shared by several read-only {@link ZipFile}s, entries are keyed by the
+ * archive identity and the entry index. Archives opened on the same unchanged file share entries.
+ */
+public final class EntryCache {
+
+    private final long capacity;
+    private final long maxEntrySize;
+    private final LinkedHashMap<Key, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param capacity maximum number of bytes held, entries larger than capacity / 8 are not cached
+     */
+    public EntryCache(long capacity) {
+        this(capacity, capacity / 8);
+    }
+
+    /**
+     * @param capacity     maximum number of bytes held
+     * @param maxEntrySize uncompressed size above which entries are read without caching
+     */
+    public EntryCache(long capacity, long maxEntrySize) {
+        if (capacity < 0 || maxEntrySize < 0) {
+            throw new IllegalArgumentException("negative cache size");
+        }
+        this.capacity = capacity;
+        this.maxEntrySize = Math.min(Math.min(maxEntrySize, capacity), Integer.MAX_VALUE);
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * @return number of bytes currently held
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    synchronized ByteBuffer get(Object archive, long index) {
+        ByteBuffer data = entries.get(new Key(archive, index));
+        if (data == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return data.duplicate();
+    }
+
+    synchronized void put(Object archive, long index, ByteBuffer data) {
+        ByteBuffer old = entries.put(new Key(archive, index), data);
+        if (old != null) {
+            size -= old.capacity();
+        }
+        size += data.capacity();
+        Iterator<ByteBuffer> it = entries.values().iterator();
+        while (size > capacity && it.hasNext()) {
+            size -= it.next().capacity();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    //移除某个压缩包的所有数据
+    synchronized void invalidate(Object archive) {
+        Iterator<Map.Entry<Key, ByteBuffer>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, ByteBuffer> entry = it.next();
+            if (entry.getKey().archive.equals(archive)) {
+                size -= entry.getValue().capacity();
+                it.remove();
+            }
+        }
+    }
+
+    private static final class Key {
+        final Object archive;
+        final long index;
+
+        Key(Object archive, long index) {
+            this.archive = archive;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return index == key.index && archive.equals(key.archive);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * archive.hashCode() + (int) (index ^ (index >>> 32));
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package mao.archive.libzip;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Supplies the data of an entry while the archive is written.
+ */
+public interface EntrySource {
+
+    /**
+     * Opens the entry data, called from {@link ZipFile#close()} on the closing thread.
+     *
+     * @return a channel reading the entry data, closed by the archive when done
+     * @throws IOException
+     */
+    ReadableByteChannel open() throws IOException;
+}
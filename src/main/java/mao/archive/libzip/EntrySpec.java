@@ -0,0 +1,94 @@
+package mao.archive.libzip;
+
+import java.io.File;
+
+/**
+ * One entry added by {@link ZipFile#addEntries(EntrySpec...)}: a name, where the data comes from,
+ * and optionally compression, encryption and modification time.
+ */
+public final class EntrySpec {
+
+    static final int FILE = 0;
+    static final int BYTES = 1;
+    static final int DIRECTORY = 2;
+    //bytes已复制到native buffer，只在ZipFile内部使用
+    static final int NATIVE_BUFFER = 3;
+
+    final int kind;
+    final String name;
+    final String fileName;
+    final long offset;
+    final long length;
+    final byte[] bytes;
+
+    int em = ZipFile.ZIP_EM_NONE;
+    int cm = ZipFile.ZIP_CM_DEFAULT;
+    int level;
+    long time = -1;
+
+    private EntrySpec(int kind, String name, String fileName, long offset, long length, byte[] bytes) {
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+        this.kind = kind;
+        this.name = name;
+        this.fileName = fileName;
+        this.offset = offset;
+        this.length = length;
+        this.bytes = bytes;
+    }
+
+    public static EntrySpec file(String name, File file) {
+        return file(name, file.getAbsolutePath(), 0, file.length());
+    }
+
+    /**
+     * @param len bytes of fileName starting at off, -1 for the rest of the file
+     */
+    public static EntrySpec file(String name, String fileName, long off, long len) {
+        if (fileName == null) {
+            throw new NullPointerException("fileName");
+        }
+        return new EntrySpec(FILE, name, fileName, off, len, null);
+    }
+
+    /**
+     * The data is copied when the entry is added, buf can be reused afterwards.
+     */
+    public static EntrySpec bytes(String name, byte[] buf) {
+        if (buf == null) {
+            throw new NullPointerException("buf");
+        }
+        return new EntrySpec(BYTES, name, null, 0, buf.length, buf);
+    }
+
+    public static EntrySpec directory(String name) {
+        return new EntrySpec(DIRECTORY, name, null, 0, 0, null);
+    }
+
+    public EntrySpec compression(int cm, int level) {
+        this.cm = cm;
+        this.level = level;
+        return this;
+    }
+
+    /**
+     * Encrypts the entry with the archive's default password.
+     */
+    public EntrySpec encryption(int em) {
+        this.em = em;
+        return this;
+    }
+
+    /**
+     * @param time modification time in milliseconds, files otherwise keep their own
+     */
+    public EntrySpec modifyTime(long time) {
+        this.time = time;
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
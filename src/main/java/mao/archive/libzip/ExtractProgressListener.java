@@ -0,0 +1,14 @@
+package mao.archive.libzip;
+
+/**
+ * Progress of {@link ZipFile#extractAll}, called on the extracting threads, one call at a time.
+ */
+public interface ExtractProgressListener {
+
+    /**
+     * @param bytesDone      uncompressed bytes written to the target files so far
+     * @param bytesTotal     uncompressed size of all files being extracted
+     * @param bytesPerSecond average rate since the extraction started
+     */
+    void onProgress(long bytesDone, long bytesTotal, long bytesPerSecond);
+}
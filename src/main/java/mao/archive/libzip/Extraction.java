@@ -0,0 +1,165 @@
+package mao.archive.libzip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One run of {@link ZipFile#extractAll(File, ZipEntryFilter, Executor, int, int, ExtractProgressListener)}.
+ * Workers take the next file from a shared counter until all are written or one fails.
+ */
+final class Extraction {
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final ZipFile zipFile;
+    private final ReaderPool pool;     // null to read through the main handle
+    private final List<ZipEntry> files;
+    private final List<File> targets;
+    private final long total;
+    private final ExtractProgressListener listener;
+    private final long start = System.nanoTime();
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong written = new AtomicLong();
+    private int percent = -1;
+    private volatile IOException failure;
+
+    Extraction(ZipFile zipFile, ReaderPool pool, List<ZipEntry> files, List<File> targets, long total,
+               ExtractProgressListener listener) {
+        this.zipFile = zipFile;
+        this.pool = pool;
+        this.files = files;
+        this.targets = targets;
+        this.total = total;
+        this.listener = listener;
+    }
+
+    /**
+     * Submits workers to executor and returns once all of them have finished.
+     *
+     * @throws IOException the first failure of a worker, or of submitting one
+     */
+    void run(Executor executor, int workers) throws IOException {
+        CountDownLatch done = new CountDownLatch(workers);
+        int submitted = 0;
+        try {
+            for (; submitted < workers; submitted++) {
+                executor.execute(worker(done));
+            }
+            done.await();
+        } catch (RejectedExecutionException e) {
+            //已提交的worker还在读pool，等它们结束后才能关闭
+            fail(new IOException("executor rejected an extraction worker", e));
+            for (int i = submitted; i < workers; i++) {
+                done.countDown();
+            }
+            awaitWorkers(done);
+        } catch (InterruptedException e) {
+            fail(new InterruptedIOException("extraction interrupted"));
+            awaitWorkers(done);
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    //失败后worker会很快停止，中断也要等到它们都结束
+    private static void awaitWorkers(CountDownLatch done) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Runnable worker(final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                    int i;
+                    while (failure == null && (i = next.getAndIncrement()) < files.size()) {
+                        extract(files.get(i), targets.get(i), buffer);
+                    }
+                } catch (IOException e) {
+                    fail(e);
+                } catch (RuntimeException e) {
+                    fail(new IOException(e));
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+    }
+
+    private void extract(ZipEntry entry, File target, ByteBuffer buffer) throws IOException {
+        ReadableByteChannel in = pool != null ? pool.getChannel(entry.index, null) : zipFile.getChannel(entry.index, null);
+        RandomAccessFile out = null;
+        try {
+            out = new RandomAccessFile(target, "rw");
+            out.setLength(entry.getSize());
+            FileChannel channel = out.getChannel();
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+                progress(n);
+            }
+        } finally {
+            in.close();
+            if (out != null) {
+                out.close();
+            }
+        }
+        if (entry.getTime() > 0) {
+            target.setLastModified(entry.getTime() * 1000);
+        }
+    }
+
+    private void progress(int n) {
+        if (listener == null || total == 0) {
+            return;
+        }
+        long done = written.addAndGet(n);
+        int p = (int) (done * 100 / total);
+        synchronized (this) {
+            if (p > percent) {
+                percent = p;
+                //其他worker可能已经写了更多
+                done = written.get();
+                long nanos = Math.max(System.nanoTime() - start, 1);
+                listener.onProgress(done, total, (long) (done * 1e9 / nanos));
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package mao.archive.libzip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+/**
+ * Seekable channel of a deflated entry that starts inflating at the access point of its
+ * {@link DeflateIndexes deflate index} nearest before the position, see
+ * {@link ZipFile#setDeflateIndexSpan(long)}.
+ */
+final class IndexedEntryChannel implements SeekableEntryChannel {
+    private final ZipFile zipFile;
+    private volatile boolean closeRequested = false;
+    private final PooledReader reader; // null when opened on the main handle
+    private final long size;
+    private long jreader; // inflater positioned through the deflate index
+    private long position;     // position of the next read
+    private long filePosition; // position of jreader
+
+    IndexedEntryChannel(ZipFile zipFile, PooledReader reader, long jreader, long size) {
+        this.zipFile = zipFile;
+        this.reader = reader;
+        this.jreader = jreader;
+        this.size = size;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (closeRequested) {
+            throw new ClosedChannelException();
+        }
+        if (dst.isReadOnly()) {
+            throw new IllegalArgumentException("Read-only buffer");
+        }
+        int len = dst.remaining();
+        long start = ZipStats.start(zipFile.stats);
+        synchronized (zipFile.lockOf(reader)) {
+            ZipStats.lockAcquired(zipFile.stats, start);
+            if (position >= size) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (len > size - position) {
+                len = (int) (size - position);
+            }
+
+            if (zipFile.handleOf(reader) == 0 || jreader == 0) {
+                throw new IOException("the object is not initialized.");
+            }
+            if (filePosition != position) {
+                ZipFile.seekIndexReader0(jreader, position);
+                filePosition = position;
+            }
+            int pos = dst.position();
+            if (dst.isDirect()) {
+                len = (int) ZipFile.readIndexReader0(jreader, dst, null, pos, len);
+            } else {
+                len = (int) ZipFile.readIndexReader0(jreader, null, dst.array(), dst.arrayOffset() + pos, len);
+            }
+            if (len > 0) {
+                dst.position(pos + len);
+                position += len;
+                filePosition += len;
+            }
+        }
+        ZipStats.read(zipFile.stats, start, len, true);
+        return len;
+    }
+
+    @Override
+    public long position() throws IOException {
+        if (closeRequested) {
+            throw new ClosedChannelException();
+        }
+        synchronized (zipFile.lockOf(reader)) {
+            return position;
+        }
+    }
+
+    @Override
+    public SeekableEntryChannel position(long newPosition) throws IOException {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("negative position " + newPosition);
+        }
+        if (closeRequested) {
+            throw new ClosedChannelException();
+        }
+        synchronized (zipFile.lockOf(reader)) {
+            position = newPosition;
+        }
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        if (closeRequested) {
+            throw new ClosedChannelException();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closeRequested;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closeRequested)
+            return;
+        closeRequested = true;
+
+        synchronized (zipFile.lockOf(reader)) {
+            if (jreader != 0) {
+                ZipFile.closeIndexReader0(jreader, zipFile.handleOf(reader) != 0);
+                jreader = 0;
+            }
+        }
+        ZipFile.releaseReader(reader);
+    }
+
+    protected void finalize() throws Throwable {
+        close();
+    }
+}
@@ -0,0 +1,13 @@
+package mao.archive.libzip;
+
+/**
+ * Selects the files {@link ZipFile#addTree(java.io.File, String, PathFilter)} adds.
+ */
+public interface PathFilter {
+
+    /**
+     * @param path      path relative to the tree root, separated by '/'
+     * @param directory whether path is a directory, a rejected directory is not walked
+     */
+    boolean accept(String path, boolean directory);
+}
@@ -0,0 +1,15 @@
+package mao.archive.libzip;
+
+/**
+ * A read-only native handle of the archive, also the monitor of the entries read through it.
+ */
+final class PooledReader {
+    final ReaderPool pool;
+    long jzip;
+    int users;     // number of open entries on this handle
+
+    PooledReader(ReaderPool pool, long jzip) {
+        this.pool = pool;
+        this.jzip = jzip;
+    }
+}
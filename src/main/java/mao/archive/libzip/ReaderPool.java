@@ -0,0 +1,151 @@
+package mao.archive.libzip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Bounded set of independent native handles opened on the file or memory of a read-only
+ * {@link ZipFile}, see {@link ZipFile#setConcurrentReaders(int)}.
+ * An entry is opened on the least used handle, a new handle is only opened when all are busy.
+ */
+final class ReaderPool {
+    private final ZipFile zipFile;
+    private final PooledReader[] readers;
+    private int count;
+    private boolean closed;
+
+    ReaderPool(ZipFile zipFile, int max) {
+        this.zipFile = zipFile;
+        readers = new PooledReader[max];
+    }
+
+    synchronized PooledReader acquire() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("zip file closed");
+        }
+        PooledReader reader = null;
+        for (int i = 0; i < count; i++) {
+            if (reader == null || readers[i].users < reader.users) {
+                reader = readers[i];
+            }
+        }
+        if ((reader == null || reader.users > 0) && count < readers.length) {
+            reader = new PooledReader(this, zipFile.openReader());
+            readers[count++] = reader;
+        }
+        reader.users++;
+        return reader;
+    }
+
+    synchronized void release(PooledReader reader) {
+        reader.users--;
+    }
+
+    InputStream getInputStream(long index, String password) throws IOException {
+        password = passwordOrDefault(password);
+        PooledReader reader = acquire();
+        synchronized (reader) {
+            try {
+                checkOpen(reader);
+                return zipFile.newInputStream(reader, index, password);
+            } catch (IOException | RuntimeException e) {
+                release(reader);
+                throw e;
+            }
+        }
+    }
+
+    ReadableByteChannel getChannel(long index, String password) throws IOException {
+        password = passwordOrDefault(password);
+        PooledReader reader = acquire();
+        synchronized (reader) {
+            try {
+                checkOpen(reader);
+                return zipFile.newChannel(reader, index, password);
+            } catch (IOException | RuntimeException e) {
+                release(reader);
+                throw e;
+            }
+        }
+    }
+
+    SeekableEntryChannel openChannel(long index, String password) throws IOException {
+        password = passwordOrDefault(password);
+        PooledReader reader = acquire();
+        synchronized (reader) {
+            try {
+                checkOpen(reader);
+                return zipFile.newSeekableChannel(reader, index, password);
+            } catch (IOException | RuntimeException e) {
+                release(reader);
+                throw e;
+            }
+        }
+    }
+
+    SeekableEntryChannel openIndexedChannel(long index, long deflateIndex) throws IOException {
+        PooledReader reader = acquire();
+        synchronized (reader) {
+            try {
+                checkOpen(reader);
+                return zipFile.newIndexedChannel(reader, index, deflateIndex);
+            } catch (IOException | RuntimeException e) {
+                release(reader);
+                throw e;
+            }
+        }
+    }
+
+    ZipEntry getEntry(long index) throws IOException {
+        PooledReader reader = acquire();
+        try {
+            synchronized (reader) {
+                checkOpen(reader);
+                return zipFile.readEntry(reader.jzip, index);
+            }
+        } finally {
+            release(reader);
+        }
+    }
+
+    byte[] readOneShot(long index) throws IOException {
+        PooledReader reader = acquire();
+        try {
+            synchronized (reader) {
+                checkOpen(reader);
+                return zipFile.readOneShot(reader.jzip, index);
+            }
+        } finally {
+            release(reader);
+        }
+    }
+
+    private static void checkOpen(PooledReader reader) {
+        if (reader.jzip == 0) {
+            throw new IllegalStateException("zip file closed");
+        }
+    }
+
+    //pooled handles do not share the default password of the main handle
+    private String passwordOrDefault(String password) {
+        return password != null ? password : zipFile.getDefaultPassword();
+    }
+
+    void close() {
+        PooledReader[] opened;
+        synchronized (this) {
+            closed = true;
+            opened = new PooledReader[count];
+            System.arraycopy(readers, 0, opened, 0, count);
+        }
+        for (PooledReader reader : opened) {
+            synchronized (reader) {
+                if (reader.jzip != 0) {
+                    ZipFile.discard0(reader.jzip);
+                    reader.jzip = 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package mao.archive.libzip;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A read-only channel over the uncompressed data of an entry with a movable position.
+ * It mirrors the read side of {@code java.nio.channels.SeekableByteChannel}, which is
+ * only available from Android API 24.
+ */
+public interface SeekableEntryChannel extends ReadableByteChannel {
+
+    /**
+     * @return the current position in the uncompressed entry data
+     * @throws IOException
+     */
+    long position() throws IOException;
+
+    /**
+     * Sets the position of the next read. A position beyond {@link #size()} is legal,
+     * reads then return -1.
+     *
+     * @param newPosition non-negative position in the uncompressed entry data
+     * @return this channel
+     * @throws IOException
+     */
+    SeekableEntryChannel position(long newPosition) throws IOException;
+
+    /**
+     * @return the uncompressed size of the entry
+     * @throws IOException
+     */
+    long size() throws IOException;
+}
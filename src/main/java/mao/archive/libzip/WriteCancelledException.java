@@ -0,0 +1,19 @@
+package mao.archive.libzip;
+
+import java.io.IOException;
+
+import androidx.annotation.Keep;
+
+/**
+ * Thrown by {@link ZipFile#close()} after {@link ZipFile#cancelWrite()}. The temporary file
+ * was removed and the archive on disk is unchanged.
+ */
+@Keep
+public class WriteCancelledException extends IOException {
+    public WriteCancelledException() {
+    }
+
+    public WriteCancelledException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,20 @@
+package mao.archive.libzip;
+
+import androidx.annotation.Keep;
+
+/**
+ * Progress of writing the archive in {@link ZipFile#close()}, called on the closing thread.
+ * Use {@link ZipFile#cancelWrite()} to stop the write.
+ */
+@Keep
+public interface WriteProgressListener {
+
+    /**
+     * @param bytesWritten   bytes written to the new archive so far
+     * @param entryIndex     index of the entry being written, -1 once all entries are written
+     * @param fraction       between 0 and 1, every entry counts as the same share
+     * @param bytesPerSecond average write rate since the write started
+     */
+    @Keep
+    void onProgress(long bytesWritten, long entryIndex, double fraction, long bytesPerSecond);
+}
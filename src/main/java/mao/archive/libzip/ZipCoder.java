@@ -11,6 +11,8 @@ import java.nio.charset.Charset;
 final class ZipCoder {
 
 
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
     private Charset cs;
 
     private ZipCoder(Charset cs) {
@@ -28,6 +30,10 @@ final class ZipCoder {
         return new String(ba, 0, ba.length, cs);
     }
 
+    String toString(byte[] ba, int off, int len) {
+        return new String(ba, off, len, cs);
+    }
+
     // \0 end
     byte[] getBytes(String s) {
         ByteBuffer buffer = cs.encode(s);
@@ -38,4 +44,19 @@ final class ZipCoder {
         return bytes;
     }
 
+    boolean isUtf8() {
+        return UTF_8.equals(cs);
+    }
+
+    //native遍历目录时调用，文件系统的名字是UTF-8
+    @Keep
+    byte[] entryName(byte[] path) {
+        return getBytes(new String(path, UTF_8));
+    }
+
+    @Keep
+    static boolean accept(PathFilter filter, byte[] path, boolean directory) {
+        return filter.accept(new String(path, UTF_8), directory);
+    }
+
 }
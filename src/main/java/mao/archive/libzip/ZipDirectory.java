@@ -0,0 +1,124 @@
+package mao.archive.libzip;
+
+import androidx.annotation.Keep;
+
+import static mao.archive.libzip.ZipFile.ZIP_EM_NONE;
+
+/**
+ * A snapshot of the zip archive directory, read in one native call.
+ * Entry data is kept in packed arrays, names and comments are only decoded when accessed.
+ */
+@Keep
+public final class ZipDirectory {
+
+    private final ZipCoder zc;
+
+    private final byte[] names;             // name of entry i is names[nameOffsets[i], nameOffsets[i + 1])
+    private final int[] nameOffsets;
+    private final byte[] comments;
+    private final int[] commentOffsets;
+    private final long[] mtimes;
+    private final long[] crcs;              // -1 if the entry could not be read
+    private final long[] sizes;
+    private final long[] csizes;
+    private final int[] methods;
+    private final int[] emethods;
+
+
+    @Keep
+    ZipDirectory(ZipCoder zc, byte[] names, int[] nameOffsets, byte[] comments, int[] commentOffsets,
+                 long[] mtimes, long[] crcs, long[] sizes, long[] csizes, int[] methods, int[] emethods) {
+        this.zc = zc;
+        this.names = names;
+        this.nameOffsets = nameOffsets;
+        this.comments = comments;
+        this.commentOffsets = commentOffsets;
+        this.mtimes = mtimes;
+        this.crcs = crcs;
+        this.sizes = sizes;
+        this.csizes = csizes;
+        this.methods = methods;
+        this.emethods = emethods;
+    }
+
+    /**
+     * @return number of entries, including entries that could not be read
+     */
+    public int size() {
+        return crcs.length;
+    }
+
+    /**
+     * @return whether the entry at index was read from the archive
+     */
+    public boolean isValid(int index) {
+        return crcs[index] != -1;
+    }
+
+    public String getName(int index) {
+        int off = nameOffsets[index];
+        return zc.toString(names, off, nameOffsets[index + 1] - off);
+    }
+
+    /**
+     * @return 是否为目录，以是否以"/"结尾判断
+     */
+    public boolean isDirectory(int index) {
+        int end = nameOffsets[index + 1];
+        return end > nameOffsets[index] && names[end - 1] == '/';
+    }
+
+    public long getTime(int index) {
+        return mtimes[index];
+    }
+
+    public long getCrc(int index) {
+        return crcs[index];
+    }
+
+    public long getSize(int index) {
+        return sizes[index];
+    }
+
+    public long getCompressedSize(int index) {
+        return csizes[index];
+    }
+
+    public int getMethod(int index) {
+        return methods[index];
+    }
+
+    public int getEncryptedMethod(int index) {
+        return emethods[index];
+    }
+
+    public boolean isEncrypted(int index) {
+        return emethods[index] != ZIP_EM_NONE;
+    }
+
+    public String getComment(int index) {
+        int off = commentOffsets[index];
+        return zc.toString(comments, off, commentOffsets[index + 1] - off);
+    }
+
+    byte[] rawNames() {
+        return names;
+    }
+
+    int nameOffset(int index) {
+        return nameOffsets[index];
+    }
+
+    /**
+     * Materializes the entry at index.
+     *
+     * @return the entry, or null if it could not be read
+     */
+    public ZipEntry getEntry(int index) {
+        if (!isValid(index)) {
+            return null;
+        }
+        return new ZipEntry(index, getName(index), mtimes[index], crcs[index], sizes[index], csizes[index],
+                methods[index], emethods[index], getComment(index));
+    }
+}
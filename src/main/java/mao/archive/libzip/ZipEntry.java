@@ -39,6 +39,20 @@ public class ZipEntry {
         this.comment = zc.toString(comment);
     }
 
+    ZipEntry(long index, String name, long mtime, long crc, long size, long csize,
+             int method, int emethod, String comment) {
+        this.index = index;
+        this.name = name;
+        this.mtime = mtime;
+        this.crc = crc;
+        this.size = size;
+        this.csize = csize;
+        this.method = method;
+        this.emethod = emethod;
+        this.extra = null;
+        this.comment = comment;
+    }
+
     /**
      * Creates a new zip entry with the specified name.
      *
@@ -0,0 +1,8 @@
+package mao.archive.libzip;
+
+/**
+ * Selects the entries an operation applies to.
+ */
+public interface ZipEntryFilter {
+    boolean accept(ZipEntry entry);
+}
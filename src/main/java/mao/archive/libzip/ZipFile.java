@@ -3,11 +3,33 @@ package mao.archive.libzip;
 import androidx.annotation.Keep;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by mao on 16-10-30.
@@ -54,6 +76,26 @@ public class ZipFile implements Closeable {
     //暂时不用
     @Keep
     public static final int ZIP_CM_BZIP2 = placeholder(); /* compressed using BZIP2 algorithm */
+    @Keep
+    public static final int ZIP_CM_ZSTD = placeholder(); /* Zstandard, levels 1-22, 0 is the zstd default */
+
+
+    /* distance between deflate access points used when no span was set */
+    public static final long DEFAULT_INDEX_SPAN = 1 << 20;
+
+    /* entries up to this uncompressed size are inflated with a single call by default */
+    public static final int DEFAULT_ONE_SHOT_LIMIT = 64 * 1024;
+
+
+    /* extractAll policy for files that already exist */
+    public static final int EXTRACT_OVERWRITE = 0;
+    public static final int EXTRACT_SKIP_EXISTING = 1;
+    public static final int EXTRACT_FAIL_EXISTING = 2;
+
+    /* when the crc of read entries is checked, see setCrcVerification */
+    public static final int CRC_VERIFY_AT_END = 0;
+    public static final int CRC_VERIFY_ALWAYS = 1;
+    public static final int CRC_VERIFY_NEVER = 2;
 
 
     static {
@@ -64,12 +106,55 @@ public class ZipFile implements Closeable {
     private long jzip = 0L;
     private final String path;
     private final String charset;
+    private final int mode;
+    private final ByteBuffer memory;     // archive data when opened from memory
+    private final ZipStreamTarget streamTarget;     // output of a streaming writer
+
+    private volatile ReaderPool readerPool;
+
+    private volatile ZipNameIndex nameIndex;
+
+    private FileChannel dataChannel;     // raw archive file, opened on first transferTo
+
+    private volatile EntryCache entryCache;
+    private Object cacheKey;     // archive identity in the entry cache
+
+    private volatile int oneShotLimit = DEFAULT_ONE_SHOT_LIMIT;
+
+    private volatile int crcVerification = CRC_VERIFY_AT_END;
+
+    private volatile boolean appendMode;
+
+    private volatile long deflateIndexSpan;
+    //按entry的数据区分，替换后的entry不会用到旧索引
+    private final DeflateIndexes deflateIndexes = new DeflateIndexes();
+
+    private Executor compressionExecutor;
+    private ExecutorService ownCompressionExecutor;
+    private final Map<Long, Compression> compressions = new HashMap<>();
+    private final List<Long> nativeBuffers = new ArrayList<>();
+    private final List<ZipStreamSource> streamSources = new ArrayList<>();
+    private final List<ByteBuffer> directBuffers = new ArrayList<>();
+
+    private static final AtomicLong serials = new AtomicLong();
+    private final long serial = serials.incrementAndGet();     // lock order between archives
+    private static final Object copyLock = new Object();     // guards copySources and copyTargets of all archives
+    private final Set<ZipFile> copySources = new HashSet<>();     // archives read by close0
+    private int copyTargets;     // open archives holding entries copied from this one
 
 
     private final ZipCoder zc;
 
     private ProgressListener listener;
 
+    private WriteProgressListener writeListener;
+    private long writeProgressInterval = 500;
+    @Keep
+    private volatile boolean writeCancelled;     // read by close0
+
+    volatile ZipStats stats;
+    private long openTime;     // nanoseconds spent opening the archive
+
 
     public ZipFile(File archive) throws IOException {
         this(archive.getCanonicalPath(), "UTF-8", ZIP_CREATE);
@@ -87,12 +172,105 @@ public class ZipFile implements Closeable {
 
         if (charset == null)
             throw new NullPointerException("charset is null");
+        long start = System.nanoTime();
         zc = ZipCoder.get(Charset.forName(charset));
         this.charset = charset;
         jzip = open(path, mode);
         this.path = path;
+        this.mode = mode;
+        this.memory = null;
+        this.streamTarget = null;
+        openTime = System.nanoTime() - start;
+    }
+
+    public ZipFile(byte[] data, String charset) throws IOException {
+        this((ByteBuffer) ByteBuffer.allocateDirect(data.length).put(data).flip(), charset);
+    }
+
+    /**
+     * Opens a read-only archive from the remaining bytes of a direct buffer, such as a
+     * {@link java.nio.MappedByteBuffer}. Entries are read straight from the buffer memory,
+     * which is kept reachable and must not change while the archive is open.
+     *
+     * @param buffer  a direct buffer holding the whole archive
+     * @param charset charset of entry names and comments
+     * @throws IOException
+     */
+    public ZipFile(ByteBuffer buffer, String charset) throws IOException {
+        if (charset == null)
+            throw new NullPointerException("charset is null");
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("buffer is not direct");
+        }
+        long start = System.nanoTime();
+        zc = ZipCoder.get(Charset.forName(charset));
+        this.charset = charset;
+        this.memory = buffer.slice();
+        jzip = openMemory0(memory, memory.remaining(), ZIP_RDONLY);
+        this.path = null;
+        this.mode = ZIP_RDONLY;
+        this.streamTarget = null;
+        openTime = System.nanoTime() - start;
+    }
+
+    private ZipFile(ZipStreamTarget target, String charset) throws IOException {
+        if (charset == null)
+            throw new NullPointerException("charset is null");
+        long start = System.nanoTime();
+        zc = ZipCoder.get(Charset.forName(charset));
+        this.charset = charset;
+        jzip = openStream0(target);
+        this.path = null;
+        this.mode = ZIP_CREATE | ZIP_TRUNCATE;
+        this.memory = null;
+        this.streamTarget = target;
+        openTime = System.nanoTime() - start;
+    }
+
+    public static ZipFile newStreamingWriter(OutputStream out) throws IOException {
+        return newStreamingWriter(out, "UTF-8");
+    }
+
+    public static ZipFile newStreamingWriter(OutputStream out, String charset) throws IOException {
+        if (out == null) {
+            throw new NullPointerException("out is null");
+        }
+        return new ZipFile(new ZipStreamTarget(Channels.newChannel(out), out), charset);
+    }
+
+    public static ZipFile newStreamingWriter(WritableByteChannel channel) throws IOException {
+        return newStreamingWriter(channel, "UTF-8");
+    }
+
+    /**
+     * Creates an empty archive that {@link #close()} writes front to back into channel, which
+     * may be a pipe, socket or http body. Nothing is buffered in a temporary file: each entry
+     * is compressed and encrypted as it is written, its local header is followed by the data
+     * and a data descriptor holding crc and sizes, and the central directory comes last.
+     * Data copied as is, such as stored entries of bytes, buffers or files and entries copied
+     * from another archive, gets crc and sizes in the local header and no data descriptor.
+     * Entries are added with the same methods and options as for a file archive, including
+     * parallel compression, progress and {@link #cancelWrite()}; append mode and
+     * {@link #compact()} have no effect. Entries left at {@link #ZIP_CM_DEFAULT} are deflated,
+     * since stored data can't be chosen after the header went out.
+     * <p>
+     * The channel is not closed. If close fails or is cancelled, what was already written
+     * stays in the channel and is not a valid archive.
+     *
+     * @param channel blocking channel receiving the archive
+     * @param charset charset of entry names and comments
+     * @throws IOException
+     */
+    public static ZipFile newStreamingWriter(WritableByteChannel channel, String charset) throws IOException {
+        if (channel == null) {
+            throw new NullPointerException("channel is null");
+        }
+        return new ZipFile(new ZipStreamTarget(channel, null), charset);
     }
 
+    /**
+     * @return the archive path, or null if the archive was opened from memory
+     */
     public String getPath() {
         return path;
     }
@@ -105,14 +283,21 @@ public class ZipFile implements Closeable {
         if (name == null) {
             throw new NullPointerException("path is null");
         }
+        long start = ZipStats.start(stats);
+        ZipNameIndex names = nameIndex();
+        if (names != null) {
+            int i = locate(names, name);
+            ZipStats.end(stats, ZipStats.LOOKUP, start, false);
+            return i != -1 ? names.directory().getEntry(i) : null;
+        }
         synchronized (this) {
+            ZipStats.lockAcquired(stats, start);
             ensureOpen();
             long index = nameLocate0(jzip, zc.getBytes(name));
-            if (index != -1) {
-                return getEntry0(jzip, zc, index);
-            }
+            ZipEntry entry = index != -1 ? getEntry0(jzip, zc, index) : null;
+            ZipStats.end(stats, ZipStats.LOOKUP, start, true);
+            return entry;
         }
-        return null;
     }
 
     public ZipEntry getEntry(long index) {
@@ -127,18 +312,58 @@ public class ZipFile implements Closeable {
 
 
     public Iterable<ZipEntry> entries() {
+        return new IterEntry(getDirectory());
+    }
+
+    /**
+     * Reads the whole archive directory in a single native call.
+     *
+     * @return a snapshot of the entries currently in the archive
+     */
+    public ZipDirectory getDirectory() {
         synchronized (this) {
             ensureOpen();
-            long num = getEntriesCount(jzip);
-            return new IterEntry((int) num);
+            return getDirectory0(jzip, zc);
         }
     }
 
-    private class IterEntry implements Iterable<ZipEntry> {
-        private final int nums;
+    /**
+     * Read-only archives never change, so names are looked up in a Java side index
+     * built on first use, without taking the lock or calling into native code.
+     *
+     * @return the name index, or null if the archive is writable
+     */
+    private ZipNameIndex nameIndex() {
+        if ((mode & ZIP_RDONLY) == 0) {
+            return null;
+        }
+        ZipNameIndex index = nameIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = nameIndex;
+                if (index == null) {
+                    ensureOpen();
+                    index = nameIndex = new ZipNameIndex(getDirectory0(jzip, zc));
+                }
+            }
+        }
+        if (closeRequested) {
+            throw new IllegalStateException("zip file closed");
+        }
+        return index;
+    }
+
+    private int locate(ZipNameIndex index, String name) {
+        byte[] rawName = zc.getBytes(name);
+        //去掉结尾的\0
+        return index.locate(rawName, rawName.length - 1);
+    }
+
+    private static class IterEntry implements Iterable<ZipEntry> {
+        private final ZipDirectory directory;
 
-        IterEntry(int nums) {
-            this.nums = nums;
+        IterEntry(ZipDirectory directory) {
+            this.directory = directory;
         }
 
         @Override
@@ -148,12 +373,12 @@ public class ZipFile implements Closeable {
 
                 @Override
                 public boolean hasNext() {
-                    return index < nums;
+                    return index < directory.size();
                 }
 
                 @Override
                 public ZipEntry next() {
-                    return getEntry0(jzip, zc, index++);
+                    return directory.getEntry(index++);
                 }
             };
         }
@@ -163,9 +388,18 @@ public class ZipFile implements Closeable {
         if (name == null) {
             throw new NullPointerException("path is null");
         }
+        long start = ZipStats.start(stats);
+        ZipNameIndex names = nameIndex();
+        if (names != null) {
+            int index = locate(names, name);
+            ZipStats.end(stats, ZipStats.LOOKUP, start, false);
+            return index != -1;
+        }
         synchronized (this) {
+            ZipStats.lockAcquired(stats, start);
             ensureOpen();
             long index = nameLocate0(jzip, zc.getBytes(name));
+            ZipStats.end(stats, ZipStats.LOOKUP, start, true);
             return index != -1;
         }
     }
@@ -191,6 +425,7 @@ public class ZipFile implements Closeable {
         }
         synchronized (this) {
             ensureOpen();
+            cancelCompression(index);
             return removeEntry0(jzip, index);
         }
     }
@@ -200,9 +435,19 @@ public class ZipFile implements Closeable {
     }
 
     public long nameLocate(String name) {
+        long start = ZipStats.start(stats);
+        ZipNameIndex names = nameIndex();
+        if (names != null) {
+            int index = locate(names, name);
+            ZipStats.end(stats, ZipStats.LOOKUP, start, false);
+            return index;
+        }
         synchronized (this) {
+            ZipStats.lockAcquired(stats, start);
             ensureOpen();
-            return nameLocate0(jzip, zc.getBytes(name));
+            long index = nameLocate0(jzip, zc.getBytes(name));
+            ZipStats.end(stats, ZipStats.LOOKUP, start, true);
+            return index;
         }
     }
 
@@ -211,6 +456,52 @@ public class ZipFile implements Closeable {
         return index != -1 && remove(index);
     }
 
+    /**
+     * Deletes the entries with the given names in one native call, names not in the archive are ignored.
+     *
+     * @return the number of entries deleted
+     */
+    public int removeAll(Collection<String> names) {
+        byte[][] rawNames = new byte[names.size()][];
+        int i = 0;
+        for (String name : names) {
+            rawNames[i++] = zc.getBytes(name);
+        }
+        synchronized (this) {
+            ensureOpen();
+            long[] removed = removeNamedEntries0(jzip, rawNames);
+            for (long index : removed) {
+                cancelCompression(index);
+            }
+            return removed.length;
+        }
+    }
+
+    /**
+     * Deletes the entries of the opened archive, as {@link #entries()} returns them, accepted by filter.
+     * The filter runs while the archive is locked, it must not call back into this ZipFile.
+     *
+     * @return the number of entries deleted
+     */
+    public int removeIf(ZipEntryFilter filter) {
+        synchronized (this) {
+            ensureOpen();
+            ZipDirectory directory = getDirectory0(jzip, zc);
+            long[] indices = new long[directory.size()];
+            int n = 0;
+            for (int i = 0; i < directory.size(); i++) {
+                if (directory.isValid(i) && filter.accept(directory.getEntry(i))) {
+                    indices[n++] = i;
+                }
+            }
+            indices = Arrays.copyOf(indices, n);
+            for (long index : indices) {
+                cancelCompression(index);
+            }
+            return removeEntries0(jzip, indices);
+        }
+    }
+
 
     public long addFile(String name, File file) throws IOException {
         return addFile(name, file.getAbsolutePath(), 0, file.length(), ZIP_EM_NONE, ZIP_CM_DEFAULT, 0);
@@ -221,12 +512,18 @@ public class ZipFile implements Closeable {
     }
 
     public long addFile(String name, String fileName, long off, long len, int em, int cm, int level) throws IOException {
+        long start = ZipStats.start(stats);
         synchronized (this) {
+            ZipStats.lockAcquired(stats, start);
             ensureOpen();
             long index = addFileEntry0(jzip, zc.getBytes(name), fileName, off, len);
             if (index != -1) {
                 setEncryptionMethod(index, em);
                 setCompressionMethod(index, cm, level);
+                if (len > 0) {
+                    scheduleCompression(new Compression(index, cm, level, 0, fileName, off, len), cm);
+                }
+                ZipStats.added(stats, start, len);
             }
             return index;
         }
@@ -237,23 +534,383 @@ public class ZipFile implements Closeable {
     }
 
     public long addBytes(String name, byte[] buf, int em, int cm, int level) throws IOException {
+        long start = ZipStats.start(stats);
+        synchronized (this) {
+            ZipStats.lockAcquired(stats, start);
+            ensureOpen();
+            long buffer = 0;
+            long index;
+            if (compressionExecutor != null && isParallelCompression(cm) && buf.length > 0) {
+                //数据只复制一次，zip_close和压缩线程共用同一块内存
+                buffer = newBuffer0(buf);
+                nativeBuffers.add(buffer);
+                index = addNativeBufferEntry0(jzip, zc.getBytes(name), buffer);
+            } else {
+                index = addBufferEntry0(jzip, zc.getBytes(name), buf);
+            }
+            if (index != -1) {
+                setEncryptionMethod(index, em);
+                setCompressionMethod(index, cm, level);
+                if (buffer != 0) {
+                    scheduleCompression(new Compression(index, cm, level, buffer, null, 0, 0), cm);
+                }
+                ZipStats.added(stats, start, buf.length);
+            }
+            return index;
+        }
+    }
+
+
+    public long addBuffer(String name, ByteBuffer... buffers) throws IOException {
+        return addBuffer(name, buffers, ZIP_EM_NONE, ZIP_CM_DEFAULT, 0);
+    }
+
+    /**
+     * Adds the remaining bytes of direct buffers, concatenated in order, as one entry.
+     * The buffer memory is referenced in place instead of being copied, the buffers are kept
+     * reachable and must not be modified until {@link #close()} or {@link #discard()}.
+     *
+     * @param name    the file's path in the zip archive
+     * @param buffers direct buffers holding the entry data
+     * @return the index of the new file in the archive
+     * @throws IOException
+     */
+    public long addBuffer(String name, ByteBuffer[] buffers, int em, int cm, int level) throws IOException {
+        int[] positions = new int[buffers.length];
+        int[] lengths = new int[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            if (!buffers[i].isDirect()) {
+                throw new IllegalArgumentException("buffer is not direct");
+            }
+            positions[i] = buffers[i].position();
+            lengths[i] = buffers[i].remaining();
+        }
+        long start = ZipStats.start(stats);
         synchronized (this) {
+            ZipStats.lockAcquired(stats, start);
             ensureOpen();
-            long index = addBufferEntry0(jzip, zc.getBytes(name), buf);
+            long index = addDirectBufferEntry0(jzip, zc.getBytes(name), buffers, positions, lengths);
             if (index != -1) {
+                long size = 0;
+                for (ByteBuffer buffer : buffers) {
+                    directBuffers.add(buffer);
+                    size += buffer.remaining();
+                }
                 setEncryptionMethod(index, em);
                 setCompressionMethod(index, cm, level);
+                ZipStats.added(stats, start, size);
             }
             return index;
         }
     }
 
+    /**
+     * Adds an entry whose data is read from in when the archive is written.
+     * The stream must stay readable until {@link #close()}, which also closes it.
+     */
+    public long addStream(String name, final InputStream in) throws IOException {
+        if (in == null) {
+            throw new NullPointerException("in");
+        }
+        return addStream(name, new EntrySource() {
+            @Override
+            public ReadableByteChannel open() {
+                return Channels.newChannel(in);
+            }
+        }, -1, ZIP_EM_NONE, ZIP_CM_DEFAULT, 0);
+    }
+
+    /**
+     * Adds an entry whose data is pulled from source in chunks while the archive is written,
+     * so data of any size is added with constant memory.
+     *
+     * @param name   the file's path in the zip archive
+     * @param source opened on the closing thread when the entry is written
+     * @param size   uncompressed size if known, otherwise -1
+     * @return the index of the new file in the archive
+     * @throws IOException
+     */
+    public long addStream(String name, EntrySource source, long size, int em, int cm, int level) throws IOException {
+        if (source == null) {
+            throw new NullPointerException("source");
+        }
+        long start = ZipStats.start(stats);
+        synchronized (this) {
+            ZipStats.lockAcquired(stats, start);
+            ensureOpen();
+            ZipStreamSource streamSource = new ZipStreamSource(source);
+            long index = addStreamEntry0(jzip, zc.getBytes(name), streamSource, size);
+            if (index != -1) {
+                streamSources.add(streamSource);
+                setEncryptionMethod(index, em);
+                setCompressionMethod(index, cm, level);
+                ZipStats.added(stats, start, size > 0 ? size : 0);
+            }
+            return index;
+        }
+    }
 
     public void addDirectory(String name) throws IOException {
+        long start = ZipStats.start(stats);
         synchronized (this) {
+            ZipStats.lockAcquired(stats, start);
             ensureOpen();
             addDirectoryEntry0(jzip, zc.getBytes(name));
+            ZipStats.added(stats, start, 0);
+        }
+    }
+
+    /**
+     * Adds many entries under one lock and with one native call. Entries are added in order
+     * and replace entries of the same name. If an entry can not be added, the entries before
+     * it stay added and an IOException naming it is thrown.
+     *
+     * @return the indices of the new entries, in the order of specs
+     * @throws IOException
+     */
+    public long[] addEntries(EntrySpec... specs) throws IOException {
+        int n = specs.length;
+        byte[][] names = new byte[n][];
+        String[] fileNames = new String[n];
+        byte[][] datas = new byte[n][];
+        long[] longs = new long[3 * n];
+        int[] ints = new int[4 * n];
+        long[] indices = new long[n];
+        long size = 0;
+        for (int i = 0; i < n; i++) {
+            EntrySpec spec = specs[i];
+            checkSupportedEncryptionMethod(spec.em);
+            checkSupportedCompressionMethod(spec.cm, spec.level);
+            names[i] = zc.getBytes(spec.name);
+            fileNames[i] = spec.fileName;
+            datas[i] = spec.bytes;
+            longs[3 * i] = spec.offset;
+            longs[3 * i + 1] = spec.length;
+            longs[3 * i + 2] = spec.time < 0 ? -1 : spec.time / 1000;
+            ints[4 * i] = spec.kind;
+            ints[4 * i + 1] = spec.em;
+            ints[4 * i + 2] = spec.cm;
+            ints[4 * i + 3] = spec.level;
+            indices[i] = -1;
+            if (spec.length > 0) {
+                size += spec.length;
+            }
+        }
+        long start = ZipStats.start(stats);
+        synchronized (this) {
+            ZipStats.lockAcquired(stats, start);
+            ensureOpen();
+            long[] buffers = new long[n];
+            if (compressionExecutor != null) {
+                for (int i = 0; i < n; i++) {
+                    EntrySpec spec = specs[i];
+                    if (spec.kind == EntrySpec.BYTES && isParallelCompression(spec.cm) && spec.length > 0) {
+                        //数据只复制一次，zip_close和压缩线程共用同一块内存
+                        buffers[i] = newBuffer0(spec.bytes);
+                        nativeBuffers.add(buffers[i]);
+                        ints[4 * i] = EntrySpec.NATIVE_BUFFER;
+                        longs[3 * i] = buffers[i];
+                        datas[i] = null;
+                    }
+                }
+            }
+            try {
+                addEntries0(jzip, names, fileNames, datas, longs, ints, indices);
+            } catch (IOException e) {
+                for (int i = 0; i < n; i++) {
+                    if (indices[i] == -1) {
+                        throw new IOException(specs[i].name + ": " + e.getMessage(), e);
+                    }
+                }
+                throw e;
+            } finally {
+                for (int i = 0; i < n && indices[i] != -1; i++) {
+                    EntrySpec spec = specs[i];
+                    //同名entry被替换，旧数据的压缩结果不能再用
+                    cancelCompression(indices[i]);
+                    if (buffers[i] != 0) {
+                        scheduleCompression(new Compression(indices[i], spec.cm, spec.level, buffers[i], null, 0, 0), spec.cm);
+                    } else if (spec.kind == EntrySpec.FILE && spec.length > 0) {
+                        scheduleCompression(new Compression(indices[i], spec.cm, spec.level, 0, spec.fileName, spec.offset, spec.length), spec.cm);
+                    }
+                }
+            }
+            ZipStats.added(stats, start, size);
+            return indices;
+        }
+    }
+
+    public int addTree(File root, String prefix, PathFilter filter) throws IOException {
+        return addTree(root, prefix, filter, ZIP_EM_NONE, ZIP_CM_DEFAULT, 0);
+    }
+
+    /**
+     * Adds the regular files and directories below root, walking the tree in native code
+     * in name order. Entry names are prefix followed by the path relative to root.
+     * Links to files are followed, links to directories are skipped.
+     * Existing directory entries are kept, files replace entries of the same name.
+     * If a file can not be added, the entries before it stay added.
+     *
+     * @param prefix "" or null for none, a '/' is appended if missing
+     * @param filter selects the files and directories to add, null adds everything
+     * @return the number of entries added
+     * @throws IOException
+     */
+    public int addTree(File root, String prefix, PathFilter filter, int em, int cm, int level) throws IOException {
+        checkSupportedEncryptionMethod(em);
+        checkSupportedCompressionMethod(cm, level);
+        if (!root.isDirectory()) {
+            throw new IOException(root + " is not a directory");
+        }
+        if (prefix == null) {
+            prefix = "";
+        } else if (prefix.length() > 0 && !prefix.endsWith("/")) {
+            prefix += "/";
+        }
+        String rootPath = root.getAbsolutePath();
+        long start = ZipStats.start(stats);
+        synchronized (this) {
+            ZipStats.lockAcquired(stats, start);
+            ensureOpen();
+            boolean parallel = compressionExecutor != null && isParallelCompression(cm);
+            List<byte[]> files = parallel ? new ArrayList<byte[]>() : null;
+            long[] added;
+            try {
+                added = addTree0(jzip, zc.isUtf8() ? null : zc, rootPath, zc.getBytes(prefix), filter, files, em, cm, level);
+            } catch (IOException e) {
+                //不知道哪些entry被替换了，全部改为在zip_close时压缩
+                for (Compression compression : compressions.values()) {
+                    compression.cancel();
+                }
+                compressions.clear();
+                throw e;
+            }
+            long size = 0;
+            int file = 0;
+            for (int i = 0; i < added.length; i += 2) {
+                long index = added[i];
+                cancelCompression(index);
+                if (added[i + 1] >= 0) {
+                    //文件名是文件系统的原始字节，与addFile一样按UTF-8处理
+                    String path = files != null ? rootPath + "/" + new String(files.get(file++), ZipCoder.UTF_8) : null;
+                    if (added[i + 1] > 0) {
+                        size += added[i + 1];
+                        if (path != null) {
+                            scheduleCompression(new Compression(index, cm, level, 0, path, 0, added[i + 1]), cm);
+                        }
+                    }
+                }
+            }
+            ZipStats.added(stats, start, size);
+            return added.length / 2;
+        }
+    }
+
+    /**
+     * Copies an entry of src into this archive as newName without inflating it.
+     * The compressed, or encrypted, data is written verbatim together with its crc, sizes,
+     * modification time, attributes and comment. Stored encrypted entries can not be copied.
+     * The data is read from src when this archive is closed, until then closing or discarding
+     * src throws {@link IllegalStateException}. For the same reason entries can not be copied
+     * back into an archive that this one already copied from.
+     *
+     * @param src     archive containing entry, may be this archive
+     * @param entry   entry read from src
+     * @param newName the entry's path in this archive, an existing entry is replaced
+     * @return the index of the new file in the archive
+     * @throws IOException
+     */
+    public long copyEntryFrom(ZipFile src, ZipEntry entry, String newName) throws IOException {
+        if (src == null) {
+            throw new NullPointerException("src");
+        }
+        if (entry == null) {
+            throw new NullPointerException("entry");
+        }
+        if (newName == null) {
+            throw new NullPointerException("newName");
+        }
+        synchronized (firstLock(this, src)) {
+            synchronized (secondLock(this, src)) {
+                ensureOpen();
+                src.ensureOpen();
+                return copyEntry(src, entry.index, newName);
+            }
+        }
+    }
+
+    /**
+     * Copies every entry of sources into this archive with {@link #copyEntryFrom(ZipFile, ZipEntry, String)},
+     * keeping the entry names. On duplicate names the entry of the later source wins.
+     *
+     * @param sources archives to merge, they can not be closed before this archive
+     * @throws IOException
+     */
+    public void merge(ZipFile... sources) throws IOException {
+        for (ZipFile src : sources) {
+            if (src == this) {
+                throw new IllegalArgumentException("can not merge an archive into itself");
+            }
+            ZipDirectory directory = src.getDirectory();
+            synchronized (firstLock(this, src)) {
+                synchronized (secondLock(this, src)) {
+                    ensureOpen();
+                    src.ensureOpen();
+                    for (int i = 0; i < directory.size(); i++) {
+                        if (directory.isValid(i)) {
+                            copyEntry(src, i, directory.getName(i));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    //两个压缩包的锁总是按serial顺序获取，互相复制时不会死锁
+    private static ZipFile firstLock(ZipFile a, ZipFile b) {
+        return a.serial <= b.serial ? a : b;
+    }
+
+    private static ZipFile secondLock(ZipFile a, ZipFile b) {
+        return a.serial <= b.serial ? b : a;
+    }
+
+    //持有两个压缩包的锁时调用
+    private long copyEntry(ZipFile src, long srcIndex, String name) throws IOException {
+        if (src != this) {
+            synchronized (copyLock) {
+                //互相复制的压缩包都要等对方先关闭，永远无法关闭
+                if (src.copiesFrom(this)) {
+                    throw new IllegalStateException("entries of this archive were copied into the source archive");
+                }
+            }
+        }
+        long index = copyEntry0(jzip, src.jzip, srcIndex, zc.getBytes(name));
+        if (index != -1) {
+            cancelCompression(index);
+            //zip_close时才读取src的数据，在此之前src不能关闭
+            if (src != this) {
+                synchronized (copyLock) {
+                    if (copySources.add(src)) {
+                        src.copyTargets++;
+                    }
+                }
+            }
         }
+        return index;
+    }
+
+    //持有copyLock时调用
+    private boolean copiesFrom(ZipFile archive) {
+        if (this == archive) {
+            return true;
+        }
+        for (ZipFile src : copySources) {
+            if (src.copiesFrom(archive)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public boolean setEncryptionMethod(long index, int em) {
@@ -290,34 +947,156 @@ public class ZipFile implements Closeable {
         checkSupportedCompressionMethod(cm, level);
         synchronized (this) {
             ensureOpen();
+            cancelCompression(index);
             return setCompressionMethod0(jzip, index, cm, level);
         }
     }
 
-    private static void checkSupportedCompressionMethod(int cm, int level) {
-        if (level < 0 || level > 9) {
-            throw new IllegalArgumentException("compression method level [0-9], current is " + level);
+    public void setParallelCompression(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive, current is " + threads);
         }
-        if (cm == ZIP_CM_DEFAULT ||
-                cm == ZIP_CM_DEFLATE ||
-                cm == ZIP_CM_STORE ||
-                cm == ZIP_CM_BZIP2) {
-            return;
+        synchronized (this) {
+            ensureOpen();
+            if (compressionExecutor != null) {
+                throw new IllegalStateException("parallel compression already enabled");
+            }
+            ownCompressionExecutor = Executors.newFixedThreadPool(threads);
+            compressionExecutor = ownCompressionExecutor;
         }
-        throw new IllegalArgumentException("invalid compression method");
     }
 
-    private static void checkSupportedEncryptionMethod(int em) {
-        if (em == ZIP_EM_NONE ||
-                em == ZIP_EM_AES_128 ||
-                em == ZIP_EM_AES_192 ||
-                em == ZIP_EM_AES_256) {
-            return;
+    /**
+     * Enables parallel compression. Files and byte arrays added afterwards with
+     * {@link #ZIP_CM_DEFAULT}, {@link #ZIP_CM_DEFLATE} or {@link #ZIP_CM_ZSTD} are compressed on executor right away,
+     * and {@link #close()} only writes the precompressed data. Entry order, crc and all entry
+     * settings are kept. The compressed data is held in native memory until the archive is closed.
+     *
+     * @param executor runs the compression tasks
+     */
+    public void setParallelCompression(Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
         }
-        throw new IllegalArgumentException("invalid encryption method");
-    }
-
-
+        synchronized (this) {
+            ensureOpen();
+            if (compressionExecutor != null) {
+                throw new IllegalStateException("parallel compression already enabled");
+            }
+            compressionExecutor = executor;
+        }
+    }
+
+    private static boolean isParallelCompression(int cm) {
+        return cm == ZIP_CM_DEFAULT || cm == ZIP_CM_DEFLATE || cm == ZIP_CM_ZSTD;
+    }
+
+    private void scheduleCompression(Compression compression, int cm) {
+        if (compressionExecutor == null || !isParallelCompression(cm)) {
+            return;
+        }
+        cancelCompression(compression.index);
+        compressions.put(compression.index, compression);
+        compressionExecutor.execute(compression);
+    }
+
+    private void cancelCompression(long index) {
+        Compression compression = compressions.remove(index);
+        if (compression != null) {
+            compression.cancel();
+        }
+    }
+
+    //等待压缩完成，用压缩好的数据替换entry的数据
+    private void applyCompressions() {
+        List<Compression> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(compressions.values());
+            compressions.clear();
+        }
+        for (Compression compression : pending) {
+            if (writeCancelled) {
+                compression.cancel();
+            }
+            long compressed = compression.await();
+            if (compressed != 0) {
+                replaceCompressed0(jzip, compression.index, compressed);
+            }
+        }
+        shutdownCompression();
+    }
+
+    private void cancelCompressions() {
+        List<Compression> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(compressions.values());
+            compressions.clear();
+        }
+        for (Compression compression : pending) {
+            compression.cancel();
+            compression.await();
+        }
+        shutdownCompression();
+    }
+
+    private void shutdownCompression() {
+        if (ownCompressionExecutor != null) {
+            ownCompressionExecutor.shutdown();
+            ownCompressionExecutor = null;
+        }
+        compressionExecutor = null;
+    }
+
+    private void freeNativeBuffers() {
+        synchronized (this) {
+            for (long buffer : nativeBuffers) {
+                freeBuffer0(buffer);
+            }
+            nativeBuffers.clear();
+        }
+    }
+
+    private static void checkSupportedCompressionMethod(int cm, int level) {
+        if (cm == ZIP_CM_ZSTD) {
+            if (level < 0 || level > 22) {
+                throw new IllegalArgumentException("zstd level [0-22], current is " + level);
+            }
+            if (!isCompressionMethodSupported(cm)) {
+                throw new IllegalArgumentException("zstd is not built into this library");
+            }
+            return;
+        }
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("compression method level [0-9], current is " + level);
+        }
+        if (cm == ZIP_CM_DEFAULT ||
+                cm == ZIP_CM_DEFLATE ||
+                cm == ZIP_CM_STORE ||
+                cm == ZIP_CM_BZIP2) {
+            return;
+        }
+        throw new IllegalArgumentException("invalid compression method");
+    }
+
+    /**
+     * @return whether entries can be written with cm, optional methods such as
+     * {@link #ZIP_CM_ZSTD} depend on how the native library was built
+     */
+    public static boolean isCompressionMethodSupported(int cm) {
+        return isCompressionSupported0(cm, true);
+    }
+
+    private static void checkSupportedEncryptionMethod(int em) {
+        if (em == ZIP_EM_NONE ||
+                em == ZIP_EM_AES_128 ||
+                em == ZIP_EM_AES_192 ||
+                em == ZIP_EM_AES_256) {
+            return;
+        }
+        throw new IllegalArgumentException("invalid encryption method");
+    }
+
+
     public boolean setComment(long index, String comment) {
         if (comment == null) {
             throw new NullPointerException("comment");
@@ -378,6 +1157,44 @@ public class ZipFile implements Closeable {
     }
 
 
+    /**
+     * In append mode {@link #close()} leaves the data of the existing entries where it is and writes
+     * only new and replaced entries and a new central directory after it, instead of writing a whole
+     * new archive and renaming it over this one. Deleted and replaced entries keep taking space
+     * until {@link #compact()}. A failed or cancelled close puts the old central directory back,
+     * but a crash while closing can leave the archive unreadable.
+     * Archives not opened from a file are always written in full.
+     *
+     * @return false if the archive is read-only
+     */
+    public boolean setAppendMode(boolean append) {
+        synchronized (this) {
+            ensureOpen();
+            if (!setAppendMode0(jzip, append)) {
+                return false;
+            }
+            appendMode = append;
+            return true;
+        }
+    }
+
+    public boolean isAppendMode() {
+        return appendMode;
+    }
+
+    /**
+     * Makes {@link #close()} write the whole archive again, also if nothing else changed,
+     * reclaiming the space of entries deleted or replaced in append mode.
+     *
+     * @return false if the archive is read-only
+     */
+    public boolean compact() {
+        synchronized (this) {
+            ensureOpen();
+            return compact0(jzip);
+        }
+    }
+
     public InputStream getInputStream(ZipEntry entry) throws IOException {
         return getInputStream(entry, null);
     }
@@ -387,139 +1204,1344 @@ public class ZipFile implements Closeable {
         if (entry == null) {
             throw new NullPointerException("entry");
         }
-        return getInputStream(entry.index, password);
-    }
+        return getInputStream(entry.index, password);
+    }
+
+    public InputStream getInputStream(long index, String password) throws IOException {
+        long start = ZipStats.start(stats);
+        ByteBuffer cached = cachedBuffer(index);
+        if (cached != null) {
+            ZipStats.end(stats, ZipStats.ENTRY_OPEN, start, false);
+            return new BufferInputStream(this, cached);
+        }
+        InputStream in = openInputStream(index, password, start);
+        ZipStats.end(stats, ZipStats.ENTRY_OPEN, start, true);
+        return in;
+    }
+
+    private InputStream openInputStream(long index, String password, long start) throws IOException {
+        ReaderPool pool = readerPool;
+        if (pool != null) {
+            byte[] data = readOneShot(index);
+            if (data != null) {
+                return new BufferInputStream(this, ByteBuffer.wrap(data));
+            }
+            return pool.getInputStream(index, password);
+        }
+        synchronized (this) {
+            ZipStats.lockAcquired(stats, start);
+            ensureOpen();
+            byte[] data = readOneShot(jzip, index);
+            if (data != null) {
+                return new BufferInputStream(this, ByteBuffer.wrap(data));
+            }
+            return newInputStream(null, index, password);
+        }
+    }
+
+    /**
+     * Unencrypted stored or deflated entries up to maxSize uncompressed bytes are read with
+     * one read of the compressed data and inflated with one call by
+     * {@link #getInputStream(ZipEntry)} and {@link #getBuffer(ZipEntry)}, which skips the
+     * per stream setup of libzip. Crc and data errors are thrown when the entry is opened.
+     *
+     * @param maxSize largest uncompressed size read this way, 0 to always stream
+     */
+    public void setOneShotLimit(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("negative limit");
+        }
+        oneShotLimit = maxSize;
+    }
+
+    public int getOneShotLimit() {
+        return oneShotLimit;
+    }
+
+    /**
+     * Sets when the crc of entry data read from this archive is checked, a mismatch is thrown
+     * as an IOException by the read, or close, that reaches the end of the entry.
+     * <ul>
+     * <li>{@link #CRC_VERIFY_AT_END}, the default, checks entries read up to their end.</li>
+     * <li>{@link #CRC_VERIFY_ALWAYS} also reads the rest of an entry when its stream or channel
+     * is closed before the end, so close fails on damaged data. Channels using a deflate index,
+     * see {@link #setDeflateIndexSpan(long)}, are only checked at the end.</li>
+     * <li>{@link #CRC_VERIFY_NEVER} does not compute the crc at all, for trusted archives.</li>
+     * </ul>
+     * Entries already open keep the mode they were opened with.
+     */
+    public void setCrcVerification(int mode) {
+        if (mode != CRC_VERIFY_AT_END && mode != CRC_VERIFY_ALWAYS && mode != CRC_VERIFY_NEVER) {
+            throw new IllegalArgumentException("unknown crc verification " + mode);
+        }
+        crcVerification = mode;
+    }
+
+    public int getCrcVerification() {
+        return crcVerification;
+    }
+
+    /**
+     * @return the crc-32 code used for reading and writing on this cpu, "pclmul", "armv8-crc32" or "zlib"
+     */
+    public static String getCrc32Implementation() {
+        return crc32Implementation0();
+    }
+
+    /**
+     * @return the AES and SHA-1 code used for WinZip AES entries on this cpu, such as "aes-ni, sha-ni"
+     * or "c, c", null when the native library was built without AES
+     */
+    public static String getAesImplementation() {
+        return aesImplementation0();
+    }
+
+    /**
+     * Sets how many worker threads generate the AES key stream of large WinZip AES entries,
+     * while the calling thread computes the HMAC. 0 uses only the calling thread.
+     * The default is the number of cpus minus one, at most 3.
+     */
+    public static void setAesThreads(int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("threads < 0");
+        }
+        setAesThreads0(threads);
+    }
+
+    /**
+     * Sets how many worker threads zstd uses to compress each {@link #ZIP_CM_ZSTD} entry, which
+     * splits large entries into jobs compressed in parallel. 0, the default, compresses on the
+     * thread writing the archive. Changes apply to entries compressed afterwards.
+     */
+    public static void setZstdWorkers(int workers) {
+        if (workers < 0) {
+            throw new IllegalArgumentException("workers < 0");
+        }
+        setZstdWorkers0(workers);
+    }
+
+    private long openEntry(long jzip, long index, String password) throws IOException {
+        return openEntry0(jzip, index, password, crcVerification != CRC_VERIFY_NEVER);
+    }
+
+    //调用者持有jzip的锁，不适用时返回null
+    byte[] readOneShot(long jzip, long index) throws IOException {
+        int limit = oneShotLimit;
+        if (limit == 0) {
+            return null;
+        }
+        byte[] data = readOneShot0(jzip, index, limit, crcVerification != CRC_VERIFY_NEVER);
+        ZipStats stats = this.stats;
+        if (data != null && stats != null) {
+            //整个entry在打开时已读入，读出的字节在交给调用者时计入
+            ZipStats.entryOpened(stats, getEntry0(jzip, zc, index));
+        }
+        return data;
+    }
+
+
+    /**
+     * Caches the uncompressed data of unencrypted entries in cache, so repeated reads through
+     * {@link #getBuffer(ZipEntry)} and {@link #getInputStream(ZipEntry)} skip inflating.
+     * Only archives opened with {@link #ZIP_RDONLY} can use a cache.
+     *
+     * @param cache the cache, may be shared with other archives, null to stop caching
+     */
+    public void setEntryCache(EntryCache cache) {
+        if ((mode & ZIP_RDONLY) == 0) {
+            throw new IllegalStateException("entry cache requires ZIP_RDONLY mode");
+        }
+        synchronized (this) {
+            ensureOpen();
+            if (cacheKey == null) {
+                //同一文件未修改时共享缓存，内存中的压缩包只能用自身区分
+                File file = path != null ? new File(path) : null;
+                cacheKey = file != null ? path + ':' + file.length() + ':' + file.lastModified() : this;
+            }
+            entryCache = cache;
+        }
+    }
+
+    public EntryCache getEntryCache() {
+        return entryCache;
+    }
+
+    /**
+     * Reads the whole uncompressed entry, from the entry cache when one is set.
+     *
+     * @param entry entry read from this archive
+     * @return a read-only buffer holding the entry data
+     * @throws IOException
+     */
+    public ByteBuffer getBuffer(ZipEntry entry) throws IOException {
+        if (entry == null) {
+            throw new NullPointerException("entry");
+        }
+        long start = ZipStats.start(stats);
+        ByteBuffer data = cachedBuffer(entry.index);
+        if (data == null) {
+            data = readBuffer(entry.index, entry.getSize()).asReadOnlyBuffer();
+        }
+        ZipStats.read(stats, start, data.remaining(), false);
+        return data;
+    }
+
+    //缓存未命中时解压并放入缓存，不能缓存时返回null
+    private ByteBuffer cachedBuffer(long index) throws IOException {
+        EntryCache cache = entryCache;
+        if (cache == null) {
+            return null;
+        }
+        ZipDirectory directory = nameIndex().directory();
+        if (index < 0 || index >= directory.size()) {
+            return null;
+        }
+        int i = (int) index;
+        if (!directory.isValid(i) || directory.isEncrypted(i) || directory.getSize(i) > cache.getMaxEntrySize()) {
+            return null;
+        }
+        ByteBuffer data = cache.get(cacheKey, index);
+        if (data == null) {
+            data = readBuffer(index, directory.getSize(i)).asReadOnlyBuffer();
+            cache.put(cacheKey, index, data);
+            data = data.duplicate();
+        }
+        return data;
+    }
+
+    private byte[] readOneShot(long index) throws IOException {
+        ReaderPool pool = readerPool;
+        if (pool != null) {
+            return oneShotLimit != 0 ? pool.readOneShot(index) : null;
+        }
+        synchronized (this) {
+            ensureOpen();
+            return readOneShot(jzip, index);
+        }
+    }
+
+    private ByteBuffer readBuffer(long index, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("entry too large for a buffer: " + size);
+        }
+        ByteBuffer data = ByteBuffer.allocateDirect((int) size);
+        if (size <= oneShotLimit) {
+            byte[] bytes = readOneShot(index);
+            if (bytes != null) {
+                ZipStats.nativeCall(stats);
+                data.put(bytes);
+                data.flip();
+                return data;
+            }
+        }
+        ReadableByteChannel in = getChannel(index, null);
+        try {
+            while (data.hasRemaining() && in.read(data) != -1) {
+            }
+        } finally {
+            in.close();
+        }
+        if (data.hasRemaining()) {
+            throw new EOFException("unexpected end of entry");
+        }
+        data.flip();
+        return data;
+    }
+
+    public ReadableByteChannel getChannel(ZipEntry entry) throws IOException {
+        return getChannel(entry, null);
+    }
+
+    public ReadableByteChannel getChannel(ZipEntry entry, String password) throws IOException {
+        if (entry == null) {
+            throw new NullPointerException("entry");
+        }
+        return getChannel(entry.index, password);
+    }
+
+    /**
+     * Opens the entry at position index as a channel. Direct buffers passed to
+     * {@link ReadableByteChannel#read(ByteBuffer)} are filled by native code in place,
+     * without an intermediate copy and without the chunk limit of the stream api.
+     *
+     * @param index    index in the zip archive
+     * @param password entry password, null to use the default password
+     * @return a channel reading the uncompressed entry data
+     * @throws IOException
+     */
+    public ReadableByteChannel getChannel(long index, String password) throws IOException {
+        long start = ZipStats.start(stats);
+        ReadableByteChannel channel = openReadableChannel(index, password, start);
+        ZipStats.end(stats, ZipStats.ENTRY_OPEN, start, true);
+        return channel;
+    }
+
+    private ReadableByteChannel openReadableChannel(long index, String password, long start) throws IOException {
+        ReaderPool pool = readerPool;
+        if (pool != null) {
+            return pool.getChannel(index, password);
+        }
+        synchronized (this) {
+            ZipStats.lockAcquired(stats, start);
+            ensureOpen();
+            return newChannel(null, index, password);
+        }
+    }
+
+
+    public SeekableEntryChannel openChannel(ZipEntry entry) throws IOException {
+        return openChannel(entry, null);
+    }
+
+    public SeekableEntryChannel openChannel(ZipEntry entry, String password) throws IOException {
+        if (entry == null) {
+            throw new NullPointerException("entry");
+        }
+        return openChannel(entry.index, password);
+    }
+
+    /**
+     * Opens the entry at position index for random access. Stored, unencrypted entries seek
+     * directly in the archive. Other entries are inflated forward in native code and reopened
+     * when the position moves backwards, so reads in increasing order stay cheap.
+     *
+     * @param index    index in the zip archive
+     * @param password entry password, null to use the default password
+     * @return a channel reading the uncompressed entry data from any position
+     * @throws IOException
+     */
+    public SeekableEntryChannel openChannel(long index, String password) throws IOException {
+        long start = ZipStats.start(stats);
+        SeekableEntryChannel channel = openSeekableChannel(index, password, start);
+        ZipStats.end(stats, ZipStats.ENTRY_OPEN, start, true);
+        return channel;
+    }
+
+    private SeekableEntryChannel openSeekableChannel(long index, String password, long start) throws IOException {
+        long deflateIndex = deflateIndexFor(index, deflateIndexSpan);
+        if (deflateIndex != 0) {
+            return openIndexedChannel(index, deflateIndex);
+        }
+        ReaderPool pool = readerPool;
+        if (pool != null) {
+            return pool.openChannel(index, password);
+        }
+        synchronized (this) {
+            ZipStats.lockAcquired(stats, start);
+            ensureOpen();
+            return newSeekableChannel(null, index, password);
+        }
+    }
+
+    /**
+     * Returns the position of the entry data in the archive. For {@link #ZIP_CM_STORE}
+     * entries without encryption the getSize() bytes starting there are the entry content.
+     * The local header is read to find the offset, so it is resolved here instead of
+     * being stored in every {@link ZipEntry}.
+     *
+     * @param entry entry read from this archive
+     * @return the offset of the raw entry data, -1 if the entry is new or its data was replaced
+     */
+    public long getDataOffset(ZipEntry entry) {
+        if (entry == null) {
+            throw new NullPointerException("entry");
+        }
+        if (!entry.isValid()) {
+            return -1;
+        }
+        synchronized (this) {
+            ensureOpen();
+            return getDataOffset0(jzip, entry.index);
+        }
+    }
+
+    /**
+     * Writes the uncompressed content of entry to target.
+     * Stored, unencrypted entries are sent straight from the archive with
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which lets the kernel
+     * copy the data (sendfile) without passing it through user space. Other entries are
+     * inflated through {@link #getChannel(ZipEntry)}.
+     *
+     * @param entry  entry read from this archive
+     * @param target blocking channel receiving the data
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    public long transferTo(ZipEntry entry, WritableByteChannel target) throws IOException {
+        if (entry == null) {
+            throw new NullPointerException("entry");
+        }
+        if (target == null) {
+            throw new NullPointerException("target");
+        }
+        if (entry.getMethod() == ZIP_CM_STORE && !entry.isEncrypted()) {
+            long offset = getDataOffset(entry);
+            if (offset != -1) {
+                if (memory != null) {
+                    return transferMemory(offset, entry.getCompressedSize(), target);
+                }
+                return transferFile(offset, entry.getCompressedSize(), target);
+            }
+        }
+        ReadableByteChannel in = getChannel(entry);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            long count = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                buffer.clear();
+                count += n;
+            }
+            return count;
+        } finally {
+            in.close();
+        }
+    }
+
+    private long transferFile(long offset, long size, WritableByteChannel target) throws IOException {
+        FileChannel channel = dataChannel();
+        long count = 0;
+        while (count < size) {
+            long n = channel.transferTo(offset + count, size - count, target);
+            if (n <= 0) {
+                //target暂时写不进或不支持transferTo时会一直返回0，剩余部分改为缓冲复制
+                break;
+            }
+            count += n;
+        }
+        if (count < size) {
+            count += copyFile(channel, offset + count, size - count, target);
+        }
+        return count;
+    }
+
+    private static long copyFile(FileChannel channel, long position, long size, WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(size, 64 * 1024));
+        long count = 0;
+        while (count < size) {
+            buffer.limit((int) Math.min(buffer.capacity(), size - count));
+            int n = channel.read(buffer, position + count);
+            if (n == -1) {
+                throw new EOFException("unexpected end of archive");
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            buffer.clear();
+            count += n;
+        }
+        return count;
+    }
+
+    private long transferMemory(long offset, long size, WritableByteChannel target) throws IOException {
+        if (offset + size > memory.capacity()) {
+            throw new EOFException("unexpected end of archive");
+        }
+        ByteBuffer data = memory.duplicate();
+        data.limit((int) (offset + size));
+        data.position((int) offset);
+        while (data.hasRemaining()) {
+            target.write(data);
+        }
+        return size;
+    }
+
+    private FileChannel dataChannel() throws IOException {
+        synchronized (this) {
+            ensureOpen();
+            if (dataChannel == null) {
+                dataChannel = new RandomAccessFile(path, "r").getChannel();
+            }
+            return dataChannel;
+        }
+    }
+
+    private void closeDataChannel() {
+        FileChannel channel;
+        synchronized (this) {
+            channel = dataChannel;
+            dataChannel = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Enables access points for deflated, unencrypted entries read with {@link #openChannel(ZipEntry)}.
+     * While such a channel inflates, the inflater state is saved every span bytes of output,
+     * so later seeks resume at the nearest saved point instead of the start of the entry.
+     * Every access point holds 32K of native memory until the archive is closed.
+     *
+     * @param span distance between access points in uncompressed bytes, 0 disables new indexes
+     */
+    public void setDeflateIndexSpan(long span) {
+        if (span < 0) {
+            throw new IllegalArgumentException("negative span " + span);
+        }
+        ensureOpen();
+        deflateIndexSpan = span;
+    }
+
+    /**
+     * Inflates entry once to record all its access points, continuing from the last known point.
+     *
+     * @param entry deflated, unencrypted entry read from this archive
+     * @throws IOException
+     */
+    public void buildDeflateIndex(ZipEntry entry) throws IOException {
+        long deflateIndex = deflateIndexFor(entry.index, deflateIndexSpan > 0 ? deflateIndexSpan : DEFAULT_INDEX_SPAN);
+        if (deflateIndex == 0) {
+            throw new IllegalArgumentException("entry is not deflated or is encrypted: " + entry);
+        }
+        if (isDeflateIndexComplete0(deflateIndex) || entry.getSize() == 0) {
+            return;
+        }
+        SeekableEntryChannel channel = openIndexedChannel(entry.index, deflateIndex);
+        try {
+            channel.position(entry.getSize() - 1);
+            channel.read(ByteBuffer.allocate(1));
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the access points of entry to a sidecar file, keyed by the entry crc and sizes.
+     *
+     * @param entry   entry with an index built by reads or {@link #buildDeflateIndex(ZipEntry)}
+     * @param sidecar destination file
+     * @throws IOException
+     */
+    public void saveDeflateIndex(ZipEntry entry, File sidecar) throws IOException {
+        ensureOpen();
+        deflateIndexes.save(entry, sidecar);
+    }
+
+    /**
+     * Restores the access points of entry saved with {@link #saveDeflateIndex(ZipEntry, File)}.
+     * An index already present for entry is kept.
+     *
+     * @param entry   deflated, unencrypted entry read from this archive
+     * @param sidecar file written for this entry
+     * @return false if the sidecar was written for an entry with another crc or size
+     * @throws IOException
+     */
+    public boolean loadDeflateIndex(ZipEntry entry, File sidecar) throws IOException {
+        if (entry.getMethod() != ZIP_CM_DEFLATE || entry.isEncrypted() || !entry.isValid()) {
+            throw new IllegalArgumentException("entry is not deflated or is encrypted: " + entry);
+        }
+        ensureOpen();
+        return deflateIndexes.load(entry, sidecar);
+    }
+
+    //返回entry的访问点索引，span为0时不创建，entry不能使用索引时返回0
+    private long deflateIndexFor(long index, long span) throws IOException {
+        if (span == 0 && deflateIndexes.isEmpty()) {
+            ensureOpen();
+            return 0;
+        }
+        ZipEntry entry = entryForIndex(index);
+        if (entry == null || entry.getMethod() != ZIP_CM_DEFLATE || entry.isEncrypted()) {
+            return 0;
+        }
+        return deflateIndexes.get(entry, span);
+    }
+
+    //有读取池时在池中的handle上读取，不占用压缩包的锁
+    private ZipEntry entryForIndex(long index) throws IOException {
+        ReaderPool pool = readerPool;
+        if (pool != null) {
+            return pool.getEntry(index);
+        }
+        synchronized (this) {
+            ensureOpen();
+            return getEntry0(jzip, zc, index);
+        }
+    }
+
+    private SeekableEntryChannel openIndexedChannel(long index, long deflateIndex) throws IOException {
+        ReaderPool pool = readerPool;
+        if (pool != null) {
+            return pool.openIndexedChannel(index, deflateIndex);
+        }
+        synchronized (this) {
+            ensureOpen();
+            return newIndexedChannel(null, index, deflateIndex);
+        }
+    }
+
+    private void releaseEntryCache() {
+        EntryCache cache = entryCache;
+        entryCache = null;
+        //按文件缓存的数据可被重新打开的压缩包继续使用
+        if (cache != null && cacheKey == this) {
+            cache.invalidate(this);
+        }
+    }
+
+    /**
+     * Enables concurrent reads for an archive opened with {@link #ZIP_RDONLY}.
+     * Entries are then opened on up to readers independent native handles of the same file,
+     * so streams of different entries inflate in parallel instead of serializing on this object.
+     *
+     * @param readers maximum number of native handles, 1 disables the pool
+     */
+    public void setConcurrentReaders(int readers) {
+        if ((mode & ZIP_RDONLY) == 0) {
+            throw new IllegalStateException("concurrent readers require ZIP_RDONLY mode");
+        }
+        if (readers < 1) {
+            throw new IllegalArgumentException("readers must be positive, current is " + readers);
+        }
+        synchronized (this) {
+            ensureOpen();
+            if (readerPool != null) {
+                throw new IllegalStateException("concurrent readers already enabled");
+            }
+            if (readers > 1) {
+                readerPool = new ReaderPool(this, readers);
+            }
+        }
+    }
+
+
+    public void extractAll(File targetDir) throws IOException {
+        extractAll(targetDir, null, Runtime.getRuntime().availableProcessors(), EXTRACT_OVERWRITE, null);
+    }
+
+    public void extractAll(File targetDir, ZipEntryFilter filter, int parallelism, int overwrite,
+                           ExtractProgressListener listener) throws IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive, current is " + parallelism);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            extractAll(targetDir, filter, executor, parallelism, overwrite, listener);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Extracts the entries accepted by filter into targetDir.
+     * Directories are created up front, then parallelism workers submitted to executor
+     * extract the files. For archives opened with {@link #ZIP_RDONLY} every worker reads
+     * through its own native handle, so entries are inflated in parallel.
+     *
+     * @param targetDir   destination directory
+     * @param filter      selects the entries to extract, null for all entries
+     * @param executor    runs the workers
+     * @param parallelism number of workers
+     * @param overwrite   one of {@link #EXTRACT_OVERWRITE}, {@link #EXTRACT_SKIP_EXISTING}, {@link #EXTRACT_FAIL_EXISTING}
+     * @param listener    receives the uncompressed bytes written, the total and the rate,
+     *                    each time another percent is done, may be null
+     * @throws IOException
+     */
+    public void extractAll(File targetDir, ZipEntryFilter filter, Executor executor, int parallelism,
+                           int overwrite, ExtractProgressListener listener) throws IOException {
+        if (targetDir == null) {
+            throw new NullPointerException("targetDir");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive, current is " + parallelism);
+        }
+        if (overwrite != EXTRACT_OVERWRITE && overwrite != EXTRACT_SKIP_EXISTING && overwrite != EXTRACT_FAIL_EXISTING) {
+            throw new IllegalArgumentException("invalid overwrite policy");
+        }
+        ZipDirectory directory = getDirectory();
+
+        //先统一创建目录
+        List<ZipEntry> files = new ArrayList<>();
+        List<File> targets = new ArrayList<>();
+        Set<File> dirs = new HashSet<>();
+        long total = 0;
+        for (int i = 0; i < directory.size(); i++) {
+            ZipEntry entry = directory.getEntry(i);
+            if (entry == null || (filter != null && !filter.accept(entry))) {
+                continue;
+            }
+            File target = new File(targetDir, checkEntryPath(entry.getName()));
+            File dir = entry.isDirectory() ? target : target.getParentFile();
+            if (dirs.add(dir) && !dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("can not create directory " + dir);
+            }
+            if (entry.isDirectory()) {
+                continue;
+            }
+            if (target.exists()) {
+                if (overwrite == EXTRACT_SKIP_EXISTING) {
+                    continue;
+                }
+                if (overwrite == EXTRACT_FAIL_EXISTING) {
+                    throw new IOException("file already exists " + target);
+                }
+            }
+            files.add(entry);
+            targets.add(target);
+            total += entry.getSize();
+        }
+
+        ReaderPool pool = readerPool;
+        boolean ownPool = false;
+        if (pool == null && (mode & ZIP_RDONLY) != 0 && parallelism > 1) {
+            pool = new ReaderPool(this, parallelism);
+            ownPool = true;
+        }
+        Extraction extraction = new Extraction(this, pool, files, targets, total, listener);
+        try {
+            extraction.run(executor, Math.min(parallelism, Math.max(files.size(), 1)));
+        } finally {
+            if (ownPool) {
+                pool.close();
+            }
+        }
+    }
+
+    //拒绝绝对路径和含有".."的entry名，防止写到目标目录之外
+    private static String checkEntryPath(String name) throws IOException {
+        for (String part : name.split("[/\\\\]")) {
+            if (part.equals("..")) {
+                throw new IOException("entry is outside of the target directory " + name);
+            }
+        }
+        int start = 0;
+        while (start < name.length() && (name.charAt(start) == '/' || name.charAt(start) == '\\')) {
+            start++;
+        }
+        return name.substring(start);
+    }
+
+    private void ensureOpen() {
+        if (closeRequested) {
+            throw new IllegalStateException("zip file closed");
+        }
+
+        if (jzip == 0) {
+            throw new IllegalStateException("the object is not initialized.");
+        }
+    }
+
+    /**
+     * Starts recording counters and latencies of this archive, see {@link ZipStats}.
+     * The time spent opening the archive is recorded as the first {@link ZipStats#OPEN}.
+     *
+     * @param enabled false stops recording and drops the recorded values
+     */
+    public void setStatsEnabled(boolean enabled) {
+        synchronized (this) {
+            if (!enabled) {
+                stats = null;
+            } else if (stats == null) {
+                ZipStats stats = new ZipStats();
+                stats.record(ZipStats.OPEN, openTime, true);
+                this.stats = stats;
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of the recorded values, also available after close,
+     * or null if recording is not enabled
+     */
+    public ZipStats getStats() {
+        ZipStats stats = this.stats;
+        return stats != null ? stats.snapshot() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        close(listener);
+        listener = null;
+    }
+
+    public void close(ProgressListener listener) throws IOException {
+        synchronized (this) {
+            if (closeRequested)
+                return;
+            checkNotCopySource();
+            closeRequested = true;
+        }
+        long start = ZipStats.start(stats);
+        closeReaderPool();
+        closeDataChannel();
+        deflateIndexes.free();
+        releaseEntryCache();
+        applyCompressions();
+        try {
+            if (writeCancelled) {
+                discard0(jzip);
+                throw new WriteCancelledException("write cancelled");
+            }
+            closeHoldingSources(sortedCopySources(), 0, listener);
+        } catch (WriteCancelledException e) {
+            releaseArchive();
+            throw e;
+        } catch (IOException e) {
+            throw streamFailure(e);
+        } catch (RuntimeException | Error e) {
+            //listener抛出异常时压缩包已被丢弃
+            releaseArchive();
+            throw e;
+        }
+        releaseArchive();
+        ZipStats.end(stats, ZipStats.CLOSE, start, true);
+    }
+
+    private void releaseArchive() {
+        jzip = 0;
+        freeNativeBuffers();
+        streamSources.clear();
+        directBuffers.clear();
+        releaseCopySources();
+    }
+
+    private void checkNotCopySource() {
+        synchronized (copyLock) {
+            if (copyTargets > 0) {
+                throw new IllegalStateException("entries were copied from this archive into "
+                        + copyTargets + " archives that are not closed yet");
+            }
+        }
+    }
+
+    private ZipFile[] sortedCopySources() {
+        ZipFile[] sources;
+        synchronized (copyLock) {
+            sources = copySources.toArray(new ZipFile[0]);
+        }
+        Arrays.sort(sources, new Comparator<ZipFile>() {
+            @Override
+            public int compare(ZipFile a, ZipFile b) {
+                return a.serial < b.serial ? -1 : a.serial == b.serial ? 0 : 1;
+            }
+        });
+        return sources;
+    }
+
+    //zip_close从复制来源读取数据，期间按serial顺序持有来源的锁，来源的读取不会同时使用同一个handle
+    private void closeHoldingSources(ZipFile[] sources, int i, ProgressListener listener) throws IOException {
+        if (i < sources.length) {
+            synchronized (sources[i]) {
+                closeHoldingSources(sources, i + 1, listener);
+            }
+            return;
+        }
+        close0(jzip, this, listener, writeListener, writeProgressInterval);
+    }
+
+    private void releaseCopySources() {
+        synchronized (copyLock) {
+            for (ZipFile src : copySources) {
+                src.copyTargets--;
+            }
+            copySources.clear();
+        }
+    }
+
+    //zip_close只能报告读写错误，原始异常保存在ZipStreamSource和ZipStreamTarget中
+    private IOException streamFailure(IOException e) {
+        Exception written = streamTarget != null ? streamTarget.getFailure() : null;
+        if (written != null) {
+            return new IOException(e.getMessage(), written);
+        }
+        for (ZipStreamSource source : streamSources) {
+            Exception failure = source.getFailure();
+            if (failure != null) {
+                return new IOException(e.getMessage(), failure);
+            }
+        }
+        return e;
+    }
+
+    public void discard() {
+        synchronized (this) {
+            if (closeRequested)
+                return;
+            checkNotCopySource();
+            closeRequested = true;
+        }
+        closeReaderPool();
+        closeDataChannel();
+        deflateIndexes.free();
+        releaseEntryCache();
+        cancelCompressions();
+        discard0(jzip);
+        releaseArchive();
+    }
+
+    private void closeReaderPool() {
+        ReaderPool pool = readerPool;
+        if (pool != null) {
+            pool.close();
+            readerPool = null;
+        }
+    }
+
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Reports bytes written, the current entry and the write rate while {@link #close()}
+     * writes the archive.
+     *
+     * @param listener       null to stop reporting
+     * @param intervalMillis minimum time between two reports, the first and last are always reported
+     */
+    public void setWriteProgressListener(WriteProgressListener listener, long intervalMillis) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("negative interval");
+        }
+        this.writeListener = listener;
+        this.writeProgressInterval = intervalMillis;
+    }
+
+    /**
+     * Stops a running or later {@link #close()}, may be called from any thread. The
+     * temporary file is removed, or in append mode the old central directory is put back,
+     * the archive on disk stays unchanged and close throws
+     * {@link WriteCancelledException}; a streaming writer just stops writing.
+     * Pending parallel compressions are cancelled as well.
+     */
+    public void cancelWrite() {
+        writeCancelled = true;
+    }
+
+    private class ZipFileInputStream extends InputStream {
+        private volatile boolean closeRequested = false;
+        private final PooledReader reader; // null when opened on the main handle
+        private long jzf; // address of jzf data
+        private long rem;     // number of remaining bytes within entry
+        private long size;    // uncompressed size of this entry
+        private int crcMode;
+        private boolean skipped;  // skip may have moved past data without reading it
+
+        ZipFileInputStream(PooledReader reader, long jzf, long size) {
+            this.reader = reader;
+            this.jzf = jzf;
+            this.size = rem = size;
+            this.crcMode = crcVerification;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = ZipStats.start(stats);
+            synchronized (lockOf(reader)) {
+                ZipStats.lockAcquired(stats, start);
+                if (rem == 0) {
+                    return -1;
+                }
+                if (len <= 0) {
+                    return 0;
+                }
+                if (len > rem) {
+                    len = (int) rem;
+                }
+
+                if (handleOf(reader) == 0) {
+                    throw new IOException("the object is not initialized.");
+                }
+                len = (int) ZipFile.readEntryBytes(jzf, b, off, len);
+                if (len > 0) {
+                    rem -= len;
+                }
+            }
+            ZipStats.read(stats, start, len, true);
+            if (rem == 0) {
+                close();
+            }
+            return len;
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            if (read(b, 0, 1) == 1) {
+                return b[0] & 0xff;
+            } else {
+                return -1;
+            }
+        }
+
+        public long skip(long n) throws IOException {
+            synchronized (lockOf(reader)) {
+                if (n <= 0 || rem == 0) {
+                    return 0;
+                }
+                if (n > rem) {
+                    n = rem;
+                }
+                if (handleOf(reader) == 0) {
+                    throw new IOException("the object is not initialized.");
+                }
+                n = ZipFile.skipEntry0(jzf, n);
+                rem -= n;
+                skipped = true;
+            }
+            if (rem == 0) {
+                close();
+            }
+            return n;
+        }
+
+        public int available() {
+            return rem > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) rem;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public void close() throws IOException {
+            if (closeRequested)
+                return;
+            closeRequested = true;
+
+            //读完时由read调用，crc错误从最后一次read抛出
+            boolean verify = crcMode == CRC_VERIFY_ALWAYS || (crcMode == CRC_VERIFY_AT_END && rem == 0);
+            rem = 0;
+            try {
+                synchronized (lockOf(reader)) {
+                    if (jzf != 0 && handleOf(reader) != 0) {
+                        try {
+                            if (verify) {
+                                ZipFile.verifyEntry0(jzf, skipped && crcMode == CRC_VERIFY_ALWAYS);
+                            }
+                        } finally {
+                            long f = jzf;
+                            jzf = 0;
+                            closeEntry(f);
+                        }
+                    }
+                }
+            } finally {
+                releaseReader(reader);
+            }
+        }
+
+        protected void finalize() throws Throwable {
+            //回收时不再读取剩余数据
+            crcMode = CRC_VERIFY_NEVER;
+            close();
+        }
+    }
+
+    private class ZipFileChannel implements ReadableByteChannel {
+        private volatile boolean closeRequested = false;
+        private final PooledReader reader; // null when opened on the main handle
+        private long jzf; // address of jzf data
+        private long rem;     // number of remaining bytes within entry
+        private int crcMode;
+
+        ZipFileChannel(PooledReader reader, long jzf, long size) {
+            this.reader = reader;
+            this.jzf = jzf;
+            this.rem = size;
+            this.crcMode = crcVerification;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (closeRequested) {
+                throw new ClosedChannelException();
+            }
+            if (dst.isReadOnly()) {
+                throw new IllegalArgumentException("Read-only buffer");
+            }
+            int len = dst.remaining();
+            long start = ZipStats.start(stats);
+            synchronized (lockOf(reader)) {
+                ZipStats.lockAcquired(stats, start);
+                if (rem == 0) {
+                    return -1;
+                }
+                if (len == 0) {
+                    return 0;
+                }
+                if (len > rem) {
+                    len = (int) rem;
+                }
+
+                if (handleOf(reader) == 0) {
+                    throw new IOException("the object is not initialized.");
+                }
+                int pos = dst.position();
+                if (dst.isDirect()) {
+                    len = (int) ZipFile.readEntryBuffer0(jzf, dst, pos, len);
+                } else {
+                    len = (int) ZipFile.readEntryBytes(jzf, dst.array(), dst.arrayOffset() + pos, len);
+                }
+                if (len > 0) {
+                    dst.position(pos + len);
+                    rem -= len;
+                }
+                if (rem == 0) {
+                    closeEntry(crcMode != CRC_VERIFY_NEVER);
+                }
+            }
+            ZipStats.read(stats, start, len, true);
+            return len;
+        }
 
-    public InputStream getInputStream(long index, String password) throws IOException {
-        synchronized (this) {
-            ensureOpen();
-            long jzf = openEntry(jzip, index, password);
-            ZipEntry entry = getEntry0(jzip, zc, index);
-            return new ZipFileInputStream(jzf, entry.getSize());
+        @Override
+        public boolean isOpen() {
+            return !closeRequested;
         }
-    }
 
+        @Override
+        public void close() throws IOException {
+            if (closeRequested)
+                return;
+            closeRequested = true;
 
-    private void ensureOpen() {
-        if (closeRequested) {
-            throw new IllegalStateException("zip file closed");
+            try {
+                synchronized (lockOf(reader)) {
+                    closeEntry(crcMode == CRC_VERIFY_ALWAYS);
+                }
+            } finally {
+                releaseReader(reader);
+            }
         }
 
-        if (jzip == 0) {
-            throw new IllegalStateException("the object is not initialized.");
+        private void closeEntry(boolean verify) throws IOException {
+            rem = 0;
+            if (jzf != 0 && handleOf(reader) != 0) {
+                try {
+                    if (verify) {
+                        ZipFile.verifyEntry0(jzf, false);
+                    }
+                } finally {
+                    long f = jzf;
+                    jzf = 0;
+                    ZipFile.closeEntry(f);
+                }
+            }
         }
-    }
-
-
-    @Override
-    public void close() throws IOException {
-        close(listener);
-        listener = null;
-    }
-
-    public void close(ProgressListener listener) throws IOException {
-        if (closeRequested)
-            return;
-        closeRequested = true;
-        close0(jzip, listener);
-        jzip = 0;
-    }
-
-    public void discard() {
-        if (closeRequested)
-            return;
-        closeRequested = true;
-        discard0(jzip);
-        jzip = 0;
-    }
 
-    public void setProgressListener(ProgressListener listener) {
-        this.listener = listener;
+        protected void finalize() throws Throwable {
+            crcMode = CRC_VERIFY_NEVER;
+            close();
+        }
     }
 
-    private class ZipFileInputStream extends InputStream {
+    private class ZipEntryChannel implements SeekableEntryChannel {
         private volatile boolean closeRequested = false;
+        private final PooledReader reader; // null when opened on the main handle
+        private final long index;
+        private final String password;
+        private final long size;
         private long jzf; // address of jzf data
-        private long rem;     // number of remaining bytes within entry
-        private long size;    // uncompressed size of this entry
-
-        ZipFileInputStream(long jzf, long size) {
+        private long position;     // position of the next read
+        private long filePosition; // position of jzf
+        private int crcMode;
+        private boolean skipped;   // a forward seek may have moved past data without reading it
+        private boolean verified;  // the crc of the whole entry was checked
+
+        ZipEntryChannel(PooledReader reader, long jzf, long index, String password, long size) {
+            this.reader = reader;
             this.jzf = jzf;
-            this.size = rem = size;
+            this.index = index;
+            this.password = password;
+            this.size = size;
+            this.crcMode = crcVerification;
         }
 
-        public int read(byte[] b, int off, int len) throws IOException {
-            synchronized (ZipFile.this) {
-                if (rem == 0) {
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (closeRequested) {
+                throw new ClosedChannelException();
+            }
+            if (dst.isReadOnly()) {
+                throw new IllegalArgumentException("Read-only buffer");
+            }
+            int len = dst.remaining();
+            long start = ZipStats.start(stats);
+            synchronized (lockOf(reader)) {
+                ZipStats.lockAcquired(stats, start);
+                if (position >= size) {
                     return -1;
                 }
-                if (len <= 0) {
+                if (len == 0) {
                     return 0;
                 }
-                if (len > rem) {
-                    len = (int) rem;
+                if (len > size - position) {
+                    len = (int) (size - position);
                 }
 
-                if (jzip == 0) {
+                if (handleOf(reader) == 0 || jzf == 0) {
                     throw new IOException("the object is not initialized.");
                 }
-                len = (int) ZipFile.readEntryBytes(jzf, b, off, len);
+                if (filePosition != position) {
+                    seek(position);
+                }
+                int pos = dst.position();
+                if (dst.isDirect()) {
+                    len = (int) ZipFile.readEntryBuffer0(jzf, dst, pos, len);
+                } else {
+                    len = (int) ZipFile.readEntryBytes(jzf, dst.array(), dst.arrayOffset() + pos, len);
+                }
                 if (len > 0) {
-                    rem -= len;
+                    dst.position(pos + len);
+                    position += len;
+                    filePosition += len;
+                }
+                if (filePosition == size && !verified && crcMode != CRC_VERIFY_NEVER) {
+                    //跳过的数据未计入crc时留给close检查
+                    verified = !skipped;
+                    ZipFile.verifyEntry0(jzf, false);
                 }
             }
-            if (rem == 0) {
-                close();
-            }
+            ZipStats.read(stats, start, len, true);
             return len;
         }
 
-        public int read() throws IOException {
-            byte[] b = new byte[1];
-            if (read(b, 0, 1) == 1) {
-                return b[0] & 0xff;
-            } else {
-                return -1;
+        //向后跳过，向前移动时不能seek的entry需重新打开
+        private void seek(long target) throws IOException {
+            if (target < filePosition) {
+                if (ZipFile.seekEntry0(jzf, target)) {
+                    filePosition = target;
+                } else {
+                    ZipFile.closeEntry(jzf);
+                    jzf = 0;
+                    jzf = openEntry(handleOf(reader), index, password);
+                    filePosition = 0;
+                }
+            }
+            if (target > filePosition) {
+                skipped = true;
+                filePosition += ZipFile.skipEntry0(jzf, target - filePosition);
+                if (filePosition != target) {
+                    throw new EOFException("unexpected end of entry");
+                }
             }
         }
 
-        public long skip(long n) throws IOException {
-            if (n > rem)
-                n = rem;
-            rem -= n;
-            if (rem == 0) {
-                close();
+        @Override
+        public long position() throws IOException {
+            if (closeRequested) {
+                throw new ClosedChannelException();
+            }
+            synchronized (lockOf(reader)) {
+                return position;
             }
-            return n;
         }
 
-        public int available() {
-            return rem > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) rem;
+        @Override
+        public SeekableEntryChannel position(long newPosition) throws IOException {
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("negative position " + newPosition);
+            }
+            if (closeRequested) {
+                throw new ClosedChannelException();
+            }
+            synchronized (lockOf(reader)) {
+                //延迟到下次读取时再移动
+                position = newPosition;
+            }
+            return this;
         }
 
-        public long size() {
+        @Override
+        public long size() throws IOException {
+            if (closeRequested) {
+                throw new ClosedChannelException();
+            }
             return size;
         }
 
+        @Override
+        public boolean isOpen() {
+            return !closeRequested;
+        }
+
+        @Override
         public void close() throws IOException {
             if (closeRequested)
                 return;
             closeRequested = true;
 
-            rem = 0;
-            synchronized (ZipFile.this) {
-                if (jzf != 0 && ZipFile.this.jzip != 0) {
-                    closeEntry(jzf);
-                    jzf = 0;
+            try {
+                synchronized (lockOf(reader)) {
+                    if (jzf != 0 && handleOf(reader) != 0) {
+                        try {
+                            if (crcMode == CRC_VERIFY_ALWAYS && !verified) {
+                                ZipFile.verifyEntry0(jzf, skipped);
+                            }
+                        } finally {
+                            long f = jzf;
+                            jzf = 0;
+                            ZipFile.closeEntry(f);
+                        }
+                    }
                 }
+            } finally {
+                releaseReader(reader);
             }
         }
 
         protected void finalize() throws Throwable {
+            crcMode = CRC_VERIFY_NEVER;
             close();
         }
     }
 
+    Object lockOf(PooledReader reader) {
+        return reader != null ? reader : this;
+    }
+
+    long handleOf(PooledReader reader) {
+        return reader != null ? reader.jzip : jzip;
+    }
+
+    static void releaseReader(PooledReader reader) {
+        if (reader != null) {
+            reader.pool.release(reader);
+        }
+    }
+
+    //读取池的新句柄，与主句柄打开同一个文件或内存
+    long openReader() throws IOException {
+        return memory != null ? openMemory0(memory, memory.remaining(), ZIP_RDONLY) : open(path, ZIP_RDONLY);
+    }
+
+    ZipEntry readEntry(long jzip, long index) {
+        return getEntry0(jzip, zc, index);
+    }
+
+    //以下在reader的句柄上打开entry，reader为null时是主句柄，调用者持有lockOf(reader)
+    InputStream newInputStream(PooledReader reader, long index, String password) throws IOException {
+        long jzf = openEntry(handleOf(reader), index, password);
+        return new ZipFileInputStream(reader, jzf, openedEntry(reader, index).getSize());
+    }
+
+    ReadableByteChannel newChannel(PooledReader reader, long index, String password) throws IOException {
+        long jzf = openEntry(handleOf(reader), index, password);
+        return new ZipFileChannel(reader, jzf, openedEntry(reader, index).getSize());
+    }
+
+    SeekableEntryChannel newSeekableChannel(PooledReader reader, long index, String password) throws IOException {
+        long jzf = openEntry(handleOf(reader), index, password);
+        return new ZipEntryChannel(reader, jzf, index, password, openedEntry(reader, index).getSize());
+    }
+
+    SeekableEntryChannel newIndexedChannel(PooledReader reader, long index, long deflateIndex) throws IOException {
+        long jreader = openIndexReader0(handleOf(reader), index, deflateIndex, crcVerification != CRC_VERIFY_NEVER);
+        return new IndexedEntryChannel(this, reader, jreader, openedEntry(reader, index).getSize());
+    }
+
+    private ZipEntry openedEntry(PooledReader reader, long index) {
+        ZipEntry entry = getEntry0(handleOf(reader), zc, index);
+        ZipStats.entryOpened(stats, entry);
+        return entry;
+    }
+
     @Override
     protected void finalize() throws Throwable {
         close(null);
@@ -536,6 +2558,24 @@ public class ZipFile implements Closeable {
     @Keep
     private static native long open(String path, int mode) throws IOException;
 
+    /**
+     * Opens a zip archive from the memory of a direct buffer, the memory is not copied
+     *
+     * @param buffer direct buffer holding the archive
+     * @param len    archive length
+     * @param mode   open mode
+     * @return a struct zip pointer
+     * @throws IOException
+     */
+    @Keep
+    private static native long openMemory0(ByteBuffer buffer, int len, int mode) throws IOException;
+
+    /**
+     * Opens an empty archive whose close writes it sequentially to target
+     */
+    @Keep
+    private static native long openStream0(ZipStreamTarget target) throws IOException;
+
     //得到zip内文件的数量
     @Keep
     private static native long getEntriesCount(long jzip);
@@ -600,6 +2640,112 @@ public class ZipFile implements Closeable {
     private static native long addBufferEntry0(long jzip, byte[] name, byte[] buffer) throws IOException;
 
 
+    /**
+     * Adds the memory of direct buffers as one file, without copying it
+     *
+     * @param jzip      specifies the zip archive
+     * @param name      the file's path in the zip archive
+     * @param buffers   direct buffers
+     * @param positions start of the data in each buffer
+     * @param lengths   data length in each buffer
+     * @return the index of the new file in the archive
+     * @throws IOException
+     */
+    @Keep
+    private static native long addDirectBufferEntry0(long jzip, byte[] name, ByteBuffer[] buffers,
+                                                     int[] positions, int[] lengths) throws IOException;
+
+    @Keep
+    private static native long newBuffer0(byte[] buffer);
+
+    @Keep
+    private static native void addEntries0(long jzip, byte[][] names, String[] fileNames, byte[][] datas, long[] longs, int[] ints, long[] indices) throws IOException;
+
+    @Keep
+    private static native long[] addTree0(long jzip, ZipCoder zc, String root, byte[] prefix, PathFilter filter, List<byte[]> files, int em, int cm, int level) throws IOException;
+
+    @Keep
+    private static native long[] removeNamedEntries0(long jzip, byte[][] names);
+
+    @Keep
+    private static native int removeEntries0(long jzip, long[] indices);
+
+    @Keep
+    private static native void freeBuffer0(long buffer);
+
+    /**
+     * Adds a native buffer to a zip archive, the buffer must stay valid until the archive is closed
+     *
+     * @param jzip   specifies the zip archive
+     * @param name   the file's path in the zip archive
+     * @param buffer a native buffer from newBuffer0
+     * @return the index of the new file in the archive
+     * @throws IOException
+     */
+    @Keep
+    private static native long addNativeBufferEntry0(long jzip, byte[] name, long buffer) throws IOException;
+
+    /**
+     * Compresses a native buffer, does not touch any zip archive so it can run on any thread
+     *
+     * @param buffer a native buffer from newBuffer0
+     * @param method compression method
+     * @param level  compression level
+     * @return the compressed data
+     */
+    @Keep
+    static native long compressBuffer0(long buffer, int method, int level) throws IOException;
+
+    @Keep
+    static native long compressFile0(String fileName, long start, long len, int method, int level) throws IOException;
+
+    @Keep
+    private static native boolean isCompressionSupported0(int cm, boolean compress);
+
+    @Keep
+    static native void freeCompressed0(long compressed);
+
+    /**
+     * Replaces the data of the file at position index by compressed data, which is freed by the archive
+     *
+     * @param jzip       specifies the zip archive
+     * @param index      index in the zip archive
+     * @param compressed the compressed data
+     * @return whether the data was replaced
+     */
+    @Keep
+    private static native boolean replaceCompressed0(long jzip, long index, long compressed);
+
+
+    /**
+     * Adds a file to a zip archive, its data is pulled from source while the archive is written
+     *
+     * @param jzip   specifies the zip archive
+     * @param name   the file's path in the zip archive
+     * @param source reads the data in chunks
+     * @param size   uncompressed size, -1 if unknown
+     * @return the index of the new file in the archive
+     * @throws IOException
+     */
+    @Keep
+    private static native long addStreamEntry0(long jzip, byte[] name, ZipStreamSource source, long size) throws IOException;
+
+
+    /**
+     * Adds a copy of entry srcIndex of another archive, its compressed data is copied without
+     * recompressing when the archive is written
+     *
+     * @param jzip     specifies the zip archive
+     * @param jsrc     the archive holding the entry, must stay open until jzip is written
+     * @param srcIndex index of the entry in jsrc
+     * @param name     the file's path in the zip archive
+     * @return the index of the new file in the archive
+     * @throws IOException
+     */
+    @Keep
+    private static native long copyEntry0(long jzip, long jsrc, long srcIndex, byte[] name) throws IOException;
+
+
     /**
      * Adds a directory to a zip archive.
      *
@@ -620,6 +2766,15 @@ public class ZipFile implements Closeable {
     private static native ZipEntry getEntry0(long jzip, ZipCoder zc, long index);
 
 
+    @Keep
+    private static native ZipDirectory getDirectory0(long jzip, ZipCoder zc);
+
+
+    /*returns the offset of the unchanged entry data, -1 if unknown*/
+    @Keep
+    private static native long getDataOffset0(long jzip, long index);
+
+
     /*Sets zip entry */
     @Keep
     private static native boolean setModifyTime0(long jzip, long index, long time);
@@ -640,6 +2795,12 @@ public class ZipFile implements Closeable {
     @Keep
     private static native boolean setZipComment0(long jzip, byte[] comment);
 
+    @Keep
+    private static native boolean setAppendMode0(long jzip, boolean append);
+
+    @Keep
+    private static native boolean compact0(long jzip);
+
     /**
      * Opens the file at position index
      *
@@ -649,7 +2810,22 @@ public class ZipFile implements Closeable {
      * @throws IOException
      */
     @Keep
-    private static native long openEntry(long jzip, long index, String password) throws IOException;
+    private static native long openEntry0(long jzip, long index, String password, boolean verifyCrc) throws IOException;
+
+    @Keep
+    private static native byte[] readOneShot0(long jzip, long index, int limit, boolean verifyCrc) throws IOException;
+
+    @Keep
+    private static native String crc32Implementation0();
+
+    @Keep
+    private static native String aesImplementation0();
+
+    @Keep
+    private static native void setAesThreads0(int threads);
+
+    @Keep
+    private static native void setZstdWorkers0(int workers);
 
 
     /**
@@ -666,16 +2842,75 @@ public class ZipFile implements Closeable {
     private static native long readEntryBytes(long jzf, byte[] buf, int off, int len) throws IOException;
 
 
+    /**
+     * Reads at most len bytes from file directly into the memory of a direct buffer
+     *
+     * @param jzf specifies the zip archive
+     * @param buf a direct buffer
+     * @param off offset in buf
+     * @param len bytes len
+     * @return the number of bytes actually read
+     * @throws IOException
+     */
+    @Keep
+    private static native long readEntryBuffer0(long jzf, ByteBuffer buf, int off, int len) throws IOException;
+
+
+    /*Skips n bytes of the entry, seeking when the entry data is stored, returns the number of bytes skipped*/
+    @Keep
+    private static native long skipEntry0(long jzf, long n) throws IOException;
+
+    /*Moves to pos if the entry data supports seeking, returns false otherwise*/
+    @Keep
+    private static native boolean seekEntry0(long jzf, long pos) throws IOException;
+
+    /*Reads to the end of the entry so the crc is checked, rewind rereads stored entries from the start*/
+    @Keep
+    private static native void verifyEntry0(long jzf, boolean rewind) throws IOException;
+
     //Closes file in archive and frees the memory allocated for it
     @Keep
     private static native void closeEntry(long jzf) throws IOException;
 
+
+    /*deflate access point index, see zlib examples/zran.c*/
+    @Keep
+    static native long newDeflateIndex0(long span, long crc, long size, long csize);
+
+    @Keep
+    static native void freeDeflateIndex0(long deflateIndex);
+
+    @Keep
+    private static native boolean isDeflateIndexComplete0(long deflateIndex);
+
+    @Keep
+    static native boolean saveDeflateIndex0(long deflateIndex, String path) throws IOException;
+
+    /*returns 0 if the file was written for an entry with another crc or size*/
+    @Keep
+    static native long loadDeflateIndex0(String path, long crc, long size, long csize) throws IOException;
+
+    /*Opens the raw deflate data of the entry, inflated from the access points of deflateIndex*/
+    @Keep
+    private static native long openIndexReader0(long jzip, long index, long deflateIndex, boolean verifyCrc) throws IOException;
+
+    /*Reads into buffer when it is not null, otherwise into bytes*/
+    @Keep
+    static native long readIndexReader0(long jreader, ByteBuffer buffer, byte[] bytes, int off, int len) throws IOException;
+
+    @Keep
+    static native void seekIndexReader0(long jreader, long pos) throws IOException;
+
+    @Keep
+    static native void closeIndexReader0(long jreader, boolean closeFile);
+
     @Keep
-    private static native void discard0(long jzip);
+    static native void discard0(long jzip);
 
     //Closes archive and frees the memory allocated for it
     @Keep
-    private static native void close0(long jzip, ProgressListener progressListener) throws IOException;
+    private static native void close0(long jzip, ZipFile owner, ProgressListener progressListener,
+                                      WriteProgressListener writeListener, long intervalMillis) throws IOException;
 
 
     // A hack to avoid these constants being inlined by javac...
@@ -0,0 +1,92 @@
+package mao.archive.libzip;
+
+/**
+ * Immutable hash table from raw entry names to entry indexes, built from a directory snapshot.
+ * Open addressing with linear probing over the packed names, so no String is created per entry.
+ * Safe to query from any thread once built.
+ */
+final class ZipNameIndex {
+
+    private final ZipDirectory directory;
+    private final byte[] names;
+    private final int[] hashes;     // hash of each entry name
+    private final int[] table;      // entry index + 1, 0 means empty slot
+    private final int mask;
+
+    ZipNameIndex(ZipDirectory directory) {
+        this.directory = directory;
+        this.names = directory.rawNames();
+        int size = directory.size();
+        int cap = 16;
+        while (cap < size * 2) {
+            cap <<= 1;
+        }
+        this.mask = cap - 1;
+        this.table = new int[cap];
+        this.hashes = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (!directory.isValid(i)) {
+                continue;
+            }
+            int off = directory.nameOffset(i);
+            int len = directory.nameOffset(i + 1) - off;
+            int hash = hash(names, off, len);
+            hashes[i] = hash;
+            //同名entry保留第一个，与zip_name_locate一致
+            if (find(names, off, len, hash) == -1) {
+                int slot = hash & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = i + 1;
+            }
+        }
+    }
+
+    ZipDirectory directory() {
+        return directory;
+    }
+
+    /**
+     * @param rawName encoded name
+     * @param len     length of the name in rawName
+     * @return the entry index, or -1 if there is no such entry
+     */
+    int locate(byte[] rawName, int len) {
+        return find(rawName, 0, len, hash(rawName, 0, len));
+    }
+
+    private int find(byte[] key, int off, int len, int hash) {
+        int slot = hash & mask;
+        int index;
+        while ((index = table[slot]) != 0) {
+            index--;
+            if (hashes[index] == hash && nameEquals(index, key, off, len)) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean nameEquals(int index, byte[] key, int off, int len) {
+        int start = directory.nameOffset(index);
+        if (directory.nameOffset(index + 1) - start != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (names[start + i] != key[off + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] b, int off, int len) {
+        int h = 0x811c9dc5;
+        for (int i = off, end = off + len; i < end; i++) {
+            h = (h ^ (b[i] & 0xff)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+}
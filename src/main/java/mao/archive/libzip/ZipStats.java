@@ -0,0 +1,238 @@
+package mao.archive.libzip;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Operation counters and latency histograms of one {@link ZipFile}, enabled with
+ * {@link ZipFile#setStatsEnabled(boolean)}. Recording takes a few atomic adds per operation.
+ * {@link ZipFile#getStats()} returns a snapshot, which does not change afterwards.
+ * <p>
+ * Latencies are in nanoseconds and include the time spent waiting for the archive lock.
+ * Histogram bucket i counts operations that took less than 2^i ns and at least 2^(i-1) ns.
+ */
+public final class ZipStats {
+
+    /* operations */
+    public static final int OPEN = 0;           // opening the archive
+    public static final int LOOKUP = 1;         // getEntry(String), hasEntry, nameLocate
+    public static final int ENTRY_OPEN = 2;     // getInputStream, getChannel, openChannel
+    public static final int READ = 3;           // one read call on an entry stream or channel
+    public static final int ADD = 4;            // addFile, addBytes, addBuffer, addStream, addDirectory
+    public static final int CLOSE = 5;          // close, including zip_close writing the archive
+
+    /* number of latency histogram buckets */
+    public static final int BUCKETS = 40;
+
+    private static final int OPERATIONS = 6;
+
+    private static final String[] NAMES = {"open", "lookup", "entryOpen", "read", "add", "close"};
+
+    private final AtomicLongArray counts = new AtomicLongArray(OPERATIONS);
+    private final AtomicLongArray times = new AtomicLongArray(OPERATIONS);
+    private final AtomicLongArray maxTimes = new AtomicLongArray(OPERATIONS);
+    private final AtomicLongArray histograms = new AtomicLongArray(OPERATIONS * BUCKETS);
+
+    private final AtomicLong nativeCalls = new AtomicLong();
+    private final AtomicLong lockWaits = new AtomicLong();
+    private final AtomicLong lockWaitTime = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong compressedBytesOpened = new AtomicLong();
+    private final AtomicLong bytesAdded = new AtomicLong();
+
+    ZipStats() {
+    }
+
+    void record(int op, long nanos, boolean nativeCall) {
+        counts.incrementAndGet(op);
+        times.addAndGet(op, nanos);
+        long max;
+        while (nanos > (max = maxTimes.get(op)) && !maxTimes.compareAndSet(op, max, nanos)) {
+        }
+        histograms.incrementAndGet(op * BUCKETS + bucket(nanos));
+        if (nativeCall) {
+            nativeCalls.incrementAndGet();
+        }
+    }
+
+    //以下由ZipFile调用，stats为null时未开启统计，不记录也不调用nanoTime
+
+    static long start(ZipStats stats) {
+        return stats != null ? System.nanoTime() : 0;
+    }
+
+    static void lockAcquired(ZipStats stats, long start) {
+        if (stats != null && start != 0) {
+            stats.lockWaits.incrementAndGet();
+            stats.lockWaitTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    static void end(ZipStats stats, int op, long start, boolean nativeCall) {
+        if (stats != null && start != 0) {
+            stats.record(op, System.nanoTime() - start, nativeCall);
+        }
+    }
+
+    static void added(ZipStats stats, long start, long bytes) {
+        if (stats != null && start != 0) {
+            stats.bytesAdded.addAndGet(bytes);
+            stats.record(ADD, System.nanoTime() - start, true);
+        }
+    }
+
+    //nativeCall为false时从一次性读入或缓存的数据中读取
+    static void read(ZipStats stats, long start, int bytes, boolean nativeCall) {
+        if (stats != null && start != 0) {
+            if (bytes > 0) {
+                stats.bytesRead.addAndGet(bytes);
+            }
+            stats.record(READ, System.nanoTime() - start, nativeCall);
+        }
+    }
+
+    static void entryOpened(ZipStats stats, ZipEntry entry) {
+        if (stats != null) {
+            stats.compressedBytesOpened.addAndGet(entry.getCompressedSize());
+        }
+    }
+
+    //不单独计为操作的native调用，例如填充缓存时的一次性解压
+    static void nativeCall(ZipStats stats) {
+        if (stats != null) {
+            stats.nativeCalls.incrementAndGet();
+        }
+    }
+
+    private static int bucket(long nanos) {
+        int bucket = 64 - Long.numberOfLeadingZeros(nanos);
+        return bucket < BUCKETS ? bucket : BUCKETS - 1;
+    }
+
+    ZipStats snapshot() {
+        ZipStats copy = new ZipStats();
+        for (int i = 0; i < OPERATIONS; i++) {
+            copy.counts.set(i, counts.get(i));
+            copy.times.set(i, times.get(i));
+            copy.maxTimes.set(i, maxTimes.get(i));
+        }
+        for (int i = 0; i < histograms.length(); i++) {
+            copy.histograms.set(i, histograms.get(i));
+        }
+        copy.nativeCalls.set(nativeCalls.get());
+        copy.lockWaits.set(lockWaits.get());
+        copy.lockWaitTime.set(lockWaitTime.get());
+        copy.bytesRead.set(bytesRead.get());
+        copy.compressedBytesOpened.set(compressedBytesOpened.get());
+        copy.bytesAdded.set(bytesAdded.get());
+        return copy;
+    }
+
+    public long getCount(int op) {
+        return counts.get(op);
+    }
+
+    /**
+     * @return total nanoseconds spent in op
+     */
+    public long getTotalTime(int op) {
+        return times.get(op);
+    }
+
+    public long getMaxTime(int op) {
+        return maxTimes.get(op);
+    }
+
+    public long getMeanTime(int op) {
+        long count = counts.get(op);
+        return count == 0 ? 0 : times.get(op) / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound in nanoseconds of the histogram bucket holding the percentile
+     */
+    public long getPercentile(int op, double percentile) {
+        long count = counts.get(op);
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histograms.get(op * BUCKETS + i);
+            if (seen >= rank && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return maxTimes.get(op);
+    }
+
+    /**
+     * @return counts of the {@link #BUCKETS} latency buckets of op
+     */
+    public long[] getHistogram(int op) {
+        long[] histogram = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = histograms.get(op * BUCKETS + i);
+        }
+        return histogram;
+    }
+
+    /**
+     * @return number of recorded operations that called into native code
+     */
+    public long getNativeCalls() {
+        return nativeCalls.get();
+    }
+
+    /**
+     * @return number of times the archive, or pooled reader, lock was taken by a recorded operation
+     */
+    public long getLockWaitCount() {
+        return lockWaits.get();
+    }
+
+    /**
+     * @return nanoseconds spent waiting for the archive, or pooled reader, lock
+     */
+    public long getLockWaitTime() {
+        return lockWaitTime.get();
+    }
+
+    /**
+     * @return uncompressed bytes returned by entry reads
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * @return sum of the compressed sizes of the entries opened for reading
+     */
+    public long getCompressedBytesOpened() {
+        return compressedBytesOpened.get();
+    }
+
+    /**
+     * @return uncompressed bytes of added entries whose size was known when added
+     */
+    public long getBytesAdded() {
+        return bytesAdded.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ZipStats{");
+        for (int i = 0; i < OPERATIONS; i++) {
+            sb.append(NAMES[i]).append('=').append(getCount(i))
+                    .append('/').append(getMeanTime(i)).append("ns, ");
+        }
+        return sb.append("nativeCalls=").append(getNativeCalls())
+                .append(", lockWait=").append(getLockWaitTime()).append("ns")
+                .append(", bytesRead=").append(getBytesRead())
+                .append(", compressedBytesOpened=").append(getCompressedBytesOpened())
+                .append(", bytesAdded=").append(getBytesAdded())
+                .append('}').toString();
+    }
+}
@@ -0,0 +1,75 @@
+package mao.archive.libzip;
+
+import androidx.annotation.Keep;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Called by the native zip source to pull the data of an {@link EntrySource} in chunks.
+ * Errors, including runtime exceptions of the user's stream, are kept here instead of
+ * being thrown into native code.
+ */
+@Keep
+final class ZipStreamSource {
+
+    private final EntrySource source;
+    private ReadableByteChannel channel;
+    private Exception failure;     // IOException or RuntimeException
+
+    ZipStreamSource(EntrySource source) {
+        this.source = source;
+    }
+
+    Exception getFailure() {
+        return failure;
+    }
+
+    @Keep
+    boolean open() {
+        close();
+        try {
+            channel = source.open();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            return false;
+        }
+    }
+
+    /**
+     * Fills buffer, which wraps native memory
+     *
+     * @return the number of bytes read, 0 at end of data, -1 on error
+     */
+    @Keep
+    int read(ByteBuffer buffer) {
+        buffer.clear();
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            return buffer.position();
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            return -1;
+        }
+    }
+
+    @Keep
+    void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException | RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package mao.archive.libzip;
+
+import androidx.annotation.Keep;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Called by the native zip source of a streaming writer to push the archive in chunks.
+ * Errors, including runtime exceptions of the user's channel, are kept here instead of
+ * being thrown into native code.
+ */
+@Keep
+final class ZipStreamTarget {
+
+    private final WritableByteChannel channel;
+    private final Flushable flushable;
+    private Exception failure;     // IOException or RuntimeException
+
+    ZipStreamTarget(WritableByteChannel channel, Flushable flushable) {
+        this.channel = channel;
+        this.flushable = flushable;
+    }
+
+    Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * Writes the first length bytes of buffer, which wraps native memory
+     *
+     * @return false on error
+     */
+    @Keep
+    boolean write(ByteBuffer buffer, int length) {
+        buffer.clear();
+        buffer.limit(length);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            return false;
+        }
+    }
+
+    @Keep
+    boolean flush() {
+        if (flushable == null) {
+            return true;
+        }
+        try {
+            flushable.flush();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            return false;
+        }
+    }
+}